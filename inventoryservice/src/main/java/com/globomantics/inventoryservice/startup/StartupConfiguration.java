@@ -0,0 +1,24 @@
+package com.globomantics.inventoryservice.startup;
+
+import com.globomantics.servicesupport.startup.TrainingRun;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Registers the TrainingRun that makes a run with inventory.startup.training-run a training run for the class data
+ * sharing archive.
+ */
+@Configuration(proxyBeanMethods = false)
+public class StartupConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(name = "inventory.startup.training-run", havingValue = "true")
+    public TrainingRun trainingRun(
+            @Value("${inventory.startup.training-requests:/actuator/health}") List<String> trainingRequests) {
+        return new TrainingRun(trainingRequests);
+    }
+}
@@ -0,0 +1,39 @@
+package com.globomantics.inventoryservice.web;
+
+import com.globomantics.servicesupport.web.ConcurrencyEndpoint;
+import com.globomantics.servicesupport.web.ConcurrencyLimitFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.util.List;
+
+/**
+ * Limits the requests in flight on each route with the shared ConcurrencyLimitFilter, configured by
+ * inventory.concurrency.*, and exposes its limits at {@code /actuator/concurrency}.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "inventory.concurrency.enabled", havingValue = "true", matchIfMissing = true)
+public class ConcurrencyConfiguration {
+
+    @Bean
+    public ConcurrencyLimitFilter concurrencyLimitFilter(
+            @Value("${inventory.concurrency.excluded-routes:}") List<String> excludedRoutes,
+            @Qualifier("requestMappingHandlerMapping") ObjectProvider<RequestMappingHandlerMapping> handlerMapping,
+            Environment environment,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        return new ConcurrencyLimitFilter("inventory.concurrency", excludedRoutes, handlerMapping, environment,
+                meterRegistry);
+    }
+
+    @Bean
+    public ConcurrencyEndpoint concurrencyEndpoint(ConcurrencyLimitFilter concurrencyLimitFilter) {
+        return new ConcurrencyEndpoint(concurrencyLimitFilter);
+    }
+}
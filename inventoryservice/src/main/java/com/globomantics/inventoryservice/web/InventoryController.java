@@ -46,7 +46,8 @@ public class InventoryController {
 
     @PostMapping("/inventory/purchase-record")
     public ResponseEntity<?> addPurchaseRecord(@RequestBody PurchaseRecord purchaseRecord) {
-        logger.info("Creating new purchase record: {}", purchaseRecord);
+        logger.info("Creating new purchase record for product id: {}, quantity: {}",
+                purchaseRecord.getProductId(), purchaseRecord.getQuantityPurchased());
 
         return inventoryService.purchaseProduct(purchaseRecord.getProductId(), purchaseRecord.getQuantityPurchased())
                 .map(inventoryRecord -> {
@@ -0,0 +1,223 @@
+package com.globomantics.loadgenerator;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives scenarios with an open workload model: each scenario starts its requests on a fixed schedule, rate
+ * times per second, whether or not the earlier requests have been answered. A service that slows down therefore
+ * faces the same arrival rate and builds a queue, as it would in production, rather than being offered less load
+ * by a client that waits; this is the coordinated omission of closed-loop load generators. The latency of each
+ * request is measured from the time it was scheduled to start, so a request that was sent late because its
+ * scenario's thread fell behind is still charged for the wait.
+ *
+ * <p>The requests of the warmup are sent but not counted. Outstanding requests are capped, and a request that
+ * would exceed the cap is dropped instead of sent, so that a stalled service cannot exhaust the generator's memory.
+ * A dropped request is still recorded with the latency of a request that timed out, as leaving it out would hide
+ * the very stall that caused it.
+ */
+public class ConstantArrivalRate {
+
+    private static final Logger logger = LogManager.getLogger(ConstantArrivalRate.class);
+
+    private final HttpClient client;
+    private final Duration warmup;
+    private final Duration duration;
+    private final Duration requestTimeout;
+    private final int maxOutstanding;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * @param client            The client to send the requests with.
+     * @param warmup            How long to run before measuring.
+     * @param duration          How long to measure.
+     * @param requestTimeout    How long to wait for a response before counting the request as timed out.
+     * @param maxOutstanding    The most requests to have outstanding, across all scenarios.
+     */
+    public ConstantArrivalRate(HttpClient client, Duration warmup, Duration duration, Duration requestTimeout,
+                               int maxOutstanding) {
+        this.client = client;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.requestTimeout = requestTimeout;
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /**
+     * Runs the scenarios side by side, each on its own thread, and waits for their last requests to complete.
+     *
+     * @param scenarios The scenarios to run.
+     * @return          The throughput and latency of each scenario.
+     * @throws InterruptedException If interrupted while the scenarios run.
+     */
+    public LoadReport run(List<Scenario> scenarios) throws InterruptedException {
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        Instant startedAt = Instant.now().plusNanos(measureFrom - System.nanoTime());
+
+        List<Results> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            Results scenarioResults = new Results(scenario);
+            results.add(scenarioResults);
+            Thread thread = new Thread(() -> drive(scenario, scenarioResults, start, measureFrom, end),
+                    "load-" + scenario.name());
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+        logger.info("Running {} scenarios for {} after a warmup of {}", scenarios.size(), duration, warmup);
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Every request has a timeout, so the last ones complete soon after it
+        long drainDeadline = System.nanoTime() + requestTimeout.toNanos() + TimeUnit.SECONDS.toNanos(5);
+        while (outstanding.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        if (outstanding.get() > 0) {
+            logger.warn("{} requests were still outstanding at the end of the run", outstanding.get());
+        }
+
+        double seconds = duration.toNanos() / 1e9;
+        return new LoadReport(startedAt.toString(), warmup.toNanos() / 1e9, seconds,
+                results.stream().map(scenarioResults -> scenarioResults.report(seconds)).toList());
+    }
+
+    private void drive(Scenario scenario, Results results, long start, long measureFrom, long end) {
+        double intervalNanos = 1e9 / scenario.rate();
+        for (long i = 0; ; i++) {
+            long scheduled = start + (long) (i * intervalNanos);
+            if (scheduled >= end) {
+                return;
+            }
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measured = scheduled >= measureFrom;
+
+            if (outstanding.incrementAndGet() > maxOutstanding) {
+                outstanding.decrementAndGet();
+                if (measured) {
+                    results.recordDropped(requestTimeout);
+                }
+                continue;
+            }
+
+            HttpRequest request;
+            try {
+                request = HttpRequest.newBuilder(scenario.requests().get(), (uri, method) -> true)
+                        .timeout(requestTimeout)
+                        .build();
+            } catch (RuntimeException e) {
+                outstanding.decrementAndGet();
+                logger.error("Could not create the next {} request", scenario.name(), e);
+                return;
+            }
+            if (measured) {
+                results.sent.increment();
+            }
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        long latencyNanos = System.nanoTime() - scheduled;
+                        outstanding.decrementAndGet();
+                        if (measured) {
+                            results.record(latencyNanos, response, error);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * The counters and latency histogram of one scenario, updated by the client's threads.
+     */
+    private static final class Results {
+
+        private final Scenario scenario;
+        private final Histogram latencyMicros = new ConcurrentHistogram(3);
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder successful = new LongAdder();
+        private final Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        Results(Scenario scenario) {
+            this.scenario = scenario;
+        }
+
+        void record(long latencyNanos, HttpResponse<?> response, Throwable error) {
+            latencyMicros.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+            completed.increment();
+
+            String status;
+            if (response != null) {
+                status = Integer.toString(response.statusCode());
+                if (response.statusCode() < 400) {
+                    successful.increment();
+                }
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                status = cause instanceof HttpTimeoutException ? "timeout" : "error";
+            }
+            statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+        }
+
+        void recordDropped(Duration requestTimeout) {
+            latencyMicros.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(requestTimeout.toNanos())));
+            dropped.increment();
+        }
+
+        LoadReport.EndpointReport report(double seconds) {
+            Map<String, Long> statusCounts = new TreeMap<>();
+            statuses.forEach((status, count) -> statusCounts.put(status, count.sum()));
+
+            ByteBuffer buffer = ByteBuffer.allocate(latencyMicros.getNeededByteBufferCapacity());
+            int length = latencyMicros.encodeIntoCompressedByteBuffer(buffer);
+
+            return new LoadReport.EndpointReport(scenario.name(), scenario.method(), scenario.path(),
+                    scenario.rate(), sent.sum(), dropped.sum(), completed.sum(), successful.sum(), statusCounts,
+                    completed.sum() / seconds, successful.sum() / seconds,
+                    new LoadReport.Latency(
+                            latencyMicros.getMean() / 1000,
+                            percentile(50),
+                            percentile(90),
+                            percentile(99),
+                            percentile(99.9),
+                            percentile(99.99),
+                            latencyMicros.getMaxValue() / 1000.0),
+                    Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length)));
+        }
+
+        private double percentile(double percentile) {
+            return latencyMicros.getValueAtPercentile(percentile) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.globomantics.loadgenerator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Starts the services in this JVM, seeds them with products and reviews, drives every scenario at its own
+ * constant arrival rate and writes a JSON report of the throughput and latency percentiles per endpoint.
+ *
+ * <p>Options, all optional:
+ * <ul>
+ *     <li>--scenarios: the scenarios to run, comma separated; all of them by default. The review service, and
+ *     MongoDB with it, is only started when a review scenario runs.</li>
+ *     <li>--rate.{scenario}: the requests per second of a scenario, overriding its default.</li>
+ *     <li>--duration: how long to measure, 60s by default.</li>
+ *     <li>--warmup: how long to run before measuring, 15s by default.</li>
+ *     <li>--products: how many products to create before the run, 1000 by default.</li>
+ *     <li>--inventory-manager-latency: how long the inventory manager stand-in takes to answer, 10ms by
+ *     default.</li>
+ *     <li>--request-timeout: how long to wait for a response, 10s by default.</li>
+ *     <li>--max-outstanding: the most requests in flight before requests are dropped, 10000 by default.</li>
+ *     <li>--report: where to write the report, target/load-report.json by default.</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    private static final Logger logger = LogManager.getLogger(LoadGenerator.class);
+
+    /**
+     * The scenarios and their default rates, a read-heavy mix.
+     */
+    private static final Map<String, Double> DEFAULT_RATES = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_RATES.put("product", 200.0);
+        DEFAULT_RATES.put("product-create", 10.0);
+        DEFAULT_RATES.put("products", 5.0);
+        DEFAULT_RATES.put("product-reserve", 20.0);
+        DEFAULT_RATES.put("inventory", 100.0);
+        DEFAULT_RATES.put("purchase-record", 20.0);
+        DEFAULT_RATES.put("review-entry", 20.0);
+        DEFAULT_RATES.put("reviews", 100.0);
+    }
+
+    private static final Set<String> REVIEW_SCENARIOS = Set.of("review-entry", "reviews");
+
+    // Only this many of the seeded products are reviewed before the run
+    private static final int REVIEWED_PRODUCTS = 100;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT);
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        List<String> names = options.containsProperty("scenarios")
+                ? Arrays.stream(options.getProperty("scenarios").split(",")).map(String::trim).toList()
+                : List.copyOf(DEFAULT_RATES.keySet());
+        for (String name : names) {
+            if (!DEFAULT_RATES.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown scenario " + name + ", expected one of "
+                        + DEFAULT_RATES.keySet());
+            }
+        }
+        boolean reviews = names.stream().anyMatch(REVIEW_SCENARIOS::contains);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        LoadReport report;
+        try (LocalServices services = LocalServices.start(reviews,
+                duration(options, "inventory-manager-latency", "10ms"))) {
+            List<Integer> productIds = createProducts(client, services.productService(),
+                    Integer.parseInt(option(options, "products", "1000")));
+            if (reviews) {
+                reviewProducts(client, services.reviewService(),
+                        productIds.subList(0, Math.min(REVIEWED_PRODUCTS, productIds.size())));
+            }
+
+            Map<String, Function<Double, Scenario>> available = scenarios(services, productIds);
+            List<Scenario> scenarios = new ArrayList<>();
+            for (String name : names) {
+                double rate = Double.parseDouble(option(options, "rate." + name,
+                        Double.toString(DEFAULT_RATES.get(name))));
+                if (rate > 0) {
+                    scenarios.add(available.get(name).apply(rate));
+                }
+            }
+
+            report = new ConstantArrivalRate(client,
+                    duration(options, "warmup", "15s"),
+                    duration(options, "duration", "60s"),
+                    duration(options, "request-timeout", "10s"),
+                    Integer.parseInt(option(options, "max-outstanding", "10000")))
+                    .run(scenarios);
+        }
+
+        Path path = Path.of(option(options, "report", "target/load-report.json"));
+        if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        objectMapper.writeValue(path.toFile(), report);
+
+        for (LoadReport.EndpointReport endpoint : report.endpoints()) {
+            logger.info("{} {}: {} req/s ({} ok), p50 {} ms, p99 {} ms, p99.9 {} ms, max {} ms, statuses {}",
+                    endpoint.method(), endpoint.path(),
+                    String.format("%.1f", endpoint.throughput()),
+                    String.format("%.1f", endpoint.successfulThroughput()),
+                    Unbox.box(endpoint.latencyMillis().p50()), Unbox.box(endpoint.latencyMillis().p99()),
+                    Unbox.box(endpoint.latencyMillis().p999()), Unbox.box(endpoint.latencyMillis().max()),
+                    endpoint.statuses());
+        }
+        logger.info("Wrote {}", path.toAbsolutePath());
+        LogManager.shutdown();
+    }
+
+    /**
+     * The scenarios by name, each created with its rate. The requests read and write the seeded products, and
+     * the products and reviews that the writes create.
+     */
+    static Map<String, Function<Double, Scenario>> scenarios(LocalServices services, List<Integer> productIds) {
+        URI product = services.productService();
+        URI inventory = services.inventoryService();
+        URI review = services.reviewService();
+        List<Integer> reviewed = productIds.subList(0, Math.min(REVIEWED_PRODUCTS, productIds.size()));
+        AtomicLong created = new AtomicLong();
+
+        Map<String, Function<Double, Scenario>> scenarios = new LinkedHashMap<>();
+        scenarios.put("product", rate -> new Scenario("product", "GET", "/product/{id}", rate,
+                () -> HttpRequest.newBuilder(product.resolve("/product/" + any(productIds))).GET().build()));
+        scenarios.put("product-create", rate -> new Scenario("product-create", "POST", "/product", rate,
+                () -> json(product.resolve("/product"), "{\"name\":\"Load test product "
+                        + created.incrementAndGet() + "\",\"quantity\":100}")));
+        scenarios.put("products", rate -> new Scenario("products", "GET", "/products", rate,
+                () -> HttpRequest.newBuilder(product.resolve("/products")).GET().build()));
+        scenarios.put("product-reserve", rate -> new Scenario("product-reserve", "POST", "/product/{id}/reserve",
+                rate, () -> json(product.resolve("/product/" + any(productIds) + "/reserve"), "{\"quantity\":1}")));
+        scenarios.put("inventory", rate -> new Scenario("inventory", "GET", "/inventory/{id}", rate,
+                () -> HttpRequest.newBuilder(inventory.resolve("/inventory/" + any(productIds))).GET().build()));
+        scenarios.put("purchase-record", rate -> new Scenario("purchase-record", "POST",
+                "/inventory/purchase-record", rate,
+                () -> json(inventory.resolve("/inventory/purchase-record"),
+                        "{\"productId\":" + any(productIds) + ",\"quantityPurchased\":1}")));
+        scenarios.put("review-entry", rate -> new Scenario("review-entry", "POST", "/review/{productId}/entry", rate,
+                () -> json(review.resolve("/review/" + any(reviewed) + "/entry"),
+                        "{\"username\":\"loadtest\",\"review\":\"Reviewed under load\"}")));
+        scenarios.put("reviews", rate -> new Scenario("reviews", "GET", "/reviews?productId={productId}", rate,
+                () -> HttpRequest.newBuilder(review.resolve("/reviews?productId=" + any(reviewed))).GET().build()));
+        return scenarios;
+    }
+
+    /**
+     * Creates the products in batches and returns their IDs.
+     */
+    private static List<Integer> createProducts(HttpClient client, URI productService, int count)
+            throws IOException, InterruptedException {
+        List<Integer> ids = new ArrayList<>(count);
+        for (int first = 0; first < count; first += 500) {
+            String batch = IntStream.range(first, Math.min(count, first + 500))
+                    .mapToObj(i -> "{\"name\":\"Product " + i + "\",\"quantity\":" + (100 + i % 900) + "}")
+                    .collect(Collectors.joining(",", "[", "]"));
+            HttpResponse<String> response = send(client,
+                    json(productService.resolve("/products/batch"), batch), 201);
+            for (JsonNode created : objectMapper.readTree(response.body())) {
+                ids.add(created.get("id").asInt());
+            }
+        }
+        logger.info("Created {} products", Unbox.box(ids.size()));
+        return ids;
+    }
+
+    /**
+     * Adds a review entry for each of the products.
+     */
+    private static void reviewProducts(HttpClient client, URI reviewService, List<Integer> productIds)
+            throws IOException, InterruptedException {
+        for (Integer productId : productIds) {
+            send(client, json(reviewService.resolve("/review/" + productId + "/entry"),
+                    "{\"username\":\"seed\",\"review\":\"Seeded before the run\"}"), 200);
+        }
+        logger.info("Reviewed {} products", Unbox.box(productIds.size()));
+    }
+
+    private static HttpResponse<String> send(HttpClient client, HttpRequest request, int expectedStatus)
+            throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != expectedStatus) {
+            throw new IllegalStateException(request.method() + " " + request.uri() + " returned "
+                    + response.statusCode() + ": " + response.body());
+        }
+        return response;
+    }
+
+    private static HttpRequest json(URI uri, String body) {
+        return HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static Integer any(List<Integer> ids) {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        String value = options.getProperty(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static Duration duration(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        return DurationStyle.detectAndParse(option(options, name, defaultValue));
+    }
+}
@@ -0,0 +1,52 @@
+package com.globomantics.loadgenerator;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a load test, written as JSON.
+ *
+ * @param startedAt         When the measurement started, as an ISO-8601 instant.
+ * @param warmupSeconds     How long the load ran before the measurement started.
+ * @param durationSeconds   How long the measurement ran.
+ * @param endpoints         The result of each scenario.
+ */
+public record LoadReport(String startedAt, double warmupSeconds, double durationSeconds,
+                         List<EndpointReport> endpoints) {
+
+    /**
+     * The result of one scenario. Only the requests scheduled to start during the measurement are counted.
+     *
+     * @param scenario              The name of the scenario.
+     * @param method                The HTTP method of the endpoint.
+     * @param path                  The path template of the endpoint.
+     * @param targetRate            The requests per second that the scenario was to start.
+     * @param sent                  The requests sent.
+     * @param dropped               The requests not sent because too many were outstanding; a sign that the
+     *                              service fell far behind the arrival rate.
+     * @param completed             The requests that got a response or failed.
+     * @param successful            The requests answered with a 2xx or 3xx status.
+     * @param statuses              The number of requests by response status, or by "timeout" or "error" for the
+     *                              requests that got no response.
+     * @param throughput            The completed requests per second.
+     * @param successfulThroughput  The successful requests per second.
+     * @param latencyMillis         The latency percentiles of the completed and the dropped requests, which are
+     *                              recorded with the request timeout.
+     * @param histogram             The latency histogram in microseconds of the completed and the dropped
+     *                              requests, in HdrHistogram's compressed, base64 encoded form, for merging the
+     *                              results of several runs.
+     */
+    public record EndpointReport(String scenario, String method, String path, double targetRate,
+                                 long sent, long dropped, long completed, long successful,
+                                 Map<String, Long> statuses, double throughput, double successfulThroughput,
+                                 Latency latencyMillis, String histogram) {
+    }
+
+    /**
+     * Latency percentiles in milliseconds, measured from when each request was scheduled to start, not from
+     * when it was sent, so that time a request spent waiting behind a slow one is counted.
+     */
+    public record Latency(double mean, double p50, double p90, double p99, double p999, double p9999,
+                          double max) {
+    }
+}
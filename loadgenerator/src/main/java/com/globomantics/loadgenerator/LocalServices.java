@@ -0,0 +1,216 @@
+package com.globomantics.loadgenerator;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.globomantics.inventoryservice.InventoryserviceApplication;
+import com.globomantics.productservice.ProductserviceApplication;
+import com.pluralsight.reviewservice.ReviewserviceApplication;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * Runs the product, inventory and review services in this JVM, each in its own application context on a random
+ * port: the product service against its embedded H2 database, the review service against the embedded MongoDB
+ * that it starts itself, and the inventory service against a WireMock stand-in for the inventory manager, which
+ * answers for any product after a configurable delay.
+ *
+ * <p>The services share one classpath, where only one of their application.properties files can be found. Each
+ * context is therefore given the application.properties from its own jar, read directly, and told to look for no
+ * other. The auto-configuration that one service's dependencies would trigger in the others, such as a MongoDB
+ * client in the product service, is excluded.
+ */
+public class LocalServices implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(LocalServices.class);
+
+    private static final List<String> MONGO_AUTO_CONFIGURATION = List.of(
+            "org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.mongo.MongoRepositoriesAutoConfiguration",
+            "de.flapdoodle.embed.mongo.spring.autoconfigure.EmbeddedMongoAutoConfiguration");
+
+    private static final List<String> JDBC_AUTO_CONFIGURATION = List.of(
+            "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration",
+            "org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration",
+            "org.springframework.boot.autoconfigure.sql.init.SqlInitializationAutoConfiguration");
+
+    private static final String INVENTORY_RECORD = """
+            {"productId": {{request.pathSegments.[1]}}, "quantity": %d, \
+            "productName": "Product {{request.pathSegments.[1]}}", "productCategory": "Load test"}""";
+
+    private final WireMockServer inventoryManager;
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+    private final Path workDirectory;
+    private URI productService;
+    private URI inventoryService;
+    private URI reviewService;
+
+    private LocalServices(WireMockServer inventoryManager, Path workDirectory) {
+        this.inventoryManager = inventoryManager;
+        this.workDirectory = workDirectory;
+    }
+
+    /**
+     * Starts the services.
+     *
+     * @param reviews                   Whether to start the review service, which needs MongoDB.
+     * @param inventoryManagerLatency   How long the inventory manager stand-in takes to answer.
+     * @return                          The running services, to be closed when done.
+     */
+    public static LocalServices start(boolean reviews, Duration inventoryManagerLatency) throws IOException {
+        WireMockServer inventoryManager = new WireMockServer(options()
+                .dynamicPort()
+                .containerThreads(200)
+                .asynchronousResponseEnabled(true)
+                .asynchronousResponseThreads(20)
+                .disableRequestJournal());
+        inventoryManager.start();
+
+        LocalServices services = new LocalServices(inventoryManager, Files.createTempDirectory("loadgenerator"));
+        try {
+            services.stubInventoryManager((int) inventoryManagerLatency.toMillis());
+            services.productService = services.startService(ProductserviceApplication.class, MONGO_AUTO_CONFIGURATION,
+                    Map.of("products.snapshot.path", services.workDirectory.resolve("catalog.snapshot").toString(),
+                            "products.precompressed.directory",
+                            services.workDirectory.resolve("precompressed").toString()));
+            services.inventoryService = services.startService(InventoryserviceApplication.class,
+                    concat(MONGO_AUTO_CONFIGURATION, JDBC_AUTO_CONFIGURATION),
+                    Map.of("inventorymanager.baseUrl", inventoryManager.baseUrl() + "/inventory"));
+            if (reviews) {
+                int mongoPort = freePort();
+                services.reviewService = services.startService(ReviewserviceApplication.class,
+                        JDBC_AUTO_CONFIGURATION,
+                        Map.of("spring.data.mongodb.port", Integer.toString(mongoPort),
+                                "spring.data.mongodb.uri", "mongodb://localhost:" + mongoPort + "/loadtest"));
+            }
+        } catch (RuntimeException | IOException e) {
+            services.close();
+            throw e;
+        }
+        return services;
+    }
+
+    public URI productService() {
+        return productService;
+    }
+
+    public URI inventoryService() {
+        return inventoryService;
+    }
+
+    /**
+     * @return  The review service, or null if it was not started.
+     */
+    public URI reviewService() {
+        return reviewService;
+    }
+
+    @Override
+    public void close() {
+        for (int i = contexts.size() - 1; i >= 0; i--) {
+            contexts.get(i).close();
+        }
+        inventoryManager.stop();
+        try {
+            FileSystemUtils.deleteRecursively(workDirectory);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}", workDirectory, e);
+        }
+    }
+
+    private void stubInventoryManager(int latencyMillis) {
+        inventoryManager.stubFor(get(urlPathMatching("/inventory/[0-9]+"))
+                .willReturn(inventoryRecord(500, latencyMillis)));
+        inventoryManager.stubFor(post(urlPathMatching("/inventory/[0-9]+/purchaseRecord"))
+                .willReturn(inventoryRecord(499, latencyMillis)));
+    }
+
+    private static ResponseDefinitionBuilder inventoryRecord(int quantity, int latencyMillis) {
+        return aResponse()
+                .withHeader("Content-Type", "application/json")
+                .withBody(INVENTORY_RECORD.formatted(quantity))
+                .withTransformers("response-template")
+                .withFixedDelay(latencyMillis);
+    }
+
+    private URI startService(Class<?> application, List<String> excludedAutoConfiguration,
+                             Map<String, String> properties) throws IOException {
+        long started = System.nanoTime();
+
+        Map<String, Object> defaults = new HashMap<>();
+        ownProperties(application).forEach((name, value) -> defaults.put((String) name, value));
+        // No file by this name exists, so the first application.properties on the classpath is not loaded
+        defaults.put("spring.config.name", "loadgenerator-" + application.getSimpleName());
+        defaults.put("spring.autoconfigure.exclude", String.join(",", excludedAutoConfiguration));
+
+        List<String> args = new ArrayList<>(List.of("--server.port=0", "--spring.main.banner-mode=off"));
+        properties.forEach((name, value) -> args.add("--" + name + "=" + value));
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(application)
+                .main(application)
+                .properties(defaults)
+                .run(args.toArray(String[]::new));
+        contexts.add(context);
+
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        logger.info("Started {} on port {} in {} ms", application.getSimpleName(), Unbox.box(port),
+                Unbox.box((System.nanoTime() - started) / 1_000_000));
+        return URI.create("http://localhost:" + port);
+    }
+
+    /**
+     * Reads the application.properties file from the jar or directory that the application class was loaded from.
+     */
+    private static Properties ownProperties(Class<?> application) throws IOException {
+        URL location = application.getProtectionDomain().getCodeSource().getLocation();
+        URL file = location.getPath().endsWith(".jar")
+                ? new URL("jar:" + location + "!/application.properties")
+                : new URL(location, "application.properties");
+
+        Properties properties = new Properties();
+        try (InputStream in = file.openStream()) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + file, e);
+        }
+        return properties;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static List<String> concat(List<String> first, List<String> second) {
+        List<String> all = new ArrayList<>(first);
+        all.addAll(second);
+        return all;
+    }
+}
@@ -0,0 +1,16 @@
+package com.globomantics.loadgenerator;
+
+import java.net.http.HttpRequest;
+import java.util.function.Supplier;
+
+/**
+ * One endpoint driven at a constant arrival rate.
+ *
+ * @param name      The name of the scenario, which its rate is configured by.
+ * @param method    The HTTP method of the endpoint, for the report.
+ * @param path      The path template of the endpoint, for the report.
+ * @param rate      The number of requests to start per second.
+ * @param requests  Creates the next request to send; called from a single thread.
+ */
+public record Scenario(String name, String method, String path, double rate, Supplier<HttpRequest> requests) {
+}
@@ -0,0 +1,263 @@
+package com.globomantics.loadgenerator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * Measures how quickly each service becomes useful: it starts the service in a new JVM, sends it a request every
+ * few milliseconds until one succeeds, and records the time from launching the JVM to that first successful
+ * response, then the resident set size of the process. Each service is measured in four modes, so the effect of
+ * each fast-start measure shows on its own:
+ * <ul>
+ *     <li>baseline: the fast-start jar as it is, with the JDK's own class data sharing archive only.</li>
+ *     <li>cds: with the application's class data sharing archive.</li>
+ *     <li>lazy: with the fast-start profile, which initializes beans lazily.</li>
+ *     <li>fast-start: with both.</li>
+ * </ul>
+ *
+ * <p>The services must have been built with mvn -P fast-start package first. The inventory service is pointed at
+ * a WireMock stand-in for the inventory manager; the review service starts its embedded MongoDB, as it does
+ * outside of tests, whose separate process is not part of the resident set size. Options, all optional:
+ * --services (productservice,inventoryservice,reviewservice), --modes (all four), --runs (5), --root, the
+ * directory that holds the services (..), and --report (target/startup-report.json).
+ */
+public class StartupBenchmark {
+
+    private static final Logger logger = LogManager.getLogger(StartupBenchmark.class);
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    /**
+     * The time to first successful request and resident set size of one service in one mode, with the median of
+     * the runs.
+     */
+    public record Result(String service, String mode, List<Double> timeToFirstSuccessMillis,
+                         List<Double> rssMegabytes, double medianTimeToFirstSuccessMillis,
+                         double medianRssMegabytes) {
+    }
+
+    /**
+     * The results of a benchmark run.
+     *
+     * @param javaVersion   The version of the JVM that the services ran on.
+     * @param results       The result of every service in every mode.
+     */
+    public record StartupReport(String javaVersion, List<Result> results) {
+    }
+
+    private record Service(String name, String probePath, List<String> arguments) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        Path root = Path.of(option(options, "root", ".."));
+        List<String> names = list(option(options, "services", "productservice,inventoryservice,reviewservice"));
+        List<String> modes = list(option(options, "modes", "baseline,cds,lazy,fast-start"));
+        int runs = Integer.parseInt(option(options, "runs", "5"));
+
+        WireMockServer inventoryManager = new WireMockServer(options().dynamicPort());
+        inventoryManager.start();
+        inventoryManager.stubFor(get(urlPathMatching("/inventory/[0-9]+")).willReturn(aResponse()
+                .withHeader("Content-Type", "application/json")
+                .withBody("{\"productId\": 1, \"quantity\": 500, \"productName\": \"Product 1\", "
+                        + "\"productCategory\": \"Benchmark\"}")));
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (String name : names) {
+                Service service = switch (name) {
+                    case "productservice" -> new Service(name, "/products", List.of());
+                    case "inventoryservice" -> new Service(name, "/inventory/1",
+                            List.of("--inventorymanager.baseUrl=" + inventoryManager.baseUrl() + "/inventory"));
+                    case "reviewservice" -> new Service(name, "/reviews", List.of());
+                    default -> throw new IllegalArgumentException("Unknown service " + name);
+                };
+                for (String mode : modes) {
+                    results.add(measure(root.resolve(name).resolve("target").resolve("fast-start"), service, mode,
+                            runs));
+                }
+            }
+        } finally {
+            inventoryManager.stop();
+        }
+
+        Path path = Path.of(option(options, "report", "target/startup-report.json"));
+        if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(path.toFile(), new StartupReport(System.getProperty("java.version"), results));
+
+        for (Result result : results) {
+            logger.info("{} {}: first successful request after {} ms, RSS {} MB", result.service(), result.mode(),
+                    String.format("%.0f", result.medianTimeToFirstSuccessMillis()),
+                    String.format("%.1f", result.medianRssMegabytes()));
+        }
+        logger.info("Wrote {}", path.toAbsolutePath());
+        LogManager.shutdown();
+    }
+
+    private static Result measure(Path directory, Service service, String mode, int runs)
+            throws IOException, InterruptedException {
+        Path jar = findJar(directory);
+        Path archive = directory.resolve(service.name() + ".jsa");
+
+        List<String> jvmOptions = new ArrayList<>();
+        if (mode.equals("cds") || mode.equals("fast-start")) {
+            if (!Files.exists(archive)) {
+                throw new IllegalStateException("No class data sharing archive at " + archive
+                        + ", build it with mvn -P fast-start package");
+            }
+            jvmOptions.add("-XX:SharedArchiveFile=" + archive.toAbsolutePath());
+        } else if (!mode.equals("baseline") && !mode.equals("lazy")) {
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+        if (mode.equals("lazy") || mode.equals("fast-start")) {
+            jvmOptions.add("-Dspring.profiles.active=fast-start");
+        }
+
+        List<Double> times = new ArrayList<>();
+        List<Double> rss = new ArrayList<>();
+        for (int run = 0; run < runs; run++) {
+            int port = freePort();
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmOptions);
+            command.add("-jar");
+            command.add(jar.toAbsolutePath().toString());
+            command.add("--server.port=" + port);
+            if (service.name().equals("reviewservice")) {
+                int mongoPort = freePort();
+                command.add("--spring.data.mongodb.port=" + mongoPort);
+                command.add("--spring.data.mongodb.uri=mongodb://localhost:" + mongoPort + "/test");
+            }
+            command.addAll(service.arguments());
+
+            Path log = Files.createTempFile(service.name() + "-" + mode + "-", ".log");
+            long launched = System.nanoTime();
+            Process process = new ProcessBuilder(command)
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(log.toFile())
+                    .start();
+            try {
+                long firstSuccess = awaitFirstSuccess(process, URI.create("http://localhost:" + port
+                        + service.probePath()), launched, log);
+                times.add((firstSuccess - launched) / 1e6);
+                rss.add(residentSetMegabytes(process.pid()));
+                logger.info("{} {} run {}: {} ms, {} MB", service.name(), mode, Unbox.box(run + 1),
+                        String.format("%.0f", times.get(run)), String.format("%.1f", rss.get(run)));
+            } finally {
+                process.destroy();
+                if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+            Files.deleteIfExists(log);
+        }
+        return new Result(service.name(), mode, times, rss, median(times), median(rss));
+    }
+
+    /**
+     * Polls the URI until it answers with a 2xx status and returns the time of that answer.
+     */
+    private static long awaitFirstSuccess(Process process, URI uri, long launched, Path log)
+            throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(10)).build();
+        while (System.nanoTime() - launched < STARTUP_TIMEOUT.toNanos()) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException(uri + " exited with status " + process.exitValue()
+                        + " before answering, see " + log);
+            }
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() / 100 == 2) {
+                    return System.nanoTime();
+                }
+            } catch (ConnectException e) {
+                // Not listening yet
+            }
+            Thread.sleep(5);
+        }
+        throw new IllegalStateException(uri + " did not answer within " + STARTUP_TIMEOUT + ", see " + log);
+    }
+
+    /**
+     * Reads the resident set size of a process from /proc, or returns NaN where there is none.
+     */
+    private static double residentSetMegabytes(long pid) throws IOException {
+        Path status = Path.of("/proc", Long.toString(pid), "status");
+        if (!Files.exists(status)) {
+            return Double.NaN;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024.0;
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static Path findJar(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalStateException("No fast-start build in " + directory
+                    + ", build it with mvn -P fast-start package");
+        }
+        try (Stream<Path> jars = Files.list(directory)) {
+            return jars.filter(path -> path.getFileName().toString().endsWith("-fast-start.jar"))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No fast-start jar in " + directory));
+        }
+    }
+
+    private static double median(List<Double> values) {
+        double[] sorted = values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static List<String> list(String value) {
+        return Arrays.stream(value.split(",")).map(String::trim).filter(name -> !name.isEmpty()).toList();
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        String value = options.getProperty(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,74 @@
+package com.globomantics.loadgenerator;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
+import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+
+/**
+ * Tests that the load keeps arriving on schedule however slowly the service answers.
+ */
+@WireMockTest
+class ConstantArrivalRateTest {
+
+    @Test
+    @DisplayName("Requests are started at the rate while earlier ones are still outstanding")
+    void testOpenModel(WireMockRuntimeInfo wireMock) throws Exception {
+        stubFor(get(urlEqualTo("/slow")).willReturn(aResponse().withStatus(200).withFixedDelay(300)));
+
+        LoadReport report = run(wireMock, 20, Duration.ofSeconds(2), 1000);
+        LoadReport.EndpointReport endpoint = report.endpoints().get(0);
+
+        // A client that waited for each response would only have managed about 3 requests a second
+        Assertions.assertEquals(40, endpoint.sent());
+        Assertions.assertEquals(40, endpoint.completed());
+        Assertions.assertEquals(40, endpoint.successful());
+        Assertions.assertEquals(20.0, endpoint.throughput(), 0.01);
+        Assertions.assertEquals(40L, endpoint.statuses().get("200"));
+        Assertions.assertTrue(endpoint.latencyMillis().p50() >= 300, "p50 was " + endpoint.latencyMillis().p50());
+        Assertions.assertFalse(endpoint.histogram().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Requests beyond the outstanding limit are dropped, counted and recorded as timed out")
+    void testDropsWhenTooManyOutstanding(WireMockRuntimeInfo wireMock) throws Exception {
+        stubFor(get(urlEqualTo("/slow")).willReturn(aResponse().withStatus(200).withFixedDelay(1000)));
+
+        LoadReport report = run(wireMock, 20, Duration.ofSeconds(1), 5);
+        LoadReport.EndpointReport endpoint = report.endpoints().get(0);
+
+        Assertions.assertTrue(endpoint.dropped() > 0);
+        Assertions.assertEquals(20, endpoint.sent() + endpoint.dropped());
+        Assertions.assertEquals(endpoint.sent(), endpoint.completed());
+
+        // The dropped requests are charged the request timeout, so the stall shows in the latency
+        Assertions.assertEquals(5000.0, endpoint.latencyMillis().max(), 5.0);
+        Histogram histogram = Histogram.decodeFromCompressedByteBuffer(
+                ByteBuffer.wrap(Base64.getDecoder().decode(endpoint.histogram())), 0);
+        Assertions.assertEquals(endpoint.completed() + endpoint.dropped(), histogram.getTotalCount());
+    }
+
+    private static LoadReport run(WireMockRuntimeInfo wireMock, double rate, Duration duration, int maxOutstanding)
+            throws InterruptedException {
+        URI uri = URI.create(wireMock.getHttpBaseUrl() + "/slow");
+        Scenario scenario = new Scenario("slow", "GET", "/slow", rate,
+                () -> HttpRequest.newBuilder(uri).GET().build());
+        return new ConstantArrivalRate(HttpClient.newHttpClient(), Duration.ZERO, duration, Duration.ofSeconds(5),
+                maxOutstanding).run(List.of(scenario));
+    }
+}
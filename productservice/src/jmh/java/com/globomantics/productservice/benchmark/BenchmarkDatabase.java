@@ -0,0 +1,70 @@
+package com.globomantics.productservice.benchmark;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An in-memory H2 database with the products schema, filled with a given number of products whose ids run from 1
+ * to the table size. Each instance uses its own database, so benchmarks with different sizes never share rows.
+ */
+class BenchmarkDatabase implements AutoCloseable {
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private final HikariDataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final int tableSize;
+
+    BenchmarkDatabase(int tableSize) {
+        this.tableSize = tableSize;
+
+        this.dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        dataSource.setMaximumPoolSize(10);
+
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+
+        List<Object[]> rows = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int id = 1; id <= tableSize; id++) {
+            rows.add(new Object[]{id, "Product " + id, id % 100, 1});
+            if (rows.size() == INSERT_BATCH_SIZE || id == tableSize) {
+                jdbcTemplate.batchUpdate("INSERT INTO products (id, name, quantity, version) VALUES (?, ?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+
+        // Generated ids continue after the rows inserted above
+        jdbcTemplate.execute("ALTER TABLE products ALTER COLUMN id RESTART WITH " + (tableSize + 1));
+    }
+
+    HikariDataSource dataSource() {
+        return dataSource;
+    }
+
+    JdbcTemplate jdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    /**
+     * Deletes every product that was added after the table was filled, and the change log of the writes.
+     */
+    void removeAddedProducts() {
+        jdbcTemplate.update("DELETE FROM products WHERE id > ?", tableSize);
+        jdbcTemplate.update("DELETE FROM product_changes");
+    }
+
+    @Override
+    public void close() {
+        jdbcTemplate.execute("SHUTDOWN");
+        dataSource.close();
+    }
+}
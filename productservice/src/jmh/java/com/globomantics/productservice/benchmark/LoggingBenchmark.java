@@ -0,0 +1,114 @@
+package com.globomantics.productservice.benchmark;
+
+import com.globomantics.productservice.model.Product;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what logging costs the request thread of a PUT /product/{id}, which logs three INFO messages, with
+ * -prof gc reporting the bytes allocated per request as gc.alloc.rate.norm.
+ *
+ * <ul>
+ *   <li>synchronousToString: the previous setup. Loggers write to the appender on the request thread, and the
+ *       service message formats the whole Product.</li>
+ *   <li>asynchronousToString: the same messages through the asynchronous, garbage-free loggers.</li>
+ *   <li>asynchronousParameterized: the messages the controller and service log now, with ids instead of whole
+ *       objects and the full Product only in a DEBUG supplier.</li>
+ * </ul>
+ *
+ * Every benchmark writes to the same buffered file appender with the production layout. The ring buffer waits
+ * for a free slot instead of discarding, so the asynchronous benchmarks cannot win by dropping messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.asyncQueueFullPolicy=Default")
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+
+    private static final String SYNCHRONOUS =
+            "-Dlog4j2.contextSelector=org.apache.logging.log4j.core.selector.ClassLoaderContextSelector";
+    private static final String LOG_PATTERN = "%d{DEFAULT} %5p --- [%15.15t] %-40.40c{1.} : %m%n";
+
+    private Path logFile;
+    private LoggerContext context;
+    private Logger logger;
+    private Product product;
+    private Integer expectedVersion;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logFile = Files.createTempFile("logging-benchmark", ".log");
+
+        ConfigurationBuilder<BuiltConfiguration> builder = ConfigurationBuilderFactory.newConfigurationBuilder();
+        builder.add(builder.newAppender("File", "RandomAccessFile")
+                .addAttribute("fileName", logFile.toString())
+                .addAttribute("immediateFlush", false)
+                .add(builder.newLayout("PatternLayout").addAttribute("pattern", LOG_PATTERN)));
+        builder.add(builder.newRootLogger(org.apache.logging.log4j.Level.INFO).add(builder.newAppenderRef("File")));
+        context = Configurator.initialize(builder.build());
+
+        logger = LogManager.getLogger(LoggingBenchmark.class);
+        product = new Product(1234, "Benchmark product with a realistic name", 5000, 17);
+        expectedVersion = 16;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Configurator.shutdown(context);
+        Files.deleteIfExists(logFile);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Dlog4j2.asyncQueueFullPolicy=Default", SYNCHRONOUS})
+    public void synchronousToString() {
+        logPreviousMessages();
+    }
+
+    @Benchmark
+    public void asynchronousToString() {
+        logPreviousMessages();
+    }
+
+    @Benchmark
+    public void asynchronousParameterized() {
+        logger.info("Updating product with id: {}, name: {}, quantity: {}",
+                product.getId(), product.getName(), product.getQuantity());
+        logger.info("Update product with id: {} if version is: {}", product.getId(), expectedVersion);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Update product: {}", product);
+        }
+        logger.info("Updated product with ID: {} to version {}", product.getId(), product.getVersion());
+    }
+
+    private void logPreviousMessages() {
+        logger.info("Updating product with id: {}, name: {}, quantity: {}",
+                product.getId(), product.getName(), product.getQuantity());
+        logger.info("Update product: {} if version is: {}", product, expectedVersion);
+        logger.info("Updated product with ID: {} -> name={}, quantity={}, version={}",
+                product.getId(), product.getName(), product.getQuantity(), product.getVersion());
+    }
+}
@@ -0,0 +1,150 @@
+package com.globomantics.productservice.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.globomantics.productservice.importer.ProductImporter;
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.repository.ProductChangeNotifier;
+import com.globomantics.productservice.repository.ProductRepositoryImpl;
+import com.globomantics.productservice.search.ProductSearchService;
+import com.globomantics.productservice.service.ProductServiceImpl;
+import com.globomantics.productservice.service.QuantityAccumulator;
+import com.globomantics.productservice.service.QuantityDurability;
+import com.globomantics.productservice.snapshot.CatalogSnapshotService;
+import com.globomantics.productservice.web.ChangePollReader;
+import com.globomantics.productservice.web.DatabaseBulkhead;
+import com.globomantics.productservice.web.ProductController;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Measures the ProductController request path: dispatch, the async handler on the database bulkhead, the service
+ * and repository against an in-memory H2 database, and Jackson serialization of the response. The serialization
+ * benchmarks measure Jackson on its own, so its share of a request can be told apart from the rest.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductControllerBenchmark {
+
+    private static final int TABLE_SIZE = 1000;
+    private static final int PAGE_SIZE = 100;
+
+    private BenchmarkDatabase database;
+    private DatabaseBulkhead databaseBulkhead;
+    private ProductSearchService productSearchService;
+    private ProductImporter productImporter;
+    private ObjectMapper objectMapper;
+    private MockMvc mockMvc;
+    private Product product;
+    private List<Product> page;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Request and statement logging is measured separately, by LoggingBenchmark
+        LoggingSystem.get(getClass().getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+        database = new BenchmarkDatabase(TABLE_SIZE);
+        ObjectProvider<MeterRegistry> noMeterRegistry = new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class);
+
+        ProductChangeNotifier changeNotifier = new ProductChangeNotifier();
+        ProductRepositoryImpl repository = new ProductRepositoryImpl(database.jdbcTemplate(), database.dataSource(),
+                changeNotifier);
+        QuantityAccumulator quantityAccumulator =
+                new QuantityAccumulator(repository, QuantityDurability.SYNC, Duration.ofMillis(10),
+                        Duration.ofSeconds(5));
+        // Snapshots are only written on demand and reads are not served from them
+        CatalogSnapshotService catalogSnapshotService = new CatalogSnapshotService(repository,
+                Path.of(System.getProperty("java.io.tmpdir"), "benchmark-catalog.snapshot"), false,
+                Duration.ZERO, Duration.ZERO);
+        productSearchService = new ProductSearchService(repository, changeNotifier, 1000, Duration.ofSeconds(5));
+        ProductServiceImpl productService =
+                new ProductServiceImpl(repository, quantityAccumulator, catalogSnapshotService,
+                        changeNotifier, productSearchService, noMeterRegistry);
+
+        // Configure Jackson the way Spring Boot does
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        databaseBulkhead = new DatabaseBulkhead(10, 100, noMeterRegistry);
+
+        productImporter = new ProductImporter(productService, objectMapper, 500, 4, 2, 100000, noMeterRegistry);
+
+        ProductController controller = new ProductController(productService, objectMapper, databaseBulkhead,
+                catalogSnapshotService, productImporter, new ChangePollReader(productService, databaseBulkhead, 2));
+        ReflectionTestUtils.setField(controller, "maxPageLimit", TABLE_SIZE);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setMessageConverters(new MappingJackson2HttpMessageConverter(objectMapper))
+                .build();
+
+        product = repository.findById(1).orElseThrow();
+        page = repository.findPage(null, PAGE_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        databaseBulkhead.shutdown();
+        productSearchService.shutdown();
+        productImporter.shutdown();
+        database.close();
+    }
+
+    @Benchmark
+    public byte[] getProduct() throws Exception {
+        return perform(get("/product/{id}", ThreadLocalRandom.current().nextInt(1, TABLE_SIZE + 1)));
+    }
+
+    @Benchmark
+    public byte[] getProductPage() throws Exception {
+        return perform(get("/products").param("limit", String.valueOf(PAGE_SIZE)));
+    }
+
+    @Benchmark
+    public byte[] serializeProduct() throws Exception {
+        return objectMapper.writeValueAsBytes(product);
+    }
+
+    @Benchmark
+    public byte[] serializeProductPage() throws Exception {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    private byte[] perform(RequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            // Wait for the handler on the database bulkhead, then render its response
+            result = mockMvc.perform(asyncDispatch(result)).andReturn();
+        }
+        return result.getResponse().getContentAsByteArray();
+    }
+}
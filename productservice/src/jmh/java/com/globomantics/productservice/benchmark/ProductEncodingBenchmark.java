@@ -0,0 +1,101 @@
+package com.globomantics.productservice.benchmark;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.globomantics.productservice.model.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compares the cost of encoding and decoding a product and a list of products as JSON, CBOR and Smile, with
+ * mappers configured the way the application configures them. The size of each payload is printed during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductEncodingBenchmark {
+
+    private static final int LIST_SIZE = 1000;
+
+    public enum Encoding {
+        JSON(JsonFactory::new),
+        CBOR(CBORFactory::new),
+        SMILE(SmileFactory::new);
+
+        private final Supplier<JsonFactory> factory;
+
+        Encoding(Supplier<JsonFactory> factory) {
+            this.factory = factory;
+        }
+    }
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    private Encoding encoding;
+
+    private ObjectMapper objectMapper;
+    private JavaType listType;
+    private Product product;
+    private List<Product> products;
+    private byte[] encodedProduct;
+    private byte[] encodedProducts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().factory(encoding.factory.get()).build();
+        listType = objectMapper.getTypeFactory().constructCollectionType(List.class, Product.class);
+
+        product = new Product(12345, "Deluxe wireless speaker, black", 42, 7);
+        products = new ArrayList<>(LIST_SIZE);
+        for (int id = 1; id <= LIST_SIZE; id++) {
+            products.add(new Product(id, "Product " + id, id % 100, 1 + id % 5));
+        }
+
+        encodedProduct = objectMapper.writeValueAsBytes(product);
+        encodedProducts = objectMapper.writeValueAsBytes(products);
+        System.out.printf("%n%s: product %d bytes, %d products %d bytes%n",
+                encoding, encodedProduct.length, LIST_SIZE, encodedProducts.length);
+    }
+
+    @Benchmark
+    public byte[] encodeProduct() throws IOException {
+        return objectMapper.writeValueAsBytes(product);
+    }
+
+    @Benchmark
+    public Product decodeProduct() throws IOException {
+        return objectMapper.readValue(encodedProduct, Product.class);
+    }
+
+    @Benchmark
+    public byte[] encodeProductList() throws IOException {
+        return objectMapper.writeValueAsBytes(products);
+    }
+
+    @Benchmark
+    public List<Product> decodeProductList() throws IOException {
+        return objectMapper.readValue(encodedProducts, listType);
+    }
+}
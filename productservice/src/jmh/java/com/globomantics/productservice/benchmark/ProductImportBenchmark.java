@@ -0,0 +1,160 @@
+package com.globomantics.productservice.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.globomantics.productservice.importer.ImportFormat;
+import com.globomantics.productservice.importer.ProductImporter;
+import com.globomantics.productservice.model.ImportReport;
+import com.globomantics.productservice.repository.ProductChangeNotifier;
+import com.globomantics.productservice.repository.ProductRepositoryImpl;
+import com.globomantics.productservice.search.ProductSearchService;
+import com.globomantics.productservice.service.ProductServiceImpl;
+import com.globomantics.productservice.service.QuantityAccumulator;
+import com.globomantics.productservice.service.QuantityDurability;
+import com.globomantics.productservice.snapshot.CatalogSnapshotService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a bulk import of generated products into an empty H2 catalog, through the same service and repository
+ * stack as the application. The rows are generated as the importer reads them, so neither side holds the file in
+ * memory; divide the row count by the time per operation for rows per second.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductImportBenchmark {
+
+    private static final int ROWS = 200_000;
+
+    @Param({"CSV", "NDJSON"})
+    private ImportFormat format;
+
+    private BenchmarkDatabase database;
+    private ProductSearchService productSearchService;
+    private ProductImporter productImporter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LoggingSystem.get(getClass().getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+        database = new BenchmarkDatabase(0);
+        ObjectProvider<MeterRegistry> noMeterRegistry = new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class);
+
+        ProductChangeNotifier changeNotifier = new ProductChangeNotifier();
+        ProductRepositoryImpl repository = new ProductRepositoryImpl(database.jdbcTemplate(), database.dataSource(),
+                changeNotifier);
+        ReflectionTestUtils.setField(repository, "batchChunkSize", 500);
+        QuantityAccumulator quantityAccumulator =
+                new QuantityAccumulator(repository, QuantityDurability.SYNC, Duration.ofMillis(10),
+                        Duration.ofSeconds(5));
+        CatalogSnapshotService catalogSnapshotService = new CatalogSnapshotService(repository,
+                Path.of(System.getProperty("java.io.tmpdir"), "benchmark-catalog.snapshot"), false,
+                Duration.ZERO, Duration.ZERO);
+        productSearchService = new ProductSearchService(repository, changeNotifier, 1000, Duration.ofSeconds(5));
+        ProductServiceImpl productService =
+                new ProductServiceImpl(repository, quantityAccumulator, catalogSnapshotService,
+                        changeNotifier, productSearchService, noMeterRegistry);
+
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        productImporter = new ProductImporter(productService, objectMapper, 500, 4, 2, ROWS, noMeterRegistry);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeImportedProducts() {
+        database.removeAddedProducts();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        productImporter.shutdown();
+        productSearchService.shutdown();
+        database.close();
+    }
+
+    @Benchmark
+    public ImportReport importProducts() throws Exception {
+        ImportReport report = productImporter.importProducts(new GeneratedProducts(format, ROWS), format, "benchmark");
+        if (report.getRowsImported() != ROWS) {
+            throw new IllegalStateException("Imported " + report.getRowsImported() + " of " + ROWS + " rows");
+        }
+        return report;
+    }
+
+    /**
+     * A stream of generated products in the specified format, produced one row at a time.
+     */
+    private static final class GeneratedProducts extends InputStream {
+
+        private final ImportFormat format;
+        private final int rows;
+        private int row;
+        private byte[] current;
+        private int position;
+
+        GeneratedProducts(ImportFormat format, int rows) {
+            this.format = format;
+            this.rows = rows;
+            this.current = format == ImportFormat.CSV
+                    ? "name,quantity\n".getBytes(StandardCharsets.UTF_8)
+                    : new byte[0];
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int copied = 0;
+            while (copied < length) {
+                if (position == current.length) {
+                    if (row == rows) {
+                        break;
+                    }
+                    row++;
+                    current = (format == ImportFormat.CSV
+                            ? "Imported product " + row + "," + (row % 100) + "\n"
+                            : "{\"name\":\"Imported product " + row + "\",\"quantity\":" + (row % 100) + "}\n")
+                            .getBytes(StandardCharsets.UTF_8);
+                    position = 0;
+                }
+                int count = Math.min(length - copied, current.length - position);
+                System.arraycopy(current, position, buffer, offset + copied, count);
+                position += count;
+                copied += count;
+            }
+            return copied == 0 ? -1 : copied;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.globomantics.productservice.benchmark;
+
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.repository.ProductChangeNotifier;
+import com.globomantics.productservice.repository.ProductRepositoryImpl;
+import com.globomantics.productservice.snapshot.CatalogSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the ProductRepositoryImpl queries against an in-memory H2 database at several table sizes. The
+ * repository is used directly, without the product cache in front of it. The snapshot benchmarks answer the same
+ * reads from a memory-mapped CatalogSnapshot of the table for comparison.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductRepositoryBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int tableSize;
+
+    private BenchmarkDatabase database;
+    private ProductRepositoryImpl repository;
+    private Path snapshotFile;
+    private CatalogSnapshot snapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Request and statement logging is measured separately, by LoggingBenchmark
+        LoggingSystem.get(getClass().getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+        database = new BenchmarkDatabase(tableSize);
+        repository = new ProductRepositoryImpl(database.jdbcTemplate(), database.dataSource(),
+                new ProductChangeNotifier());
+
+        snapshotFile = Files.createTempFile("catalog", ".snapshot");
+        CatalogSnapshot.write(snapshotFile, repository::streamAll);
+        snapshot = CatalogSnapshot.open(snapshotFile);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeSavedProducts() {
+        database.removeAddedProducts();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+        Files.deleteIfExists(snapshotFile);
+    }
+
+    @Benchmark
+    public Optional<Product> findById() {
+        return repository.findById(randomId());
+    }
+
+    @Benchmark
+    public List<Product> findAll() {
+        return repository.findAll();
+    }
+
+    @Benchmark
+    public Product save() {
+        return repository.save(new Product(null, "Benchmark product", 10, 1));
+    }
+
+    @Benchmark
+    public boolean update() {
+        int id = randomId();
+        return repository.update(new Product(id, "Product " + id, id % 100, 1));
+    }
+
+    @Benchmark
+    public Optional<Product> findByIdFromSnapshot() {
+        return snapshot.findById(randomId());
+    }
+
+    @Benchmark
+    public List<Product> findAllFromSnapshot() {
+        return snapshot.findAll();
+    }
+
+    private int randomId() {
+        return ThreadLocalRandom.current().nextInt(1, tableSize + 1);
+    }
+}
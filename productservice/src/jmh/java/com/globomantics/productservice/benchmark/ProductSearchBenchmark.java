@@ -0,0 +1,72 @@
+package com.globomantics.productservice.benchmark;
+
+import com.globomantics.productservice.search.ProductNameIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ProductNameIndex lookups on catalogs of generated names, each made of three words drawn from a fixed
+ * vocabulary and a model number. The queries range from a selective model number to a word in a tenth of the
+ * catalog, which fills the candidate limit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ProductSearchBenchmark {
+
+    private static final String[] WORDS = {
+            "red", "blue", "green", "black", "steel", "wooden", "compact", "deluxe", "portable", "wireless",
+            "widget", "gadget", "lamp", "chair", "table", "speaker", "charger", "bottle", "backpack", "keyboard"};
+
+    @Param({"100000", "1000000"})
+    private int catalogSize;
+
+    private ProductNameIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new ProductNameIndex(1000);
+        Random random = new Random(42);
+        for (int id = 1; id <= catalogSize; id++) {
+            index.put(id, WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " "
+                    + WORDS[random.nextInt(WORDS.length)] + " " + Integer.toString(id, 36).toUpperCase());
+        }
+    }
+
+    @Benchmark
+    public List<Integer> modelNumber() {
+        return index.search("a2b", 0, 20);
+    }
+
+    @Benchmark
+    public List<Integer> twoWords() {
+        return index.search("wireless speaker", 0, 20);
+    }
+
+    @Benchmark
+    public List<Integer> shortPrefix() {
+        return index.search("ke", 0, 20);
+    }
+
+    @Benchmark
+    public List<Integer> commonWord() {
+        return index.search("charger", 0, 20);
+    }
+}
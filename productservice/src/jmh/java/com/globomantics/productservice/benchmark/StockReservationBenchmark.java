@@ -0,0 +1,104 @@
+package com.globomantics.productservice.benchmark;
+
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.repository.ProductChangeNotifier;
+import com.globomantics.productservice.repository.ProductRepositoryImpl;
+import com.globomantics.productservice.repository.StockReservation;
+import com.globomantics.productservice.repository.VersionedWriteResult;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares two ways for concurrent checkouts to take one unit out of the stock of a few hot products: a guarded
+ * reservation, which the database applies under the row lock, and the read, compare-and-set, retry-on-conflict
+ * loop that a client of PUT /product/{id} with If-Match has to run. Run it with several threads, for example
+ * -Djmh.args="StockReservationBenchmark -t 8", to see how each holds up as contention grows; the retries counter
+ * shows the conflicts that the compare-and-set loop spends its time on.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StockReservationBenchmark {
+
+    // Enough stock that no run ever sells out
+    private static final int STOCK = 1_000_000_000;
+
+    @Param({"1", "16"})
+    private int hotProducts;
+
+    private BenchmarkDatabase database;
+    private ProductRepositoryImpl repository;
+
+    /**
+     * The conflicts that the compare-and-set loop retried, per thread.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Retries {
+        public long retries;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LoggingSystem.get(getClass().getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+        database = new BenchmarkDatabase(hotProducts);
+        database.jdbcTemplate().update("UPDATE products SET quantity = ?", STOCK);
+        repository = new ProductRepositoryImpl(database.jdbcTemplate(), database.dataSource(),
+                new ProductChangeNotifier());
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearChangeLog() {
+        database.removeAddedProducts();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public StockReservation reserve() {
+        return repository.reserve(Map.of(randomId(), 1));
+    }
+
+    @Benchmark
+    public VersionedWriteResult compareAndSet(Retries retries) {
+        int id = randomId();
+        while (true) {
+            Product product = repository.findById(id).orElseThrow();
+            int version = product.getVersion();
+            product.setQuantity(product.getQuantity() - 1);
+            VersionedWriteResult result = repository.updateIfVersion(product, version);
+            if (result != VersionedWriteResult.VERSION_CONFLICT) {
+                return result;
+            }
+            retries.retries++;
+        }
+    }
+
+    private int randomId() {
+        return ThreadLocalRandom.current().nextInt(1, hotProducts + 1);
+    }
+}
@@ -0,0 +1,27 @@
+package com.globomantics.productservice.importer;
+
+import com.globomantics.productservice.model.ImportReport;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Exposes the progress of running bulk imports at {@code /actuator/imports}.
+ */
+@Component
+@Endpoint(id = "imports")
+public class ImportEndpoint {
+
+    private final ProductImporter productImporter;
+
+    public ImportEndpoint(ProductImporter productImporter) {
+        this.productImporter = productImporter;
+    }
+
+    @ReadOperation
+    public List<ImportReport> imports() {
+        return productImporter.activeImports();
+    }
+}
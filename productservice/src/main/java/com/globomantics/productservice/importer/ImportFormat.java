@@ -0,0 +1,56 @@
+package com.globomantics.productservice.importer;
+
+import org.springframework.http.MediaType;
+
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * The file formats that products can be imported from.
+ *
+ * <ul>
+ *   <li>CSV: a header row naming the columns, which must include name and quantity; other columns are ignored.</li>
+ *   <li>NDJSON: one product object per line, with at least name and quantity.</li>
+ * </ul>
+ */
+public enum ImportFormat {
+    CSV(new MediaType("text", "csv"), ".csv"),
+    NDJSON(MediaType.APPLICATION_NDJSON, ".ndjson");
+
+    private final MediaType mediaType;
+    private final String extension;
+
+    ImportFormat(MediaType mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @return  The format of an upload with the specified content type, if it is one that can be imported.
+     */
+    public static Optional<ImportFormat> forMediaType(MediaType contentType) {
+        for (ImportFormat format : values()) {
+            if (format.mediaType.isCompatibleWith(contentType)) {
+                return Optional.of(format);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return  The format of a file with the specified name, judged by its extension.
+     */
+    public static Optional<ImportFormat> forFileName(String fileName) {
+        String lowerCase = fileName.toLowerCase(Locale.ROOT);
+        for (ImportFormat format : values()) {
+            if (lowerCase.endsWith(format.extension)) {
+                return Optional.of(format);
+            }
+        }
+        return lowerCase.endsWith(".jsonl") ? Optional.of(NDJSON) : Optional.empty();
+    }
+}
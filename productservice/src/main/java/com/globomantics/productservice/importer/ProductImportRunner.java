@@ -0,0 +1,52 @@
+package com.globomantics.productservice.importer;
+
+import com.globomantics.productservice.model.ImportReport;
+import com.globomantics.productservice.model.ImportStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Imports a local file of products when the application starts, if products.import.file is set. The format is
+ * taken from the file's extension: .csv, or .ndjson or .jsonl. To run an import from the command line and exit
+ * when it is done, start the application without its web server:
+ *
+ * <pre>
+ * java -jar productservice.jar --products.import.file=catalog.csv --spring.main.web-application-type=none
+ * </pre>
+ *
+ * A failed import fails startup, so the command exits with a non-zero status.
+ */
+@Component
+@ConditionalOnProperty("products.import.file")
+public class ProductImportRunner implements ApplicationRunner {
+
+    private final ProductImporter productImporter;
+    private final Path file;
+
+    public ProductImportRunner(ProductImporter productImporter, @Value("${products.import.file}") Path file) {
+        this.productImporter = productImporter;
+        this.file = file;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        ImportFormat format = ImportFormat.forFileName(file.getFileName().toString())
+                .orElseThrow(() -> new IllegalArgumentException("Cannot tell the format of " + file
+                        + " from its extension, expected .csv, .ndjson or .jsonl"));
+
+        ImportReport report;
+        try (InputStream in = Files.newInputStream(file)) {
+            report = productImporter.importProducts(in, format, file.toString());
+        }
+        if (report.getStatus() != ImportStatus.COMPLETED) {
+            throw new IllegalStateException("Import of " + file + " failed: " + report.getError());
+        }
+    }
+}
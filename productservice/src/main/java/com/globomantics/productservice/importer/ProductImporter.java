@@ -0,0 +1,373 @@
+package com.globomantics.productservice.importer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.globomantics.productservice.model.ImportReport;
+import com.globomantics.productservice.model.ImportStatus;
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.service.ProductService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Imports products in bulk from a CSV or NDJSON stream.
+ *
+ * <p>The stream is parsed one row at a time on the calling thread, so the file is never held in memory. Valid
+ * products are collected into chunks of products.import.chunk-size, and each chunk is inserted with one batched
+ * statement in its own transaction by a pool of products.import.writers threads. At most
+ * products.import.max-chunks-in-flight chunks of an import are queued or being written at once; when that many
+ * are pending, parsing waits for a write to finish, so a fast reader cannot outrun the database. Chunks may be
+ * written in any order, so the generated ids do not follow the order of the rows.
+ *
+ * <p>A row without a name, with a name longer than the column allows, without a quantity, or that cannot be parsed
+ * is rejected and the import goes on. A stream that cannot be read, or a chunk that cannot be written, stops the
+ * import; the chunks written before that stay in the catalog.
+ */
+@Component
+public class ProductImporter {
+
+    private static final Logger logger = LogManager.getLogger(ProductImporter.class);
+
+    // The length of the name column
+    private static final int MAX_NAME_LENGTH = 128;
+
+    // The number of rejected rows described in a report; the rest are only counted
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+
+    private final ProductService productService;
+    private final ObjectReader jsonReader;
+    private final ObjectReader csvReader;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+    private final long progressInterval;
+    private final ExecutorService writers;
+    private final AtomicLong importIds = new AtomicLong();
+    private final Map<Long, Progress> activeImports = new ConcurrentHashMap<>();
+    private final Counter importedRows;
+    private final Counter rejectedRows;
+
+    public ProductImporter(ProductService productService,
+                           ObjectMapper objectMapper,
+                           @Value("${products.import.chunk-size:500}") int chunkSize,
+                           @Value("${products.import.max-chunks-in-flight:4}") int maxChunksInFlight,
+                           @Value("${products.import.writers:2}") int writers,
+                           @Value("${products.import.progress-interval:100000}") long progressInterval,
+                           ObjectProvider<MeterRegistry> meterRegistry) {
+        this.productService = productService;
+        this.jsonReader = objectMapper.readerFor(Product.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.csvReader = new CsvMapper().readerFor(Product.class)
+                .with(CsvSchema.emptySchema().withHeader())
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.progressInterval = progressInterval;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(writers, runnable -> {
+            Thread thread = new Thread(runnable, "product-import-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry != null) {
+            this.importedRows = Counter.builder("products.import.rows")
+                    .description("Rows read by bulk imports")
+                    .tag("result", "imported")
+                    .register(registry);
+            this.rejectedRows = Counter.builder("products.import.rows")
+                    .description("Rows read by bulk imports")
+                    .tag("result", "rejected")
+                    .register(registry);
+            registry.gaugeMapSize("products.import.active", List.of(), activeImports);
+        } else {
+            this.importedRows = null;
+            this.rejectedRows = null;
+        }
+    }
+
+    /**
+     * Imports every product in the stream and waits until they have all been written.
+     *
+     * @param in        The stream to read, in UTF-8.
+     * @param format    The format of the stream.
+     * @param source    A description of where the stream comes from, for the report and the log.
+     * @return          A report of the finished import, with status COMPLETED or FAILED.
+     * @throws InterruptedException If the calling thread is interrupted while it waits for a chunk to be written.
+     */
+    public ImportReport importProducts(InputStream in, ImportFormat format, String source)
+            throws InterruptedException {
+        Progress progress = new Progress(importIds.incrementAndGet(), source);
+        activeImports.put(progress.id, progress);
+        logger.info("Import {} of {} products from {} started",
+                Unbox.box(progress.id), format, source);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            if (format == ImportFormat.CSV) {
+                readCsv(reader, progress);
+            } else {
+                readNdjson(reader, progress);
+            }
+            progress.flush();
+        } catch (IOException | RuntimeException e) {
+            progress.fail(e);
+        } finally {
+            progress.awaitWrites();
+            activeImports.remove(progress.id);
+        }
+
+        ImportReport report = progress.report();
+        if (report.getStatus() == ImportStatus.COMPLETED) {
+            logger.info("Import {} completed: {} rows imported, {} rejected in {} ms ({} rows/sec)",
+                    Unbox.box(report.getId()), Unbox.box(report.getRowsImported()),
+                    Unbox.box(report.getRowsRejected()), Unbox.box(report.getElapsedMillis()),
+                    Unbox.box(report.getRowsPerSecond()));
+        } else {
+            logger.error("Import {} failed after {} rows imported, {} rejected: {}",
+                    Unbox.box(report.getId()), Unbox.box(report.getRowsImported()),
+                    Unbox.box(report.getRowsRejected()), report.getError());
+        }
+        return report;
+    }
+
+    /**
+     * @return  The progress of the imports that are running, oldest first.
+     */
+    public List<ImportReport> activeImports() {
+        List<ImportReport> reports = new ArrayList<>();
+        activeImports.values().forEach(progress -> reports.add(progress.report()));
+        reports.sort(Comparator.comparingLong(ImportReport::getId));
+        return reports;
+    }
+
+    /**
+     * Reads a CSV stream with a header row. A row that cannot be bound to a product is rejected, and the parser
+     * skips ahead to the next row.
+     */
+    private void readCsv(BufferedReader reader, Progress progress) throws IOException, InterruptedException {
+        try (MappingIterator<Product> rows = csvReader.readValues(reader)) {
+            long row = 0;
+            while (progress.isRunning() && rows.hasNextValue()) {
+                row++;
+                Product product;
+                try {
+                    product = rows.nextValue();
+                } catch (JsonProcessingException e) {
+                    progress.reject(row, e.getOriginalMessage());
+                    continue;
+                }
+                progress.accept(row, product);
+            }
+        }
+    }
+
+    /**
+     * Reads an NDJSON stream, one product per line. Blank lines are skipped; a line that is not a product object
+     * is rejected.
+     */
+    private void readNdjson(BufferedReader reader, Progress progress) throws IOException, InterruptedException {
+        long row = 0;
+        String line;
+        while (progress.isRunning() && (line = reader.readLine()) != null) {
+            row++;
+            if (line.isBlank()) {
+                continue;
+            }
+            Product product;
+            try {
+                product = jsonReader.readValue(line);
+            } catch (JsonProcessingException e) {
+                progress.reject(row, e.getOriginalMessage());
+                continue;
+            }
+            progress.accept(row, product);
+        }
+    }
+
+    /**
+     * @return  Why the product cannot be imported, or null if it is valid.
+     */
+    private static String validate(Product product) {
+        if (product == null) {
+            return "empty row";
+        }
+        if (product.getName() == null || product.getName().isBlank()) {
+            return "name is required";
+        }
+        if (product.getName().length() > MAX_NAME_LENGTH) {
+            return "name is longer than " + MAX_NAME_LENGTH + " characters";
+        }
+        if (product.getQuantity() == null) {
+            return "quantity is required";
+        }
+        return null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writers.shutdown();
+    }
+
+    /**
+     * The state of one import: the chunk being filled by the parsing thread, and the counts and failure shared with
+     * the writer threads.
+     */
+    private final class Progress {
+
+        private final long id;
+        private final String source;
+        private final long start = System.nanoTime();
+        private final Semaphore chunksInFlight = new Semaphore(maxChunksInFlight);
+        private final AtomicLong imported = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final List<String> rejections = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean finished;
+        private List<Product> chunk;
+        private long rowsRead;
+
+        Progress(long id, String source) {
+            this.id = id;
+            this.source = source;
+            this.chunk = new ArrayList<>(chunkSize);
+        }
+
+        boolean isRunning() {
+            return failure.get() == null;
+        }
+
+        void accept(long row, Product product) throws InterruptedException {
+            String reason = validate(product);
+            if (reason != null) {
+                reject(row, reason);
+                return;
+            }
+            // The database generates ids, so an id column in the file is ignored
+            product.setId(null);
+            chunk.add(product);
+            if (chunk.size() == chunkSize) {
+                flush();
+            }
+            countRow();
+        }
+
+        void reject(long row, String reason) {
+            rejected.incrementAndGet();
+            if (rejectedRows != null) {
+                rejectedRows.increment();
+            }
+            synchronized (rejections) {
+                if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                    rejections.add("row " + row + ": " + reason);
+                }
+            }
+            countRow();
+        }
+
+        /**
+         * Hands the current chunk to the writers, first waiting for a free slot if too many are in flight.
+         */
+        void flush() throws InterruptedException {
+            if (chunk.isEmpty() || !isRunning()) {
+                return;
+            }
+            List<Product> products = chunk;
+            chunk = new ArrayList<>(chunkSize);
+
+            chunksInFlight.acquire();
+            try {
+                writers.execute(() -> {
+                    try {
+                        if (isRunning()) {
+                            productService.saveAll(products);
+                            imported.addAndGet(products.size());
+                            if (importedRows != null) {
+                                importedRows.increment(products.size());
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        fail(e);
+                    } finally {
+                        chunksInFlight.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                chunksInFlight.release();
+                throw e;
+            }
+        }
+
+        void fail(Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+
+        /**
+         * Waits until every chunk handed to the writers has been written or has failed.
+         */
+        void awaitWrites() {
+            chunksInFlight.acquireUninterruptibly(maxChunksInFlight);
+            chunksInFlight.release(maxChunksInFlight);
+            finished = true;
+        }
+
+        private void countRow() {
+            if (++rowsRead % progressInterval == 0) {
+                logger.info("Import {} has read {} rows: {} imported, {} rejected ({} rows/sec)",
+                        Unbox.box(id), Unbox.box(rowsRead), Unbox.box(imported.get()), Unbox.box(rejected.get()),
+                        Unbox.box(rowsPerSecond(rowsRead, elapsedNanos())));
+            }
+        }
+
+        private long elapsedNanos() {
+            return System.nanoTime() - start;
+        }
+
+        ImportReport report() {
+            long elapsedNanos = elapsedNanos();
+            Throwable error = failure.get();
+            ImportStatus status = error != null ? ImportStatus.FAILED
+                    : finished ? ImportStatus.COMPLETED : ImportStatus.RUNNING;
+            List<String> reportedRejections;
+            synchronized (rejections) {
+                reportedRejections = List.copyOf(rejections);
+            }
+            long rows = imported.get() + rejected.get();
+            return new ImportReport(id, source, status, imported.get(), rejected.get(), elapsedNanos / 1_000_000,
+                    rowsPerSecond(rows, elapsedNanos), reportedRejections, error == null ? null : error.toString());
+        }
+    }
+
+    private static long rowsPerSecond(long rows, long elapsedNanos) {
+        return elapsedNanos == 0 ? 0 : rows * 1_000_000_000 / elapsedNanos;
+    }
+}
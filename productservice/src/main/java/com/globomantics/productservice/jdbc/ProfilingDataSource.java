@@ -0,0 +1,138 @@
+package com.globomantics.productservice.jdbc;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A DataSource that reports to a {@link StatementProfiler} how long each connection checkout waited and how long
+ * each statement executed on its connections took, along with the rows the statement returned or affected.
+ *
+ * <p>Execution time covers the {@code execute*} call only; the time spent reading a result set is not included,
+ * because it also contains whatever the caller does with each row. Every other JDBC call is passed straight through
+ * to the underlying connection, statement or result set.
+ */
+public class ProfilingDataSource extends DelegatingDataSource {
+
+    private final StatementProfiler profiler;
+
+    public ProfilingDataSource(DataSource targetDataSource, StatementProfiler profiler) {
+        super(targetDataSource);
+        this.profiler = profiler;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection();
+        profiler.recordConnectionWait(System.nanoTime() - start);
+        return profile(connection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection(username, password);
+        profiler.recordConnectionWait(System.nanoTime() - start);
+        return profile(connection);
+    }
+
+    private Connection profile(Connection connection) {
+        return proxy(Connection.class, connection, (target, method, args) -> {
+            Object result = invoke(target, method, args);
+            String name = method.getName();
+            if (name.equals("prepareStatement")) {
+                return profile(PreparedStatement.class, (PreparedStatement) result, (String) args[0]);
+            } else if (name.equals("prepareCall")) {
+                return profile(CallableStatement.class, (CallableStatement) result, (String) args[0]);
+            } else if (name.equals("createStatement")) {
+                return profile(Statement.class, (Statement) result, null);
+            }
+            return result;
+        });
+    }
+
+    private <S extends Statement> S profile(Class<S> type, S statement, String preparedSql) {
+        // Prepared statements are looked up once; plain statements pass their SQL to each execute call
+        StatementProfiler.StatementStats preparedStats = preparedSql != null ? profiler.statement(preparedSql) : null;
+
+        return proxy(type, statement, (target, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                StatementProfiler.StatementStats stats = args != null && args.length > 0 && args[0] instanceof String sql
+                        ? profiler.statement(sql) : preparedStats;
+                if (stats == null) {
+                    return invoke(target, method, args);
+                }
+
+                long start = System.nanoTime();
+                Object result = invoke(target, method, args);
+                profiler.recordExecution(stats, System.nanoTime() - start, rowsAffected(result));
+                return result instanceof ResultSet resultSet ? profile(resultSet, stats) : result;
+            }
+
+            Object result = invoke(target, method, args);
+            if (name.equals("getResultSet") && result instanceof ResultSet resultSet && preparedStats != null) {
+                return profile(resultSet, preparedStats);
+            }
+            return result;
+        });
+    }
+
+    private ResultSet profile(ResultSet resultSet, StatementProfiler.StatementStats stats) {
+        return proxy(ResultSet.class, resultSet, (target, method, args) -> {
+            Object result = invoke(target, method, args);
+            if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                stats.recordRowReturned();
+            }
+            return result;
+        });
+    }
+
+    private static long rowsAffected(Object result) {
+        long rows = 0;
+        if (result instanceof Integer count) {
+            rows = count;
+        } else if (result instanceof Long count) {
+            rows = count;
+        } else if (result instanceof int[] counts) {
+            for (int count : counts) {
+                rows += Math.max(count, 0);
+            }
+        } else if (result instanceof long[] counts) {
+            for (long count : counts) {
+                rows += Math.max(count, 0);
+            }
+        }
+        return Math.max(rows, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, T target, JdbcInterceptor<T> interceptor) {
+        InvocationHandler handler = (proxy, method, args) -> interceptor.invoke(target, method, args);
+        return (T) Proxy.newProxyInstance(ProfilingDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    @FunctionalInterface
+    private interface JdbcInterceptor<T> {
+        Object invoke(T target, Method method, Object[] args) throws Throwable;
+    }
+}
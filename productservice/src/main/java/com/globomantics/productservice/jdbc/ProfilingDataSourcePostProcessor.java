@@ -0,0 +1,32 @@
+package com.globomantics.productservice.jdbc;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Wraps every DataSource bean in a {@link ProfilingDataSource}, so all JDBC access in the application, including
+ * the JdbcTemplate and the transaction manager, is profiled without changing the repositories.
+ */
+@Component
+@ConditionalOnProperty(name = "products.jdbc.profiling.enabled", havingValue = "true")
+public class ProfilingDataSourcePostProcessor implements BeanPostProcessor {
+
+    // Looked up lazily, because post processors are created before the regular beans
+    private final ObjectProvider<StatementProfiler> profiler;
+
+    public ProfilingDataSourcePostProcessor(ObjectProvider<StatementProfiler> profiler) {
+        this.profiler = profiler;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource && !(bean instanceof ProfilingDataSource)) {
+            return new ProfilingDataSource(dataSource, profiler.getObject());
+        }
+        return bean;
+    }
+}
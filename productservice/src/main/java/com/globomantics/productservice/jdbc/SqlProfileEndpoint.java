@@ -0,0 +1,33 @@
+package com.globomantics.productservice.jdbc;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the SQL statement profile at {@code /actuator/sqlprofile}. A GET returns the table of statements, the
+ * most expensive first, and a DELETE clears it so a fresh measurement can be started.
+ */
+@Component
+@Endpoint(id = "sqlprofile")
+@ConditionalOnProperty(name = "products.jdbc.profiling.enabled", havingValue = "true")
+public class SqlProfileEndpoint {
+
+    private final StatementProfiler profiler;
+
+    public SqlProfileEndpoint(StatementProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    @ReadOperation
+    public StatementProfiler.SqlProfile sqlProfile() {
+        return profiler.snapshot();
+    }
+
+    @DeleteOperation
+    public void reset() {
+        profiler.reset();
+    }
+}
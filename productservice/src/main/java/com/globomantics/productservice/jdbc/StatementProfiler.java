@@ -0,0 +1,186 @@
+package com.globomantics.productservice.jdbc;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Collects per-statement execution statistics for every SQL statement run through a {@link ProfilingDataSource}.
+ *
+ * <p>Statements are keyed by their SQL text with whitespace collapsed and runs of bind parameters such as the
+ * {@code IN (?, ?, ?)} lists of a multi-get folded into {@code (?, ...)}, so each distinct query shape gets one row
+ * regardless of how many ids it was called with. Latencies are recorded in HDR histograms, which keep their
+ * percentiles accurate over the full range without sampling. Statements that take longer than the configured
+ * threshold are logged as slow queries.
+ */
+@Component
+@ConditionalOnProperty(name = "products.jdbc.profiling.enabled", havingValue = "true")
+public class StatementProfiler {
+
+    private static final Logger logger = LogManager.getLogger(StatementProfiler.class);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final long slowQueryThresholdNanos;
+
+    // Keyed by the raw SQL text, so normalization only happens the first time a statement is seen
+    private final ConcurrentHashMap<String, StatementStats> statementsBySql = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StatementStats> statements = new ConcurrentHashMap<>();
+    private final Histogram connectionWait = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+
+    public StatementProfiler(@Value("${products.jdbc.slow-query-threshold:250ms}") Duration slowQueryThreshold) {
+        this.slowQueryThresholdNanos = slowQueryThreshold.toNanos();
+        logger.info("Profiling SQL statements, logging statements slower than {} ms", slowQueryThreshold.toMillis());
+    }
+
+    /**
+     * Returns the statistics for the specified SQL statement, creating them if this is the first execution.
+     *
+     * @param sql   The SQL text of the statement.
+     * @return      The statistics for the statement.
+     */
+    StatementStats statement(String sql) {
+        return statementsBySql.computeIfAbsent(sql,
+                raw -> statements.computeIfAbsent(normalize(raw), StatementStats::new));
+    }
+
+    /**
+     * Records one execution of a statement and logs it if it was slow.
+     *
+     * @param stats         The statistics of the statement that was executed.
+     * @param elapsedNanos  The time the execution took.
+     * @param rowsAffected  The number of rows the statement inserted, updated or deleted.
+     */
+    void recordExecution(StatementStats stats, long elapsedNanos, long rowsAffected) {
+        stats.recordExecution(elapsedNanos, rowsAffected);
+        if (elapsedNanos >= slowQueryThresholdNanos) {
+            logger.warn("Slow SQL statement took {} ms: {}", TimeUnit.NANOSECONDS.toMillis(elapsedNanos), stats.sql);
+        }
+    }
+
+    /**
+     * Records the time spent waiting for the pool to hand out a connection.
+     *
+     * @param elapsedNanos  The time the wait took.
+     */
+    void recordConnectionWait(long elapsedNanos) {
+        connectionWait.recordValue(elapsedNanos);
+    }
+
+    /**
+     * Returns a snapshot of the statistics, with the statements that took the most total time first.
+     *
+     * @return  The statistics collected since startup or the last reset.
+     */
+    public SqlProfile snapshot() {
+        List<StatementProfile> profiles = statements.values().stream()
+                .map(StatementStats::snapshot)
+                .sorted(Comparator.comparingDouble(StatementProfile::totalMillis).reversed())
+                .toList();
+        return new SqlProfile(LatencyProfile.of(connectionWait.copy()), profiles);
+    }
+
+    /**
+     * Discards all collected statistics.
+     */
+    public void reset() {
+        statementsBySql.clear();
+        statements.clear();
+        connectionWait.reset();
+    }
+
+    static String normalize(String sql) {
+        String collapsed = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+        return PARAMETER_LIST.matcher(collapsed).replaceAll("?, ...");
+    }
+
+    /**
+     * The running statistics of one statement shape.
+     */
+    static class StatementStats {
+
+        private final String sql;
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder rowsReturned = new LongAdder();
+        private final LongAdder rowsAffected = new LongAdder();
+        private final Histogram latency = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+
+        StatementStats(String sql) {
+            this.sql = sql;
+        }
+
+        void recordExecution(long elapsedNanos, long rows) {
+            latency.recordValue(elapsedNanos);
+            totalNanos.add(elapsedNanos);
+            rowsAffected.add(rows);
+        }
+
+        void recordRowReturned() {
+            rowsReturned.increment();
+        }
+
+        StatementProfile snapshot() {
+            Histogram copy = latency.copy();
+            return new StatementProfile(sql, copy.getTotalCount(), totalNanos.sum() / 1_000_000.0,
+                    rowsReturned.sum(), rowsAffected.sum(), LatencyProfile.of(copy));
+        }
+    }
+
+    /**
+     * The statistics of all statements and of connection checkouts.
+     *
+     * @param connectionWait    How long callers waited for a connection from the pool.
+     * @param statements        The statistics of each statement, the most expensive first.
+     */
+    public record SqlProfile(LatencyProfile connectionWait, List<StatementProfile> statements) {
+    }
+
+    /**
+     * The statistics of one statement shape.
+     *
+     * @param sql           The normalized SQL text.
+     * @param count         The number of executions.
+     * @param totalMillis   The total time spent executing the statement.
+     * @param rowsReturned  The number of rows read from its result sets.
+     * @param rowsAffected  The number of rows it inserted, updated or deleted.
+     * @param latency       The distribution of its execution times.
+     */
+    public record StatementProfile(String sql, long count, double totalMillis, long rowsReturned, long rowsAffected,
+                                   LatencyProfile latency) {
+    }
+
+    /**
+     * Percentiles of a latency distribution, in milliseconds.
+     */
+    public record LatencyProfile(long count, double mean, double p50, double p90, double p99, double p999,
+                                 double max) {
+
+        static LatencyProfile of(Histogram histogram) {
+            return new LatencyProfile(histogram.getTotalCount(),
+                    toMillis(histogram.getMean()),
+                    toMillis(histogram.getValueAtPercentile(50.0)),
+                    toMillis(histogram.getValueAtPercentile(90.0)),
+                    toMillis(histogram.getValueAtPercentile(99.0)),
+                    toMillis(histogram.getValueAtPercentile(99.9)),
+                    toMillis(histogram.getMaxValue()));
+        }
+
+        private static double toMillis(double nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.globomantics.productservice.model;
+
+/**
+ * The kind of write recorded in the product change log.
+ */
+public enum ChangeOperation {
+    /**
+     * A product was created.
+     */
+    INSERT,
+
+    /**
+     * A product's fields or quantity were changed.
+     */
+    UPDATE,
+
+    /**
+     * A product was deleted.
+     */
+    DELETE
+}
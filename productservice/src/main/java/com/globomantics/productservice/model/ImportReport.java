@@ -0,0 +1,121 @@
+package com.globomantics.productservice.model;
+
+import java.util.List;
+
+/**
+ * The progress or outcome of a bulk product import. The rejections list describes the first rejected rows, each
+ * as its row number and the reason it was rejected.
+ */
+public class ImportReport {
+    private long id;
+    private String source;
+    private ImportStatus status;
+    private long rowsImported;
+    private long rowsRejected;
+    private long elapsedMillis;
+    private long rowsPerSecond;
+    private List<String> rejections;
+    private String error;
+
+    public ImportReport() {
+    }
+
+    public ImportReport(long id, String source, ImportStatus status, long rowsImported, long rowsRejected,
+                        long elapsedMillis, long rowsPerSecond, List<String> rejections, String error) {
+        this.id = id;
+        this.source = source;
+        this.status = status;
+        this.rowsImported = rowsImported;
+        this.rowsRejected = rowsRejected;
+        this.elapsedMillis = elapsedMillis;
+        this.rowsPerSecond = rowsPerSecond;
+        this.rejections = rejections;
+        this.error = error;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public ImportStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ImportStatus status) {
+        this.status = status;
+    }
+
+    public long getRowsImported() {
+        return rowsImported;
+    }
+
+    public void setRowsImported(long rowsImported) {
+        this.rowsImported = rowsImported;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    public void setRowsRejected(long rowsRejected) {
+        this.rowsRejected = rowsRejected;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    public void setRowsPerSecond(long rowsPerSecond) {
+        this.rowsPerSecond = rowsPerSecond;
+    }
+
+    public List<String> getRejections() {
+        return rejections;
+    }
+
+    public void setRejections(List<String> rejections) {
+        this.rejections = rejections;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportReport{" +
+                "id=" + id +
+                ", source='" + source + '\'' +
+                ", status=" + status +
+                ", rowsImported=" + rowsImported +
+                ", rowsRejected=" + rowsRejected +
+                ", elapsedMillis=" + elapsedMillis +
+                ", rowsPerSecond=" + rowsPerSecond +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
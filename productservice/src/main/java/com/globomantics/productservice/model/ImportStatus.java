@@ -0,0 +1,22 @@
+package com.globomantics.productservice.model;
+
+/**
+ * The state of a bulk product import.
+ */
+public enum ImportStatus {
+    /**
+     * The file is still being read and its products written.
+     */
+    RUNNING,
+
+    /**
+     * Every row of the file was read, and every valid product was written.
+     */
+    COMPLETED,
+
+    /**
+     * The import stopped early because the file could not be read or a chunk could not be written. The chunks
+     * written before that remain in the catalog.
+     */
+    FAILED
+}
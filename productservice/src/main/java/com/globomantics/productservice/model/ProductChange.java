@@ -0,0 +1,64 @@
+package com.globomantics.productservice.model;
+
+/**
+ * One entry of the product change log. The product holds the product's current state when the change log was
+ * read, which may already include later changes, and is null if the product no longer exists.
+ */
+public class ProductChange {
+    private long sequence;
+    private Integer productId;
+    private ChangeOperation operation;
+    private Product product;
+
+    public ProductChange() {
+    }
+
+    public ProductChange(long sequence, Integer productId, ChangeOperation operation, Product product) {
+        this.sequence = sequence;
+        this.productId = productId;
+        this.operation = operation;
+        this.product = product;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public ChangeOperation getOperation() {
+        return operation;
+    }
+
+    public void setOperation(ChangeOperation operation) {
+        this.operation = operation;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public void setProduct(Product product) {
+        this.product = product;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductChange{" +
+                "sequence=" + sequence +
+                ", productId=" + productId +
+                ", operation=" + operation +
+                ", product=" + product +
+                '}';
+    }
+}
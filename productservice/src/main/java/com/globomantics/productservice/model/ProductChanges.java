@@ -0,0 +1,44 @@
+package com.globomantics.productservice.model;
+
+import java.util.List;
+
+/**
+ * A batch of the product change log: the changes after the requested sequence number, in sequence order, and the
+ * sequence number to pass as since on the next request.
+ */
+public class ProductChanges {
+    private List<ProductChange> changes;
+    private long lastSequence;
+
+    public ProductChanges() {
+    }
+
+    public ProductChanges(List<ProductChange> changes, long lastSequence) {
+        this.changes = changes;
+        this.lastSequence = lastSequence;
+    }
+
+    public List<ProductChange> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(List<ProductChange> changes) {
+        this.changes = changes;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public void setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductChanges{" +
+                "changes=" + changes +
+                ", lastSequence=" + lastSequence +
+                '}';
+    }
+}
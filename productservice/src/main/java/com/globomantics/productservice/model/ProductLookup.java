@@ -0,0 +1,44 @@
+package com.globomantics.productservice.model;
+
+import java.util.List;
+
+/**
+ * The result of looking up several products by id: the products that were found, in the order their ids were
+ * requested, and the requested ids that do not exist.
+ */
+public class ProductLookup {
+    private List<Product> products;
+    private List<Integer> missingIds;
+
+    public ProductLookup() {
+    }
+
+    public ProductLookup(List<Product> products, List<Integer> missingIds) {
+        this.products = products;
+        this.missingIds = missingIds;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    public void setProducts(List<Product> products) {
+        this.products = products;
+    }
+
+    public List<Integer> getMissingIds() {
+        return missingIds;
+    }
+
+    public void setMissingIds(List<Integer> missingIds) {
+        this.missingIds = missingIds;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductLookup{" +
+                "products=" + products +
+                ", missingIds=" + missingIds +
+                '}';
+    }
+}
@@ -0,0 +1,30 @@
+package com.globomantics.productservice.model;
+
+/**
+ * A signed change to the quantity of a product.
+ */
+public class QuantityAdjustment {
+    private Integer delta;
+
+    public QuantityAdjustment() {
+    }
+
+    public QuantityAdjustment(Integer delta) {
+        this.delta = delta;
+    }
+
+    public Integer getDelta() {
+        return delta;
+    }
+
+    public void setDelta(Integer delta) {
+        this.delta = delta;
+    }
+
+    @Override
+    public String toString() {
+        return "QuantityAdjustment{" +
+                "delta=" + delta +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package com.globomantics.productservice.model;
+
+/**
+ * A quantity to take out of the stock of a product. The product id is only set in a reservation of several
+ * products; a reservation of a single product names it in the path instead.
+ */
+public class Reservation {
+    private Integer productId;
+    private Integer quantity;
+
+    public Reservation() {
+    }
+
+    public Reservation(Integer productId, Integer quantity) {
+        this.productId = productId;
+        this.quantity = quantity;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+
+    @Override
+    public String toString() {
+        return "Reservation{" +
+                "productId=" + productId +
+                ", quantity=" + quantity +
+                '}';
+    }
+}
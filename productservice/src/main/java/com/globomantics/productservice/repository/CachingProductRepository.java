@@ -0,0 +1,269 @@
+package com.globomantics.productservice.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * A read-through cache in front of the product store, the JDBC ProductRepository or its sharded form. Products are
+ * cached by id in a bounded Caffeine cache, which uses W-TinyLFU eviction, and expire after a configurable time to
+ * live. Writes replace the cached product only with a newer version, or invalidate it, so a stale product is never
+ * served after a successful write through this repository. Products read from a replica, which may be behind the
+ * primary, are not cached.
+ */
+@Repository
+@Primary
+@ConditionalOnProperty(name = "products.cache.enabled", havingValue = "true")
+public class CachingProductRepository implements ProductRepository {
+
+    private static final Logger logger = LogManager.getLogger(CachingProductRepository.class);
+
+    private final ProductRepository delegate;
+    private final Cache<Integer, Product> cache;
+
+    // Sends the reads of a request to a read replica when replicas are enabled, otherwise null
+    private ReplicaRouter replicaRouter;
+
+    @Autowired
+    public CachingProductRepository(@Qualifier("productStore") ProductRepository delegate,
+                                    @Value("${products.cache.maximum-size:10000}") long maximumSize,
+                                    @Value("${products.cache.time-to-live:10m}") Duration timeToLive,
+                                    ObjectProvider<MeterRegistry> meterRegistry) {
+        this(delegate, maximumSize, timeToLive);
+
+        // Publish the hit, miss and eviction counters when metrics are available
+        meterRegistry.ifAvailable(registry -> CaffeineCacheMetrics.monitor(registry, cache, "products"));
+    }
+
+    CachingProductRepository(ProductRepository delegate, long maximumSize, Duration timeToLive) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+
+        logger.info("Caching up to {} products for {}", maximumSize, timeToLive);
+    }
+
+    @Autowired(required = false)
+    void setReplicaRouter(ReplicaRouter replicaRouter) {
+        this.replicaRouter = replicaRouter;
+    }
+
+    /**
+     * Returns the hit, miss and eviction statistics of the product cache.
+     *
+     * @return  A snapshot of the cache statistics.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public Optional<Product> findById(Integer id) {
+        if (readingReplica()) {
+            Product cached = cache.getIfPresent(id);
+            return cached != null ? Optional.of(copy(cached)) : delegate.findById(id);
+        }
+
+        // Missing products are not cached, the loader returns null for them
+        return Optional.ofNullable(cache.get(id, key -> delegate.findById(key).map(this::copy).orElse(null)))
+                .map(this::copy);
+    }
+
+    @Override
+    public List<Product> findAllById(Collection<Integer> ids) {
+        if (readingReplica()) {
+            Map<Integer, Product> cached = cache.getAllPresent(ids);
+            List<Product> products = new ArrayList<>(cached.size());
+            cached.values().forEach(product -> products.add(copy(product)));
+            List<Integer> missingIds = ids.stream().filter(id -> !cached.containsKey(id)).toList();
+            if (!missingIds.isEmpty()) {
+                products.addAll(delegate.findAllById(missingIds));
+            }
+            return products;
+        }
+
+        // Serve what we can from the cache and load all the misses with one set-based query
+        return cache.getAll(ids, missingIds -> delegate.findAllById(List.copyOf(missingIds)).stream()
+                        .collect(Collectors.toMap(Product::getId, this::copy)))
+                .values().stream()
+                .map(this::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<Integer> findVersionById(Integer id) {
+        // Answer from the cache when we can, but do not load the whole product just for its version
+        Product cached = cache.getIfPresent(id);
+        return cached != null ? Optional.of(cached.getVersion()) : delegate.findVersionById(id);
+    }
+
+    @Override
+    public List<Product> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public List<Product> findPage(Integer after, int limit) {
+        return delegate.findPage(after, limit);
+    }
+
+    @Override
+    public List<ProductChange> findChangesAfter(long sequence, int limit) {
+        return delegate.findChangesAfter(sequence, limit);
+    }
+
+    @Override
+    public long findLatestChangeSequence() {
+        return delegate.findLatestChangeSequence();
+    }
+
+    @Override
+    public int pruneChanges(long retained) {
+        return delegate.pruneChanges(retained);
+    }
+
+    @Override
+    public void streamAll(Consumer<Product> consumer) {
+        delegate.streamAll(consumer);
+    }
+
+    @Override
+    public boolean update(Product product) {
+        try {
+            return delegate.update(product);
+        } finally {
+            // The version is set by the caller here, so we cannot tell whether it is newer than the cached one
+            cache.invalidate(product.getId());
+        }
+    }
+
+    @Override
+    public VersionedWriteResult updateIfVersion(Product product, Integer expectedVersion) {
+        VersionedWriteResult result;
+        try {
+            result = delegate.updateIfVersion(product, expectedVersion);
+        } catch (RuntimeException e) {
+            cache.invalidate(product.getId());
+            throw e;
+        }
+
+        if (result == VersionedWriteResult.SUCCESS) {
+            replaceIfNewer(product);
+        } else {
+            // The cached product is either gone or has been changed by someone else
+            cache.invalidate(product.getId());
+        }
+        return result;
+    }
+
+    @Override
+    public Set<Integer> adjustQuantities(Map<Integer, Integer> deltas) {
+        try {
+            return delegate.adjustQuantities(deltas);
+        } finally {
+            cache.invalidateAll(deltas.keySet());
+        }
+    }
+
+    @Override
+    public StockReservation reserve(Map<Integer, Integer> quantities) {
+        StockReservation reservation;
+        try {
+            reservation = delegate.reserve(quantities);
+        } catch (RuntimeException e) {
+            cache.invalidateAll(quantities.keySet());
+            throw e;
+        }
+
+        if (reservation.isReserved()) {
+            reservation.products().forEach(this::replaceIfNewer);
+        } else {
+            // Nothing was written, but the cached quantity that the client acted on may be out of date
+            cache.invalidateAll(quantities.keySet());
+        }
+        return reservation;
+    }
+
+    @Override
+    public Product save(Product product) {
+        Product savedProduct = delegate.save(product);
+        replaceIfNewer(savedProduct);
+        return savedProduct;
+    }
+
+    @Override
+    public List<Product> saveAll(List<Product> products) {
+        // Bulk loads are not cached, new products are read through on first access
+        return delegate.saveAll(products);
+    }
+
+    @Override
+    public boolean delete(Integer id) {
+        try {
+            return delegate.delete(id);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public VersionedWriteResult deleteIfVersion(Integer id, Integer expectedVersion) {
+        try {
+            return delegate.deleteIfVersion(id, expectedVersion);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Caches a copy of the specified product unless the cache already holds a newer version of it. The merge is
+     * atomic per id, so it cannot interleave with a concurrent read-through load of the same product.
+     *
+     * @param product   The product that was just written to the database.
+     */
+    private void replaceIfNewer(Product product) {
+        cache.asMap().merge(product.getId(), copy(product),
+                (cached, written) -> written.getVersion() >= cached.getVersion() ? written : cached);
+    }
+
+    /**
+     * Returns true if the current request's reads go to a replica, whose products are served but not cached, since
+     * they may be older than the primary's and would hide newer versions until they expire.
+     */
+    private boolean readingReplica() {
+        return replicaRouter != null && replicaRouter.pinnedReplica() != null;
+    }
+
+    /**
+     * Products are mutable, so the cache only ever hands out and stores its own copies.
+     */
+    private Product copy(Product product) {
+        return new Product(product.getId(), product.getName(), product.getQuantity(), product.getVersion());
+    }
+}
@@ -0,0 +1,12 @@
+package com.globomantics.productservice.repository;
+
+/**
+ * Thrown when a reader asks for the changes after a sequence number whose successors have already been pruned from
+ * the change log. The reader has missed changes and must reload the whole catalog before following the log again.
+ */
+public class ChangeLogPrunedException extends RuntimeException {
+
+    public ChangeLogPrunedException(long sequence) {
+        super("The change log no longer holds every change after sequence " + sequence);
+    }
+}
@@ -0,0 +1,78 @@
+package com.globomantics.productservice.repository;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the change log, which otherwise grows by one row for every write ever made. Every
+ * products.changes.prune-interval it deletes the changes that are more than products.changes.retention sequence
+ * numbers behind the latest one. A reader of the change log that falls further behind than that gets a
+ * ChangeLogPrunedException and has to reload the catalog. A zero prune interval keeps every change.
+ */
+@Component
+public class ChangeLogPruner {
+
+    private static final Logger logger = LogManager.getLogger(ChangeLogPruner.class);
+
+    private final ProductRepository productRepository;
+    private final long retention;
+    private final ScheduledExecutorService pruner;
+
+    public ChangeLogPruner(ProductRepository productRepository,
+                           @Value("${products.changes.retention:1000000}") long retention,
+                           @Value("${products.changes.prune-interval:1m}") Duration pruneInterval) {
+        this.productRepository = productRepository;
+        this.retention = retention;
+
+        if (pruneInterval.isZero()) {
+            this.pruner = null;
+            return;
+        }
+        this.pruner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-log-pruner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pruner.scheduleWithFixedDelay(this::pruneQuietly, pruneInterval.toNanos(), pruneInterval.toNanos(),
+                TimeUnit.NANOSECONDS);
+
+        logger.info("Keeping the latest {} changes, pruning every {}", Unbox.box(retention), pruneInterval);
+    }
+
+    /**
+     * Deletes the changes that are older than the retention.
+     *
+     * @return  The number of changes that were deleted.
+     */
+    public int prune() {
+        int pruned = productRepository.pruneChanges(retention);
+        if (pruned > 0) {
+            logger.info("Pruned {} changes from the change log", Unbox.box(pruned));
+        }
+        return pruned;
+    }
+
+    private void pruneQuietly() {
+        try {
+            prune();
+        } catch (RuntimeException e) {
+            logger.error("Failed to prune the change log", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pruner != null) {
+            pruner.shutdown();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.globomantics.productservice.repository;
+
+import java.util.TreeSet;
+
+/**
+ * Numbers the change log entries of every shard from one sequence, so that the change logs of the shards merge
+ * into a single ordered log.
+ *
+ * <p>A transaction takes its sequence numbers before it commits, so a later number can commit before an earlier
+ * one. The horizon is the highest sequence number below every allocation that has not yet committed or rolled
+ * back; a reader that only reads up to the horizon never skips a change that commits after it has read.
+ */
+final class ChangeSequencer {
+
+    private long last;
+
+    // The first sequence number of every allocation whose transaction has not completed yet
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+
+    /**
+     * @param last  The highest sequence number already in use.
+     */
+    ChangeSequencer(long last) {
+        this.last = last;
+    }
+
+    /**
+     * Allocates a run of consecutive sequence numbers. The caller must call complete with the first of them when
+     * its transaction has committed or rolled back.
+     *
+     * @param count The number of sequence numbers to allocate.
+     * @return      The first sequence number of the run.
+     */
+    synchronized long allocate(int count) {
+        long first = last + 1;
+        last += count;
+        inFlight.add(first);
+        return first;
+    }
+
+    synchronized void complete(long first) {
+        inFlight.remove(first);
+    }
+
+    /**
+     * @return  The highest sequence number up to which every change has committed or rolled back.
+     */
+    synchronized long horizon() {
+        return inFlight.isEmpty() ? last : inFlight.first() - 1;
+    }
+}
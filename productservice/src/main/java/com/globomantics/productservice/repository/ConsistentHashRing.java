@@ -0,0 +1,78 @@
+package com.globomantics.productservice.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps product ids to shards by consistent hashing. Each shard is placed on a ring of 64 bit hashes at a number
+ * of pseudo-random points, its virtual nodes, and an id belongs to the shard of the first point at or after the
+ * hash of the id. The virtual nodes even out the share of ids each shard owns, and adding a shard only moves the
+ * ids that the new shard takes over, about 1/N of them.
+ */
+final class ConsistentHashRing {
+
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param shardNames    The names of the shards, which place them on the ring; a shard keeps its ids only as
+     *                      long as it keeps its name.
+     * @param virtualNodes  The number of points on the ring per shard.
+     */
+    ConsistentHashRing(List<String> shardNames, int virtualNodes) {
+        int size = shardNames.size() * virtualNodes;
+        long[][] entries = new long[size][];
+        for (int shard = 0; shard < shardNames.size(); shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                entries[shard * virtualNodes + node] = new long[]{hash(shardNames.get(shard) + "#" + node), shard};
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+    }
+
+    /**
+     * @return  The index of the shard that owns the id.
+     */
+    int shardFor(int id) {
+        int position = Arrays.binarySearch(points, mix(id));
+        if (position < 0) {
+            position = -position - 1;
+        }
+        return owners[position == points.length ? 0 : position];
+    }
+
+    /**
+     * Spreads consecutive ids across the ring with the finalizer of MurmurHash3.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
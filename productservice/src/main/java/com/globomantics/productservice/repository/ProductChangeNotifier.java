@@ -0,0 +1,40 @@
+package com.globomantics.productservice.repository;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Signals long-polling readers of the change log that new changes have been committed. Readers take the future
+ * before they read the change log, so a change that commits while they are reading still wakes them up.
+ *
+ * <p>Only changes committed by this instance are signalled. Readers should still re-read the change log when
+ * their wait times out, to pick up changes made by other instances.
+ */
+@Component
+public class ProductChangeNotifier {
+
+    private CompletableFuture<Void> nextChange = new CompletableFuture<>();
+
+    /**
+     * Returns a future that completes when the next change is committed. The future is shared by all readers,
+     * so callers must not complete it themselves.
+     *
+     * @return  The future of the next change.
+     */
+    public synchronized CompletableFuture<Void> nextChange() {
+        return nextChange;
+    }
+
+    /**
+     * Wakes up every reader waiting for a change.
+     */
+    public void changed() {
+        CompletableFuture<Void> committed;
+        synchronized (this) {
+            committed = nextChange;
+            nextChange = new CompletableFuture<>();
+        }
+        committed.complete(null);
+    }
+}
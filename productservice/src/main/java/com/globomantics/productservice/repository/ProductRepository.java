@@ -1,9 +1,14 @@
 package com.globomantics.productservice.repository;
 
 import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Defines the persistence methods for a ProductRepository.
@@ -17,6 +22,23 @@ public interface ProductRepository {
      */
     Optional<Product> findById(Integer id);
 
+    /**
+     * Returns the products with the specified ids using set-based queries, split into chunks for very large
+     * id collections.
+     *
+     * @param ids       IDs of the products to retrieve.
+     * @return          The products that were found, in no particular order. Missing ids are omitted.
+     */
+    List<Product> findAllById(Collection<Integer> ids);
+
+    /**
+     * Returns only the version of the product with the specified id, without loading the rest of the product.
+     *
+     * @param id        ID of the product whose version to retrieve.
+     * @return          The version of the product if found.
+     */
+    Optional<Integer> findVersionById(Integer id);
+
     /**
      * Returns all products in the database.
      *
@@ -24,6 +46,53 @@ public interface ProductRepository {
      */
     List<Product> findAll();
 
+    /**
+     * Returns a page of products ordered by id, starting after the specified id (keyset pagination).
+     *
+     * @param after     The id after which the page starts, or null to start at the first product.
+     * @param limit     The maximum number of products to return.
+     * @return          Up to limit products with an id greater than after, ordered by id.
+     */
+    List<Product> findPage(Integer after, int limit);
+
+    /**
+     * Returns the entries of the change log after the specified sequence number. Every insert, update and delete
+     * made through this repository is recorded in the change log in the same transaction as the write.
+     *
+     * @param sequence  The sequence number after which to start; 0 starts at the beginning of the change log.
+     * @param limit     The maximum number of changes to return.
+     * @return          Up to limit changes with a sequence number greater than sequence, in sequence order.
+     * @throws ChangeLogPrunedException If changes after sequence have been pruned from the change log.
+     */
+    List<ProductChange> findChangesAfter(long sequence, int limit);
+
+    /**
+     * Returns the sequence number of the latest entry in the change log. It changes with every write, so it serves
+     * as a version of the whole catalog that can be read without reading any products. A change that is still being
+     * committed holds the returned sequence number back, even if later changes have committed, so every change up
+     * to it has been committed and a version never labels a catalog that is still missing one of its changes.
+     *
+     * @return  The latest sequence number, or 0 if nothing has been written yet.
+     */
+    long findLatestChangeSequence();
+
+    /**
+     * Deletes the oldest entries of the change log, keeping at least those within the specified number of sequence
+     * numbers of the latest one. Readers that are further behind get a ChangeLogPrunedException.
+     *
+     * @param retained  The number of latest sequence numbers whose changes are kept.
+     * @return          The number of changes that were deleted.
+     */
+    int pruneChanges(long retained);
+
+    /**
+     * Streams all products, ordered by id, to the specified consumer while the underlying result set is
+     * still open, so that the whole table is never held in memory at once.
+     *
+     * @param consumer  Receives each product as it is read from the database.
+     */
+    void streamAll(Consumer<Product> consumer);
+
     /**
      * Updates the specified product, identified by its id.
      *
@@ -32,6 +101,38 @@ public interface ProductRepository {
      */
     boolean update(Product product);
 
+    /**
+     * Updates the name and quantity of the specified product, identified by its id, only if its version in the
+     * database still matches the expected version. The version is incremented by the same statement and, on
+     * success, the new version is set on the product.
+     *
+     * @param product           The product to update.
+     * @param expectedVersion   The version that the product must currently have.
+     * @return                  SUCCESS, NOT_FOUND or VERSION_CONFLICT.
+     */
+    VersionedWriteResult updateIfVersion(Product product, Integer expectedVersion);
+
+    /**
+     * Adds a signed delta to the quantity of each specified product and increments its version, sending all the
+     * updates to the database in a single JDBC batch.
+     *
+     * @param deltas    The quantity delta to apply, keyed by product id.
+     * @return          The ids of the products that were not found.
+     */
+    Set<Integer> adjustQuantities(Map<Integer, Integer> deltas);
+
+    /**
+     * Takes the specified quantities out of the stock of each product and increments its version, but only if
+     * every product has at least the quantity to take, so stock never goes negative. The check and the write are
+     * made by the database under the row lock, so concurrent reservations of the same product never conflict and
+     * need no retry. Either every quantity is taken or none is.
+     *
+     * @param quantities    The positive quantity to reserve, keyed by product id.
+     * @return              The reserved products with their remaining quantity, or the product that could not be
+     *                      reserved and why.
+     */
+    StockReservation reserve(Map<Integer, Integer> quantities);
+
     /**
      * Saves the specified product to the database.
      *
@@ -40,10 +141,27 @@ public interface ProductRepository {
      */
     Product save(Product product);
 
+    /**
+     * Saves the specified products to the database in a single transaction, using JDBC batches.
+     *
+     * @param products  The products to save to the database.
+     * @return          The saved products, each with its generated id, in the same order.
+     */
+    List<Product> saveAll(List<Product> products);
+
     /**
      * Deletes the product with the specified id.
      * @param id        The id of the product to delete.
      * @return          True if the operation was successful.
      */
     boolean delete(Integer id);
+
+    /**
+     * Deletes the product with the specified id only if its version in the database matches the expected version.
+     *
+     * @param id                The id of the product to delete.
+     * @param expectedVersion   The version that the product must currently have.
+     * @return                  SUCCESS, NOT_FOUND or VERSION_CONFLICT.
+     */
+    VersionedWriteResult deleteIfVersion(Integer id, Integer expectedVersion);
 }
\ No newline at end of file
@@ -1,34 +1,138 @@
 package com.globomantics.productservice.repository;
 
+import com.globomantics.productservice.model.ChangeOperation;
 import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-@Repository
+/**
+ * The JDBC ProductRepository for a single database. It is also the per-shard store of a ShardedProductRepository,
+ * which allocates the ids of new products and the sequence numbers of their changes itself, so that they are
+ * unique across every shard. When read replicas are enabled, the reads of a request may be served by a replica
+ * that the ReplicaRouter picked, while writes always go to the primary.
+ *
+ * <p>On a single database the change log is numbered by an identity column, whose values are taken when a change
+ * is inserted rather than when it commits, so a later change can commit before an earlier one. Writers do not wait
+ * for each other; instead readers stop at the first gap in the sequence that is younger than
+ * products.changes.gap-grace, as it may belong to a transaction that has not committed yet. A gap that outlives the
+ * grace period is taken to be a rollback and skipped. The change log is written last, so a transaction commits
+ * right after its changes are numbered, and the grace period only has to cover that and the clock skew between the
+ * instances that share the database.
+ */
+@Repository("productStore")
+@ConditionalOnProperty(name = "products.sharding.enabled", havingValue = "false", matchIfMissing = true)
 public class ProductRepositoryImpl implements ProductRepository {
 
     private static final Logger logger = LogManager.getLogger(ProductRepositoryImpl.class);
 
+    // Maps a row of the products table to a Product
+    private static final RowMapper<Product> PRODUCT_ROW_MAPPER = (rs, rowNum) -> {
+        Product product = new Product();
+        product.setId(rs.getInt("id"));
+        product.setName(rs.getString("name"));
+        product.setQuantity(rs.getInt("quantity"));
+        product.setVersion(rs.getInt("version"));
+        return product;
+    };
+
+    // The number of rows the driver fetches per round trip while streaming products
+    @Value("${products.stream.fetch-size:500}")
+    private int streamFetchSize;
+
+    // The largest number of ids sent to the database in a single IN list
+    @Value("${products.multiget.chunk-size:500}")
+    private int multiGetChunkSize;
+
+    // The number of inserts sent to the database in a single JDBC batch
+    @Value("${products.batch.chunk-size:500}")
+    private int batchChunkSize;
+
+    // Maps a row of the change log, joined with the product's current row, to a ProductChange
+    private static final RowMapper<ProductChange> PRODUCT_CHANGE_ROW_MAPPER = (rs, rowNum) -> {
+        Product product = null;
+        if (rs.getObject("id") != null) {
+            product = PRODUCT_ROW_MAPPER.mapRow(rs, rowNum);
+        }
+        return new ProductChange(rs.getLong("sequence"), rs.getInt("product_id"),
+                ChangeOperation.valueOf(rs.getString("operation")), product);
+    };
+
     private final JdbcTemplate jdbcTemplate;
     private final SimpleJdbcInsert simpleJdbcInsert;
+    private final ProductChangeNotifier changeNotifier;
+
+    // Allocates change sequence numbers when this is a shard, otherwise null and the database generates them
+    private final ChangeSequencer changeSequencer;
+
+    // How long a gap in the change log is waited for before readers skip it, when the database numbers changes
+    @Value("${products.changes.gap-grace:2s}")
+    private Duration changeGapGrace = Duration.ofSeconds(2);
 
-    public ProductRepositoryImpl(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+    // Sends the reads of a request to a read replica when replicas are enabled, otherwise null
+    private ReplicaRouter replicaRouter;
+
+    @Autowired
+    public ProductRepositoryImpl(JdbcTemplate jdbcTemplate, DataSource dataSource,
+                                 ProductChangeNotifier changeNotifier) {
+        this(jdbcTemplate, dataSource, changeNotifier, null);
+    }
+
+    /**
+     * Creates the store of one shard. New products must already have an id, and the changes are numbered by the
+     * specified sequencer, which is shared by every shard.
+     */
+    ProductRepositoryImpl(JdbcTemplate jdbcTemplate, DataSource dataSource, ProductChangeNotifier changeNotifier,
+                          ChangeSequencer changeSequencer, int streamFetchSize, int multiGetChunkSize,
+                          int batchChunkSize) {
+        this(jdbcTemplate, dataSource, changeNotifier, changeSequencer);
+        this.streamFetchSize = streamFetchSize;
+        this.multiGetChunkSize = multiGetChunkSize;
+        this.batchChunkSize = batchChunkSize;
+    }
+
+    private ProductRepositoryImpl(JdbcTemplate jdbcTemplate, DataSource dataSource,
+                                  ProductChangeNotifier changeNotifier, ChangeSequencer changeSequencer) {
         this.jdbcTemplate = jdbcTemplate;
+        this.changeNotifier = changeNotifier;
+        this.changeSequencer = changeSequencer;
 
         // Build a SimpleJdbcInsert object from the specified data source
         this.simpleJdbcInsert = new SimpleJdbcInsert(dataSource)
@@ -36,18 +140,16 @@ public class ProductRepositoryImpl implements ProductRepository {
                 .usingGeneratedKeyColumns("id");
     }
 
+    @Autowired(required = false)
+    void setReplicaRouter(ReplicaRouter replicaRouter) {
+        this.replicaRouter = replicaRouter;
+    }
+
     @Override
     public Optional<Product> findById(Integer id) {
         try {
-            Product product = jdbcTemplate.queryForObject("SELECT * FROM products WHERE id = ?",
-                    (rs, rowNum) -> {
-                        Product p = new Product();
-                        p.setId(rs.getInt("id"));
-                        p.setName(rs.getString("name"));
-                        p.setQuantity(rs.getInt("quantity"));
-                        p.setVersion(rs.getInt("version"));
-                        return p;
-                    },
+            Product product = reads().queryForObject("SELECT * FROM products WHERE id = ?",
+                    PRODUCT_ROW_MAPPER,
                     id);
             return Optional.of(product);
         } catch (EmptyResultDataAccessException e) {
@@ -55,30 +157,342 @@ public class ProductRepositoryImpl implements ProductRepository {
         }
     }
 
+    @Override
+    public List<Product> findAllById(Collection<Integer> ids) {
+        List<Integer> idList = new ArrayList<>(ids);
+        List<Product> products = new ArrayList<>(idList.size());
+
+        for (int from = 0; from < idList.size(); from += multiGetChunkSize) {
+            List<Integer> chunk = idList.subList(from, Math.min(from + multiGetChunkSize, idList.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            products.addAll(reads().query("SELECT * FROM products WHERE id IN (" + placeholders + ")",
+                    PRODUCT_ROW_MAPPER,
+                    chunk.toArray()));
+        }
+        return products;
+    }
+
+    @Override
+    public Optional<Integer> findVersionById(Integer id) {
+        try {
+            return Optional.ofNullable(reads().queryForObject("SELECT version FROM products WHERE id = ?",
+                    Integer.class,
+                    id));
+        } catch (EmptyResultDataAccessException e) {
+            return Optional.empty();
+        }
+    }
+
     @Override
     public List<Product> findAll() {
-        return jdbcTemplate.query("SELECT * FROM products",
-                (rs, rowNumber) -> {
-                    Product product = new Product();
-                    product.setId(rs.getInt("id"));
-                    product.setName(rs.getString("name"));
-                    product.setQuantity(rs.getInt("quantity"));
-                    product.setVersion(rs.getInt("version"));
-                    return product;
+        return reads().query("SELECT * FROM products", PRODUCT_ROW_MAPPER);
+    }
+
+    @Override
+    public List<Product> findPage(Integer after, int limit) {
+        // Seek past the last id of the previous page rather than using OFFSET, so every page costs the same
+        return reads().query("SELECT * FROM products WHERE id > ? ORDER BY id LIMIT ?",
+                PRODUCT_ROW_MAPPER,
+                after == null ? Integer.MIN_VALUE : after,
+                limit);
+    }
+
+    @Override
+    public List<ProductChange> findChangesAfter(long sequence, int limit) {
+        long horizon = findLatestChangeSequence();
+        if (horizon <= sequence) {
+            return List.of();
+        }
+
+        List<ProductChange> changes = findChangesBetween(sequence, horizon, limit);
+        // Only a gap after sequence can hide pruned changes, so a reader that keeps up costs no extra query
+        if (!changes.isEmpty() && changes.get(0).getSequence() > sequence + 1 && !hasChangesThrough(sequence)) {
+            throw new ChangeLogPrunedException(sequence);
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the entries of the change log with a sequence number greater than after and at most upTo.
+     */
+    List<ProductChange> findChangesBetween(long after, long upTo, int limit) {
+        return reads().query(
+                "SELECT c.sequence, c.product_id, c.operation, p.* FROM product_changes c " +
+                        "LEFT JOIN products p ON p.id = c.product_id " +
+                        "WHERE c.sequence > ? AND c.sequence <= ? ORDER BY c.sequence LIMIT ?",
+                PRODUCT_CHANGE_ROW_MAPPER, after, upTo, limit);
+    }
+
+    /**
+     * Returns true if the change log still holds a change at or before the specified sequence number. Pruning
+     * deletes the oldest changes, so if it does, no change after the sequence number has been pruned.
+     */
+    boolean hasChangesThrough(long sequence) {
+        // Answered from the primary key index
+        Long first = reads().queryForObject("SELECT MIN(sequence) FROM product_changes", Long.class);
+        return first != null && first <= sequence;
+    }
+
+    /**
+     * @return  The largest product id in the database, or 0 if it has no products.
+     */
+    int findMaxId() {
+        Integer id = jdbcTemplate.queryForObject("SELECT MAX(id) FROM products", Integer.class);
+        return id != null ? id : 0;
+    }
+
+    /**
+     * @return  The largest sequence number in the change log, or 0 if it is empty. Changes before it may still be
+     *          uncommitted.
+     */
+    long findMaxChangeSequence() {
+        // Answered from the primary key index, the products table is not read
+        Long sequence = jdbcTemplate.queryForObject("SELECT MAX(sequence) FROM product_changes", Long.class);
+        return sequence != null ? sequence : 0;
+    }
+
+    @Override
+    public long findLatestChangeSequence() {
+        if (changeSequencer != null) {
+            // The ShardedProductRepository keeps the horizon of a shard's changes itself
+            return findMaxChangeSequence();
+        }
+
+        // Start from a change older than the grace period and walk the changes after it, which are mostly younger,
+        // up to the first gap that a transaction may still fill
+        JdbcTemplate database = reads();
+        Timestamp settledBefore = settledBefore();
+        long[] horizon = {findSettledChangeSequence(database, settledBefore)};
+        database.query(connection -> {
+                    PreparedStatement ps = connection.prepareStatement(
+                            "SELECT sequence, created_at FROM product_changes WHERE sequence > ? ORDER BY sequence");
+                    ps.setLong(1, horizon[0]);
+                    ps.setFetchSize(streamFetchSize);
+                    return ps;
+                },
+                (ResultSet rs) -> {
+                    while (rs.next()) {
+                        long sequence = rs.getLong("sequence");
+                        if (sequence != horizon[0] + 1 && !rs.getTimestamp("created_at").before(settledBefore)) {
+                            break;
+                        }
+                        horizon[0] = sequence;
+                    }
+                    return null;
+                });
+        return horizon[0];
+    }
+
+    /**
+     * @return  The time before which a change was numbered long enough ago that a gap it follows is a rollback.
+     */
+    private Timestamp settledBefore() {
+        return Timestamp.from(Instant.now().minus(changeGapGrace));
+    }
+
+    /**
+     * Returns the sequence number of the latest change numbered before the specified time. Every change before it
+     * was numbered earlier still, so it has committed or rolled back by now, whatever gaps there are.
+     *
+     * @return  The sequence number, or 0 if every change was numbered after the specified time.
+     */
+    private long findSettledChangeSequence(JdbcTemplate database, Timestamp settledBefore) {
+        // Answered from the descending created_at index
+        List<Long> settled = database.queryForList(
+                "SELECT sequence FROM product_changes WHERE created_at < ? ORDER BY created_at DESC LIMIT 1",
+                Long.class, settledBefore);
+        return settled.isEmpty() ? 0 : settled.get(0);
+    }
+
+    @Override
+    public int pruneChanges(long retained) {
+        Long latest = jdbcTemplate.queryForObject("SELECT MAX(sequence) FROM product_changes", Long.class);
+        if (latest == null) {
+            return 0;
+        }
+        long through = latest - retained;
+        if (changeSequencer == null) {
+            // Keep the latest settled change, or a reader could no longer tell the gap left by the pruned changes
+            // from one that a transaction may still fill
+            through = Math.min(through, findSettledChangeSequence(jdbcTemplate, settledBefore()) - 1);
+        }
+        return deleteChangesThrough(through);
+    }
+
+    /**
+     * Deletes the changes with a sequence number of at most the specified one from the change log.
+     */
+    int deleteChangesThrough(long sequence) {
+        if (sequence <= 0) {
+            return 0;
+        }
+        return jdbcTemplate.update("DELETE FROM product_changes WHERE sequence <= ?", sequence);
+    }
+
+    @Override
+    public void streamAll(Consumer<Product> consumer) {
+        reads().query(connection -> {
+                    PreparedStatement ps = connection.prepareStatement("SELECT * FROM products ORDER BY id");
+                    ps.setFetchSize(streamFetchSize);
+                    return ps;
+                },
+                rs -> {
+                    // Hand each row to the consumer while the result set is still open
+                    consumer.accept(PRODUCT_ROW_MAPPER.mapRow(rs, rs.getRow()));
                 });
     }
 
     @Override
+    @Transactional
     public boolean update(Product product) {
-        return jdbcTemplate.update("UPDATE products SET name = ?, quantity = ?, version = ? WHERE id = ?",
+        int rows = jdbcTemplate.update("UPDATE products SET name = ?, quantity = ?, version = ? WHERE id = ?",
                 product.getName(),
                 product.getQuantity(),
                 product.getVersion(),
-                product.getId()) == 1;
+                product.getId());
+
+        if (rows == 1) {
+            recordChanges(List.of(product.getId()), ChangeOperation.UPDATE);
+            return true;
+        }
+        return false;
     }
 
     @Override
+    @Transactional
+    public VersionedWriteResult updateIfVersion(Product product, Integer expectedVersion) {
+        // Compare and set in a single statement so that no concurrent write can slip in between
+        int rows = jdbcTemplate.update(
+                "UPDATE products SET name = ?, quantity = ?, version = version + 1 WHERE id = ? AND version = ?",
+                product.getName(),
+                product.getQuantity(),
+                product.getId(),
+                expectedVersion);
+
+        if (rows == 1) {
+            product.setVersion(expectedVersion + 1);
+            recordChanges(List.of(product.getId()), ChangeOperation.UPDATE);
+            return VersionedWriteResult.SUCCESS;
+        }
+        return classifyFailedWrite(product.getId());
+    }
+
+    @Override
+    @Transactional
+    public Set<Integer> adjustQuantities(Map<Integer, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return Set.of();
+        }
+
+        List<Integer> ids = new ArrayList<>(deltas.keySet());
+        int[] rows = jdbcTemplate.batchUpdate(
+                "UPDATE products SET quantity = quantity + ?, version = version + 1 WHERE id = ?",
+                ids,
+                ids.size(),
+                (ps, id) -> {
+                    ps.setInt(1, deltas.get(id));
+                    ps.setInt(2, id);
+                })[0];
+
+        Set<Integer> missingIds = new HashSet<>();
+        List<Integer> adjustedIds = new ArrayList<>(ids.size());
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == 0) {
+                missingIds.add(ids.get(i));
+            } else {
+                adjustedIds.add(ids.get(i));
+            }
+        }
+        recordChanges(adjustedIds, ChangeOperation.UPDATE);
+        return missingIds;
+    }
+
+    @Override
+    @Transactional
+    public StockReservation reserve(Map<Integer, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            return StockReservation.reserved(List.of());
+        }
+
+        if (quantities.size() == 1) {
+            Integer id = quantities.keySet().iterator().next();
+            int quantity = quantities.get(id);
+
+            // Guard and decrement in a single statement, so the stock check needs no lock taken beforehand
+            int rows = jdbcTemplate.update(
+                    "UPDATE products SET quantity = quantity - ?, version = version + 1 WHERE id = ? AND quantity >= ?",
+                    quantity,
+                    id,
+                    quantity);
+            if (rows != 1) {
+                return StockReservation.rejected(exists(id)
+                        ? StockReservation.Status.INSUFFICIENT_QUANTITY
+                        : StockReservation.Status.NOT_FOUND, id);
+            }
+
+            // The update holds the row lock until commit, so this reads the row exactly as we left it
+            Product reserved = jdbcTemplate.queryForObject("SELECT * FROM products WHERE id = ?",
+                    PRODUCT_ROW_MAPPER,
+                    id);
+            recordChanges(List.of(id), ChangeOperation.UPDATE);
+            return StockReservation.reserved(List.of(reserved));
+        }
+
+        // Lock the rows in id order, so that reservations of overlapping products cannot deadlock, and check the
+        // stock of every product before taking any, so a rejected reservation leaves nothing to roll back
+        List<Integer> ids = quantities.keySet().stream().sorted().toList();
+        Map<Integer, Product> locked = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += multiGetChunkSize) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + multiGetChunkSize, ids.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            jdbcTemplate.query("SELECT * FROM products WHERE id IN (" + placeholders + ") ORDER BY id FOR UPDATE",
+                            PRODUCT_ROW_MAPPER,
+                            chunk.toArray())
+                    .forEach(product -> locked.put(product.getId(), product));
+        }
+        for (Integer id : ids) {
+            Product product = locked.get(id);
+            if (product == null) {
+                return StockReservation.rejected(StockReservation.Status.NOT_FOUND, id);
+            }
+            if (product.getQuantity() < quantities.get(id)) {
+                return StockReservation.rejected(StockReservation.Status.INSUFFICIENT_QUANTITY, id);
+            }
+        }
+
+        // The rows are locked until commit, so the checked quantities are the ones the batch decrements
+        jdbcTemplate.batchUpdate(
+                "UPDATE products SET quantity = quantity - ?, version = version + 1 WHERE id = ? AND quantity >= ?",
+                ids,
+                ids.size(),
+                (ps, id) -> {
+                    ps.setInt(1, quantities.get(id));
+                    ps.setInt(2, id);
+                    ps.setInt(3, quantities.get(id));
+                });
+
+        List<Product> reserved = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            Product product = locked.get(id);
+            product.setQuantity(product.getQuantity() - quantities.get(id));
+            product.setVersion(product.getVersion() + 1);
+            reserved.add(product);
+        }
+        recordChanges(ids, ChangeOperation.UPDATE);
+        return StockReservation.reserved(reserved);
+    }
+
+    @Override
+    @Transactional
     public Product save(Product product) {
+        if (changeSequencer != null) {
+            // A shard stores the product under the id that the ShardedProductRepository routed it by
+            jdbcTemplate.update("INSERT INTO products (id, name, quantity, version) VALUES (?, ?, ?, ?)",
+                    product.getId(), product.getName(), product.getQuantity(), product.getVersion());
+            recordChanges(List.of(product.getId()), ChangeOperation.INSERT);
+            return product;
+        }
+
         // Build the product parameters we want to save
         Map<String, Object> parameters = new HashMap<>(1);
         parameters.put("name", product.getName());
@@ -92,13 +506,191 @@ public class ProductRepositoryImpl implements ProductRepository {
 
         // Update the product's ID with the new key
         product.setId((Integer)newId);
+        recordChanges(List.of(product.getId()), ChangeOperation.INSERT);
 
         // Return the complete product
         return product;
     }
 
     @Override
+    @Transactional
+    public List<Product> saveAll(List<Product> products) {
+        for (int from = 0; from < products.size(); from += batchChunkSize) {
+            List<Product> chunk = products.subList(from, Math.min(from + batchChunkSize, products.size()));
+
+            if (changeSequencer != null) {
+                // A shard stores the products under the ids that they were routed by
+                jdbcTemplate.batchUpdate("INSERT INTO products (id, name, quantity, version) VALUES (?, ?, ?, ?)",
+                        chunk,
+                        chunk.size(),
+                        (ps, product) -> {
+                            ps.setInt(1, product.getId());
+                            ps.setString(2, product.getName());
+                            ps.setInt(3, product.getQuantity());
+                            ps.setInt(4, product.getVersion());
+                        });
+                continue;
+            }
+
+            jdbcTemplate.execute((Connection connection) -> {
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "INSERT INTO products (name, quantity, version) VALUES (?, ?, ?)", new String[]{"id"})) {
+                    for (Product product : chunk) {
+                        ps.setString(1, product.getName());
+                        ps.setInt(2, product.getQuantity());
+                        ps.setInt(3, product.getVersion());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+
+                    // The generated keys come back in the order the rows were added to the batch
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        for (Product product : chunk) {
+                            if (!keys.next()) {
+                                throw new SQLException("Missing generated key for batch insert of " + product);
+                            }
+                            product.setId(keys.getInt(1));
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+
+        recordChanges(products.stream().map(Product::getId).toList(), ChangeOperation.INSERT);
+
+        logger.info("Inserted {} products into database in batches of {}", Unbox.box(products.size()),
+                Unbox.box(batchChunkSize));
+        return products;
+    }
+
+    @Override
+    @Transactional
     public boolean delete(Integer id) {
-        return jdbcTemplate.update("DELETE FROM products WHERE id = ?", id) == 1;
+        if (jdbcTemplate.update("DELETE FROM products WHERE id = ?", id) == 1) {
+            recordChanges(List.of(id), ChangeOperation.DELETE);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    @Transactional
+    public VersionedWriteResult deleteIfVersion(Integer id, Integer expectedVersion) {
+        int rows = jdbcTemplate.update("DELETE FROM products WHERE id = ? AND version = ?", id, expectedVersion);
+        if (rows == 1) {
+            recordChanges(List.of(id), ChangeOperation.DELETE);
+            return VersionedWriteResult.SUCCESS;
+        }
+        return classifyFailedWrite(id);
+    }
+
+    /**
+     * Appends the specified changes to the change log in the current transaction and wakes up the readers that
+     * are waiting for changes once the transaction commits.
+     *
+     * @param productIds    The ids of the products that were written.
+     * @param operation     The kind of write.
+     */
+    private void recordChanges(List<Integer> productIds, ChangeOperation operation) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+
+        if (changeSequencer == null) {
+            // Stamped by this clock rather than the database's, which may report when the transaction started
+            Instant recorded = Instant.now();
+            try {
+                jdbcTemplate.batchUpdate(
+                        "INSERT INTO product_changes (product_id, operation, created_at) VALUES (?, ?, ?)",
+                        productIds,
+                        productIds.size(),
+                        (ps, productId) -> {
+                            ps.setInt(1, productId);
+                            ps.setString(2, operation.name());
+                            ps.setTimestamp(3, Timestamp.from(recorded));
+                        });
+            } finally {
+                onCompletion(committed -> {
+                    if (!committed) {
+                        // Readers that stopped at the gap this leaves behind can move past it once it is old enough
+                        CompletableFuture.delayedExecutor(changeGapGrace.toMillis(), TimeUnit.MILLISECONDS)
+                                .execute(changeNotifier::changed);
+                        return;
+                    }
+                    Duration pending = Duration.between(recorded, Instant.now());
+                    if (pending.compareTo(changeGapGrace) > 0) {
+                        logger.warn("Changes to {} products committed {} ms after they were numbered, past the " +
+                                        "gap grace period, so readers may have skipped them",
+                                Unbox.box(productIds.size()), Unbox.box(pending.toMillis()));
+                    }
+                    changeNotifier.changed();
+                });
+            }
+            return;
+        }
+
+        long first = changeSequencer.allocate(productIds.size());
+        List<Object[]> changes = new ArrayList<>(productIds.size());
+        for (int i = 0; i < productIds.size(); i++) {
+            changes.add(new Object[]{first + i, productIds.get(i), operation.name()});
+        }
+        try {
+            jdbcTemplate.batchUpdate(
+                    "INSERT INTO product_changes (sequence, product_id, operation) VALUES (?, ?, ?)", changes);
+        } finally {
+            // Release the sequence numbers however the write ends, so they never hold back the other shards
+            onCompletion(committed -> {
+                changeSequencer.complete(first);
+                if (committed) {
+                    changeNotifier.changed();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs the callback when the current transaction commits or rolls back or, when there is no transaction, right
+     * away; the write has then already been committed.
+     */
+    private static void onCompletion(Consumer<Boolean> callback) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    callback.accept(status == STATUS_COMMITTED);
+                }
+            });
+        } else {
+            callback.accept(true);
+        }
+    }
+
+    /**
+     * Returns the database to read from: the replica that the current request's reads are pinned to, if any,
+     * otherwise the primary, which is also where every write goes.
+     */
+    private JdbcTemplate reads() {
+        JdbcTemplate replica = replicaRouter != null ? replicaRouter.pinnedReplica() : null;
+        return replica != null ? replica : jdbcTemplate;
+    }
+
+    /**
+     * Works out why a versioned write affected no rows. This extra query only runs on the failure path, so a
+     * successful write still costs a single round trip.
+     *
+     * @param id    The id of the product that was not written.
+     * @return      NOT_FOUND if the product does not exist, otherwise VERSION_CONFLICT.
+     */
+    private VersionedWriteResult classifyFailedWrite(Integer id) {
+        return exists(id) ? VersionedWriteResult.VERSION_CONFLICT : VersionedWriteResult.NOT_FOUND;
+    }
+
+    /**
+     * @return  True if the primary has a product with the specified id.
+     */
+    private boolean exists(Integer id) {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM products WHERE id = ?", Integer.class, id);
+        return count != null && count > 0;
     }
 }
\ No newline at end of file
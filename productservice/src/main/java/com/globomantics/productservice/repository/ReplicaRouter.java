@@ -0,0 +1,336 @@
+package com.globomantics.productservice.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sends the reads of the single-database product store to read replicas, so that read traffic can be spread over
+ * several databases while every write still goes to the primary. It is enabled by products.replicas.enabled and
+ * the replicas are listed in products.replicas.urls; it does not apply to the sharded store.
+ *
+ * <p>A request's reads are pinned to one database for the whole request by {@link #read(boolean, Supplier)}, so a
+ * catalog eTag and the products that it labels always come from the same database. Reads outside of it, such as
+ * the change feed and the search index, and every write, use the primary. Versioned writes compare the version on
+ * the primary, so a client that read an older version from a replica gets 409 Conflict rather than losing an
+ * update.
+ *
+ * <p>The lag of each replica is measured every products.replicas.lag-check-interval by comparing the latest change
+ * sequence number on the replica with the ones the primary had at earlier checks: a replica has caught up to the
+ * primary as of the latest check whose sequence it has reached. A replica that lags by more than
+ * products.replicas.max-lag, or cannot be reached, gets no reads until it catches up, and a read that fails on a
+ * replica is retried on the primary. When no replica is fit the reads go to the primary.
+ */
+@Component
+@ConditionalOnProperty(name = "products.replicas.enabled", havingValue = "true")
+public class ReplicaRouter {
+
+    private static final Logger logger = LogManager.getLogger(ReplicaRouter.class);
+
+    // The lag of a replica that has not reached any sequence the primary had within the last max-lag
+    private static final long UNKNOWN_LAG = Long.MAX_VALUE;
+
+    private final JdbcTemplate primary;
+    private final List<Replica> replicas;
+    private final long maxLagNanos;
+    private final Duration readYourWritesWindow;
+    private final ScheduledExecutorService lagChecker;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    // The replica that the reads on the current thread are pinned to, or null when they go to the primary
+    private final ThreadLocal<Replica> pinnedReplica = new ThreadLocal<>();
+
+    // The time and latest change sequence of the primary at each recent lag check, oldest first
+    private final Deque<long[]> primarySequences = new ArrayDeque<>();
+
+    private Counter replicaReads;
+    private Counter primaryReads;
+
+    @Autowired
+    public ReplicaRouter(JdbcTemplate primary,
+                         @Value("${products.replicas.urls}") List<String> urls,
+                         @Value("${products.replicas.username:sa}") String username,
+                         @Value("${products.replicas.password:}") String password,
+                         @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                         @Value("${products.replicas.max-lag:1s}") Duration maxLag,
+                         @Value("${products.replicas.lag-check-interval:250ms}") Duration lagCheckInterval,
+                         @Value("${products.replicas.read-your-writes-window:5s}") Duration readYourWritesWindow,
+                         ObjectProvider<MeterRegistry> meterRegistry) {
+        this(primary, createDataSources(urls, username, password, poolSize), maxLag, lagCheckInterval,
+                readYourWritesWindow);
+
+        meterRegistry.ifAvailable(registry -> {
+            replicaReads = Counter.builder("products.replicas.reads")
+                    .description("Requests whose reads were served by a read replica or by the primary")
+                    .tag("source", "replica")
+                    .register(registry);
+            primaryReads = Counter.builder("products.replicas.reads")
+                    .description("Requests whose reads were served by a read replica or by the primary")
+                    .tag("source", "primary")
+                    .register(registry);
+            for (Replica replica : replicas) {
+                Gauge.builder("products.replicas.lag", replica, r -> r.lagNanos == UNKNOWN_LAG
+                                ? Double.POSITIVE_INFINITY : r.lagNanos / 1e9)
+                        .description("How far behind the primary a read replica was at the last lag check")
+                        .baseUnit("seconds")
+                        .tag("replica", replica.name)
+                        .register(registry);
+            }
+        });
+    }
+
+    /**
+     * Creates a router over the specified replicas. A zero lag check interval disables the periodic lag checks, and
+     * every replica then counts as too far behind until {@link #checkLag()} is called.
+     */
+    ReplicaRouter(JdbcTemplate primary, List<DataSource> replicaDataSources, Duration maxLag,
+                  Duration lagCheckInterval, Duration readYourWritesWindow) {
+        if (replicaDataSources.isEmpty()) {
+            throw new IllegalArgumentException("products.replicas.urls must list at least one database");
+        }
+        this.primary = primary;
+        this.maxLagNanos = maxLag.toNanos();
+        this.readYourWritesWindow = readYourWritesWindow;
+
+        List<Replica> replicas = new ArrayList<>(replicaDataSources.size());
+        for (int i = 0; i < replicaDataSources.size(); i++) {
+            DataSource dataSource = replicaDataSources.get(i);
+            replicas.add(new Replica("replica-" + i, dataSource, new JdbcTemplate(dataSource)));
+        }
+        this.replicas = List.copyOf(replicas);
+
+        if (lagCheckInterval.isZero()) {
+            this.lagChecker = null;
+        } else {
+            this.lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-lag-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.lagChecker.scheduleWithFixedDelay(this::checkLag, 0, lagCheckInterval.toNanos(),
+                    TimeUnit.NANOSECONDS);
+        }
+
+        logger.info("Routing reads to {} replicas with a maximum lag of {}, read-your-writes window {}",
+                Unbox.box(replicas.size()), maxLag, readYourWritesWindow);
+    }
+
+    private static List<DataSource> createDataSources(List<String> urls, String username, String password,
+                                                      int poolSize) {
+        List<DataSource> dataSources = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("replica-" + i);
+            dataSource.setJdbcUrl(urls.get(i));
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            dataSource.setMaximumPoolSize(poolSize);
+            dataSource.setReadOnly(true);
+            // Connect on first use, so a replica that is down does not stop the service from starting
+            dataSource.setInitializationFailTimeout(-1);
+            dataSources.add(dataSource);
+        }
+        return dataSources;
+    }
+
+    /**
+     * @return  How long after a write a client's reads go to the primary, so that it reads its own writes.
+     */
+    public Duration readYourWritesWindow() {
+        return readYourWritesWindow;
+    }
+
+    /**
+     * Runs the reads of one request, pinned to a replica that is close enough behind the primary, or to the primary
+     * if the client wrote recently or no replica is fit. If a read fails on the replica, the reads are run again on
+     * the primary. Nested calls keep the database of the outermost one.
+     *
+     * @param recentWrite   True if the client wrote within the read-your-writes window.
+     * @param reads         The reads to run; they are run a second time if they fail on a replica.
+     * @return              What the reads returned.
+     */
+    public <T> T read(boolean recentWrite, Supplier<T> reads) {
+        if (pinnedReplica.get() != null) {
+            return reads.get();
+        }
+
+        Replica replica = recentWrite ? null : chooseReplica();
+        if (replica == null) {
+            count(primaryReads);
+            return reads.get();
+        }
+
+        pinnedReplica.set(replica);
+        try {
+            T result = reads.get();
+            count(replicaReads);
+            return result;
+        } catch (DataAccessException e) {
+            logger.warn("Read from {} failed, reading from the primary until its next lag check", replica.name, e);
+            replica.lagNanos = UNKNOWN_LAG;
+            pinnedReplica.remove();
+            count(primaryReads);
+            return reads.get();
+        } finally {
+            pinnedReplica.remove();
+        }
+    }
+
+    /**
+     * @return  The replica that the reads on the current thread are pinned to, or null if they go to the primary.
+     */
+    JdbcTemplate pinnedReplica() {
+        Replica replica = pinnedReplica.get();
+        return replica != null ? replica.jdbcTemplate : null;
+    }
+
+    /**
+     * @return  The name of the database that the reads on the current thread go to, "primary" or the name of the
+     *          replica they are pinned to, so that callers that share reads only share those of the same database.
+     */
+    public String route() {
+        Replica replica = pinnedReplica.get();
+        return replica != null ? replica.name : "primary";
+    }
+
+    /**
+     * Measures how far each replica is behind the primary. Called every products.replicas.lag-check-interval.
+     */
+    synchronized void checkLag() {
+        long now = System.nanoTime();
+        long primarySequence;
+        try {
+            primarySequence = latestChangeSequence(primary);
+        } catch (RuntimeException e) {
+            logger.warn("Could not read the latest change sequence of the primary", e);
+            return;
+        }
+
+        // Keep the checks of the last max-lag, and the one before them, which any replica within max-lag has reached
+        primarySequences.addLast(new long[]{now, primarySequence});
+        while (primarySequences.size() > 1 && now - secondOldest()[0] >= maxLagNanos) {
+            primarySequences.removeFirst();
+        }
+
+        for (Replica replica : replicas) {
+            long lag;
+            try {
+                lag = lagOf(latestChangeSequence(replica.jdbcTemplate), now);
+            } catch (RuntimeException e) {
+                if (replica.lagNanos <= maxLagNanos) {
+                    logger.warn("Could not reach {}, reading from the primary instead", replica.name, e);
+                }
+                replica.lagNanos = UNKNOWN_LAG;
+                continue;
+            }
+
+            boolean wasFit = replica.lagNanos <= maxLagNanos;
+            boolean fit = lag <= maxLagNanos;
+            if (wasFit != fit) {
+                logger.info("{} is {} behind the primary, {}", replica.name,
+                        lag == UNKNOWN_LAG ? "too far" : Duration.ofNanos(lag),
+                        fit ? "serving reads again" : "reading from the primary instead");
+            }
+            replica.lagNanos = lag;
+        }
+    }
+
+    /**
+     * Returns the time since the latest check at which the primary had no change that the replica does not have.
+     */
+    private long lagOf(long replicaSequence, long now) {
+        Iterator<long[]> newestFirst = primarySequences.descendingIterator();
+        while (newestFirst.hasNext()) {
+            long[] check = newestFirst.next();
+            if (check[1] <= replicaSequence) {
+                return now - check[0];
+            }
+        }
+        return UNKNOWN_LAG;
+    }
+
+    private long[] secondOldest() {
+        Iterator<long[]> oldestFirst = primarySequences.iterator();
+        oldestFirst.next();
+        return oldestFirst.next();
+    }
+
+    private static long latestChangeSequence(JdbcTemplate jdbcTemplate) {
+        Long sequence = jdbcTemplate.queryForObject("SELECT MAX(sequence) FROM product_changes", Long.class);
+        return sequence != null ? sequence : 0;
+    }
+
+    /**
+     * Picks the next replica in turn that was within the maximum lag at the last check, or null if there is none.
+     */
+    private Replica chooseReplica() {
+        int start = nextReplica.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (replica.lagNanos <= maxLagNanos) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private static void count(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (lagChecker != null) {
+            lagChecker.shutdown();
+        }
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof HikariDataSource hikari) {
+                hikari.close();
+            }
+        }
+    }
+
+    private static final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private final JdbcTemplate jdbcTemplate;
+
+        // How far behind the primary this replica was at the last lag check, in nanoseconds
+        private volatile long lagNanos = UNKNOWN_LAG;
+
+        Replica(String name, DataSource dataSource, JdbcTemplate jdbcTemplate) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.jdbcTemplate = jdbcTemplate;
+        }
+    }
+}
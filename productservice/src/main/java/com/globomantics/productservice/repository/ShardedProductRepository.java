@@ -0,0 +1,385 @@
+package com.globomantics.productservice.repository;
+
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.jdbc.support.JdbcTransactionManager;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A ProductRepository that spreads the products over several databases, its shards, so that write load is not
+ * limited by a single database. It is the product store in place of the single-database ProductRepositoryImpl
+ * when products.sharding.enabled is true, so the service and controller layers, and the cache, are unchanged.
+ *
+ * <p>Each product lives on the shard that owns its id on a ConsistentHashRing. New ids are allocated here, from
+ * one sequence across all shards, and the product is inserted on the shard that owns it, so a shard only ever
+ * holds the ids it owns and a lookup by id goes straight to one shard. Writes run in a transaction on their shard;
+ * saveAll and adjustQuantities write to each shard they touch in a separate transaction, so they are atomic per
+ * shard only. A reservation of products on several shards is made the same way, and when one shard rejects it the
+ * stock taken on the others is given back, so its all or nothing outcome holds although another reader may briefly
+ * see the stock taken. Queries over the whole catalog are sent to every shard in parallel and their results merged
+ * by id.
+ *
+ * <p>Every shard keeps the change log of its own products, numbered from one ChangeSequencer so that the logs merge
+ * into a single ordered log. The id and change sequences are allocated in this process, so only one instance may
+ * write to a set of shards. The shards are identified by their position in products.sharding.urls. Adding a shard
+ * moves part of the ring to it, and the products on that part are not moved with it, so a lookup would go to the
+ * new shard and miss them. The repository therefore refuses to start while any shard holds a product that the ring
+ * assigns to another shard; a shard may only be added to an empty catalog, or after its products are migrated.
+ */
+@Repository("productStore")
+@ConditionalOnProperty(name = "products.sharding.enabled", havingValue = "true")
+public class ShardedProductRepository implements ProductRepository {
+
+    private static final Logger logger = LogManager.getLogger(ShardedProductRepository.class);
+
+    private final List<Shard> shards;
+    private final ConsistentHashRing ring;
+    private final ChangeSequencer changeSequencer;
+    private final AtomicInteger lastId;
+    private final ExecutorService scatter;
+    private final int streamFetchSize;
+
+    public ShardedProductRepository(@Value("${products.sharding.urls}") List<String> urls,
+                                    @Value("${products.sharding.username:sa}") String username,
+                                    @Value("${products.sharding.password:}") String password,
+                                    @Value("${products.sharding.virtual-nodes:128}") int virtualNodes,
+                                    @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                                    @Value("${products.stream.fetch-size:500}") int streamFetchSize,
+                                    @Value("${products.multiget.chunk-size:500}") int multiGetChunkSize,
+                                    @Value("${products.batch.chunk-size:500}") int batchChunkSize,
+                                    ProductChangeNotifier changeNotifier) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("products.sharding.urls must list at least one database");
+        }
+        this.streamFetchSize = streamFetchSize;
+
+        List<String> names = new ArrayList<>(urls.size());
+        List<HikariDataSource> dataSources = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            names.add("shard-" + i);
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("shard-" + i);
+            dataSource.setJdbcUrl(urls.get(i));
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            dataSource.setMaximumPoolSize(poolSize);
+            new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+            dataSources.add(dataSource);
+        }
+
+        // Carry on from the highest id and change sequence number on any shard
+        long lastSequence = 0;
+        int maxId = 0;
+        for (HikariDataSource dataSource : dataSources) {
+            ProductRepositoryImpl repository =
+                    new ProductRepositoryImpl(new JdbcTemplate(dataSource), dataSource, changeNotifier);
+            lastSequence = Math.max(lastSequence, repository.findMaxChangeSequence());
+            maxId = Math.max(maxId, repository.findMaxId());
+        }
+        this.changeSequencer = new ChangeSequencer(lastSequence);
+        this.lastId = new AtomicInteger(maxId);
+
+        List<Shard> shards = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource dataSource = dataSources.get(i);
+            shards.add(new Shard(names.get(i), dataSource,
+                    new ProductRepositoryImpl(new JdbcTemplate(dataSource), dataSource, changeNotifier,
+                            changeSequencer, streamFetchSize, multiGetChunkSize, batchChunkSize),
+                    new TransactionTemplate(new JdbcTransactionManager(dataSource))));
+        }
+        this.shards = List.copyOf(shards);
+        this.ring = new ConsistentHashRing(names, virtualNodes);
+        try {
+            checkPlacement();
+        } catch (RuntimeException e) {
+            dataSources.forEach(HikariDataSource::close);
+            throw e;
+        }
+
+        // One thread per connection, so a scatter never waits for a thread while its shard has a connection free
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.scatter = Executors.newFixedThreadPool(urls.size() * poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "product-shard-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        logger.info("Sharding products across {} databases, last id {}, last change {}",
+                Unbox.box(shards.size()), Unbox.box(maxId), Unbox.box(lastSequence));
+    }
+
+    @Override
+    public Optional<Product> findById(Integer id) {
+        return shardFor(id).repository().findById(id);
+    }
+
+    @Override
+    public List<Product> findAllById(Collection<Integer> ids) {
+        Map<Shard, List<Integer>> idsByShard = groupByShard(ids, Function.identity());
+        List<Product> products = new ArrayList<>(ids.size());
+        gather(idsByShard.keySet(), shard -> shard.repository().findAllById(idsByShard.get(shard)))
+                .forEach(products::addAll);
+        return products;
+    }
+
+    @Override
+    public Optional<Integer> findVersionById(Integer id) {
+        return shardFor(id).repository().findVersionById(id);
+    }
+
+    @Override
+    public List<Product> findAll() {
+        List<Product> products = new ArrayList<>();
+        gather(shards, shard -> shard.repository().findAll()).forEach(products::addAll);
+        products.sort(Comparator.comparing(Product::getId));
+        return products;
+    }
+
+    @Override
+    public List<Product> findPage(Integer after, int limit) {
+        // Every shard returns its own first page; the catalog's page is the lowest ids among them
+        List<Product> candidates = new ArrayList<>();
+        gather(shards, shard -> shard.repository().findPage(after, limit)).forEach(candidates::addAll);
+        candidates.sort(Comparator.comparing(Product::getId));
+        return candidates.size() > limit ? new ArrayList<>(candidates.subList(0, limit)) : candidates;
+    }
+
+    @Override
+    public List<ProductChange> findChangesAfter(long sequence, int limit) {
+        // Only read up to the horizon, so a change still being committed on one shard cannot be skipped
+        long horizon = changeSequencer.horizon();
+        if (horizon <= sequence) {
+            return List.of();
+        }
+
+        List<ProductChange> changes = new ArrayList<>();
+        gather(shards, shard -> shard.repository().findChangesBetween(sequence, horizon, limit))
+                .forEach(changes::addAll);
+        changes.sort(Comparator.comparingLong(ProductChange::getSequence));
+
+        // The shards are pruned up to the same sequence number, so any of them that still holds an older change
+        // proves that nothing after sequence was pruned
+        if (!changes.isEmpty() && changes.get(0).getSequence() > sequence + 1
+                && !gather(shards, shard -> shard.repository().hasChangesThrough(sequence)).contains(true)) {
+            throw new ChangeLogPrunedException(sequence);
+        }
+        return changes.size() > limit ? new ArrayList<>(changes.subList(0, limit)) : changes;
+    }
+
+    @Override
+    public long findLatestChangeSequence() {
+        return changeSequencer.horizon();
+    }
+
+    @Override
+    public int pruneChanges(long retained) {
+        long through = changeSequencer.horizon() - retained;
+        return gather(shards, shard -> shard.repository().deleteChangesThrough(through)).stream()
+                .mapToInt(Integer::intValue)
+                .sum();
+    }
+
+    @Override
+    public void streamAll(Consumer<Product> consumer) {
+        // Merge the shards page by page, so that the products still arrive in id order with bounded memory
+        Integer after = null;
+        List<Product> page;
+        do {
+            page = findPage(after, streamFetchSize);
+            page.forEach(consumer);
+            after = page.isEmpty() ? null : page.get(page.size() - 1).getId();
+        } while (page.size() == streamFetchSize);
+    }
+
+    @Override
+    public boolean update(Product product) {
+        Shard shard = shardFor(product.getId());
+        return shard.transactions().execute(status -> shard.repository().update(product));
+    }
+
+    @Override
+    public VersionedWriteResult updateIfVersion(Product product, Integer expectedVersion) {
+        Shard shard = shardFor(product.getId());
+        return shard.transactions().execute(status -> shard.repository().updateIfVersion(product, expectedVersion));
+    }
+
+    @Override
+    public Set<Integer> adjustQuantities(Map<Integer, Integer> deltas) {
+        Map<Shard, List<Integer>> idsByShard = groupByShard(deltas.keySet(), Function.identity());
+        Set<Integer> missingIds = new HashSet<>();
+        gather(idsByShard.keySet(), shard -> {
+            Map<Integer, Integer> shardDeltas = new LinkedHashMap<>();
+            idsByShard.get(shard).forEach(id -> shardDeltas.put(id, deltas.get(id)));
+            return shard.transactions().execute(status -> shard.repository().adjustQuantities(shardDeltas));
+        }).forEach(missingIds::addAll);
+        return missingIds;
+    }
+
+    @Override
+    public StockReservation reserve(Map<Integer, Integer> quantities) {
+        Map<Shard, List<Integer>> idsByShard = groupByShard(quantities.keySet(), Function.identity());
+        List<StockReservation> reservations = gather(idsByShard.keySet(), shard -> {
+            Map<Integer, Integer> shardQuantities = new LinkedHashMap<>();
+            idsByShard.get(shard).forEach(id -> shardQuantities.put(id, quantities.get(id)));
+            return shard.transactions().execute(status -> shard.repository().reserve(shardQuantities));
+        });
+        if (reservations.isEmpty()) {
+            return StockReservation.reserved(List.of());
+        }
+
+        StockReservation rejected = reservations.stream()
+                .filter(reservation -> !reservation.isReserved())
+                .min(Comparator.comparing(StockReservation::rejectedId))
+                .orElse(null);
+        if (rejected == null) {
+            List<Product> products = new ArrayList<>(quantities.size());
+            reservations.forEach(reservation -> products.addAll(reservation.products()));
+            return StockReservation.reserved(products);
+        }
+
+        // The shards reserve in separate transactions, so give back the stock taken on the shards that succeeded
+        Map<Integer, Integer> releases = new LinkedHashMap<>();
+        reservations.stream()
+                .filter(StockReservation::isReserved)
+                .flatMap(reservation -> reservation.products().stream())
+                .forEach(product -> releases.put(product.getId(), quantities.get(product.getId())));
+        if (!releases.isEmpty()) {
+            logger.info("Releasing {} products reserved on other shards after product {} was rejected",
+                    Unbox.box(releases.size()), rejected.rejectedId());
+            adjustQuantities(releases);
+        }
+        return rejected;
+    }
+
+    @Override
+    public Product save(Product product) {
+        product.setId(lastId.incrementAndGet());
+        Shard shard = shardFor(product.getId());
+        return shard.transactions().execute(status -> shard.repository().save(product));
+    }
+
+    @Override
+    public List<Product> saveAll(List<Product> products) {
+        products.forEach(product -> product.setId(lastId.incrementAndGet()));
+        Map<Shard, List<Product>> productsByShard = groupByShard(products, Product::getId);
+        gather(productsByShard.keySet(), shard ->
+                shard.transactions().execute(status -> shard.repository().saveAll(productsByShard.get(shard))));
+        return products;
+    }
+
+    @Override
+    public boolean delete(Integer id) {
+        Shard shard = shardFor(id);
+        return shard.transactions().execute(status -> shard.repository().delete(id));
+    }
+
+    @Override
+    public VersionedWriteResult deleteIfVersion(Integer id, Integer expectedVersion) {
+        Shard shard = shardFor(id);
+        return shard.transactions().execute(status -> shard.repository().deleteIfVersion(id, expectedVersion));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scatter.shutdown();
+        shards.forEach(shard -> shard.dataSource().close());
+    }
+
+    /**
+     * Checks that every shard holds only the products that the ring assigns to it, which no longer holds once a
+     * shard has been added to a catalog with products in it.
+     *
+     * @throws IllegalStateException    If any product is on a shard other than the one that owns it.
+     */
+    private void checkPlacement() {
+        for (Shard shard : shards) {
+            AtomicInteger misplaced = new AtomicInteger();
+            AtomicInteger example = new AtomicInteger();
+            new JdbcTemplate(shard.dataSource()).query("SELECT id FROM products", row -> {
+                int id = row.getInt(1);
+                if (shardFor(id) != shard && misplaced.getAndIncrement() == 0) {
+                    example.set(id);
+                }
+            });
+            if (misplaced.get() > 0) {
+                throw new IllegalStateException(shard.name() + " holds " + misplaced.get()
+                        + " products that the ring assigns to other shards, such as product " + example.get()
+                        + "; migrate them before adding a shard to products.sharding.urls");
+            }
+        }
+    }
+
+    private Shard shardFor(int id) {
+        return shards.get(ring.shardFor(id));
+    }
+
+    private <T> Map<Shard, List<T>> groupByShard(Collection<T> items, Function<T, Integer> id) {
+        Map<Shard, List<T>> itemsByShard = new LinkedHashMap<>();
+        for (T item : items) {
+            itemsByShard.computeIfAbsent(shardFor(id.apply(item)), shard -> new ArrayList<>()).add(item);
+        }
+        return itemsByShard;
+    }
+
+    /**
+     * Runs the query on every specified shard in parallel and waits for all of them. A query on a single shard runs
+     * on the calling thread. If any query fails, its exception is rethrown.
+     */
+    private <T> List<T> gather(Collection<Shard> targets, Function<Shard, T> query) {
+        if (targets.size() == 1) {
+            return List.of(query.apply(targets.iterator().next()));
+        }
+
+        List<CompletableFuture<T>> futures = new ArrayList<>(targets.size());
+        for (Shard shard : targets) {
+            futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard), scatter));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * One shard: its database, the JDBC repository of its products, and its transactions.
+     */
+    private record Shard(String name, HikariDataSource dataSource, ProductRepositoryImpl repository,
+                         TransactionTemplate transactions) {
+    }
+}
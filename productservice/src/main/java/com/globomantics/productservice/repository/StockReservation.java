@@ -0,0 +1,46 @@
+package com.globomantics.productservice.repository;
+
+import com.globomantics.productservice.model.Product;
+
+import java.util.List;
+
+/**
+ * The outcome of taking quantities out of the stock of one or more products. A reservation is all or nothing: if
+ * any product is missing or does not have enough stock, no quantity is taken from any of them.
+ *
+ * @param status        RESERVED, NOT_FOUND or INSUFFICIENT_QUANTITY.
+ * @param products      The reserved products with their remaining quantity and new version, in no particular
+ *                      order, or an empty list if nothing was reserved.
+ * @param rejectedId    The id of a product that is missing or short of stock, or null if the stock was reserved.
+ */
+public record StockReservation(Status status, List<Product> products, Integer rejectedId) {
+
+    public enum Status {
+        /**
+         * Every product had enough stock and the quantities were taken from it.
+         */
+        RESERVED,
+
+        /**
+         * One of the products does not exist.
+         */
+        NOT_FOUND,
+
+        /**
+         * One of the products has less stock than the quantity to reserve.
+         */
+        INSUFFICIENT_QUANTITY
+    }
+
+    public static StockReservation reserved(List<Product> products) {
+        return new StockReservation(Status.RESERVED, products, null);
+    }
+
+    public static StockReservation rejected(Status status, Integer rejectedId) {
+        return new StockReservation(status, List.of(), rejectedId);
+    }
+
+    public boolean isReserved() {
+        return status == Status.RESERVED;
+    }
+}
@@ -0,0 +1,21 @@
+package com.globomantics.productservice.repository;
+
+/**
+ * The outcome of a write that is only applied when the product's version matches an expected version.
+ */
+public enum VersionedWriteResult {
+    /**
+     * The product existed with the expected version and the write was applied.
+     */
+    SUCCESS,
+
+    /**
+     * There is no product with the specified id.
+     */
+    NOT_FOUND,
+
+    /**
+     * The product exists, but its version does not match the expected version.
+     */
+    VERSION_CONFLICT
+}
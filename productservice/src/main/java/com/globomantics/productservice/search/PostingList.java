@@ -0,0 +1,83 @@
+package com.globomantics.productservice.search;
+
+import java.util.Arrays;
+
+/**
+ * A sorted set of product ids backed by a growable int array. New products get increasing ids, so adding one
+ * is usually an append; lookups gallop forward through the array.
+ */
+final class PostingList {
+
+    private int[] ids = new int[2];
+    private int size;
+
+    /**
+     * @return  True if the id was not in the list already.
+     */
+    boolean add(int id) {
+        if (size > 0 && ids[size - 1] < id) {
+            ensureCapacity();
+            ids[size++] = id;
+            return true;
+        }
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            return false;
+        }
+        int insertAt = -position - 1;
+        ensureCapacity();
+        System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+        ids[insertAt] = id;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return  True if the id was in the list.
+     */
+    boolean remove(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns the position of the first id at or after the specified position that is not less than the id,
+     * galloping forward from the position so that a run of lookups with increasing ids stays cheap.
+     *
+     * @return  The position found, or size() if every remaining id is less.
+     */
+    int advance(int position, int id) {
+        int step = 1;
+        int high = position;
+        while (high < size && ids[high] < id) {
+            position = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        int found = Arrays.binarySearch(ids, position, Math.min(high, size), id);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    int get(int index) {
+        return ids[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void ensureCapacity() {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.globomantics.productservice.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory index of product names that answers prefix and substring queries.
+ *
+ * <p>Names and queries are normalized to lower case words separated by single spaces. A single word query is
+ * looked up in a trie of the words in every name, which finds the products with a word that starts with it. A
+ * query of three characters or more also matches products whose name contains it anywhere: the candidates are
+ * the products that have every trigram of the query, taken from an inverted index, and each candidate's name is
+ * then checked. A query shorter than that only matches the start of words.
+ *
+ * <p>Results are ranked by how the name matches, best first: the whole name, the start of the name, the start of
+ * a word, then anywhere else. Ties go to the shorter name and then the lower id. At most maxCandidates products are
+ * ranked per query, so a query that matches a large part of the catalog stays fast but only ranks the first
+ * matches it finds, word matches before other substrings.
+ *
+ * <p>The index is safe for concurrent use; lookups share a read lock and updates take the write lock.
+ */
+public final class ProductNameIndex {
+
+    private static final int GRAM_LENGTH = 3;
+
+    private final int maxCandidates;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, String> names = new HashMap<>();
+    private final TrieNode words = new TrieNode();
+    private final Map<Long, PostingList> grams = new HashMap<>();
+
+    /**
+     * @param maxCandidates The maximum number of matching products that a single query ranks.
+     */
+    public ProductNameIndex(int maxCandidates) {
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Adds a product to the index, or replaces the name it was indexed under.
+     *
+     * @param id    The id of the product.
+     * @param name  The name of the product.
+     */
+    public void put(int id, String name) {
+        String normalized = normalize(name);
+        lock.writeLock().lock();
+        try {
+            String previous = names.put(id, normalized);
+            if (normalized.equals(previous)) {
+                return;
+            }
+            if (previous != null) {
+                unindex(id, previous);
+            }
+            for (String word : words(normalized)) {
+                words.add(word, 0, id);
+            }
+            for (long gram : grams(normalized)) {
+                grams.computeIfAbsent(gram, key -> new PostingList()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a product from the index; does nothing if it is not indexed.
+     *
+     * @param id    The id of the product.
+     */
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            String previous = names.remove(id);
+            if (previous != null) {
+                unindex(id, previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return  The number of products in the index.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return names.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a page of the ids of the products whose names match the query, best match first.
+     *
+     * @param query     The text to search for.
+     * @param offset    The number of ranked matches to skip.
+     * @param limit     The maximum number of ids to return.
+     * @return          The ids of the matching products on the requested page.
+     */
+    public List<Integer> search(String query, int offset, int limit) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) {
+            return List.of();
+        }
+
+        Map<Integer, Match> matches = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            // Word matches rank higher, so they get the candidate budget first
+            if (normalized.indexOf(' ') < 0) {
+                matchWordPrefix(normalized, matches);
+            }
+            if (normalized.length() >= GRAM_LENGTH) {
+                matchSubstring(normalized, matches);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Match> ranked = new ArrayList<>(matches.values());
+        ranked.sort(Comparator.comparingInt(Match::rank)
+                .thenComparingInt(Match::nameLength)
+                .thenComparingInt(Match::id));
+
+        int end = (int) Math.min((long) offset + limit, ranked.size());
+        List<Integer> ids = new ArrayList<>(Math.max(end - offset, 0));
+        for (int i = offset; i < end; i++) {
+            ids.add(ranked.get(i).id());
+        }
+        return ids;
+    }
+
+    /**
+     * Collects the products with a word that starts with the query, breadth first so that the words closest to
+     * the query in length are found before the candidate limit is reached.
+     */
+    private void matchWordPrefix(String query, Map<Integer, Match> matches) {
+        TrieNode node = words.find(query);
+        if (node == null) {
+            return;
+        }
+
+        ArrayDeque<TrieNode> pending = new ArrayDeque<>();
+        pending.add(node);
+        while (!pending.isEmpty() && matches.size() < maxCandidates) {
+            TrieNode next = pending.poll();
+            for (int i = 0; i < next.ids.size() && matches.size() < maxCandidates; i++) {
+                int id = next.ids.get(i);
+                matches.computeIfAbsent(id, key -> Match.of(key, names.get(key), query));
+            }
+            for (int i = 0; i < next.childCount; i++) {
+                pending.add(next.children[i]);
+            }
+        }
+    }
+
+    /**
+     * Intersects the posting lists of the query's trigrams, walking the smallest one and galloping through the
+     * others, and collects the candidates whose names really contain the query.
+     */
+    private void matchSubstring(String query, Map<Integer, Match> matches) {
+        long[] queryGrams = grams(query);
+        PostingList[] postings = new PostingList[queryGrams.length];
+        for (int i = 0; i < queryGrams.length; i++) {
+            postings[i] = grams.get(queryGrams[i]);
+            if (postings[i] == null) {
+                return;
+            }
+        }
+        Arrays.sort(postings, Comparator.comparingInt(PostingList::size));
+
+        int[] cursors = new int[postings.length];
+        PostingList smallest = postings[0];
+        candidates:
+        for (int i = 0; i < smallest.size() && matches.size() < maxCandidates; i++) {
+            int id = smallest.get(i);
+            for (int j = 1; j < postings.length; j++) {
+                cursors[j] = postings[j].advance(cursors[j], id);
+                if (cursors[j] == postings[j].size()) {
+                    return;
+                }
+                if (postings[j].get(cursors[j]) != id) {
+                    continue candidates;
+                }
+            }
+            if (!matches.containsKey(id)) {
+                String name = names.get(id);
+                if (name.contains(query)) {
+                    matches.put(id, Match.of(id, name, query));
+                }
+            }
+        }
+    }
+
+    private void unindex(int id, String name) {
+        for (String word : words(name)) {
+            words.remove(word, 0, id);
+        }
+        for (long gram : grams(name)) {
+            PostingList posting = grams.get(gram);
+            if (posting != null && posting.remove(id) && posting.isEmpty()) {
+                grams.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Lower cases the text and collapses every run of characters that are not letters or digits into one space.
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                pendingSpace = false;
+                normalized.append(c);
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> words(String normalized) {
+        return normalized.isEmpty() ? Set.of() : new LinkedHashSet<>(Arrays.asList(normalized.split(" ")));
+    }
+
+    /**
+     * Returns the distinct trigrams of the text, each packed into a long as three 16 bit characters.
+     */
+    private static long[] grams(String text) {
+        if (text.length() < GRAM_LENGTH) {
+            return new long[0];
+        }
+        long[] result = new long[text.length() - GRAM_LENGTH + 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+        return Arrays.stream(result).distinct().toArray();
+    }
+
+    /**
+     * A candidate product and how well its name matches the query.
+     */
+    private record Match(int id, int rank, int nameLength) {
+
+        static Match of(int id, String name, String query) {
+            int rank;
+            if (name.equals(query)) {
+                rank = 0;
+            } else if (name.startsWith(query)) {
+                rank = 1;
+            } else if (name.contains(" " + query)) {
+                rank = 2;
+            } else {
+                rank = 3;
+            }
+            return new Match(id, rank, name.length());
+        }
+    }
+
+    /**
+     * A node of the word trie. The ids are the products with a word that ends at this node; children are kept
+     * sorted by character.
+     */
+    private static final class TrieNode {
+
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private int childCount;
+        private final PostingList ids = new PostingList();
+
+        void add(String word, int depth, int id) {
+            if (depth == word.length()) {
+                ids.add(id);
+                return;
+            }
+            char key = word.charAt(depth);
+            int position = Arrays.binarySearch(keys, 0, childCount, key);
+            if (position < 0) {
+                position = -position - 1;
+                if (childCount == keys.length) {
+                    keys = Arrays.copyOf(keys, Math.max(2, childCount * 2));
+                    children = Arrays.copyOf(children, keys.length);
+                }
+                System.arraycopy(keys, position, keys, position + 1, childCount - position);
+                System.arraycopy(children, position, children, position + 1, childCount - position);
+                keys[position] = key;
+                children[position] = new TrieNode();
+                childCount++;
+            }
+            children[position].add(word, depth + 1, id);
+        }
+
+        /**
+         * Removes the id from the word's node and prunes the nodes that no longer lead to any product.
+         */
+        void remove(String word, int depth, int id) {
+            if (depth == word.length()) {
+                ids.remove(id);
+                return;
+            }
+            int position = Arrays.binarySearch(keys, 0, childCount, word.charAt(depth));
+            if (position < 0) {
+                return;
+            }
+            TrieNode child = children[position];
+            child.remove(word, depth + 1, id);
+            if (child.childCount == 0 && child.ids.isEmpty()) {
+                System.arraycopy(keys, position + 1, keys, position, childCount - position - 1);
+                System.arraycopy(children, position + 1, children, position, childCount - position - 1);
+                children[--childCount] = null;
+            }
+        }
+
+        TrieNode find(String prefix) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length() && node != null; i++) {
+                int position = Arrays.binarySearch(node.keys, 0, node.childCount, prefix.charAt(i));
+                node = position >= 0 ? node.children[position] : null;
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.globomantics.productservice.search;
+
+import com.globomantics.productservice.model.ProductChange;
+import com.globomantics.productservice.repository.ChangeLogPrunedException;
+import com.globomantics.productservice.repository.ProductChangeNotifier;
+import com.globomantics.productservice.repository.ProductRepository;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a ProductNameIndex of every product for name searches.
+ *
+ * <p>The index is built from the database during startup. After that it follows the product change log, so every
+ * save, update and delete reaches the index without the write paths knowing about it. The change log only exposes
+ * changes whose predecessors have all committed, so following it by sequence number never skips a change. Changes
+ * committed by this instance are applied as soon as they are signalled; changes made by other instances are picked
+ * up every products.search.poll-interval. If the index falls so far behind that the changes it needs have been
+ * pruned from the change log, it is rebuilt.
+ */
+@Component
+public class ProductSearchService {
+
+    private static final Logger logger = LogManager.getLogger(ProductSearchService.class);
+
+    // The number of change log entries read per query while catching up
+    private static final int CHANGE_BATCH_SIZE = 1000;
+
+    private final ProductRepository productRepository;
+    private final ProductChangeNotifier changeNotifier;
+    private final int maxCandidates;
+    private final Duration pollInterval;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile ProductNameIndex index;
+    private long lastSequence;
+
+    public ProductSearchService(ProductRepository productRepository,
+                                ProductChangeNotifier changeNotifier,
+                                @Value("${products.search.max-candidates:1000}") int maxCandidates,
+                                @Value("${products.search.poll-interval:5s}") Duration pollInterval) {
+        this.productRepository = productRepository;
+        this.changeNotifier = changeNotifier;
+        this.maxCandidates = maxCandidates;
+        this.pollInterval = pollInterval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "product-search-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        rebuild();
+        scheduler.execute(this::followChanges);
+    }
+
+    /**
+     * Returns a page of the ids of the products whose names match the query, best match first.
+     *
+     * @param query     The text to search for.
+     * @param offset    The number of ranked matches to skip.
+     * @param limit     The maximum number of ids to return.
+     * @return          The ids of the matching products on the requested page.
+     */
+    public List<Integer> search(String query, int offset, int limit) {
+        return index.search(query, offset, limit);
+    }
+
+    /**
+     * Replaces the index with a new one built from every product in the database.
+     */
+    public synchronized void rebuild() {
+        long start = System.nanoTime();
+        // Read the sequence first, so changes made while the products are read are applied again afterwards
+        long sequence = productRepository.findLatestChangeSequence();
+        ProductNameIndex rebuilt = new ProductNameIndex(maxCandidates);
+        productRepository.streamAll(product -> rebuilt.put(product.getId(), product.getName()));
+
+        index = rebuilt;
+        lastSequence = sequence;
+        logger.info("Indexed {} product names in {} ms", Unbox.box(rebuilt.size()),
+                Unbox.box(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    /**
+     * Applies every change in the change log after the last one the index has seen.
+     */
+    public synchronized void applyChanges() {
+        List<ProductChange> changes;
+        do {
+            try {
+                changes = productRepository.findChangesAfter(lastSequence, CHANGE_BATCH_SIZE);
+            } catch (ChangeLogPrunedException e) {
+                logger.warn("Rebuilding the product search index, it has missed pruned changes");
+                rebuild();
+                return;
+            }
+            for (ProductChange change : changes) {
+                if (change.getProduct() == null) {
+                    index.remove(change.getProductId());
+                } else {
+                    index.put(change.getProductId(), change.getProduct().getName());
+                }
+                lastSequence = change.getSequence();
+            }
+        } while (changes.size() == CHANGE_BATCH_SIZE);
+    }
+
+    private void followChanges() {
+        // Take the future before reading, so a change committed while reading schedules another pass
+        CompletableFuture<Void> nextChange = changeNotifier.nextChange();
+        try {
+            applyChanges();
+        } catch (RuntimeException e) {
+            logger.error("Failed to update the product search index, retrying in {}", pollInterval, e);
+            scheduler.schedule(this::followChanges, pollInterval.toNanos(), TimeUnit.NANOSECONDS);
+            return;
+        }
+        nextChange.copy()
+                .completeOnTimeout(null, pollInterval.toNanos(), TimeUnit.NANOSECONDS)
+                .thenRunAsync(this::followChanges, scheduler);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
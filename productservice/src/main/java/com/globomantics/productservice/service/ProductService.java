@@ -1,9 +1,16 @@
 package com.globomantics.productservice.service;
 
 import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
+import com.globomantics.productservice.repository.StockReservation;
+import com.globomantics.productservice.repository.VersionedWriteResult;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface ProductService {
     /**
@@ -14,6 +21,22 @@ public interface ProductService {
      */
     Optional<Product> findById(Integer id);
 
+    /**
+     * Returns the products with the specified ids.
+     *
+     * @param ids       IDs of the products to retrieve.
+     * @return          The products that were found, in no particular order.
+     */
+    List<Product> findAllById(Collection<Integer> ids);
+
+    /**
+     * Returns the version of the product with the specified id.
+     *
+     * @param id        ID of the product whose version to retrieve.
+     * @return          The version of the product if found.
+     */
+    Optional<Integer> findVersionById(Integer id);
+
     /**
      * Returns all products in the database.
      *
@@ -21,6 +44,56 @@ public interface ProductService {
      */
     List<Product> findAll();
 
+    /**
+     * Returns a page of products ordered by id, starting after the specified id.
+     *
+     * @param after     The id of the last product of the previous page, or null for the first page.
+     * @param limit     The maximum number of products to return.
+     * @return          The requested page of products.
+     */
+    List<Product> findPage(Integer after, int limit);
+
+    /**
+     * Returns a page of the products whose names match the query, best match first.
+     *
+     * @param query     The text to search product names for.
+     * @param offset    The number of ranked matches to skip.
+     * @param limit     The maximum number of products to return.
+     * @return          The requested page of matching products.
+     */
+    List<Product> search(String query, int offset, int limit);
+
+    /**
+     * Streams all products, ordered by id, to the specified consumer.
+     *
+     * @param consumer  Receives each product as it is read from the database.
+     */
+    void streamAll(Consumer<Product> consumer);
+
+    /**
+     * Returns the changes made to the catalog after the specified sequence number.
+     *
+     * @param sequence  The sequence number of the last change the caller has seen, or 0 to start at the beginning.
+     * @param limit     The maximum number of changes to return.
+     * @return          The changes after sequence, in sequence order.
+     */
+    List<ProductChange> findChangesAfter(long sequence, int limit);
+
+    /**
+     * Returns a future that completes when the next change to the catalog is committed. Take it before calling
+     * findChangesAfter, so that a change committed in between is not missed.
+     *
+     * @return  A future that must not be completed by the caller.
+     */
+    CompletableFuture<Void> nextChange();
+
+    /**
+     * Returns a version of the whole catalog that changes whenever any product is saved, updated or deleted.
+     *
+     * @return  An opaque version string, cheap to read.
+     */
+    String findCatalogVersion();
+
     /**
      * Updates the specified product, identified by its id.
      *
@@ -29,6 +102,35 @@ public interface ProductService {
      */
     boolean update(Product product);
 
+    /**
+     * Updates the specified product only if its current version matches the expected version.
+     *
+     * @param product           The product to update, identified by its id.
+     * @param expectedVersion   The version that the product must currently have.
+     * @return                  SUCCESS, NOT_FOUND or VERSION_CONFLICT.
+     */
+    VersionedWriteResult updateIfVersion(Product product, Integer expectedVersion);
+
+    /**
+     * Adds a signed delta to the quantity of the product with the specified id, without reading it first.
+     *
+     * @param id        The id of the product to adjust.
+     * @param delta     The signed amount to add to the product's quantity.
+     * @return          A future that completes with true once the delta is durable if the product exists, with
+     *                  false if it does not, or exceptionally as QuantityAccumulator.adjust describes.
+     */
+    CompletableFuture<Boolean> adjustQuantity(Integer id, int delta);
+
+    /**
+     * Takes the specified quantities out of the stock of the products if every one of them has enough stock, in a
+     * single guarded write per product, so concurrent reservations neither conflict nor retry.
+     *
+     * @param quantities    The positive quantity to reserve, keyed by product id.
+     * @return              The reserved products with their remaining quantity and new version, or the product
+     *                      that could not be reserved and why.
+     */
+    StockReservation reserve(Map<Integer, Integer> quantities);
+
     /**
      * Saves the specified product to the database.
      *
@@ -37,10 +139,26 @@ public interface ProductService {
      */
     Product save(Product product);
 
+    /**
+     * Saves the specified products to the database in a single batch.
+     *
+     * @param products  The products to save to the database.
+     * @return          The saved products, in the same order.
+     */
+    List<Product> saveAll(List<Product> products);
+
     /**
      * Deletes the product with the specified id.
      * @param id        The id of the product to delete.
      * @return          True if the operation was successful.
      */
     boolean delete(Integer id);
+
+    /**
+     * Deletes the product with the specified id only if its current version matches the expected version.
+     * @param id                The id of the product to delete.
+     * @param expectedVersion   The version that the product must currently have.
+     * @return                  SUCCESS, NOT_FOUND or VERSION_CONFLICT.
+     */
+    VersionedWriteResult deleteIfVersion(Integer id, Integer expectedVersion);
 }
\ No newline at end of file
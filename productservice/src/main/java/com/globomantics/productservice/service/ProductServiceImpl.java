@@ -1,14 +1,33 @@
 package com.globomantics.productservice.service;
 
 import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
+import com.globomantics.productservice.repository.ProductChangeNotifier;
 import com.globomantics.productservice.repository.ProductRepository;
+import com.globomantics.productservice.repository.ReplicaRouter;
+import com.globomantics.productservice.repository.StockReservation;
+import com.globomantics.productservice.repository.VersionedWriteResult;
+import com.globomantics.productservice.search.ProductSearchService;
+import com.globomantics.productservice.snapshot.CatalogSnapshot;
+import com.globomantics.productservice.snapshot.CatalogSnapshotService;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @Service
 public class ProductServiceImpl implements ProductService {
@@ -16,41 +35,218 @@ public class ProductServiceImpl implements ProductService {
     private static final Logger logger = LogManager.getLogger(ProductServiceImpl.class);
 
     private final ProductRepository productRepository;
+    private final QuantityAccumulator quantityAccumulator;
+    private final CatalogSnapshotService catalogSnapshotService;
+    private final ProductChangeNotifier changeNotifier;
+    private final ProductSearchService productSearchService;
 
-    public ProductServiceImpl(ProductRepository productRepository) {
+    // Concurrent lookups of the same product on the same database share one call, each caller gets its own copy
+    private final SingleFlight<FlightKey, Optional<Product>> findByIdFlights = new SingleFlight<>(
+            product -> product.map(p -> new Product(p.getId(), p.getName(), p.getQuantity(), p.getVersion())));
+
+    // Chooses the database that a request reads from when replicas are enabled, otherwise null
+    private ReplicaRouter replicaRouter;
+
+    public ProductServiceImpl(ProductRepository productRepository,
+                              QuantityAccumulator quantityAccumulator,
+                              CatalogSnapshotService catalogSnapshotService,
+                              ProductChangeNotifier changeNotifier,
+                              ProductSearchService productSearchService,
+                              ObjectProvider<MeterRegistry> meterRegistry) {
         this.productRepository = productRepository;
+        this.quantityAccumulator = quantityAccumulator;
+        this.catalogSnapshotService = catalogSnapshotService;
+        this.changeNotifier = changeNotifier;
+        this.productSearchService = productSearchService;
+
+        meterRegistry.ifAvailable(registry -> {
+            FunctionCounter.builder("products.lookups", findByIdFlights, SingleFlight::executedCount)
+                    .tag("result", "executed")
+                    .description("Product lookups by id that ran a database query")
+                    .register(registry);
+            FunctionCounter.builder("products.lookups", findByIdFlights, SingleFlight::collapsedCount)
+                    .tag("result", "collapsed")
+                    .description("Product lookups by id that shared a query already in flight")
+                    .register(registry);
+        });
+    }
+
+    @Autowired(required = false)
+    void setReplicaRouter(ReplicaRouter replicaRouter) {
+        this.replicaRouter = replicaRouter;
     }
 
     @Override
     public Optional<Product> findById(Integer id) {
         logger.info("Find product with id: {}", id);
-        return productRepository.findById(id);
+        CatalogSnapshot snapshot = catalogSnapshotService.servingSnapshot();
+        if (snapshot != null) {
+            return snapshot.findById(id);
+        }
+        // A lookup pinned to the primary to read its own write must not share a lookup on a lagging replica
+        String route = replicaRouter != null ? replicaRouter.route() : "primary";
+        return findByIdFlights.execute(new FlightKey(id, route), () -> productRepository.findById(id));
+    }
+
+    @Override
+    public List<Product> findAllById(Collection<Integer> ids) {
+        logger.info("Find {} products by id", Unbox.box(ids.size()));
+        CatalogSnapshot snapshot = catalogSnapshotService.servingSnapshot();
+        if (snapshot != null) {
+            return snapshot.findAllById(ids);
+        }
+        return productRepository.findAllById(ids);
+    }
+
+    @Override
+    public Optional<Integer> findVersionById(Integer id) {
+        logger.info("Find version of product with id: {}", id);
+        CatalogSnapshot snapshot = catalogSnapshotService.servingSnapshot();
+        if (snapshot != null) {
+            return snapshot.findVersionById(id);
+        }
+        return productRepository.findVersionById(id);
     }
 
     @Override
     public List<Product> findAll() {
         logger.info("Find all products");
+        CatalogSnapshot snapshot = catalogSnapshotService.servingSnapshot();
+        if (snapshot != null) {
+            return snapshot.findAll();
+        }
         return productRepository.findAll();
     }
 
+    @Override
+    public List<Product> findPage(Integer after, int limit) {
+        logger.info("Find products after id: {}, limit: {}", after, Unbox.box(limit));
+        CatalogSnapshot snapshot = catalogSnapshotService.servingSnapshot();
+        if (snapshot != null) {
+            return snapshot.findPage(after, limit);
+        }
+        return productRepository.findPage(after, limit);
+    }
+
+    @Override
+    public List<Product> search(String query, int offset, int limit) {
+        logger.info("Search products for: {}, offset: {}, limit: {}", query, Unbox.box(offset), Unbox.box(limit));
+        List<Integer> ids = productSearchService.search(query, offset, limit);
+
+        // Read the products in bulk and put them back in rank order, skipping any deleted since they were indexed
+        Map<Integer, Product> found = new HashMap<>();
+        findAllById(ids).forEach(product -> found.put(product.getId(), product));
+        List<Product> products = new ArrayList<>(found.size());
+        for (Integer id : ids) {
+            Product product = found.get(id);
+            if (product != null) {
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    @Override
+    public void streamAll(Consumer<Product> consumer) {
+        logger.info("Stream all products");
+        CatalogSnapshot snapshot = catalogSnapshotService.servingSnapshot();
+        if (snapshot != null) {
+            snapshot.forEach(consumer);
+            return;
+        }
+        productRepository.streamAll(consumer);
+    }
+
+    @Override
+    public List<ProductChange> findChangesAfter(long sequence, int limit) {
+        logger.info("Find changes after sequence: {}, limit: {}", Unbox.box(sequence), Unbox.box(limit));
+        return productRepository.findChangesAfter(sequence, limit);
+    }
+
+    @Override
+    public CompletableFuture<Void> nextChange() {
+        return changeNotifier.nextChange();
+    }
+
+    @Override
+    public String findCatalogVersion() {
+        CatalogSnapshot snapshot = catalogSnapshotService.servingSnapshot();
+        if (snapshot != null) {
+            // The snapshot's contents only change when a newer snapshot is loaded
+            return "snapshot-" + snapshot.getCreatedAt().toEpochMilli();
+        }
+        return Long.toString(productRepository.findLatestChangeSequence());
+    }
+
     @Override
     public boolean update(Product product) {
-        logger.info("Update product: {}", product);
+        logger.info("Update product with id: {}", product.getId());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Update product: {}", product);
+        }
         return productRepository.update(product);
     }
 
+    @Override
+    public VersionedWriteResult updateIfVersion(Product product, Integer expectedVersion) {
+        logger.info("Update product with id: {} if version is: {}", product.getId(), expectedVersion);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Update product: {}", product);
+        }
+        return productRepository.updateIfVersion(product, expectedVersion);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> adjustQuantity(Integer id, int delta) {
+        logger.info("Adjust quantity of product with id: {} by: {}", id, Unbox.box(delta));
+        return quantityAccumulator.adjust(id, delta);
+    }
+
+    @Override
+    public StockReservation reserve(Map<Integer, Integer> quantities) {
+        logger.info("Reserve stock of {} products", Unbox.box(quantities.size()));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Reserve quantities: {}", quantities);
+        }
+        return productRepository.reserve(quantities);
+    }
+
     @Override
     public Product save(Product product) {
         // Set the product version to 1 as we're adding a new product to the database
         product.setVersion(1);
 
-        logger.info("Save product to the database: {}", product);
+        logger.info("Save product to the database with name: {}", product.getName());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Save product: {}", product);
+        }
         return productRepository.save(product);
     }
 
+    @Override
+    public List<Product> saveAll(List<Product> products) {
+        // Every product is new to the database, so each one starts at version 1
+        products.forEach(product -> product.setVersion(1));
+
+        logger.info("Save {} products to the database", Unbox.box(products.size()));
+        return productRepository.saveAll(products);
+    }
+
     @Override
     public boolean delete(Integer id) {
         logger.info("Delete product with id: {}", id);
         return productRepository.delete(id);
     }
+
+    @Override
+    public VersionedWriteResult deleteIfVersion(Integer id, Integer expectedVersion) {
+        logger.info("Delete product with id: {} if version is: {}", id, expectedVersion);
+        return productRepository.deleteIfVersion(id, expectedVersion);
+    }
+
+    /**
+     * Identifies lookups that may share one database call: the same product, read from the same database.
+     */
+    private record FlightKey(Integer id, String route) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,259 @@
+package com.globomantics.productservice.service;
+
+import com.globomantics.productservice.repository.ProductRepository;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies signed quantity deltas to products without a read-modify-write cycle.
+ *
+ * <p>In GROUP_COMMIT mode each delta is added to a striped, lock-free LongAdder for its product in the current
+ * batch. A single flusher thread periodically closes the batch and writes the net delta of each product with one
+ * batched {@code UPDATE products SET quantity = quantity + ?} statement, so thousands of adjustments to a hot
+ * product collapse into one row update per flush. Every caller gets the future of the batch that holds its delta,
+ * which completes when that batch is durable, so no thread waits for the flush. In SYNC mode every delta is
+ * written immediately, on the calling thread.
+ *
+ * <p>A caller that gives up after the flush timeout takes its delta back out of its batch if that batch has not been
+ * closed yet, so the caller may safely retry. Once the flush has begun the delta can no longer be taken back and
+ * will still be written, and the caller is told so with a QuantityAdjustmentPendingException instead. A delta that
+ * would take the net delta of its product in a batch beyond the range of an int is refused on its own.
+ */
+@Component
+public class QuantityAccumulator {
+
+    private static final Logger logger = LogManager.getLogger(QuantityAccumulator.class);
+
+    private final ProductRepository productRepository;
+    private final QuantityDurability durability;
+    private final Duration flushTimeout;
+    private final ScheduledExecutorService flusher;
+
+    // The batch that new deltas are added to, replaced by every flush that has something to write
+    private volatile Batch currentBatch = new Batch();
+
+    public QuantityAccumulator(ProductRepository productRepository,
+                               @Value("${products.quantity.durability:group-commit}") QuantityDurability durability,
+                               @Value("${products.quantity.flush-interval:10ms}") Duration flushInterval,
+                               @Value("${products.quantity.flush-timeout:5s}") Duration flushTimeout) {
+        this.productRepository = productRepository;
+        this.durability = durability;
+        this.flushTimeout = flushTimeout;
+
+        if (durability == QuantityDurability.GROUP_COMMIT) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "quantity-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(this::flushQuietly,
+                    flushInterval.toNanos(), flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+        } else {
+            this.flusher = null;
+        }
+
+        logger.info("Applying quantity adjustments with durability {}", durability);
+    }
+
+    /**
+     * Adds the specified delta to the quantity of a product. In GROUP_COMMIT mode this returns at once, with a
+     * future of the flush that writes the delta; in SYNC mode the delta has been written when this returns.
+     *
+     * @param productId The id of the product to adjust.
+     * @param delta     The signed amount to add to the product's quantity.
+     * @return          A future that completes with true if the product exists and was adjusted, false if it does
+     *                  not exist, or exceptionally if the flush failed. If the flush did not complete within the
+     *                  flush timeout, it fails with a TimeoutException when the delta was taken back and will not
+     *                  be written, or with a QuantityAdjustmentPendingException when it is still being written.
+     *                  It fails with an ArithmeticException if the net delta of the product would overflow.
+     */
+    public CompletableFuture<Boolean> adjust(Integer productId, int delta) {
+        if (durability == QuantityDurability.SYNC) {
+            return CompletableFuture.completedFuture(
+                    productRepository.adjustQuantities(Map.of(productId, delta)).isEmpty());
+        }
+
+        // A batch that is being flushed refuses new deltas, so retry with the batch that replaced it
+        Batch batch;
+        try {
+            do {
+                batch = currentBatch;
+            } while (!batch.add(productId, delta));
+        } catch (ArithmeticException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // Only the batch that holds our delta can tell whether our product was found
+        Batch added = batch;
+        return added.flushed
+                .thenApply(result -> {
+                    if (result.overflowedIds().contains(productId)) {
+                        throw new ArithmeticException("The net delta of product " + productId + " overflows");
+                    }
+                    return !result.missingIds().contains(productId);
+                })
+                .orTimeout(flushTimeout.toNanos(), TimeUnit.NANOSECONDS)
+                .exceptionallyCompose(error -> {
+                    if (!(error instanceof TimeoutException)) {
+                        return CompletableFuture.failedFuture(error);
+                    }
+                    return CompletableFuture.failedFuture(added.remove(productId, delta)
+                            ? error
+                            : new QuantityAdjustmentPendingException(productId));
+                });
+    }
+
+    /**
+     * Closes the current batch and writes its deltas to the database, then completes its future, exceptionally if
+     * anything goes wrong, so that no caller is left waiting.
+     */
+    public synchronized void flush() {
+        Batch batch = currentBatch;
+        if (batch.isEmpty()) {
+            // Nothing to write, so don't take a connection from the pool
+            return;
+        }
+        currentBatch = new Batch();
+
+        try {
+            Map<Integer, Integer> deltas = new HashMap<>();
+            Set<Integer> overflowedIds = batch.drain(deltas);
+            if (!overflowedIds.isEmpty()) {
+                logger.warn("Not writing the net deltas of {} products, which overflow", overflowedIds);
+            }
+            Set<Integer> missingIds = deltas.isEmpty() ? Set.of() : productRepository.adjustQuantities(deltas);
+            batch.flushed.complete(new FlushResult(missingIds, overflowedIds));
+        } catch (RuntimeException e) {
+            batch.flushed.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Failed to flush quantity adjustments", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flushQuietly();
+        }
+    }
+
+    /**
+     * The outcome of one flush.
+     *
+     * @param missingIds    The products that do not exist.
+     * @param overflowedIds The products whose net delta did not fit in an int and was not written.
+     */
+    private record FlushResult(Set<Integer> missingIds, Set<Integer> overflowedIds) {
+    }
+
+    /**
+     * The deltas of one flush. Adders register as writers while they add, and the flusher closes the batch and
+     * waits for its writers to finish before it reads the deltas, so every delta that was added is written and
+     * every delta that was refused goes to the next batch. The batch and its map are dropped after the flush, so
+     * the products adjusted once do not stay in memory.
+     */
+    private static final class Batch {
+
+        private final ConcurrentHashMap<Integer, LongAdder> deltas = new ConcurrentHashMap<>();
+        private final AtomicInteger writers = new AtomicInteger();
+        private final CompletableFuture<FlushResult> flushed = new CompletableFuture<>();
+        private volatile boolean closed;
+
+        /**
+         * @return  False if the batch has been closed and the delta was not added.
+         * @throws ArithmeticException  If the delta would take the net delta of the product beyond the range of an
+         *                              int, in which case it is not added.
+         */
+        boolean add(Integer productId, int delta) {
+            // Register before checking closed; the flusher sets closed before it checks for writers
+            writers.incrementAndGet();
+            try {
+                if (closed) {
+                    return false;
+                }
+                LongAdder adder = deltas.computeIfAbsent(productId, id -> new LongAdder());
+                adder.add(delta);
+                long sum = adder.sum();
+                if (sum > Integer.MAX_VALUE || sum < Integer.MIN_VALUE) {
+                    adder.add(-delta);
+                    throw new ArithmeticException("The net delta of product " + productId + " would overflow");
+                }
+                return true;
+            } finally {
+                writers.decrementAndGet();
+            }
+        }
+
+        /**
+         * Takes a delta that was added back out of the batch, unless the batch has been closed.
+         *
+         * @return  False if the batch has been closed and the delta will be written.
+         */
+        boolean remove(Integer productId, int delta) {
+            writers.incrementAndGet();
+            try {
+                if (closed) {
+                    return false;
+                }
+                deltas.get(productId).add(-delta);
+                return true;
+            } finally {
+                writers.decrementAndGet();
+            }
+        }
+
+        boolean isEmpty() {
+            return deltas.isEmpty();
+        }
+
+        /**
+         * Closes the batch and puts the net delta of each product into the specified map. The additions of
+         * concurrent writers are checked one at a time, so a product's net delta may still end up beyond the range
+         * of an int; it is left out rather than failing the writes of every other product.
+         *
+         * @return  The products whose net delta does not fit in an int.
+         */
+        Set<Integer> drain(Map<Integer, Integer> net) {
+            closed = true;
+            while (writers.get() != 0) {
+                Thread.onSpinWait();
+            }
+
+            Set<Integer> overflowedIds = new HashSet<>();
+            deltas.forEach((productId, adder) -> {
+                long delta = adder.sum();
+                if (delta > Integer.MAX_VALUE || delta < Integer.MIN_VALUE) {
+                    overflowedIds.add(productId);
+                } else if (delta != 0) {
+                    net.put(productId, (int) delta);
+                }
+            });
+            return overflowedIds;
+        }
+    }
+}
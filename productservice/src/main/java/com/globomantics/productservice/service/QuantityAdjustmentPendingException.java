@@ -0,0 +1,13 @@
+package com.globomantics.productservice.service;
+
+/**
+ * Thrown when a quantity adjustment was not written within the flush timeout, but its flush had already begun, so
+ * it could not be taken back. The adjustment will still be written, or fail with the rest of its flush, and must
+ * not be retried.
+ */
+public class QuantityAdjustmentPendingException extends RuntimeException {
+
+    public QuantityAdjustmentPendingException(Integer productId) {
+        super("The quantity adjustment of product " + productId + " is still being written");
+    }
+}
@@ -0,0 +1,17 @@
+package com.globomantics.productservice.service;
+
+/**
+ * Controls when a quantity adjustment is written to the database.
+ */
+public enum QuantityDurability {
+    /**
+     * Every adjustment is written to the database by its own statement before the request completes.
+     */
+    SYNC,
+
+    /**
+     * Adjustments are accumulated in memory and written in periodic batches. A request completes once the batch
+     * that contains its adjustment has been written, so acknowledged adjustments are always durable.
+     */
+    GROUP_COMMIT
+}
@@ -0,0 +1,82 @@
+package com.globomantics.productservice.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Collapses concurrent calls for the same key into one. The first caller for a key runs the call, and every caller
+ * that arrives while it is in flight waits for and shares its result. Nothing is remembered once the call
+ * completes, so the next caller always runs a fresh call.
+ *
+ * @param <K>   The type of the key that identifies identical calls.
+ * @param <V>   The type of the result of a call.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final UnaryOperator<V> share;
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    /**
+     * @param share Applied to the result handed to each waiting caller, for example to give each one its own copy
+     *              of a mutable result. The caller that ran the call receives the result unchanged.
+     */
+    public SingleFlight(UnaryOperator<V> share) {
+        this.share = share;
+    }
+
+    /**
+     * Runs the specified call, or joins the identical call that is already in flight for the key.
+     *
+     * @param key   Identifies the call.
+     * @param call  The call to run if none is in flight for the key.
+     * @return      The result of the call.
+     */
+    public V execute(K key, Supplier<V> call) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+
+        if (existing != null) {
+            collapsed.increment();
+            try {
+                return share.apply(existing.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        executed.increment();
+        try {
+            V result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return  The number of calls that were actually run.
+     */
+    public long executedCount() {
+        return executed.sum();
+    }
+
+    /**
+     * @return  The number of calls that joined a call already in flight instead of running their own.
+     */
+    public long collapsedCount() {
+        return collapsed.sum();
+    }
+}
@@ -0,0 +1,314 @@
+package com.globomantics.productservice.snapshot;
+
+import com.globomantics.productservice.model.Product;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * A read-only, memory-mapped copy of the whole product catalog.
+ *
+ * <p>The file has a fixed layout, all values big-endian:
+ * <pre>
+ * header   int magic, int format version, int product count, int reserved,
+ *          long creation time in epoch millis, long offset of the first record
+ * index    product count entries of int id, int record offset, sorted by id
+ * records  int id, int quantity, int version, short name length, name in UTF-8
+ * </pre>
+ * Lookups binary search the index and decode a single record straight from the mapped region, so answering a
+ * request needs neither the database nor reading the file into the heap. Opening a snapshot only maps the file,
+ * which is what lets a restarted node serve a warm catalog within milliseconds.
+ */
+public final class CatalogSnapshot {
+
+    private static final int MAGIC = 0x50434154; // "PCAT"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final int productCount;
+    private final Instant createdAt;
+
+    private CatalogSnapshot(Path path, ByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException(path + " is not a catalog snapshot");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IllegalArgumentException(path + " has unsupported snapshot format " + buffer.getInt(4));
+        }
+        this.productCount = buffer.getInt(8);
+        this.createdAt = Instant.ofEpochMilli(buffer.getLong(16));
+    }
+
+    /**
+     * Maps the snapshot file at the specified path into memory.
+     *
+     * @param path  The snapshot file.
+     * @return      The opened snapshot.
+     * @throws IOException  If the file cannot be read.
+     * @throws IllegalArgumentException If the file is not a catalog snapshot.
+     */
+    public static CatalogSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new CatalogSnapshot(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes a snapshot of the products that the specified source feeds to its consumer. The file is written next
+     * to its final location and moved into place atomically, so readers never see a partially written snapshot.
+     *
+     * <p>The index comes before the records but is only complete once every record has been seen, so the records
+     * are streamed to a second temporary file and appended after the index with a channel transfer. Only the index,
+     * 8 bytes per product, is held in memory.
+     *
+     * @param path      The snapshot file to write.
+     * @param source    Feeds every product in the catalog to the consumer it is given.
+     * @return          The number of products written.
+     * @throws IOException  If the file cannot be written.
+     */
+    public static int write(Path path, Consumer<Consumer<Product>> source) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        Path records = Files.createTempFile(directory, path.getFileName().toString(), ".records.tmp");
+        try {
+            IndexBuilder index = new IndexBuilder();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(records, StandardOpenOption.WRITE), 64 * 1024))) {
+                source.accept(product -> {
+                    try {
+                        byte[] name = product.getName().getBytes(StandardCharsets.UTF_8);
+                        index.add(product.getId(), out.size());
+                        out.writeInt(product.getId());
+                        out.writeInt(product.getQuantity());
+                        out.writeInt(product.getVersion());
+                        out.writeShort(name.length);
+                        out.write(name);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            long[] entries = index.sorted();
+            int dataOffset = HEADER_SIZE + entries.length * INDEX_ENTRY_SIZE;
+            ByteBuffer head = ByteBuffer.allocate(dataOffset)
+                    .putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putInt(entries.length)
+                    .putInt(0)
+                    .putLong(System.currentTimeMillis())
+                    .putLong(dataOffset);
+            for (long entry : entries) {
+                head.putInt((int) (entry >>> 32)).putInt(dataOffset + (int) entry);
+            }
+            head.flip();
+
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+                 FileChannel recordChannel = FileChannel.open(records, StandardOpenOption.READ)) {
+                while (head.hasRemaining()) {
+                    channel.write(head);
+                }
+                long size = recordChannel.size();
+                for (long position = 0; position < size; ) {
+                    position += recordChannel.transferTo(position, size - position, channel);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return entries.length;
+        } finally {
+            Files.deleteIfExists(records);
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return  The file this snapshot was opened from.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return  The number of products in this snapshot.
+     */
+    public int getProductCount() {
+        return productCount;
+    }
+
+    /**
+     * @return  When this snapshot was written.
+     */
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Returns the product with the specified id.
+     *
+     * @param id    The id of the product to find.
+     * @return      The product, or an empty Optional if it is not in the snapshot.
+     */
+    public Optional<Product> findById(Integer id) {
+        int position = positionOf(id);
+        return position >= 0 ? Optional.of(productAt(position)) : Optional.empty();
+    }
+
+    /**
+     * Returns the version of the product with the specified id, without decoding the rest of the record.
+     *
+     * @param id    The id of the product.
+     * @return      The version, or an empty Optional if the product is not in the snapshot.
+     */
+    public Optional<Integer> findVersionById(Integer id) {
+        int position = positionOf(id);
+        return position >= 0 ? Optional.of(buffer.getInt(recordOffset(position) + 8)) : Optional.empty();
+    }
+
+    /**
+     * Returns the products with the specified ids; ids that are not in the snapshot are skipped.
+     *
+     * @param ids   The ids of the products to find.
+     * @return      The products that were found.
+     */
+    public List<Product> findAllById(Collection<Integer> ids) {
+        List<Product> products = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            findById(id).ifPresent(products::add);
+        }
+        return products;
+    }
+
+    /**
+     * @return  Every product in the snapshot, ordered by id.
+     */
+    public List<Product> findAll() {
+        List<Product> products = new ArrayList<>(productCount);
+        forEach(products::add);
+        return products;
+    }
+
+    /**
+     * Returns a page of products ordered by id, the same way as ProductRepository.findPage.
+     *
+     * @param after The id after which the page starts, or null to start at the first product.
+     * @param limit The maximum number of products to return.
+     * @return      The products of the page.
+     */
+    public List<Product> findPage(Integer after, int limit) {
+        int start = after == null ? 0 : firstPositionAfter(after);
+        int end = (int) Math.min((long) start + limit, productCount);
+
+        List<Product> products = new ArrayList<>(Math.max(end - start, 0));
+        for (int position = start; position < end; position++) {
+            products.add(productAt(position));
+        }
+        return products;
+    }
+
+    /**
+     * Passes every product in the snapshot, ordered by id, to the specified consumer.
+     *
+     * @param consumer  The consumer that receives each product.
+     */
+    public void forEach(Consumer<Product> consumer) {
+        for (int position = 0; position < productCount; position++) {
+            consumer.accept(productAt(position));
+        }
+    }
+
+    private int positionOf(int id) {
+        int low = 0;
+        int high = productCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = idAt(middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int firstPositionAfter(int id) {
+        int low = 0;
+        int high = productCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (idAt(middle) <= id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int idAt(int position) {
+        return buffer.getInt(HEADER_SIZE + position * INDEX_ENTRY_SIZE);
+    }
+
+    private int recordOffset(int position) {
+        return buffer.getInt(HEADER_SIZE + position * INDEX_ENTRY_SIZE + 4);
+    }
+
+    private Product productAt(int position) {
+        int offset = recordOffset(position);
+        byte[] name = new byte[Short.toUnsignedInt(buffer.getShort(offset + 12))];
+        buffer.get(offset + 14, name);
+        return new Product(buffer.getInt(offset), new String(name, StandardCharsets.UTF_8),
+                buffer.getInt(offset + 4), buffer.getInt(offset + 8));
+    }
+
+    /**
+     * Collects index entries as id and record offset packed into one long, so sorting the longs sorts by id.
+     */
+    private static class IndexBuilder {
+
+        private long[] entries = new long[1024];
+        private int size;
+
+        void add(int id, int offset) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = ((long) id << 32) | (offset & 0xFFFFFFFFL);
+        }
+
+        long[] sorted() {
+            long[] result = Arrays.copyOf(entries, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.globomantics.productservice.snapshot;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+
+/**
+ * Exposes the catalog snapshot at {@code /actuator/snapshot}. A GET describes the current snapshot and a POST
+ * writes a new one from the database right away.
+ */
+@Component
+@Endpoint(id = "snapshot")
+public class CatalogSnapshotEndpoint {
+
+    private final CatalogSnapshotService catalogSnapshotService;
+
+    public CatalogSnapshotEndpoint(CatalogSnapshotService catalogSnapshotService) {
+        this.catalogSnapshotService = catalogSnapshotService;
+    }
+
+    @ReadOperation
+    public SnapshotInfo snapshot() {
+        return SnapshotInfo.of(catalogSnapshotService.currentSnapshot(),
+                catalogSnapshotService.servingSnapshot() != null);
+    }
+
+    @WriteOperation
+    public SnapshotInfo write() {
+        catalogSnapshotService.write();
+        return snapshot();
+    }
+
+    /**
+     * A description of a catalog snapshot.
+     *
+     * @param path          The snapshot file, or null if no snapshot has been written or loaded yet.
+     * @param productCount  The number of products in the snapshot.
+     * @param createdAt     When the snapshot was written.
+     * @param serving       Whether product reads are answered from the snapshot.
+     */
+    public record SnapshotInfo(String path, int productCount, Instant createdAt, boolean serving) {
+
+        static SnapshotInfo of(CatalogSnapshot snapshot, boolean serving) {
+            if (snapshot == null) {
+                return new SnapshotInfo(null, 0, null, false);
+            }
+            return new SnapshotInfo(snapshot.getPath().toAbsolutePath().toString(), snapshot.getProductCount(),
+                    snapshot.getCreatedAt(), serving);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.globomantics.productservice.snapshot;
+
+import com.globomantics.productservice.repository.ProductRepository;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes catalog snapshots and, on read-only nodes, serves the catalog from the latest one.
+ *
+ * <p>A node that owns the database writes a snapshot of every product to products.snapshot.path every
+ * products.snapshot.write-interval, or on demand through the snapshot actuator endpoint. A node started with
+ * products.snapshot.read-only=true maps the existing snapshot during startup, answers product reads from it
+ * instead of the database, and picks up a newer file every products.snapshot.reload-interval. Writes are always
+ * made to the database.
+ */
+@Component
+public class CatalogSnapshotService {
+
+    private static final Logger logger = LogManager.getLogger(CatalogSnapshotService.class);
+
+    private final ProductRepository productRepository;
+    private final Path path;
+    private final boolean readOnly;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile CatalogSnapshot snapshot;
+    private volatile FileTime snapshotModified;
+
+    public CatalogSnapshotService(ProductRepository productRepository,
+                                  @Value("${products.snapshot.path:catalog.snapshot}") Path path,
+                                  @Value("${products.snapshot.read-only:false}") boolean readOnly,
+                                  @Value("${products.snapshot.write-interval:0s}") Duration writeInterval,
+                                  @Value("${products.snapshot.reload-interval:5s}") Duration reloadInterval) {
+        this.productRepository = productRepository;
+        this.path = path;
+        this.readOnly = readOnly;
+
+        Duration interval = readOnly ? reloadInterval : writeInterval;
+        if (interval.isZero() || interval.isNegative()) {
+            this.scheduler = null;
+        } else {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "catalog-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            Runnable task = readOnly ? this::reloadIfModified : this::writeQuietly;
+            this.scheduler.scheduleWithFixedDelay(task, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        if (readOnly) {
+            // Map the snapshot before the first request so a restarted node serves warm data immediately
+            reloadIfModified();
+        }
+        logger.info("Catalog snapshot at {}, read-only: {}", path.toAbsolutePath(), readOnly);
+    }
+
+    /**
+     * Returns the snapshot that product reads should be answered from.
+     *
+     * @return  The current snapshot on a read-only node that has loaded one, otherwise null.
+     */
+    public CatalogSnapshot servingSnapshot() {
+        return readOnly ? snapshot : null;
+    }
+
+    /**
+     * Returns the most recently written or loaded snapshot.
+     *
+     * @return  The current snapshot, or null if there is none yet.
+     */
+    public CatalogSnapshot currentSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Writes a snapshot of every product in the database and maps it.
+     *
+     * @return  The snapshot that was written.
+     * @throws UncheckedIOException If the snapshot cannot be written.
+     */
+    public synchronized CatalogSnapshot write() {
+        try {
+            long start = System.nanoTime();
+            int count = CatalogSnapshot.write(path, productRepository::streamAll);
+            load();
+            logger.info("Wrote catalog snapshot of {} products in {} ms",
+                    count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return snapshot;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write catalog snapshot to " + path, e);
+        }
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (RuntimeException e) {
+            logger.error("Failed to write catalog snapshot", e);
+        }
+    }
+
+    private synchronized void reloadIfModified() {
+        try {
+            if (!Files.exists(path)) {
+                logger.warn("No catalog snapshot at {} yet", path.toAbsolutePath());
+                return;
+            }
+            if (!Files.getLastModifiedTime(path).equals(snapshotModified)) {
+                load();
+                logger.info("Loaded catalog snapshot of {} products written at {}",
+                        snapshot.getProductCount(), snapshot.getCreatedAt());
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to load catalog snapshot from {}", path.toAbsolutePath(), e);
+        }
+    }
+
+    private void load() throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        snapshot = CatalogSnapshot.open(path);
+        snapshotModified = modified;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
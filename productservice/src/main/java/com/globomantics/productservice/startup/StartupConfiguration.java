@@ -0,0 +1,42 @@
+package com.globomantics.productservice.startup;
+
+import com.globomantics.productservice.repository.ChangeLogPruner;
+import com.globomantics.productservice.repository.ReplicaRouter;
+import com.globomantics.productservice.search.ProductSearchService;
+import com.globomantics.productservice.snapshot.CatalogSnapshotService;
+import com.globomantics.servicesupport.startup.TrainingRun;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * Registers the TrainingRun that makes a run with products.startup.training-run a training run for the class data
+ * sharing archive.
+ *
+ * <p>Also keeps the beans whose work has to start with the application eager when the fast-start profile makes every
+ * other bean lazy. A read-only node must map the catalog snapshot before its first request, and a writing node
+ * writes it on a schedule. The replica router must know the replicas' lag before it routes a read to them. The
+ * search index is built in the background and should be complete by the first search. No other bean depends on
+ * the change log pruner, so if it were lazy it would never be created. The rest, controllers and repositories
+ * included, are created by the first request that needs them.
+ */
+@Configuration(proxyBeanMethods = false)
+public class StartupConfiguration {
+
+    @Bean
+    public static LazyInitializationExcludeFilter eagerBackgroundBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                CatalogSnapshotService.class, ReplicaRouter.class, ProductSearchService.class, ChangeLogPruner.class);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "products.startup.training-run", havingValue = "true")
+    public TrainingRun trainingRun(
+            @Value("${products.startup.training-requests:/actuator/health,/products}") List<String> trainingRequests) {
+        return new TrainingRun(trainingRequests);
+    }
+}
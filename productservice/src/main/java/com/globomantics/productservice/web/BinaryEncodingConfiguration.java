@@ -0,0 +1,33 @@
+package com.globomantics.productservice.web;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Lets clients exchange products as CBOR ({@code application/cbor}) or Smile ({@code application/x-jackson-smile})
+ * instead of JSON. Both are binary encodings of the same data model, so every endpoint that reads or writes JSON
+ * accepts and produces them too, chosen by the Content-Type and Accept headers; JSON stays the default. They are
+ * smaller and cheaper to encode and parse than JSON, which matters for service-to-service calls that move long
+ * product lists.
+ *
+ * <p>The converters use the same Jackson configuration as the JSON one, so property names, dates and features
+ * match whichever encoding is chosen.
+ */
+@Configuration(proxyBeanMethods = false)
+public class BinaryEncodingConfiguration {
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+}
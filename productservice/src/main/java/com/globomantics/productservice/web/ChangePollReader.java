@@ -0,0 +1,102 @@
+package com.globomantics.productservice.web;
+
+import com.globomantics.productservice.model.ProductChange;
+import com.globomantics.productservice.service.ProductService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reads the change log again for the long-polling GET /products/changes requests that a commit has woken up.
+ *
+ * <p>A single commit wakes every waiting request at once, and if each of them went straight back to the
+ * DatabaseBulkhead the burst would overflow its queue and turn into 503 responses. Instead the woken requests
+ * queue here, and at most products.changes.max-concurrent-reads of their reads run on the bulkhead at a time.
+ * Requests that wait for the same changes, which after a commit is most of them, share one queued read. A read
+ * that has already started is never shared, since it may not see the commit that woke the later request.
+ */
+@Component
+public class ChangePollReader {
+
+    private static final Logger logger = LogManager.getLogger(ChangePollReader.class);
+
+    private final ProductService productService;
+    private final DatabaseBulkhead databaseBulkhead;
+    private final int maxConcurrentReads;
+
+    // Guarded by this: the reads that have not started yet, in order and by what they read, and how many are running
+    private final Queue<ReadKey> queued = new ArrayDeque<>();
+    private final Map<ReadKey, CompletableFuture<List<ProductChange>>> queuedReads = new HashMap<>();
+    private int running;
+
+    public ChangePollReader(ProductService productService,
+                            DatabaseBulkhead databaseBulkhead,
+                            @Value("${products.changes.max-concurrent-reads:2}") int maxConcurrentReads) {
+        this.productService = productService;
+        this.databaseBulkhead = databaseBulkhead;
+        this.maxConcurrentReads = maxConcurrentReads;
+
+        logger.info("Reading changes for at most {} woken long polls at a time", maxConcurrentReads);
+    }
+
+    /**
+     * Queues a read of the changes after the specified sequence number, or joins an identical read that is queued.
+     *
+     * @param since The sequence number after which to read.
+     * @param limit The maximum number of changes to read.
+     * @return      A future of the changes, which fails with a RejectedExecutionException if the bulkhead is full.
+     */
+    public synchronized CompletableFuture<List<ProductChange>> read(long since, int limit) {
+        ReadKey key = new ReadKey(since, limit);
+        CompletableFuture<List<ProductChange>> read = queuedReads.get(key);
+        if (read == null) {
+            read = new CompletableFuture<>();
+            queuedReads.put(key, read);
+            queued.add(key);
+            startReads();
+        }
+        return read;
+    }
+
+    /**
+     * Starts queued reads until the concurrency limit is reached.
+     */
+    private synchronized void startReads() {
+        while (running < maxConcurrentReads && !queued.isEmpty()) {
+            ReadKey key = queued.remove();
+            CompletableFuture<List<ProductChange>> read = queuedReads.remove(key);
+            running++;
+            try {
+                databaseBulkhead.submit(() -> productService.findChangesAfter(key.since(), key.limit()))
+                        .whenComplete((changes, error) -> {
+                            readFinished();
+                            if (error != null) {
+                                read.completeExceptionally(error);
+                            } else {
+                                read.complete(changes);
+                            }
+                        });
+            } catch (RejectedExecutionException e) {
+                running--;
+                read.completeExceptionally(e);
+            }
+        }
+    }
+
+    private synchronized void readFinished() {
+        running--;
+        startReads();
+    }
+
+    private record ReadKey(long since, int limit) {
+    }
+}
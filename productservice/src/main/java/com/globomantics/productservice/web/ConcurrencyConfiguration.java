@@ -0,0 +1,41 @@
+package com.globomantics.productservice.web;
+
+import com.globomantics.servicesupport.web.ConcurrencyEndpoint;
+import com.globomantics.servicesupport.web.ConcurrencyLimitFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.util.List;
+
+/**
+ * Limits the requests in flight on each route with the shared ConcurrencyLimitFilter, configured by
+ * products.concurrency.*, and exposes its limits at {@code /actuator/concurrency}. The long-polling
+ * GET /products/changes and the streaming POST /products/import are excluded by default. A change poll waits for up
+ * to products.changes.max-wait by design, and an import limits itself with products.import.max-chunks-in-flight.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "products.concurrency.enabled", havingValue = "true", matchIfMissing = true)
+public class ConcurrencyConfiguration {
+
+    @Bean
+    public ConcurrencyLimitFilter concurrencyLimitFilter(
+            @Value("${products.concurrency.excluded-routes:getChanges,importProducts}") List<String> excludedRoutes,
+            @Qualifier("requestMappingHandlerMapping") ObjectProvider<RequestMappingHandlerMapping> handlerMapping,
+            Environment environment,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        return new ConcurrencyLimitFilter("products.concurrency", excludedRoutes, handlerMapping, environment,
+                meterRegistry);
+    }
+
+    @Bean
+    public ConcurrencyEndpoint concurrencyEndpoint(ConcurrencyLimitFilter concurrencyLimitFilter) {
+        return new ConcurrencyEndpoint(concurrencyLimitFilter);
+    }
+}
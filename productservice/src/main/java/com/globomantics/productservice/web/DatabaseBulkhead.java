@@ -0,0 +1,83 @@
+package com.globomantics.productservice.web;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A bounded executor for work that uses a database connection. It runs at most as many tasks as there are
+ * connections in the pool and queues a bounded number more; anything beyond that is rejected immediately with a
+ * RejectedExecutionException instead of waiting, so an overloaded database cannot tie up every request thread.
+ */
+@Component
+public class DatabaseBulkhead {
+
+    private static final Logger logger = LogManager.getLogger(DatabaseBulkhead.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Counter rejections;
+
+    public DatabaseBulkhead(
+            @Value("${products.bulkhead.max-concurrent:${spring.datasource.hikari.maximum-pool-size:10}}") int maxConcurrent,
+            @Value("${products.bulkhead.queue-capacity:100}") int queueCapacity,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "database-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry != null) {
+            new ExecutorServiceMetrics(executor, "database", Tags.empty()).bindTo(registry);
+            this.rejections = Counter.builder("products.bulkhead.rejected")
+                    .description("Requests rejected because the database executor was full")
+                    .register(registry);
+        } else {
+            this.rejections = null;
+        }
+
+        logger.info("Database bulkhead allows {} concurrent tasks and {} queued tasks", maxConcurrent, queueCapacity);
+    }
+
+    /**
+     * Runs the specified task on the database executor.
+     *
+     * @param task  The task to run.
+     * @return      A future that completes with the result of the task.
+     * @throws RejectedExecutionException   If the executor and its queue are full.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            if (rejections != null) {
+                rejections.increment();
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,428 @@
+package com.globomantics.productservice.web;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.encoder.BrotliOutputStream;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.globomantics.productservice.service.ProductService;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the JSON body of GET /products, the whole catalog, serialized and compressed in files, so that a request
+ * for an unchanged catalog only sends a file instead of reading and serializing every product. Each build writes
+ * the JSON and its brotli, gzip and deflate encodings to products.precompressed.directory.
+ *
+ * <p>When the catalog changes, the body is built again in the background while requests are still sent the old one,
+ * for up to products.precompressed.max-staleness after the change was first seen, so a burst of writes costs one
+ * build rather than one per write. The old body is labelled with the version it was built from, so its eTag is
+ * never newer than its contents. A request that finds the body staler than that waits for a build, and with a
+ * maximum staleness of zero every request after a change does, as only the first of them builds.
+ *
+ * <p>Each body handed to a request is leased until it has been sent, and the files of a build are only deleted once
+ * a newer build has replaced it and its last lease is released. A body that is handed out but never sent keeps its
+ * files until the next start, which deletes every body left in the directory.
+ *
+ * <p>The client gets the encoding it accepts that is smallest: brotli, then gzip, then deflate, then plain JSON.
+ * Brotli is only offered when its native library loads on this platform.
+ */
+@Component
+@ConditionalOnProperty(name = "products.precompressed.enabled", havingValue = "true")
+public class PrecompressedCatalog {
+
+    private static final Logger logger = LogManager.getLogger(PrecompressedCatalog.class);
+
+    /**
+     * The encodings that a body is stored in, from the most to the least preferred.
+     */
+    enum ContentEncoding {
+        BROTLI("br", ".br"),
+        GZIP("gzip", ".gz"),
+        DEFLATE("deflate", ".deflate"),
+        IDENTITY("identity", "");
+
+        private final String token;
+        private final String suffix;
+
+        ContentEncoding(String token, String suffix) {
+            this.token = token;
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * One encoding of a built catalog body.
+     *
+     * @param version           The catalog version that the body was built from.
+     * @param path              The file that holds the body.
+     * @param length            The length of the file in bytes.
+     * @param contentEncoding   The Content-Encoding of the body, or null if it is plain JSON.
+     * @param generation        The build that the body belongs to, whose lease the body holds.
+     */
+    public record Body(String version, Path path, long length, String contentEncoding, Generation generation) {
+    }
+
+    /**
+     * The bodies of one build, which are deleted once the build is retired and no request holds a lease on them.
+     */
+    static final class Generation {
+
+        private final long number;
+        private final String version;
+        private final Map<ContentEncoding, Body> bodies = new EnumMap<>(ContentEncoding.class);
+
+        // When a request first found the catalog newer than this build, in System.nanoTime, or 0 if none has yet
+        private volatile long outdatedAt;
+
+        // Guarded by this
+        private int leases;
+        private boolean retired;
+
+        private Generation(long number, String version) {
+            this.number = number;
+            this.version = version;
+        }
+
+        private synchronized boolean acquire() {
+            if (retired) {
+                return false;
+            }
+            leases++;
+            return true;
+        }
+
+        private synchronized void release() {
+            leases--;
+            if (retired && leases == 0) {
+                deleteQuietly(bodies);
+            }
+        }
+
+        private synchronized void retire() {
+            retired = true;
+            if (leases == 0) {
+                deleteQuietly(bodies);
+            }
+        }
+    }
+
+    private final ProductService productService;
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final long maxStalenessNanos;
+    private final int brotliQuality;
+    private final boolean brotliAvailable;
+    private final ExecutorService builder;
+
+    private final Object buildLock = new Object();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile Generation current;
+
+    public PrecompressedCatalog(ProductService productService,
+                                ObjectMapper objectMapper,
+                                @Value("${products.precompressed.directory:precompressed}") Path directory,
+                                @Value("${products.precompressed.max-staleness:5s}") Duration maxStaleness,
+                                @Value("${products.precompressed.brotli-quality:6}") int brotliQuality) {
+        this.productService = productService;
+        this.objectMapper = objectMapper;
+        this.directory = directory;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        this.brotliQuality = brotliQuality;
+
+        this.builder = maxStaleness.isZero() ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "precompressed-catalog-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.brotliAvailable = Brotli4jLoader.isAvailable();
+        if (!brotliAvailable) {
+            logger.warn("Brotli is not available on this platform, serving gzip and deflate only",
+                    Brotli4jLoader.getUnavailabilityCause());
+        }
+
+        try {
+            Files.createDirectories(directory);
+            // Bodies of an earlier run may describe a different catalog
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "catalog-*.json*")) {
+                for (Path path : stale) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not prepare " + directory.toAbsolutePath(), e);
+        }
+        logger.info("Serving the catalog from precompressed bodies in {}, at most {} stale",
+                directory.toAbsolutePath(), maxStaleness);
+    }
+
+    /**
+     * Returns the catalog body in the encoding that the client prefers, building it first if the catalog has
+     * changed since it was last built and the body is too stale to send. The body is leased to the caller, who
+     * must send it with transferTo, or release it, so that its files can be deleted once it is replaced.
+     *
+     * @param version           The current catalog version.
+     * @param acceptEncoding    The request's Accept-Encoding header, or null.
+     * @return                  The body to send.
+     * @throws UncheckedIOException If the body had to be built and could not be written.
+     */
+    public Body find(String version, String acceptEncoding) {
+        while (true) {
+            Generation generation = current;
+            if (generation == null || !isFresh(generation, version)) {
+                synchronized (buildLock) {
+                    generation = current;
+                    if (generation == null || !isFresh(generation, version)) {
+                        generation = build();
+                    }
+                }
+            }
+            // A build may have retired the generation since it was read, in which case the newer one is leased
+            if (generation.acquire()) {
+                return generation.bodies.get(choose(acceptEncoding, generation.bodies));
+            }
+        }
+    }
+
+    /**
+     * Copies the body's file to the specified stream and then releases the body's lease.
+     */
+    public void transferTo(Body body, OutputStream out) throws IOException {
+        try {
+            Files.copy(body.path(), out);
+        } finally {
+            release(body);
+        }
+    }
+
+    /**
+     * Releases the lease of a body that will not be sent.
+     */
+    public void release(Body body) {
+        body.generation().release();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (builder != null) {
+            builder.shutdown();
+        }
+    }
+
+    /**
+     * Returns true if the generation may be sent for the specified catalog version. The first request that finds it
+     * outdated starts a build in the background, and it is sent meanwhile until it is too stale.
+     */
+    private boolean isFresh(Generation generation, String version) {
+        if (generation.version.equals(version)) {
+            return true;
+        }
+        if (builder == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long outdatedAt = generation.outdatedAt;
+        if (outdatedAt == 0) {
+            generation.outdatedAt = outdatedAt = now;
+            rebuildInBackground();
+        }
+        return now - outdatedAt < maxStalenessNanos;
+    }
+
+    private void rebuildInBackground() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            builder.execute(() -> {
+                try {
+                    synchronized (buildLock) {
+                        build();
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Could not build the catalog body in the background", e);
+                } finally {
+                    rebuilding.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Builds the body of the current catalog, unless it has already been built, and retires the build it replaces.
+     * The version is read again, before the products, so that the body is labelled with a version no newer than its
+     * contents.
+     */
+    private Generation build() {
+        String version = productService.findCatalogVersion();
+        Generation latest = current;
+        if (latest != null && latest.version.equals(version)) {
+            return latest;
+        }
+
+        long started = System.nanoTime();
+        Generation generation = new Generation(latest != null ? latest.number + 1 : 1, version);
+        Map<ContentEncoding, Body> bodies = generation.bodies;
+        try {
+            Path json = directory.resolve("catalog-" + generation.number + ".json");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(json), 64 * 1024)) {
+                writeCatalog(out);
+            }
+            bodies.put(ContentEncoding.IDENTITY, new Body(version, json, Files.size(json), null, generation));
+
+            for (ContentEncoding encoding : ContentEncoding.values()) {
+                if (encoding == ContentEncoding.IDENTITY
+                        || (encoding == ContentEncoding.BROTLI && !brotliAvailable)) {
+                    continue;
+                }
+                Path compressed = directory.resolve(json.getFileName() + encoding.suffix);
+                try (InputStream in = Files.newInputStream(json);
+                     OutputStream out = compress(encoding, Files.newOutputStream(compressed))) {
+                    in.transferTo(out);
+                }
+                bodies.put(encoding,
+                        new Body(version, compressed, Files.size(compressed), encoding.token, generation));
+            }
+        } catch (IOException e) {
+            deleteQuietly(bodies);
+            throw new UncheckedIOException("Could not build the catalog body for version " + version, e);
+        }
+
+        // Requests may still be sending the replaced body, so its files go when the last of them is done
+        current = generation;
+        if (latest != null) {
+            latest.retire();
+        }
+
+        logger.info("Built catalog body for version {} in {} ms: {} bytes, gzip {} bytes", version,
+                Unbox.box((System.nanoTime() - started) / 1_000_000),
+                Unbox.box(bodies.get(ContentEncoding.IDENTITY).length()),
+                Unbox.box(bodies.get(ContentEncoding.GZIP).length()));
+        return generation;
+    }
+
+    private void writeCatalog(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.createGenerator(out);
+        generator.writeStartArray();
+        try {
+            productService.streamAll(product -> {
+                try {
+                    generator.writeObject(product);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+        generator.flush();
+    }
+
+    private OutputStream compress(ContentEncoding encoding, OutputStream out) throws IOException {
+        return switch (encoding) {
+            case BROTLI -> new BrotliOutputStream(out, new Encoder.Parameters().setQuality(brotliQuality));
+            case GZIP -> new GZIPOutputStream(out, 64 * 1024);
+            case DEFLATE -> new DeflaterOutputStream(out, new Deflater(), 64 * 1024) {
+                @Override
+                public void close() throws IOException {
+                    // The stream only ends a Deflater that it created itself
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+            case IDENTITY -> out;
+        };
+    }
+
+    /**
+     * Picks the encoding with the highest quality value in the Accept-Encoding header, preferring the smaller
+     * encoding on a tie. Plain JSON is sent when the header is absent or nothing else is acceptable.
+     */
+    static ContentEncoding choose(String acceptEncoding, Map<ContentEncoding, Body> available) {
+        if (acceptEncoding == null) {
+            return ContentEncoding.IDENTITY;
+        }
+
+        Map<ContentEncoding, Double> qualities = new EnumMap<>(ContentEncoding.class);
+        Double wildcard = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String token = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (token.equals("*")) {
+                wildcard = quality;
+            }
+            for (ContentEncoding encoding : ContentEncoding.values()) {
+                if (encoding.token.equals(token) || (encoding == ContentEncoding.GZIP && token.equals("x-gzip"))) {
+                    qualities.put(encoding, quality);
+                }
+            }
+        }
+
+        ContentEncoding best = ContentEncoding.IDENTITY;
+        double bestQuality = 0;
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            Double quality = qualities.get(encoding);
+            if (quality == null) {
+                quality = wildcard != null ? wildcard : (encoding == ContentEncoding.IDENTITY ? 0.001 : 0);
+            }
+            if (available.containsKey(encoding) && quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static void deleteQuietly(Map<ContentEncoding, Body> bodies) {
+        for (Body body : bodies.values()) {
+            try {
+                Files.deleteIfExists(body.path());
+            } catch (IOException e) {
+                logger.warn("Could not delete {}", body.path(), e);
+            }
+        }
+    }
+}
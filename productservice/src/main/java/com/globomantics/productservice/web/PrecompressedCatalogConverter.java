@@ -0,0 +1,55 @@
+package com.globomantics.productservice.web;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Writes a prebuilt catalog body by copying its file to the response as it is, so the JSON converter never sees
+ * it, and then releases the body's lease. The handler sets the Content-Type, Content-Encoding and Content-Length of
+ * the body.
+ */
+@Component
+@ConditionalOnProperty(name = "products.precompressed.enabled", havingValue = "true")
+public class PrecompressedCatalogConverter extends AbstractHttpMessageConverter<PrecompressedCatalog.Body> {
+
+    private final PrecompressedCatalog precompressedCatalog;
+
+    public PrecompressedCatalogConverter(PrecompressedCatalog precompressedCatalog) {
+        super(MediaType.APPLICATION_JSON);
+        this.precompressedCatalog = precompressedCatalog;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PrecompressedCatalog.Body.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected PrecompressedCatalog.Body readInternal(Class<? extends PrecompressedCatalog.Body> clazz,
+                                                     HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("A catalog body cannot be read", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(PrecompressedCatalog.Body body, MediaType contentType) {
+        return body.length();
+    }
+
+    @Override
+    protected void writeInternal(PrecompressedCatalog.Body body, HttpOutputMessage outputMessage)
+            throws IOException {
+        precompressedCatalog.transferTo(body, outputMessage.getBody());
+    }
+}
@@ -1,60 +1,452 @@
 package com.globomantics.productservice.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.globomantics.productservice.importer.ImportFormat;
+import com.globomantics.productservice.importer.ProductImporter;
+import com.globomantics.productservice.model.ImportReport;
+import com.globomantics.productservice.model.ImportStatus;
 import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
+import com.globomantics.productservice.model.ProductChanges;
+import com.globomantics.productservice.model.ProductLookup;
+import com.globomantics.productservice.model.QuantityAdjustment;
+import com.globomantics.productservice.model.Reservation;
+import com.globomantics.productservice.repository.ChangeLogPrunedException;
+import com.globomantics.productservice.repository.ReplicaRouter;
+import com.globomantics.productservice.repository.StockReservation;
 import com.globomantics.productservice.service.ProductService;
+import com.globomantics.productservice.service.QuantityAdjustmentPendingException;
+import com.globomantics.productservice.snapshot.CatalogSnapshotService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+/**
+ * The product REST API. Every handler that touches the database runs on the bounded DatabaseBulkhead and returns
+ * a CompletableFuture, so Tomcat request threads are never blocked on JDBC. When the bulkhead is full the request
+ * is rejected immediately with 503 Service Unavailable. Reads on a node that serves a catalog snapshot skip the
+ * bulkhead, since they never wait for a connection.
+ */
 @RestController
 public class ProductController {
 
     private static final Logger logger = LogManager.getLogger(ProductController.class);
 
+    private static final MediaType SMILE = MediaType.valueOf("application/x-jackson-smile");
+
     private final ProductService productService;
+    private final ObjectMapper objectMapper;
+    private final DatabaseBulkhead databaseBulkhead;
+    private final CatalogSnapshotService catalogSnapshotService;
+    private final ProductImporter productImporter;
+    private final ChangePollReader changePollReader;
+
+    // The largest page that a single GET /products request may ask for
+    @Value("${products.page.max-limit:1000}")
+    private int maxPageLimit;
+
+    // The longest a GET /products/changes request may wait for new changes, kept below the async request timeout
+    @Value("${products.changes.max-wait:25s}")
+    private Duration maxChangesWait;
 
-    public ProductController(ProductService productService) {
+    // Sends the reads of a request to a read replica when replicas are enabled, otherwise null
+    @Autowired(required = false)
+    private ReplicaRouter replicaRouter;
+
+    // Serves the whole catalog from prebuilt, compressed bodies when enabled, otherwise null
+    @Autowired(required = false)
+    private PrecompressedCatalog precompressedCatalog;
+
+    public ProductController(ProductService productService,
+                             ObjectMapper objectMapper,
+                             DatabaseBulkhead databaseBulkhead,
+                             CatalogSnapshotService catalogSnapshotService,
+                             ProductImporter productImporter,
+                             ChangePollReader changePollReader) {
         this.productService = productService;
+        this.objectMapper = objectMapper;
+        this.databaseBulkhead = databaseBulkhead;
+        this.catalogSnapshotService = catalogSnapshotService;
+        this.productImporter = productImporter;
+        this.changePollReader = changePollReader;
     }
 
     /**
-     * Returns the product with the specified ID.
+     * Returns the product with the specified ID. When the request carries an If-None-Match header that matches the
+     * product's current version, only the version is read and 304 Not Modified is returned without a body.
      *
-     * @param id    The ID of the product to retrieve.
-     * @return      The product with the specified ID.
+     * @param id            The ID of the product to retrieve.
+     * @param ifNoneMatch   The optional eTags of the representations that the client already has.
+     * @return              The product with the specified ID, 304 Not Modified, or 404 Not Found.
      */
     @GetMapping("/product/{id}")
-    public ResponseEntity<?> getProduct(@PathVariable Integer id) {
+    public CompletableFuture<ResponseEntity<?>> getProduct(@PathVariable Integer id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+
+        return onReadPath(() -> {
+            if (ifNoneMatch != null) {
+                Optional<Integer> version = productService.findVersionById(id);
+                if (version.isEmpty()) {
+                    return ResponseEntity.notFound().build();
+                }
+                String eTag = Integer.toString(version.get());
+                if (matchesAnyETag(ifNoneMatch, eTag)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+                }
+            }
+
+            return productService.findById(id)
+                    .map(product -> {
+                        try {
+                            return ResponseEntity
+                                    .ok()
+                                    .eTag(Integer.toString(product.getVersion()))
+                                    .location(new URI("/product/" + product.getId()))
+                                    .body(product);
+                        } catch (URISyntaxException e ) {
+                            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+                        }
+                    })
+                    .orElse(ResponseEntity.notFound().build());
+        });
+    }
 
-        return productService.findById(id)
-                .map(product -> {
+    /**
+     * Returns all products in the database or, when after or limit is specified, a page of products ordered by id.
+     * A full page carries a Link header with rel="next" that points to the following page. When ids is specified,
+     * the products with those ids are looked up with a single set-based query instead.
+     *
+     * @param after The id of the last product of the previous page; omit it to start at the first product.
+     * @param limit The maximum number of products to return, capped at products.page.max-limit.
+     * @param ids   The ids of the products to look up, at most products.page.max-limit of them.
+     * @param ifNoneMatch   The optional eTags of the representations that the client already has.
+     * @param accept        The optional media types that the client accepts.
+     * @param acceptEncoding    The optional content codings that the client accepts.
+     * @return      All products in the database, the requested page, a ProductLookup with the requested products
+     *              in request order and the ids that were not found, 304 Not Modified if the catalog has not
+     *              changed, or 400 Bad Request if limit is not positive or too many ids were requested.
+     */
+    @GetMapping("/products")
+    public CompletableFuture<ResponseEntity<?>> getProducts(
+            @RequestParam(value = "after", required = false) Integer after,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "ids", required = false) List<Integer> ids,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+
+        if (ids != null) {
+            return getProductsById(ids, ifNoneMatch);
+        }
+        if (after == null && limit == null && precompressedCatalog != null && prefersJson(accept)) {
+            return getPrecompressedCatalog(ifNoneMatch, acceptEncoding);
+        }
+        if (after == null && limit == null) {
+            return onReadPath(conditionalOnCatalog(ifNoneMatch, () -> ResponseEntity.ok(productService.findAll())));
+        }
+        if (limit != null && limit < 1) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+
+        int pageSize = limit == null ? maxPageLimit : Math.min(limit, maxPageLimit);
+        return onReadPath(conditionalOnCatalog(ifNoneMatch, () -> {
+            List<Product> page = productService.findPage(after, pageSize);
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.size() == pageSize) {
+                // A full page means there may be more products, so point the client at the next page
+                Integer lastId = page.get(page.size() - 1).getId();
+                response.header(HttpHeaders.LINK,
+                        "</products?after=" + lastId + "&limit=" + pageSize + ">; rel=\"next\"");
+            }
+            return response.body(page);
+        }));
+    }
+
+    /**
+     * Sends the whole catalog as a prebuilt JSON body, in the encoding that the client prefers, which the
+     * PrecompressedCatalogConverter copies from its file to the response. If the body cannot be built, the catalog
+     * is serialized as usual. Within products.precompressed.max-staleness the body may be of an older version than
+     * the catalog, and a client that already holds that version is told it has not been modified. Every body that
+     * is not handed to the converter is released here, as nothing else would release it.
+     */
+    private CompletableFuture<ResponseEntity<?>> getPrecompressedCatalog(String ifNoneMatch, String acceptEncoding) {
+        return onReadPath(() -> {
+            String version = productService.findCatalogVersion();
+            if (ifNoneMatch != null && matchesAnyETag(ifNoneMatch, version)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(version).build();
+            }
+
+            PrecompressedCatalog.Body body;
+            try {
+                body = precompressedCatalog.find(version, acceptEncoding);
+            } catch (UncheckedIOException e) {
+                logger.error("Could not build the catalog body, serializing the catalog instead", e);
+                return ResponseEntity.ok().eTag(version).body(productService.findAll());
+            }
+
+            try {
+                // Compressed bodies are different representations of the same catalog, so their eTags are weak
+                String eTag = body.contentEncoding() == null ? body.version() : "W/\"" + body.version() + "\"";
+                if (ifNoneMatch != null && matchesAnyETag(ifNoneMatch, body.version())) {
+                    // The response would otherwise be turned into a 304 before the converter could release the body
+                    precompressedCatalog.release(body);
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                            .eTag(eTag)
+                            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                            .build();
+                }
+
+                ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                        .eTag(eTag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                if (body.contentEncoding() != null) {
+                    response.header(HttpHeaders.CONTENT_ENCODING, body.contentEncoding());
+                }
+                return response.body(body);
+            } catch (RuntimeException e) {
+                precompressedCatalog.release(body);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Returns true if JSON is the representation the client prefers over CBOR and Smile, which is also the case
+     * when it sends no Accept header or accepts anything.
+     */
+    private static boolean prefersJson(String accept) {
+        if (accept == null) {
+            return true;
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        mediaTypes.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                return true;
+            }
+            if (mediaType.getQualityValue() > 0 && (mediaType.isCompatibleWith(MediaType.APPLICATION_CBOR)
+                    || mediaType.isCompatibleWith(SMILE))) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up the specified products and arranges them in the order their ids were requested.
+     */
+    private CompletableFuture<ResponseEntity<?>> getProductsById(List<Integer> ids, String ifNoneMatch) {
+        Set<Integer> requestedIds = new LinkedHashSet<>(ids);
+        requestedIds.remove(null);
+        if (requestedIds.size() > maxPageLimit) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+
+        return onReadPath(conditionalOnCatalog(ifNoneMatch, () -> {
+            Map<Integer, Product> found = new HashMap<>();
+            productService.findAllById(requestedIds).forEach(product -> found.put(product.getId(), product));
+
+            List<Product> products = new ArrayList<>(found.size());
+            List<Integer> missingIds = new ArrayList<>();
+            for (Integer id : requestedIds) {
+                Product product = found.get(id);
+                if (product != null) {
+                    products.add(product);
+                } else {
+                    missingIds.add(id);
+                }
+            }
+            return ResponseEntity.ok(new ProductLookup(products, missingIds));
+        }));
+    }
+
+    /**
+     * Wraps a read of the catalog so that its response carries the catalog version as its eTag, and so that a
+     * request whose If-None-Match matches the current version gets 304 Not Modified without reading any products.
+     */
+    private Supplier<ResponseEntity<?>> conditionalOnCatalog(String ifNoneMatch, Supplier<ResponseEntity<?>> handler) {
+        return () -> {
+            // Read the version before the products, so an eTag never labels a body older than itself
+            String eTag = productService.findCatalogVersion();
+            if (ifNoneMatch != null && matchesAnyETag(ifNoneMatch, eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+            }
+
+            ResponseEntity<?> response = handler.get();
+            return ResponseEntity.status(response.getStatusCode())
+                    .headers(response.getHeaders())
+                    .eTag(eTag)
+                    .body(response.getBody());
+        };
+    }
+
+    /**
+     * Searches product names. A query of one or two characters matches names with a word that starts with it; a
+     * longer query matches names that contain it anywhere. Results are ranked with exact and prefix matches first.
+     * A full page carries a Link header with rel="next" that points to the following page.
+     *
+     * @param query     The text to search for.
+     * @param offset    The number of ranked matches to skip.
+     * @param limit     The maximum number of products to return, capped at products.page.max-limit.
+     * @return          The matching products, best match first, or 400 Bad Request if the query is blank, offset is
+     *                  negative or limit is not positive.
+     */
+    @GetMapping("/products/search")
+    public CompletableFuture<ResponseEntity<?>> searchProducts(
+            @RequestParam("q") String query,
+            @RequestParam(value = "offset", defaultValue = "0") int offset,
+            @RequestParam(value = "limit", defaultValue = "20") int limit) {
+
+        if (query.isBlank() || offset < 0 || limit < 1) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+
+        int pageSize = Math.min(limit, maxPageLimit);
+        return onReadPath(() -> {
+            List<Product> products = productService.search(query, offset, pageSize);
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (products.size() == pageSize) {
+                response.header(HttpHeaders.LINK, "</products/search?q="
+                        + UriUtils.encodeQueryParam(query, StandardCharsets.UTF_8)
+                        + "&offset=" + (offset + pageSize) + "&limit=" + pageSize + ">; rel=\"next\"");
+            }
+            return response.body(products);
+        });
+    }
+
+    /**
+     * Streams all products, ordered by id, as newline-delimited JSON. Each product is written to the response
+     * as it is read from the database, so memory use does not grow with the size of the catalog.
+     *
+     * @return  A streaming NDJSON response containing every product.
+     */
+    @GetMapping("/products/stream")
+    public ResponseEntity<StreamingResponseBody> streamProducts() {
+        logger.info("Streaming all products");
+
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = objectMapper.createGenerator(out);
+            generator.setRootValueSeparator(null);
+            try {
+                productService.streamAll(product -> {
                     try {
-                        return ResponseEntity
-                                .ok()
-                                .eTag(Integer.toString(product.getVersion()))
-                                .location(new URI("/product/" + product.getId()))
-                                .body(product);
-                    } catch (URISyntaxException e ) {
-                        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+                        generator.writeObject(product);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                })
-                .orElse(ResponseEntity.notFound().build());
+                });
+            } catch (UncheckedIOException e) {
+                // The client went away or the write failed, stop reading from the database
+                throw e.getCause();
+            }
+            generator.flush();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
     }
 
     /**
-     * Returns all products in the database.
+     * Returns the changes made to the catalog after the specified sequence number, so a client can keep a copy of
+     * the catalog in sync at a cost proportional to the rate of change. Each change carries the product's current
+     * state, or no product if it has been deleted. When there are no changes yet and wait is specified, the request
+     * is held until a change is committed or the wait times out, without holding a database thread meanwhile.
      *
-     * @return  All products in the database.
+     * @param since The lastSequence of the previous response, or 0 to read the change log from the beginning.
+     * @param limit The maximum number of changes to return, capped at products.page.max-limit.
+     * @param wait  The number of seconds to wait for a change when there is none, capped at
+     *              products.changes.max-wait; omit it to return immediately.
+     * @return      The changes and the sequence number to pass as since on the next request, 400 Bad Request
+     *              if since, limit or wait is negative, or 410 Gone if changes after since have been pruned from
+     *              the change log, in which case the client has to reload the catalog.
      */
-    @GetMapping("/products")
-    public Iterable<Product> getProducts() {
-        return productService.findAll();
+    @GetMapping("/products/changes")
+    public CompletableFuture<ResponseEntity<?>> getChanges(
+            @RequestParam("since") long since,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "wait", required = false) Integer wait) {
+
+        if (since < 0 || (limit != null && limit < 1) || (wait != null && wait < 0)) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+
+        int batchSize = limit == null ? maxPageLimit : Math.min(limit, maxPageLimit);
+        long waitNanos = wait == null ? 0 : Math.min(TimeUnit.SECONDS.toNanos(wait), maxChangesWait.toNanos());
+        return pollChanges(since, batchSize, System.nanoTime() + waitNanos, false);
+    }
+
+    /**
+     * Reads the changes after since and, if there are none, waits for the next commit and reads again until the
+     * deadline has passed. The first read runs on the bulkhead like any other request; the reads of a woken request
+     * go through the ChangePollReader, which queues and merges them.
+     */
+    private CompletableFuture<ResponseEntity<?>> pollChanges(long since, int limit, long deadline, boolean woken) {
+        // Take the signal before reading, so a change that commits while we read still wakes us up
+        CompletableFuture<Void> nextChange = productService.nextChange();
+
+        CompletableFuture<List<ProductChange>> read = woken
+                ? changePollReader.read(since, limit)
+                : databaseBulkhead.submit(() -> productService.findChangesAfter(since, limit));
+        return read.thenCompose(changes -> {
+            long remaining = deadline - System.nanoTime();
+            if (!changes.isEmpty() || remaining <= 0) {
+                long lastSequence = changes.isEmpty() ? since : changes.get(changes.size() - 1).getSequence();
+                return CompletableFuture.<ResponseEntity<?>>completedFuture(
+                        ResponseEntity.ok(new ProductChanges(changes, lastSequence)));
+            }
+
+            // Wait on a copy, the signal itself is shared by every waiting request
+            return nextChange.copy()
+                    .completeOnTimeout(null, remaining, TimeUnit.NANOSECONDS)
+                    .thenCompose(changed -> pollChanges(since, limit, deadline, true));
+        });
     }
 
     /**
@@ -63,21 +455,63 @@ public class ProductController {
      * @return          The created product.
      */
     @PostMapping("/product")
-    public ResponseEntity<Product> createProduct(@RequestBody Product product) {
+    public CompletableFuture<ResponseEntity<?>> createProduct(@RequestBody Product product) {
         logger.info("Creating new product with name: {}, quantity: {}", product.getName(), product.getQuantity());
 
-        // Create the new product
-        Product newProduct = productService.save(product);
+        return onDatabaseBulkhead(() -> {
+            // Create the new product
+            Product newProduct = productService.save(product);
 
-        try {
-            // Build a created response
-            return ResponseEntity
-                    .created(new URI("/product/" + newProduct.getId()))
-                    .eTag(Integer.toString(newProduct.getVersion()))
-                    .body(newProduct);
-        } catch (URISyntaxException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            try {
+                // Build a created response
+                return ResponseEntity
+                        .created(new URI("/product/" + newProduct.getId()))
+                        .eTag(Integer.toString(newProduct.getVersion()))
+                        .body(newProduct);
+            } catch (URISyntaxException e) {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            }
+        });
+    }
+
+    /**
+     * Creates the specified products in a single batch.
+     * @param products  The products to create.
+     * @return          The created products with their generated IDs, in request order, or 400 Bad Request
+     *                  if no products were specified.
+     */
+    @PostMapping("/products/batch")
+    public CompletableFuture<ResponseEntity<?>> createProducts(@RequestBody List<Product> products) {
+        logger.info("Creating {} new products", Unbox.box(products.size()));
+
+        if (products.isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
         }
+
+        return onDatabaseBulkhead(() -> ResponseEntity
+                .status(HttpStatus.CREATED)
+                .body(productService.saveAll(products)));
+    }
+
+    /**
+     * Imports the products in a CSV or NDJSON upload. The body is parsed as it arrives and written in batched
+     * chunks, so an upload of any size is never held in memory. Unlike the other handlers this one holds its
+     * request thread until the import is done, since it reads the upload from it; the inserts themselves run on
+     * the importer's writer threads. Rows that are not valid products are rejected and reported, and the rest are
+     * still imported.
+     *
+     * @param contentType   text/csv with a header row, or application/x-ndjson.
+     * @param body          The products to import.
+     * @return              The import report, or 500 Internal Server Error with the report if the import stopped
+     *                      early; the products written before that remain.
+     */
+    @PostMapping(value = "/products/import", consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<ImportReport> importProducts(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+                                                       InputStream body) throws InterruptedException {
+        ImportFormat format = ImportFormat.forMediaType(contentType).orElseThrow();
+        ImportReport report = productImporter.importProducts(body, format, "POST /products/import");
+        return ResponseEntity.status(report.getStatus() == ImportStatus.COMPLETED
+                ? HttpStatus.OK : HttpStatus.INTERNAL_SERVER_ERROR).body(report);
     }
 
     /**
@@ -91,73 +525,282 @@ public class ProductController {
      *                  INTERNAL_SERVICE_ERROR if there is a problem creating the location URI
      */
     @PutMapping("/product/{id}")
-    public ResponseEntity<?> updateProduct(@RequestBody Product product,
-                                           @PathVariable Integer id,
-                                           @RequestHeader("If-Match") Integer ifMatch) {
+    public CompletableFuture<ResponseEntity<?>> updateProduct(@RequestBody Product product,
+                                                              @PathVariable Integer id,
+                                                              @RequestHeader("If-Match") Integer ifMatch) {
         logger.info("Updating product with id: {}, name: {}, quantity: {}",
                 id, product.getName(), product.getQuantity());
 
-        // Get the existing product
-        Optional<Product> existingProduct = productService.findById(id);
-
-        return existingProduct.map(p -> {
-            // Compare the etags
-            logger.info("Product with ID: " + id + " has a version of " + p.getVersion()
-                    + ". Update is for If-Match: " + ifMatch);
-            if (!p.getVersion().equals(ifMatch)) {
-                return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        // Update the product only if its version still matches the eTag, in a single statement
+        Product p = new Product(id, product.getName(), product.getQuantity());
+        return onDatabaseBulkhead(() -> {
+            switch (productService.updateIfVersion(p, ifMatch)) {
+                case SUCCESS:
+                    logger.info("Updated product with ID: {} to version {}", p.getId(), p.getVersion());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Updated product: {}", p);
+                    }
+                    try {
+                        return ResponseEntity.ok()
+                                .location(new URI("/product/" + p.getId()))
+                                .eTag(Integer.toString(p.getVersion()))
+                                .body(p);
+                    } catch (URISyntaxException e) {
+                        // An error occurred trying to create the location URI, return an error
+                        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+                    }
+                case VERSION_CONFLICT:
+                    logger.info("Product with ID: {} does not have version {}, rejecting update", id, ifMatch);
+                    return ResponseEntity.status(HttpStatus.CONFLICT).build();
+                default:
+                    return ResponseEntity.notFound().build();
             }
+        });
+    }
 
-            // Update the product
-            p.setName(product.getName());
-            p.setQuantity(product.getQuantity());
-            p.setVersion(p.getVersion() + 1);
+    /**
+     * Adds a signed delta to the quantity of the product with the specified ID. Unlike PUT, this does not require
+     * an If-Match header, so concurrent adjustments to the same product never conflict. The delta is only handed to
+     * the database thread; with group commit the response is sent when the flush that writes it completes, so no
+     * thread waits for the flush. A delta is not idempotent, so only the 503 response invites a retry: it is sent
+     * when the adjustment was taken back before its flush began and will not be written.
+     * @param id            The ID of the product to adjust.
+     * @param adjustment    The signed delta to add to the product's quantity.
+     * @return              A ResponseEntity with one of the following status codes:
+     *                      204 No Content if the adjustment has been written
+     *                      400 Bad Request if no delta was specified, or it would overflow the product's pending
+     *                      adjustments
+     *                      404 Not Found if a product with the specified ID is not found
+     *                      503 Service Unavailable, with Retry-After, if the adjustment was not written within the
+     *                      flush timeout and has been dropped
+     *                      504 Gateway Timeout, without Retry-After, if its flush was still running at the flush
+     *                      timeout; the adjustment will still be written and must not be retried
+     */
+    @PatchMapping("/product/{id}/quantity")
+    public CompletableFuture<ResponseEntity<?>> adjustQuantity(@PathVariable Integer id,
+                                                               @RequestBody QuantityAdjustment adjustment) {
+        if (adjustment.getDelta() == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
 
-            logger.info("Updating product with ID: " + p.getId()
-                    + " -> name=" + p.getName()
-                    + ", quantity=" + p.getQuantity()
-                    + ", version=" + p.getVersion());
+        return databaseBulkhead.submit(() -> productService.adjustQuantity(id, adjustment.getDelta()))
+                .thenCompose(Function.identity())
+                .<ResponseEntity<?>>handle((adjusted, error) -> {
+                    if (error == null) {
+                        return adjusted ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+                    }
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause()
+                            : error;
+                    if (cause instanceof TimeoutException) {
+                        logger.warn("Quantity adjustment of product with id: {} was not flushed in time", id);
+                        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                .header(HttpHeaders.RETRY_AFTER, "1")
+                                .build();
+                    }
+                    if (cause instanceof QuantityAdjustmentPendingException) {
+                        logger.warn("Quantity adjustment of product with id: {} is still being flushed", id);
+                        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build();
+                    }
+                    if (cause instanceof ArithmeticException) {
+                        return ResponseEntity.badRequest().build();
+                    }
+                    throw error instanceof CompletionException completion
+                            ? completion
+                            : new CompletionException(error);
+                });
+    }
 
-            try {
-                // Update the product and return an ok response
-                if (productService.update(p)) {
-                    return ResponseEntity.ok()
-                            .location(new URI("/product/" + p.getId()))
-                            .eTag(Integer.toString(p.getVersion()))
-                            .body(p);
-                } else {
+    /**
+     * Takes the specified quantity out of the stock of the product with the specified ID if it has at least that
+     * much. The check and the decrement are a single guarded write, so unlike PUT this needs no If-Match header, and
+     * concurrent reservations of the same product wait for each other's row lock instead of failing and retrying.
+     * @param id            The ID of the product to reserve.
+     * @param reservation   The positive quantity to reserve.
+     * @return              A ResponseEntity with one of the following status codes:
+     *                      200 OK with the product, its remaining quantity and new version as the eTag
+     *                      400 Bad Request if no positive quantity was specified
+     *                      404 Not Found if a product with the specified ID is not found
+     *                      409 Conflict if the product has less stock than the quantity to reserve
+     */
+    @PostMapping("/product/{id}/reserve")
+    public CompletableFuture<ResponseEntity<?>> reserveProduct(@PathVariable Integer id,
+                                                               @RequestBody Reservation reservation) {
+        if (reservation.getQuantity() == null || reservation.getQuantity() < 1) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+
+        logger.info("Reserving {} of product with id: {}", reservation.getQuantity(), id);
+
+        return onDatabaseBulkhead(() -> {
+            StockReservation result = productService.reserve(Map.of(id, reservation.getQuantity()));
+            switch (result.status()) {
+                case RESERVED:
+                    Product product = result.products().get(0);
+                    logger.info("Reserved product with ID: {}, {} remaining at version {}",
+                            product.getId(), product.getQuantity(), product.getVersion());
+                    try {
+                        return ResponseEntity.ok()
+                                .location(new URI("/product/" + product.getId()))
+                                .eTag(Integer.toString(product.getVersion()))
+                                .body(product);
+                    } catch (URISyntaxException e) {
+                        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+                    }
+                case INSUFFICIENT_QUANTITY:
+                    logger.info("Product with ID: {} has less than {} in stock, rejecting reservation",
+                            id, reservation.getQuantity());
+                    return ResponseEntity.status(HttpStatus.CONFLICT).build();
+                default:
                     return ResponseEntity.notFound().build();
-                }
-            } catch (URISyntaxException e) {
-                // An error occurred trying to create the location URI, return an error
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
             }
+        });
+    }
 
-        }).orElse(ResponseEntity.notFound().build());
+    /**
+     * Takes the specified quantities out of the stock of several products, all or nothing: if any product is
+     * missing or short of stock, no stock is taken from any of them.
+     * @param reservations  The product IDs and positive quantities to reserve, each product at most once and at
+     *                      most products.page.max-limit of them.
+     * @return              A ResponseEntity with one of the following status codes:
+     *                      200 OK with the reserved products in request order, with their remaining quantities
+     *                      400 Bad Request if no reservations, too many, a duplicate product or a reservation
+     *                      without a product ID or positive quantity were specified
+     *                      404 Not Found with the reservation of a product that is not found
+     *                      409 Conflict with the reservation of a product that has less stock than its quantity
+     */
+    @PostMapping("/products/reserve")
+    public CompletableFuture<ResponseEntity<?>> reserveProducts(@RequestBody List<Reservation> reservations) {
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (Reservation reservation : reservations) {
+            if (reservation.getProductId() == null || reservation.getQuantity() == null
+                    || reservation.getQuantity() < 1
+                    || quantities.put(reservation.getProductId(), reservation.getQuantity()) != null) {
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+            }
+        }
+        if (quantities.isEmpty() || quantities.size() > maxPageLimit) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+
+        logger.info("Reserving stock of {} products", Unbox.box(quantities.size()));
+
+        return onDatabaseBulkhead(() -> {
+            StockReservation result = productService.reserve(quantities);
+            if (result.isReserved()) {
+                Map<Integer, Product> reserved = new HashMap<>();
+                result.products().forEach(product -> reserved.put(product.getId(), product));
+                return ResponseEntity.ok(quantities.keySet().stream().map(reserved::get).toList());
+            }
+
+            Reservation rejected = new Reservation(result.rejectedId(), quantities.get(result.rejectedId()));
+            if (result.status() == StockReservation.Status.INSUFFICIENT_QUANTITY) {
+                logger.info("Product with ID: {} has less than {} in stock, rejecting reservation of {} products",
+                        rejected.getProductId(), rejected.getQuantity(), Unbox.box(quantities.size()));
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(rejected);
+            }
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(rejected);
+        });
     }
 
     /**
-     * Deletes the product with the specified ID.
-     * @param id    The ID of the product to delete.
-     * @return      A ResponseEntity with one of the following status codes:
-     *              200 OK if the deletion was successful
-     *              404 Not Found if a product with the specified ID is not found
-     *              500 Internal Service Error if an error occurs during deletion
+     * Deletes the product with the specified ID. When an If-Match header is present the product is only deleted if
+     * its version still matches the eTag.
+     * @param id        The ID of the product to delete.
+     * @param ifMatch   The optional eTag version of the product.
+     * @return          A ResponseEntity with one of the following status codes:
+     *                  200 OK if the deletion was successful
+     *                  404 Not Found if a product with the specified ID is not found
+     *                  409 Conflict if the eTag does not match the version of the product to delete
      */
     @DeleteMapping("/product/{id}")
-    public ResponseEntity<?> deleteProduct(@PathVariable Integer id) {
+    public CompletableFuture<ResponseEntity<?>> deleteProduct(@PathVariable Integer id,
+            @RequestHeader(value = "If-Match", required = false) Integer ifMatch) {
 
         logger.info("Deleting product with ID {}", id);
 
-        // Get the existing product
-        Optional<Product> existingProduct = productService.findById(id);
+        return onDatabaseBulkhead(() -> {
+            if (ifMatch == null) {
+                // Delete directly, the affected row count tells us whether the product existed
+                return productService.delete(id) ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+            }
 
-        return existingProduct.map(p -> {
-            if (productService.delete(p.getId())) {
-                return ResponseEntity.ok().build();
-            } else {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            switch (productService.deleteIfVersion(id, ifMatch)) {
+                case SUCCESS:
+                    return ResponseEntity.ok().build();
+                case VERSION_CONFLICT:
+                    return ResponseEntity.status(HttpStatus.CONFLICT).build();
+                default:
+                    return ResponseEntity.notFound().build();
+            }
+        });
+    }
+
+    /**
+     * Tells a client that has fallen behind the retained change log that it has missed changes.
+     * @return  410 Gone.
+     */
+    @ExceptionHandler(ChangeLogPrunedException.class)
+    public ResponseEntity<?> handleChangeLogPruned(ChangeLogPrunedException e) {
+        logger.info(e.getMessage());
+        return ResponseEntity.status(HttpStatus.GONE).build();
+    }
+
+    /**
+     * Rejects the request when the database bulkhead is saturated, rather than letting it queue without bound.
+     * @return  503 Service Unavailable with a Retry-After header.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<?> handleDatabaseBulkheadFull() {
+        logger.warn("Database bulkhead is full, rejecting request");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .build();
+    }
+
+    /**
+     * Runs the specified handler on the database bulkhead. If the bulkhead cannot accept it, the
+     * RejectedExecutionException is thrown on the request thread and turned into a 503 response.
+     */
+    private CompletableFuture<ResponseEntity<?>> onDatabaseBulkhead(Supplier<ResponseEntity<?>> handler) {
+        return databaseBulkhead.submit(handler);
+    }
+
+    /**
+     * Runs the specified read handler. On a node that serves reads from a memory-mapped catalog snapshot the
+     * handler never touches the database, so it runs right away on the request thread instead of the bulkhead.
+     * When read replicas are enabled, all the handler's reads go to one replica, or to the primary if the client
+     * wrote within the read-your-writes window.
+     */
+    private CompletableFuture<ResponseEntity<?>> onReadPath(Supplier<ResponseEntity<?>> handler) {
+        if (catalogSnapshotService.servingSnapshot() != null) {
+            return CompletableFuture.completedFuture(handler.get());
+        }
+        if (replicaRouter != null) {
+            boolean recentWrite = Boolean.TRUE.equals(RequestContextHolder.currentRequestAttributes()
+                    .getAttribute(ReadYourWritesFilter.RECENT_WRITE, RequestAttributes.SCOPE_REQUEST));
+            return onDatabaseBulkhead(() -> replicaRouter.read(recentWrite, handler));
+        }
+        return onDatabaseBulkhead(handler);
+    }
+
+    /**
+     * Returns true if the If-None-Match header value lists the specified eTag, or is "*". Weak and strong
+     * eTags are compared the same way, as required for If-None-Match.
+     */
+    private static boolean matchesAnyETag(String ifNoneMatch, String eTag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
             }
-        }).orElse(ResponseEntity.notFound().build());
+            if (tag.equals("\"" + eTag + "\"")) {
+                return true;
+            }
+        }
+        return false;
     }
 }
\ No newline at end of file
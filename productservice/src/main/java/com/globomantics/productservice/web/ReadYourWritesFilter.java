@@ -0,0 +1,78 @@
+package com.globomantics.productservice.web;
+
+import com.globomantics.productservice.repository.ReplicaRouter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Lets a client read its own writes while reads go to replicas that may be behind the primary. A request that may
+ * write gives the client a cookie with the time of the write, which lives for the read-your-writes window, and a
+ * read from a client whose cookie is still within the window is marked with the RECENT_WRITE request attribute, so
+ * the ProductController sends its reads to the primary. The cookie is kept by the client, so it works across
+ * every instance of the service behind a load balancer.
+ */
+@Component
+@ConditionalOnProperty(name = "products.replicas.enabled", havingValue = "true")
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    /**
+     * The request attribute that is true when the client wrote within the read-your-writes window.
+     */
+    public static final String RECENT_WRITE = ReadYourWritesFilter.class.getName() + ".RECENT_WRITE";
+
+    static final String COOKIE_NAME = "products-last-write";
+
+    private final Duration window;
+
+    public ReadYourWritesFilter(ReplicaRouter replicaRouter) {
+        this.window = replicaRouter.readYourWritesWindow();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String method = request.getMethod();
+        if (method.equals("GET") || method.equals("HEAD")) {
+            request.setAttribute(RECENT_WRITE, wroteRecently(request));
+        } else if (!window.isZero()) {
+            // Set before the handler runs, since an asynchronous response may be committed by another thread
+            Cookie cookie = new Cookie(COOKIE_NAME, Long.toString(System.currentTimeMillis()));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, window.toSeconds()));
+            response.addCookie(cookie);
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Returns true if the request carries the cookie of a write made within the window. The time in the cookie is
+     * checked as well as its lifetime, since the client decides when to drop it.
+     */
+    private boolean wroteRecently(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return false;
+        }
+        for (Cookie cookie : cookies) {
+            if (cookie.getName().equals(COOKIE_NAME)) {
+                try {
+                    long writtenAt = Long.parseLong(cookie.getValue());
+                    return System.currentTimeMillis() - writtenAt < window.toMillis();
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -4,4 +4,13 @@ CREATE TABLE IF NOT EXISTS products (
     quantity INTEGER NOT NULL,
     version INTEGER NOT NULL,
     PRIMARY KEY (id)
-);
\ No newline at end of file
+);
+
+CREATE TABLE IF NOT EXISTS product_changes (
+    sequence   BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    product_id INTEGER NOT NULL,
+    operation  VARCHAR(8) NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS product_changes_created_at ON product_changes (created_at DESC);
\ No newline at end of file
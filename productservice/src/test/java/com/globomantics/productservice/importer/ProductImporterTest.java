@@ -0,0 +1,136 @@
+package com.globomantics.productservice.importer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.globomantics.productservice.model.ImportReport;
+import com.globomantics.productservice.model.ImportStatus;
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.service.ProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests that the ProductImporter parses CSV and NDJSON uploads, writes them in chunks through a mocked
+ * ProductService, and reports the rows it rejects.
+ */
+class ProductImporterTest {
+
+    private final ProductService productService = mock(ProductService.class);
+    private final List<List<Product>> chunks = Collections.synchronizedList(new ArrayList<>());
+    private final ProductImporter importer = new ProductImporter(productService, new ObjectMapper(), 2, 1, 1, 1000,
+            new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+
+    @AfterEach
+    void teardown() {
+        importer.shutdown();
+    }
+
+    @Test
+    @DisplayName("A CSV upload is written in chunks and invalid rows are rejected")
+    void testImportCsv() throws Exception {
+        recordChunks();
+        String csv = """
+                id,name,quantity
+                7,Product A,5
+                ,Product B,6
+                ,,7
+                ,Product D,many
+                ,Product E,8
+                """;
+
+        ImportReport report = importer.importProducts(stream(csv), ImportFormat.CSV, "test.csv");
+
+        Assertions.assertEquals(ImportStatus.COMPLETED, report.getStatus());
+        Assertions.assertEquals(3, report.getRowsImported());
+        Assertions.assertEquals(2, report.getRowsRejected());
+        Assertions.assertEquals(2, report.getRejections().size());
+        Assertions.assertTrue(report.getRejections().get(0).startsWith("row 3: name is required"));
+        Assertions.assertTrue(report.getRejections().get(1).startsWith("row 4: "));
+
+        // Chunks of two, in file order because there is a single writer; ids in the file are ignored
+        Assertions.assertEquals(2, chunks.size());
+        Assertions.assertEquals(List.of("Product A", "Product B"), names(chunks.get(0)));
+        Assertions.assertEquals(List.of("Product E"), names(chunks.get(1)));
+        Assertions.assertNull(chunks.get(0).get(0).getId());
+        Assertions.assertEquals(5, chunks.get(0).get(0).getQuantity());
+    }
+
+    @Test
+    @DisplayName("An NDJSON upload skips blank lines and rejects lines that are not products")
+    void testImportNdjson() throws Exception {
+        recordChunks();
+        String ndjson = """
+                {"name":"Product A","quantity":5,"color":"red"}
+
+                not json
+                {"name":"Product C"}
+                {"name":"Product D","quantity":7}
+                """;
+
+        ImportReport report = importer.importProducts(stream(ndjson), ImportFormat.NDJSON, "test.ndjson");
+
+        Assertions.assertEquals(ImportStatus.COMPLETED, report.getStatus());
+        Assertions.assertEquals(2, report.getRowsImported());
+        Assertions.assertEquals(2, report.getRowsRejected());
+        Assertions.assertTrue(report.getRejections().get(0).startsWith("row 3: "));
+        Assertions.assertEquals("row 4: quantity is required", report.getRejections().get(1));
+        Assertions.assertEquals(List.of(List.of("Product A", "Product D")), chunks.stream().map(this::names).toList());
+    }
+
+    @Test
+    @DisplayName("A chunk that cannot be written stops the import")
+    void testImportWriteFailure() throws Exception {
+        doThrow(new IllegalStateException("database is down")).when(productService).saveAll(anyList());
+        String csv = "name,quantity\nProduct A,1\nProduct B,2\nProduct C,3\nProduct D,4\nProduct E,5\n";
+
+        ImportReport report = importer.importProducts(stream(csv), ImportFormat.CSV, "test.csv");
+
+        Assertions.assertEquals(ImportStatus.FAILED, report.getStatus());
+        Assertions.assertEquals(0, report.getRowsImported());
+        Assertions.assertTrue(report.getError().contains("database is down"));
+        Assertions.assertTrue(importer.activeImports().isEmpty());
+    }
+
+    @Test
+    @DisplayName("A CSV upload without the header row fails without writing anything")
+    void testImportCsvWithoutHeader() throws Exception {
+        ImportReport report = importer.importProducts(stream(""), ImportFormat.CSV, "empty.csv");
+
+        Assertions.assertEquals(ImportStatus.FAILED, report.getStatus());
+        Assertions.assertEquals(0, report.getRowsImported());
+        verify(productService, never()).saveAll(any());
+    }
+
+    private void recordChunks() {
+        doAnswer(invocation -> {
+            List<Product> products = invocation.getArgument(0);
+            chunks.add(List.copyOf(products));
+            return products;
+        }).when(productService).saveAll(anyList());
+    }
+
+    private List<String> names(List<Product> products) {
+        return products.stream().map(Product::getName).toList();
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -6,6 +6,7 @@ import com.github.database.rider.core.api.dataset.DataSet;
 import com.github.database.rider.junit5.DBUnitExtension;
 import com.globomantics.productservice.model.Product;
 import com.globomantics.productservice.repository.ProductRepository;
+import com.globomantics.productservice.search.ProductSearchService;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
@@ -21,11 +22,17 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.ResultHandler;
+import org.springframework.test.web.servlet.ResultMatcher;
 
 import javax.sql.DataSource;
 
 import static org.hamcrest.Matchers.any;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -47,6 +54,9 @@ class ProductServiceIntegrationTest {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ProductSearchService productSearchService;
+
     public ConnectionHolder getConnectionHolder() {
         // Return a function that retrieves a connection from our data source
         return () -> dataSource.getConnection();
@@ -57,7 +67,7 @@ class ProductServiceIntegrationTest {
     @DataSet("products.yml")
     void testGetProductByIdFound() throws Exception {
         // Execute the GET request
-        mockMvc.perform(get("/product/{id}", 100))
+        perform(get("/product/{id}", 100))
 
                 // Validate the response code and content type
                 .andExpect(status().isOk())
@@ -74,12 +84,24 @@ class ProductServiceIntegrationTest {
                 .andExpect(jsonPath("$.version", is(1)));
     }
 
+    @Test
+    @DisplayName("GET /product/100 - Not Modified")
+    @DataSet("products.yml")
+    void testGetProductByIdNotModified() throws Exception {
+        // Execute the GET request with the current eTag
+        perform(get("/product/{id}", 100).header(HttpHeaders.IF_NONE_MATCH, "\"1\""))
+
+                // Validate that we get a 304 Not Modified response
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""));
+    }
+
     @Test
     @DisplayName("GET /product/99 - Not Found")
     @DataSet("products.yml")
     void testGetProductByIdNotFound() throws Exception {
         // Execute the GET request
-        mockMvc.perform(get("/product/{id}", 99))
+        perform(get("/product/{id}", 99))
 
                 // Validate that we get a 404 Not Found response
                 .andExpect(status().isNotFound());
@@ -92,7 +114,7 @@ class ProductServiceIntegrationTest {
         // Setup product to create
         Product postProduct = new Product("Product Name", 10);
 
-        mockMvc.perform(post("/product")
+        perform(post("/product")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(asJsonString(postProduct)))
 
@@ -125,7 +147,7 @@ class ProductServiceIntegrationTest {
         // Setup product to update
         Product putProduct = new Product("Product 200 Updated", 10);
 
-        mockMvc.perform(put("/product/{id}", 200)
+        perform(put("/product/{id}", 200)
                 .contentType(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.IF_MATCH, 2)
                 .content(asJsonString(putProduct)))
@@ -160,7 +182,7 @@ class ProductServiceIntegrationTest {
         // Setup product to update
         Product putProduct = new Product("Product Name", 10);
 
-        mockMvc.perform(put("/product/{id}", 100)
+        perform(put("/product/{id}", 100)
                 .contentType(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.IF_MATCH, 7)
                 .content(asJsonString(putProduct)))
@@ -176,7 +198,7 @@ class ProductServiceIntegrationTest {
         // Setup product to update
         Product putProduct = new Product("Product Name", 10);
 
-        mockMvc.perform(put("/product/{id}", 99)
+        perform(put("/product/{id}", 99)
                 .contentType(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.IF_MATCH, 1)
                 .content(asJsonString(putProduct)))
@@ -185,12 +207,145 @@ class ProductServiceIntegrationTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    @DisplayName("PATCH /product/100/quantity - Success")
+    @DataSet("products.yml")
+    void testAdjustQuantity() throws Exception {
+        // Remove 3 items from stock
+        perform(patch("/product/{id}/quantity", 100)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"delta\": -3}"))
+                .andExpect(status().isNoContent());
+
+        // Validate the product in the database
+        Optional<Product> productInDatabase = findProductById(100);
+        Assertions.assertTrue(productInDatabase.isPresent(), "Product should be in the database");
+        Assertions.assertEquals(7, productInDatabase.get().getQuantity(), "The product quantity should be 7");
+        Assertions.assertEquals(2, productInDatabase.get().getVersion(), "The product version should be 2");
+    }
+
+    @Test
+    @DisplayName("PATCH /product/99/quantity - Not Found")
+    @DataSet("products.yml")
+    void testAdjustQuantityNotFound() throws Exception {
+        perform(patch("/product/{id}/quantity", 99)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"delta\": -3}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("GET /products - Not Modified until the catalog changes")
+    @DataSet("products.yml")
+    void testGetProductsConditional() throws Exception {
+        // Read the catalog and remember its eTag
+        String eTag = perform(get("/products"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // Nothing has changed, so the catalog is not sent again
+        perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        // Remove 3 items from stock
+        perform(patch("/product/{id}/quantity", 100)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"delta\": -3}"))
+                .andExpect(status().isNoContent());
+
+        // The catalog has changed, so it is sent with a new eTag
+        perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].quantity", is(7)))
+                .andExpect(header().string(HttpHeaders.ETAG, not(eTag)));
+    }
+
+    @Test
+    @DisplayName("GET /products/changes - Long poll woken by a write")
+    @DataSet("products.yml")
+    void testChangesLongPoll() throws Exception {
+        Long lastSequence = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(MAX(sequence), 0) FROM product_changes", Long.class);
+
+        // Start waiting for changes after the latest one
+        MvcResult pending = mockMvc.perform(get("/products/changes")
+                        .param("since", String.valueOf(lastSequence))
+                        .param("wait", "10"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Remove 3 items from stock
+        perform(patch("/product/{id}/quantity", 100)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"delta\": -3}"))
+                .andExpect(status().isNoContent());
+
+        // The waiting request returns the change with the product's new state
+        mockMvc.perform(asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes.length()", is(1)))
+                .andExpect(jsonPath("$.changes[0].productId", is(100)))
+                .andExpect(jsonPath("$.changes[0].operation", is("UPDATE")))
+                .andExpect(jsonPath("$.changes[0].product.quantity", is(7)))
+                .andExpect(jsonPath("$.lastSequence", is(lastSequence.intValue() + 1)));
+    }
+
+    @Test
+    @DisplayName("GET /products/search?q=product - Created products are found")
+    @DataSet("products.yml")
+    void testSearchProducts() throws Exception {
+        // The dataset is loaded behind the application's back, so index it again
+        productSearchService.rebuild();
+
+        perform(get("/products/search").param("q", "product 2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()", is(1)))
+                .andExpect(jsonPath("$[0].id", is(200)));
+
+        // Create a product, which reaches the index through the change log
+        perform(post("/product")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\": \"Product\", \"quantity\": 3}"))
+                .andExpect(status().isCreated());
+        productSearchService.applyChanges();
+
+        // The exact match is ranked first
+        perform(get("/products/search").param("q", "product"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()", is(3)))
+                .andExpect(jsonPath("$[0].name", is("Product")))
+                .andExpect(jsonPath("$[1].id", is(100)));
+    }
+
+    @Test
+    @DisplayName("POST /products/import - NDJSON")
+    @DataSet("products.yml")
+    void testImportProducts() throws Exception {
+        perform(post("/products/import")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .content("{\"name\": \"Imported 1\", \"quantity\": 4}\n"
+                        + "{\"name\": \"Imported 2\"}\n"
+                        + "{\"name\": \"Imported 3\", \"quantity\": 6}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("COMPLETED")))
+                .andExpect(jsonPath("$.rowsImported", is(2)))
+                .andExpect(jsonPath("$.rowsRejected", is(1)));
+
+        // Validate that the valid rows were inserted as new products
+        Optional<Product> imported = findProductByName("Imported 3");
+        Assertions.assertTrue(imported.isPresent());
+        Assertions.assertEquals(6, imported.get().getQuantity().intValue());
+        Assertions.assertEquals(1, imported.get().getVersion().intValue());
+        Assertions.assertFalse(findProductByName("Imported 2").isPresent());
+    }
+
     @Test
     @DisplayName("DELETE /product/100 - Success")
     @DataSet("products.yml")
     void testProductDeleteSuccess() throws Exception {
         // Execute our DELETE request
-        mockMvc.perform(delete("/product/{id}", 100))
+        perform(delete("/product/{id}", 100))
                 .andExpect(status().isOk());
 
         // Validate that the product was deleted from the database
@@ -203,10 +358,39 @@ class ProductServiceIntegrationTest {
     @DataSet("products.yml")
     void testProductDeleteNotFound() throws Exception {
         // Execute our DELETE request
-        mockMvc.perform(delete("/product/{id}", 99))
+        perform(delete("/product/{id}", 99))
                 .andExpect(status().isNotFound());
     }
 
+    /**
+     * Performs the request and, when the handler completed asynchronously, dispatches its result so that the
+     * final response can be validated.
+     */
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            return mockMvc.perform(asyncDispatch(result));
+        }
+        return new ResultActions() {
+            @Override
+            public ResultActions andExpect(ResultMatcher matcher) throws Exception {
+                matcher.match(result);
+                return this;
+            }
+
+            @Override
+            public ResultActions andDo(ResultHandler handler) throws Exception {
+                handler.handle(result);
+                return this;
+            }
+
+            @Override
+            public MvcResult andReturn() {
+                return result;
+            }
+        };
+    }
+
     static String asJsonString(final Object obj) {
         try {
             return new ObjectMapper().writeValueAsString(obj);
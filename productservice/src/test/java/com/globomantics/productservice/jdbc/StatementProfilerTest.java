@@ -0,0 +1,111 @@
+package com.globomantics.productservice.jdbc;
+
+import com.github.database.rider.core.api.connection.ConnectionHolder;
+import com.github.database.rider.core.api.dataset.DataSet;
+import com.github.database.rider.junit5.DBUnitExtension;
+import com.globomantics.productservice.repository.ProductRepository;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith({DBUnitExtension.class, SpringExtension.class})
+@SpringBootTest
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+class StatementProfilerTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private StatementProfiler profiler;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    public ConnectionHolder getConnectionHolder() {
+        // Return a function that retrieves a connection from our data source
+        return () -> dataSource.getConnection();
+    }
+
+    @BeforeEach
+    void resetProfile() {
+        profiler.reset();
+    }
+
+    @Test
+    @DisplayName("Queries are profiled with their execution count and rows returned")
+    @DataSet("products.yml")
+    void testProfilesQueries() {
+        repository.findAll();
+        repository.findAll();
+
+        StatementProfiler.StatementProfile profile = find("SELECT * FROM products");
+        Assertions.assertEquals(2, profile.count(), "The query should have been executed twice");
+        Assertions.assertEquals(4, profile.rowsReturned(), "Each execution should have returned 2 rows");
+        Assertions.assertEquals(2, profile.latency().count(), "Each execution should have been timed");
+        Assertions.assertTrue(profiler.snapshot().connectionWait().count() >= 2, "Connection checkouts should be timed");
+    }
+
+    @Test
+    @DisplayName("Updates are profiled with the rows they affected")
+    @DataSet("products.yml")
+    void testProfilesUpdates() {
+        repository.adjustQuantities(Map.of(100, 1, 200, 1));
+
+        StatementProfiler.StatementProfile profile = find("UPDATE products SET quantity = quantity + ?, version = version + 1 WHERE id = ?");
+        Assertions.assertEquals(2, profile.rowsAffected(), "The batch should have updated 2 rows");
+    }
+
+    @Test
+    @DisplayName("Parameter lists of different lengths share one entry")
+    void testNormalize() {
+        Assertions.assertEquals("SELECT * FROM products WHERE id IN (?, ...)",
+                StatementProfiler.normalize("SELECT * FROM products\n  WHERE id IN (?, ?, ?)"));
+        Assertions.assertEquals(StatementProfiler.normalize("SELECT * FROM products WHERE id IN (?,?)"),
+                StatementProfiler.normalize("SELECT * FROM products WHERE id IN (?, ?, ?, ?)"));
+        Assertions.assertEquals("SELECT * FROM products WHERE id = ?",
+                StatementProfiler.normalize("SELECT * FROM products WHERE id = ?"));
+    }
+
+    @Test
+    @DisplayName("GET /actuator/sqlprofile - Dumps the table")
+    @DataSet("products.yml")
+    void testEndpoint() throws Exception {
+        repository.findById(100);
+
+        mockMvc.perform(get("/actuator/sqlprofile"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.connectionWait.count").isNumber())
+                .andExpect(jsonPath("$.statements[0].sql").isString())
+                .andExpect(jsonPath("$.statements[0].latency.p99").isNumber());
+    }
+
+    private StatementProfiler.StatementProfile find(String sql) {
+        List<StatementProfiler.StatementProfile> statements = profiler.snapshot().statements();
+        return statements.stream()
+                .filter(statement -> statement.sql().equals(sql))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No profile for " + sql + " in " + statements));
+    }
+}
@@ -0,0 +1,167 @@
+package com.globomantics.productservice.repository;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.globomantics.productservice.model.Product;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Tests the CachingProductRepository against a mocked ProductRepository.
+ */
+class CachingProductRepositoryTest {
+
+    private ProductRepository delegate;
+    private CachingProductRepository repository;
+
+    @BeforeEach
+    void setup() {
+        delegate = mock(ProductRepository.class);
+        repository = new CachingProductRepository(delegate, 100, Duration.ofMinutes(1));
+    }
+
+    @Test
+    @DisplayName("findById reads through once and then hits the cache")
+    void testFindByIdReadThrough() {
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 1))).when(delegate).findById(1);
+
+        Assertions.assertTrue(repository.findById(1).isPresent(), "Product should be found");
+        Assertions.assertTrue(repository.findById(1).isPresent(), "Product should be found");
+
+        // Only the first lookup should reach the database
+        verify(delegate, times(1)).findById(1);
+        Assertions.assertEquals(1, repository.stats().hitCount(), "The second lookup should be a hit");
+        Assertions.assertEquals(1, repository.stats().missCount(), "The first lookup should be a miss");
+    }
+
+    @Test
+    @DisplayName("findById does not cache missing products")
+    void testFindByIdNotFound() {
+        doReturn(Optional.empty()).when(delegate).findById(1);
+
+        Assertions.assertFalse(repository.findById(1).isPresent(), "Product should not be found");
+        Assertions.assertFalse(repository.findById(1).isPresent(), "Product should not be found");
+
+        verify(delegate, times(2)).findById(1);
+    }
+
+    @Test
+    @DisplayName("findAllById only loads the products that are not cached")
+    void testFindAllByIdLoadsMisses() {
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 1))).when(delegate).findById(1);
+        doReturn(Arrays.asList(new Product(2, "Product Name 2", 15, 1))).when(delegate).findAllById(any());
+        repository.findById(1);
+
+        List<Product> products = repository.findAllById(Arrays.asList(1, 2, 3));
+
+        Assertions.assertEquals(2, products.size(), "Products 1 and 2 should be found");
+        verify(delegate).findAllById(eq(Arrays.asList(2, 3)));
+    }
+
+    @Test
+    @DisplayName("Cached products cannot be changed by callers")
+    void testFindByIdReturnsCopies() {
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 1))).when(delegate).findById(1);
+
+        repository.findById(1).get().setName("Changed");
+
+        Assertions.assertEquals("Product Name", repository.findById(1).get().getName(),
+                "The cached product should not have changed");
+    }
+
+    @Test
+    @DisplayName("A successful conditional update replaces the cached product")
+    void testUpdateIfVersionReplacesEntry() {
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 1))).when(delegate).findById(1);
+        doAnswer(invocation -> {
+            Product product = invocation.getArgument(0);
+            product.setVersion(2);
+            return VersionedWriteResult.SUCCESS;
+        }).when(delegate).updateIfVersion(any(), eq(1));
+        repository.findById(1);
+
+        repository.updateIfVersion(new Product(1, "Updated", 20), 1);
+
+        // The updated product is served without going back to the database
+        Product cached = repository.findById(1).get();
+        Assertions.assertEquals("Updated", cached.getName(), "The cache should hold the updated product");
+        Assertions.assertEquals(2, cached.getVersion().intValue(), "The cache should hold version 2");
+        verify(delegate, times(1)).findById(1);
+    }
+
+    @Test
+    @DisplayName("A conflicting conditional update invalidates the cached product")
+    void testUpdateIfVersionConflictInvalidates() {
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 1))).when(delegate).findById(1);
+        doReturn(VersionedWriteResult.VERSION_CONFLICT).when(delegate).updateIfVersion(any(), eq(1));
+        repository.findById(1);
+
+        repository.updateIfVersion(new Product(1, "Updated", 20), 1);
+        repository.findById(1);
+
+        // Someone else changed the product, so it is read again
+        verify(delegate, times(2)).findById(1);
+    }
+
+    @Test
+    @DisplayName("A reservation replaces the cached product, a rejected one invalidates it")
+    void testReserveReplacesEntry() {
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 1))).when(delegate).findById(1);
+        doReturn(StockReservation.reserved(List.of(new Product(1, "Product Name", 7, 2))))
+                .when(delegate).reserve(Map.of(1, 3));
+        repository.findById(1);
+
+        repository.reserve(Map.of(1, 3));
+
+        // The remaining quantity is served without going back to the database
+        Assertions.assertEquals(7, repository.findById(1).get().getQuantity().intValue(),
+                "The cache should hold the remaining quantity");
+        verify(delegate, times(1)).findById(1);
+
+        doReturn(StockReservation.rejected(StockReservation.Status.INSUFFICIENT_QUANTITY, 1))
+                .when(delegate).reserve(Map.of(1, 8));
+        repository.reserve(Map.of(1, 8));
+        repository.findById(1);
+        verify(delegate, times(2)).findById(1);
+    }
+
+    @Test
+    @DisplayName("An older version never replaces a newer cached version")
+    void testSaveDoesNotReplaceNewerVersion() {
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 3))).when(delegate).findById(1);
+        doAnswer(invocation -> invocation.getArgument(0)).when(delegate).save(any());
+        repository.findById(1);
+
+        repository.save(new Product(1, "Older", 10, 2));
+
+        Assertions.assertEquals(3, repository.findById(1).get().getVersion().intValue(),
+                "The cache should still hold version 3");
+    }
+
+    @Test
+    @DisplayName("Deleting a product invalidates the cached product")
+    void testDeleteInvalidates() {
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 1))).when(delegate).findById(1);
+        doReturn(true).when(delegate).delete(1);
+        repository.findById(1);
+
+        repository.delete(1);
+        doReturn(Optional.empty()).when(delegate).findById(1);
+
+        Assertions.assertFalse(repository.findById(1).isPresent(), "The deleted product should not be served");
+    }
+}
@@ -0,0 +1,48 @@
+package com.globomantics.productservice.repository;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Tests how evenly the ConsistentHashRing spreads ids and how few move when a shard is added.
+ */
+class ConsistentHashRingTest {
+
+    private static final int IDS = 100_000;
+
+    @Test
+    @DisplayName("Every shard owns a fair share of the ids")
+    void testDistribution() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2"), 128);
+
+        int[] counts = new int[3];
+        for (int id = 1; id <= IDS; id++) {
+            counts[ring.shardFor(id)]++;
+        }
+        for (int count : counts) {
+            Assertions.assertTrue(Math.abs(count - IDS / 3) < IDS / 3 * 0.2,
+                    "Each shard should own about a third of the ids, but one owns " + count);
+        }
+    }
+
+    @Test
+    @DisplayName("Adding a shard only moves ids to the new shard")
+    void testAddShard() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2", "shard-3"), 128);
+
+        int moved = 0;
+        for (int id = 1; id <= IDS; id++) {
+            int owner = after.shardFor(id);
+            if (owner != before.shardFor(id)) {
+                Assertions.assertEquals(3, owner, "An id should only move to the new shard");
+                moved++;
+            }
+        }
+        Assertions.assertTrue(Math.abs(moved - IDS / 4) < IDS / 4 * 0.2,
+                "About a quarter of the ids should move, but " + moved + " did");
+    }
+}
@@ -3,23 +3,37 @@ package com.globomantics.productservice.repository;
 import com.github.database.rider.core.api.connection.ConnectionHolder;
 import com.github.database.rider.core.api.dataset.DataSet;
 import com.github.database.rider.junit5.DBUnitExtension;
+import com.globomantics.productservice.model.ChangeOperation;
 import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 @ExtendWith({DBUnitExtension.class, SpringExtension.class})
-@SpringBootTest
+@SpringBootTest(properties = {"products.batch.chunk-size=2", "products.multiget.chunk-size=1"})
 @ActiveProfiles("test")
 public class ProductRepositoryTest {
 
@@ -29,6 +43,9 @@ public class ProductRepositoryTest {
     @Autowired
     private ProductRepository repository;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     public ConnectionHolder getConnectionHolder() {
         // Return a function that retrieves a connection from our data source
         return () -> dataSource.getConnection();
@@ -41,6 +58,34 @@ public class ProductRepositoryTest {
         Assertions.assertEquals(2, products.size(), "We should have 2 products in our database");
     }
 
+    @Test
+    @DataSet("products.yml")
+    void testFindPage() {
+        // The first page holds only the first product
+        List<Product> firstPage = repository.findPage(null, 1);
+        Assertions.assertEquals(1, firstPage.size(), "The first page should contain 1 product");
+        Assertions.assertEquals(100, firstPage.get(0).getId().intValue(), "The first page should start at ID 100");
+
+        // The next page starts after the last id of the first page
+        List<Product> secondPage = repository.findPage(100, 10);
+        Assertions.assertEquals(1, secondPage.size(), "The second page should contain 1 product");
+        Assertions.assertEquals(200, secondPage.get(0).getId().intValue(), "The second page should start at ID 200");
+
+        // There is nothing after the last product
+        Assertions.assertTrue(repository.findPage(200, 10).isEmpty(), "There should be no products after ID 200");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testStreamAll() {
+        List<Product> products = new ArrayList<>();
+        repository.streamAll(products::add);
+
+        Assertions.assertEquals(2, products.size(), "We should have streamed 2 products");
+        Assertions.assertEquals(100, products.get(0).getId().intValue(), "Products should be streamed in id order");
+        Assertions.assertEquals(200, products.get(1).getId().intValue(), "Products should be streamed in id order");
+    }
+
     @Test
     @DataSet("products.yml")
     void testFindByIdSuccess() {
@@ -58,6 +103,24 @@ public class ProductRepositoryTest {
         Assertions.assertEquals(2, p.getVersion().intValue(), "Product version should be 2");
     }
 
+    @Test
+    @DataSet("products.yml")
+    void testFindAllById() {
+        // Look up two existing products and one missing product, one id per query with a chunk size of 1
+        List<Product> products = repository.findAllById(Arrays.asList(200, 300, 100));
+
+        Assertions.assertEquals(2, products.size(), "We should have found 2 products");
+        Assertions.assertTrue(products.stream().anyMatch(p -> p.getId() == 100), "Product 100 should be found");
+        Assertions.assertTrue(products.stream().anyMatch(p -> p.getId() == 200), "Product 200 should be found");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testFindVersionById() {
+        Assertions.assertEquals(Optional.of(2), repository.findVersionById(200), "Product 200 should be at version 2");
+        Assertions.assertFalse(repository.findVersionById(300).isPresent(), "Product 300 should not be found");
+    }
+
     @Test
     @DataSet("products.yml")
     void testFindByIdNotFound() {
@@ -88,6 +151,31 @@ public class ProductRepositoryTest {
         Assertions.assertEquals(1, loadedProduct.get().getVersion().intValue(), "Product version is incorrect");
     }
 
+    @Test
+    @DataSet("products.yml")
+    void testSaveAll() {
+        // Create three new products, which spans two batches with a chunk size of 2
+        List<Product> products = Arrays.asList(
+                new Product(null, "Product 5", 5, 1),
+                new Product(null, "Product 6", 6, 1),
+                new Product(null, "Product 7", 7, 1));
+        List<Product> savedProducts = repository.saveAll(products);
+
+        // Validate that every product received a distinct generated id
+        Assertions.assertEquals(3, savedProducts.size(), "All 3 products should be returned");
+        Assertions.assertEquals(3, savedProducts.stream().map(Product::getId).distinct().count(),
+                "Each saved product should have its own id");
+
+        // Validate that each product can be loaded back by its generated id
+        for (Product savedProduct : savedProducts) {
+            Optional<Product> loadedProduct = repository.findById(savedProduct.getId());
+            Assertions.assertTrue(loadedProduct.isPresent(), "Could not reload product from the database");
+            Assertions.assertEquals(savedProduct.getName(), loadedProduct.get().getName(), "Product name does not match");
+            Assertions.assertEquals(savedProduct.getQuantity(), loadedProduct.get().getQuantity(), "Product quantity does not match");
+        }
+        Assertions.assertEquals(5, repository.findAll().size(), "We should have 5 products in our database");
+    }
+
     @Test
     @DataSet("products.yml")
     void testUpdateSuccess() {
@@ -120,6 +208,161 @@ public class ProductRepositoryTest {
         Assertions.assertFalse(result, "The product should not have been updated");
     }
 
+    @Test
+    @DataSet("products.yml")
+    void testUpdateIfVersionSuccess() {
+        // Update product 200, which is at version 2
+        Product product = new Product(200, "This is product 2", 100);
+        VersionedWriteResult result = repository.updateIfVersion(product, 2);
+
+        // Validate that the update was applied and the version was incremented
+        Assertions.assertEquals(VersionedWriteResult.SUCCESS, result, "The product should have been updated");
+        Assertions.assertEquals(3, product.getVersion().intValue(), "The product should now have version 3");
+
+        Optional<Product> loadedProduct = repository.findById(200);
+        Assertions.assertTrue(loadedProduct.isPresent(), "Updated product should exist in the database");
+        Assertions.assertEquals("This is product 2", loadedProduct.get().getName(), "The product name does not match");
+        Assertions.assertEquals(100, loadedProduct.get().getQuantity().intValue(), "The quantity should now be 100");
+        Assertions.assertEquals(3, loadedProduct.get().getVersion().intValue(), "The version should now be 3");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testUpdateIfVersionConflict() {
+        // Product 200 is at version 2, not 1
+        Product product = new Product(200, "This is product 2", 100);
+        VersionedWriteResult result = repository.updateIfVersion(product, 1);
+
+        Assertions.assertEquals(VersionedWriteResult.VERSION_CONFLICT, result, "The update should conflict");
+        Assertions.assertEquals("Product 2", repository.findById(200).get().getName(), "The product should be unchanged");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testUpdateIfVersionNotFound() {
+        Product product = new Product(300, "This is product 3", 100);
+        VersionedWriteResult result = repository.updateIfVersion(product, 1);
+
+        Assertions.assertEquals(VersionedWriteResult.NOT_FOUND, result, "Product 300 should not be found");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testDeleteIfVersion() {
+        // Product 100 is at version 1, so a delete for version 2 conflicts
+        Assertions.assertEquals(VersionedWriteResult.VERSION_CONFLICT, repository.deleteIfVersion(100, 2),
+                "The delete should conflict");
+        Assertions.assertTrue(repository.findById(100).isPresent(), "Product 100 should not have been deleted");
+
+        // A delete for the current version succeeds
+        Assertions.assertEquals(VersionedWriteResult.SUCCESS, repository.deleteIfVersion(100, 1),
+                "The delete should succeed");
+        Assertions.assertFalse(repository.findById(100).isPresent(), "Product 100 should have been deleted");
+
+        // Once deleted, the product is not found
+        Assertions.assertEquals(VersionedWriteResult.NOT_FOUND, repository.deleteIfVersion(100, 1),
+                "Product 100 should not be found");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testAdjustQuantities() {
+        // Adjust products 100 and 200 in one batch, product 300 does not exist
+        Set<Integer> missingIds = repository.adjustQuantities(Map.of(100, -3, 200, 7, 300, 1));
+        Assertions.assertEquals(Set.of(300), missingIds, "Only product 300 should be missing");
+
+        // Validate the new quantities and that each version was incremented
+        Product product1 = repository.findById(100).get();
+        Assertions.assertEquals(7, product1.getQuantity().intValue(), "The quantity should now be 7");
+        Assertions.assertEquals(2, product1.getVersion().intValue(), "The version should now be 2");
+        Product product2 = repository.findById(200).get();
+        Assertions.assertEquals(12, product2.getQuantity().intValue(), "The quantity should now be 12");
+        Assertions.assertEquals(3, product2.getVersion().intValue(), "The version should now be 3");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testReserve() {
+        // Product 100 has 10 in stock at version 1
+        StockReservation reservation = repository.reserve(Map.of(100, 4));
+        Assertions.assertEquals(StockReservation.Status.RESERVED, reservation.status(), "The stock should be reserved");
+        Product reserved = reservation.products().get(0);
+        Assertions.assertEquals(6, reserved.getQuantity().intValue(), "The remaining quantity should be 6");
+        Assertions.assertEquals(2, reserved.getVersion().intValue(), "The version should now be 2");
+        Assertions.assertEquals("Product 1", reserved.getName(), "The product name does not match");
+
+        // Reserving more than the remaining stock is rejected and takes nothing
+        reservation = repository.reserve(Map.of(100, 7));
+        Assertions.assertEquals(StockReservation.Status.INSUFFICIENT_QUANTITY, reservation.status(),
+                "The reservation should be rejected");
+        Assertions.assertEquals(100, reservation.rejectedId().intValue(), "Product 100 should be rejected");
+        Assertions.assertEquals(6, repository.findById(100).get().getQuantity().intValue(),
+                "The quantity should still be 6");
+
+        // The whole remaining stock can be reserved
+        reservation = repository.reserve(Map.of(100, 6));
+        Assertions.assertEquals(0, reservation.products().get(0).getQuantity().intValue(),
+                "The remaining quantity should be 0");
+
+        Assertions.assertEquals(StockReservation.Status.NOT_FOUND, repository.reserve(Map.of(300, 1)).status(),
+                "Product 300 should not be found");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testReserveAll() {
+        // Product 200 only has 5, so nothing is taken from product 100 either
+        StockReservation reservation = repository.reserve(Map.of(100, 3, 200, 6));
+        Assertions.assertEquals(StockReservation.Status.INSUFFICIENT_QUANTITY, reservation.status(),
+                "The reservation should be rejected");
+        Assertions.assertEquals(200, reservation.rejectedId().intValue(), "Product 200 should be rejected");
+        Assertions.assertEquals(10, repository.findById(100).get().getQuantity().intValue(),
+                "The quantity of product 100 should be unchanged");
+
+        reservation = repository.reserve(Map.of(100, 3, 300, 1));
+        Assertions.assertEquals(StockReservation.Status.NOT_FOUND, reservation.status(),
+                "Product 300 should not be found");
+        Assertions.assertEquals(300, reservation.rejectedId().intValue(), "Product 300 should be rejected");
+
+        reservation = repository.reserve(Map.of(100, 3, 200, 5));
+        Assertions.assertEquals(StockReservation.Status.RESERVED, reservation.status(), "The stock should be reserved");
+        Assertions.assertEquals(2, reservation.products().size(), "Both products should be reserved");
+
+        Product product1 = repository.findById(100).get();
+        Assertions.assertEquals(7, product1.getQuantity().intValue(), "The quantity should now be 7");
+        Assertions.assertEquals(2, product1.getVersion().intValue(), "The version should now be 2");
+        Product product2 = repository.findById(200).get();
+        Assertions.assertEquals(0, product2.getQuantity().intValue(), "The quantity should now be 0");
+        Assertions.assertEquals(3, product2.getVersion().intValue(), "The version should now be 3");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testReserveConcurrently() throws Exception {
+        // Twice as many single-unit reservations as product 100 has in stock, from several threads at once
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<StockReservation>> reservations = new ArrayList<>();
+        try {
+            for (int i = 0; i < 20; i++) {
+                reservations.add(executor.submit(() -> repository.reserve(Map.of(100, 1))));
+            }
+
+            int reserved = 0;
+            for (Future<StockReservation> reservation : reservations) {
+                if (reservation.get(10, TimeUnit.SECONDS).isReserved()) {
+                    reserved++;
+                }
+            }
+            Assertions.assertEquals(10, reserved, "Exactly the stock should have been reserved");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Product product = repository.findById(100).get();
+        Assertions.assertEquals(0, product.getQuantity().intValue(), "The stock should never go negative");
+        Assertions.assertEquals(11, product.getVersion().intValue(), "Every reservation should bump the version");
+    }
+
     @Test
     @DataSet("products.yml")
     void testDeleteSuccess() {
@@ -137,4 +380,207 @@ public class ProductRepositoryTest {
         boolean result = repository.delete(300);
         Assertions.assertFalse(result, "Delete should return false because the deletion failed");
     }
+
+    @Test
+    @DataSet("products.yml")
+    void testFindChangesAfter() throws Exception {
+        long start = lastSequence();
+
+        // Make one change of each kind, a failed write is not recorded
+        Product saved = repository.save(new Product(null, "Product 3", 5, 1));
+        repository.updateIfVersion(new Product(100, "Product 1 Updated", 10, null), 1);
+        repository.delete(200);
+        repository.delete(300);
+
+        List<ProductChange> changes = repository.findChangesAfter(start, 10);
+        Assertions.assertEquals(3, changes.size(), "There should be 3 changes");
+
+        Assertions.assertEquals(saved.getId(), changes.get(0).getProductId());
+        Assertions.assertEquals(ChangeOperation.INSERT, changes.get(0).getOperation());
+        Assertions.assertEquals("Product 3", changes.get(0).getProduct().getName());
+
+        Assertions.assertEquals(100, changes.get(1).getProductId().intValue());
+        Assertions.assertEquals(ChangeOperation.UPDATE, changes.get(1).getOperation());
+        Assertions.assertEquals(2, changes.get(1).getProduct().getVersion().intValue(),
+                "The change should carry the product's current version");
+
+        Assertions.assertEquals(200, changes.get(2).getProductId().intValue());
+        Assertions.assertEquals(ChangeOperation.DELETE, changes.get(2).getOperation());
+        Assertions.assertNull(changes.get(2).getProduct(), "A deleted product has no current state");
+
+        // Sequence numbers increase, and reading after the last change returns nothing
+        Assertions.assertTrue(changes.get(0).getSequence() < changes.get(1).getSequence());
+        Assertions.assertTrue(changes.get(1).getSequence() < changes.get(2).getSequence());
+        Assertions.assertTrue(repository.findChangesAfter(changes.get(2).getSequence(), 10).isEmpty());
+
+        // The limit caps the number of changes returned
+        Assertions.assertEquals(1, repository.findChangesAfter(start, 1).size());
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testChangesAreReadInSequenceOrder() throws Exception {
+        long start = lastSequence();
+        CountDownLatch firstWritten = new CountDownLatch(1);
+        CountDownLatch commitFirst = new CountDownLatch(1);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // The first transaction records its change and then holds off committing
+            Future<?> first = executor.submit(() -> transaction.executeWithoutResult(status -> {
+                repository.adjustQuantities(Map.of(100, 1));
+                firstWritten.countDown();
+                awaitQuietly(commitFirst);
+            }));
+            Assertions.assertTrue(firstWritten.await(10, TimeUnit.SECONDS), "The first write should have run");
+
+            // The second takes a later sequence number and commits first, without waiting for the first
+            repository.adjustQuantities(Map.of(200, 1));
+
+            // A reader that moved its cursor past a committed change now could never see the first one
+            Assertions.assertTrue(repository.findChangesAfter(start, 10).isEmpty(),
+                    "No change should be visible before the first transaction commits");
+
+            commitFirst.countDown();
+            first.get(10, TimeUnit.SECONDS);
+        } finally {
+            commitFirst.countDown();
+            executor.shutdownNow();
+        }
+
+        List<ProductChange> changes = repository.findChangesAfter(start, 10);
+        Assertions.assertEquals(2, changes.size(), "Both changes should have been recorded");
+        Assertions.assertEquals(100, changes.get(0).getProductId().intValue(), "The first commit comes first");
+        Assertions.assertEquals(200, changes.get(1).getProductId().intValue(), "The second commit comes second");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testPruneChanges() throws Exception {
+        long start = lastSequence();
+        repository.adjustQuantities(Map.of(100, 1));
+        repository.adjustQuantities(Map.of(100, 1));
+        repository.adjustQuantities(Map.of(100, 1));
+
+        // Keep only the latest change, but not before the older ones have outlived the gap grace period
+        long latest = lastSequence();
+        repository.pruneChanges(1);
+        Assertions.assertEquals(3, repository.findChangesAfter(start, 10).size(),
+                "Changes younger than the grace period should be kept");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (jdbcTemplate.queryForObject("SELECT COUNT(*) FROM product_changes WHERE sequence > ?",
+                Integer.class, start) > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            repository.pruneChanges(1);
+        }
+        Assertions.assertEquals(1, repository.findChangesAfter(latest - 1, 10).size(),
+                "A reader that is not behind the retained changes keeps reading");
+        Assertions.assertThrows(ChangeLogPrunedException.class, () -> repository.findChangesAfter(start, 10),
+                "A reader that is behind the retained changes has missed some");
+        Assertions.assertEquals(0, repository.pruneChanges(1), "Nothing more should be pruned");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testFindLatestChangeSequence() throws Exception {
+        long before = lastSequence();
+
+        // Every successful write moves the catalog version forward
+        repository.adjustQuantities(Map.of(100, 1));
+        long after = repository.findLatestChangeSequence();
+        Assertions.assertTrue(after > before, "The latest sequence should have increased");
+
+        // A write that changes nothing leaves it alone
+        repository.delete(300);
+        Assertions.assertEquals(after, repository.findLatestChangeSequence(), "The latest sequence should not change");
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testLatestChangeSequenceCoversOnlyCommittedChanges() throws Exception {
+        long before = lastSequence();
+        CountDownLatch firstWritten = new CountDownLatch(1);
+        CountDownLatch commitFirst = new CountDownLatch(1);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = executor.submit(() -> transaction.executeWithoutResult(status -> {
+                repository.adjustQuantities(Map.of(100, 1));
+                firstWritten.countDown();
+                awaitQuietly(commitFirst);
+            }));
+            Assertions.assertTrue(firstWritten.await(10, TimeUnit.SECONDS), "The first write should have run");
+            repository.adjustQuantities(Map.of(200, 1));
+
+            // The catalog version must not move past the uncommitted change, whatever commits after it
+            Assertions.assertEquals(before, repository.findLatestChangeSequence(),
+                    "The catalog version should not cover an uncommitted change");
+
+            commitFirst.countDown();
+            first.get(10, TimeUnit.SECONDS);
+        } finally {
+            commitFirst.countDown();
+            executor.shutdownNow();
+        }
+
+        // Every change up to the catalog version is visible
+        long latest = repository.findLatestChangeSequence();
+        List<ProductChange> changes = repository.findChangesAfter(before, 10);
+        Assertions.assertEquals(2, changes.size(), "Both changes should be covered by the catalog version");
+        Assertions.assertEquals(latest, changes.get(1).getSequence());
+    }
+
+    @Test
+    @DataSet("products.yml")
+    void testRolledBackChangeIsSkippedAfterGracePeriod() throws Exception {
+        // Start after a change that is still in the log, or the gap would look like pruned changes
+        repository.adjustQuantities(Map.of(200, 1));
+        long start = lastSequence();
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        // The rolled back change leaves a gap in the sequence numbers before the committed one
+        transaction.executeWithoutResult(status -> {
+            repository.adjustQuantities(Map.of(100, 1));
+            status.setRollbackOnly();
+        });
+        repository.adjustQuantities(Map.of(200, 1));
+        Assertions.assertTrue(repository.findChangesAfter(start, 10).isEmpty(),
+                "A young gap might still be filled, so readers should stop at it");
+
+        // Once the gap outlives the grace period, readers move past it
+        List<ProductChange> changes = repository.findChangesAfter(start, 10);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (changes.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            changes = repository.findChangesAfter(start, 10);
+        }
+        Assertions.assertEquals(1, changes.size(), "Only the committed change should be read");
+        Assertions.assertEquals(200, changes.get(0).getProductId().intValue());
+        Assertions.assertEquals(changes.get(0).getSequence(), repository.findLatestChangeSequence());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long lastSequence() throws InterruptedException {
+        // Wait out a gap that an earlier test left in the change log, so that this test's changes are readable as
+        // soon as they commit
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        long sequence = repository.findLatestChangeSequence();
+        while (sequence < jdbcTemplate.queryForObject("SELECT COALESCE(MAX(sequence), 0) FROM product_changes",
+                Long.class) && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            sequence = repository.findLatestChangeSequence();
+        }
+        return sequence;
+    }
 }
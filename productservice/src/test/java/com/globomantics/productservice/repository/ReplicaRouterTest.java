@@ -0,0 +1,129 @@
+package com.globomantics.productservice.repository;
+
+import com.globomantics.productservice.model.Product;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests the ReplicaRouter against two in-memory H2 databases, a primary and a replica. Nothing replicates between
+ * them, so the tests write to the replica directly to make it catch up, with names that tell the copies apart.
+ */
+class ReplicaRouterTest {
+
+    private DataSource primaryDataSource;
+    private DataSource replicaDataSource;
+    private ProductRepositoryImpl primary;
+    private ProductRepositoryImpl replica;
+
+    @BeforeEach
+    void setup() {
+        String prefix = UUID.randomUUID().toString();
+        primaryDataSource = createDatabase("jdbc:h2:mem:" + prefix + "-primary;DB_CLOSE_DELAY=-1");
+        replicaDataSource = createDatabase("jdbc:h2:mem:" + prefix + "-replica;DB_CLOSE_DELAY=-1");
+        primary = new ProductRepositoryImpl(new JdbcTemplate(primaryDataSource), primaryDataSource,
+                new ProductChangeNotifier());
+        replica = new ProductRepositoryImpl(new JdbcTemplate(replicaDataSource), replicaDataSource,
+                new ProductChangeNotifier());
+
+        primary.save(new Product(null, "Primary copy", 10, 1));
+        replica.save(new Product(null, "Replica copy", 10, 1));
+    }
+
+    @Test
+    @DisplayName("Reads go to a replica that has caught up, writes and recent writers go to the primary")
+    void testReadsGoToReplica() {
+        ReplicaRouter router = createRouter(Duration.ofMinutes(1));
+        router.checkLag();
+
+        Assertions.assertEquals("Replica copy", router.read(false, () -> nameOf(1)));
+        Assertions.assertEquals("Primary copy", router.read(true, () -> nameOf(1)));
+        Assertions.assertEquals("Primary copy", nameOf(1));
+        Assertions.assertEquals("replica-0", router.read(false, router::route));
+        Assertions.assertEquals("primary", router.read(true, router::route));
+
+        // A write inside a replica read still goes to the primary
+        router.read(false, () -> primary.save(new Product(null, "Written", 1, 1)));
+        Assertions.assertEquals(2, countProducts(primaryDataSource));
+        Assertions.assertEquals(1, countProducts(replicaDataSource));
+        router.shutdown();
+    }
+
+    @Test
+    @DisplayName("A replica that lags by more than max-lag gets no reads until it catches up")
+    void testLaggingReplica() {
+        ReplicaRouter router = createRouter(Duration.ZERO);
+        Assertions.assertEquals("Primary copy", router.read(false, () -> nameOf(1)),
+                "A replica should get no reads before its lag has been checked");
+
+        router.checkLag();
+        Assertions.assertEquals("Replica copy", router.read(false, () -> nameOf(1)));
+
+        primary.save(new Product(null, "Second", 1, 1));
+        router.checkLag();
+        Assertions.assertEquals("Primary copy", router.read(false, () -> nameOf(1)));
+
+        replica.save(new Product(null, "Second", 1, 1));
+        router.checkLag();
+        Assertions.assertEquals("Replica copy", router.read(false, () -> nameOf(1)));
+        router.shutdown();
+    }
+
+    @Test
+    @DisplayName("A replica within max-lag keeps serving reads while it is slightly behind")
+    void testReplicaWithinMaxLag() {
+        ReplicaRouter router = createRouter(Duration.ofMinutes(1));
+        router.checkLag();
+
+        primary.save(new Product(null, "Second", 1, 1));
+        router.checkLag();
+        Assertions.assertEquals("Replica copy", router.read(false, () -> nameOf(1)));
+        router.shutdown();
+    }
+
+    @Test
+    @DisplayName("A read that fails on a replica is retried on the primary")
+    void testReplicaFailure() {
+        ReplicaRouter router = createRouter(Duration.ofMinutes(1));
+        router.checkLag();
+
+        new JdbcTemplate(replicaDataSource).execute("DROP TABLE products");
+        Assertions.assertEquals("Primary copy", router.read(false, () -> nameOf(1)));
+        Assertions.assertNull(router.read(false, router::pinnedReplica),
+                "A failed replica should get no reads until its next lag check");
+        router.shutdown();
+    }
+
+    private ReplicaRouter createRouter(Duration maxLag) {
+        ReplicaRouter router = new ReplicaRouter(new JdbcTemplate(primaryDataSource), List.of(replicaDataSource),
+                maxLag, Duration.ZERO, Duration.ofSeconds(5));
+        primary.setReplicaRouter(router);
+        return router;
+    }
+
+    private String nameOf(int id) {
+        return primary.findById(id).orElseThrow().getName();
+    }
+
+    private static DataSource createDatabase(String url) {
+        DataSource dataSource = new DriverManagerDataSource(url, "sa", "");
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+        return dataSource;
+    }
+
+    private static int countProducts(DataSource dataSource) {
+        Integer count = new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM products", Integer.class);
+        return count != null ? count : 0;
+    }
+}
@@ -0,0 +1,209 @@
+package com.globomantics.productservice.repository;
+
+import com.globomantics.productservice.model.ChangeOperation;
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Tests the ShardedProductRepository against three in-memory H2 databases.
+ */
+class ShardedProductRepositoryTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    private List<String> urls;
+    private ShardedProductRepository repository;
+
+    @BeforeEach
+    void setup() {
+        String prefix = UUID.randomUUID().toString();
+        urls = new ArrayList<>();
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            urls.add("jdbc:h2:mem:" + prefix + "-" + i + ";DB_CLOSE_DELAY=-1");
+        }
+        repository = createRepository();
+    }
+
+    @AfterEach
+    void teardown() {
+        repository.shutdown();
+    }
+
+    @Test
+    @DisplayName("Products are spread over every shard and found by id")
+    void testSaveAndFindById() {
+        List<Product> products = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) {
+            products.add(new Product(null, "Product " + i, i, 1));
+        }
+        repository.saveAll(products);
+        Product single = repository.save(new Product(null, "Product 31", 31, 1));
+
+        // Ids are allocated across the shards in order
+        Assertions.assertEquals(31, single.getId());
+        Assertions.assertEquals(List.of(1, 2, 3), products.subList(0, 3).stream().map(Product::getId).toList());
+
+        // Every shard holds some of the products, and no product is held twice
+        int total = 0;
+        for (String url : urls) {
+            int count = countProducts(url);
+            Assertions.assertTrue(count > 0, "Every shard should hold products");
+            total += count;
+        }
+        Assertions.assertEquals(31, total);
+
+        Assertions.assertEquals("Product 17", repository.findById(17).orElseThrow().getName());
+        Assertions.assertEquals(1, repository.findVersionById(31).orElseThrow());
+        Assertions.assertTrue(repository.findById(32).isEmpty());
+        Assertions.assertEquals(3, repository.findAllById(List.of(5, 12, 28, 99)).size());
+    }
+
+    @Test
+    @DisplayName("Queries over the whole catalog merge the shards in id order")
+    void testScatterGather() {
+        for (int i = 1; i <= 25; i++) {
+            repository.save(new Product(null, "Product " + i, i, 1));
+        }
+
+        Assertions.assertEquals(25, repository.findAll().size());
+        Assertions.assertEquals(List.of(11, 12, 13, 14, 15),
+                repository.findPage(10, 5).stream().map(Product::getId).toList());
+
+        List<Integer> streamed = new ArrayList<>();
+        repository.streamAll(product -> streamed.add(product.getId()));
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 1; id <= 25; id++) {
+            expected.add(id);
+        }
+        Assertions.assertEquals(expected, streamed);
+    }
+
+    @Test
+    @DisplayName("Writes are routed to the product's shard and merged into one change log")
+    void testWritesAndChangeLog() {
+        for (int i = 1; i <= 6; i++) {
+            repository.save(new Product(null, "Product " + i, 10, 1));
+        }
+
+        Product update = new Product(2, "Renamed", 5);
+        Assertions.assertEquals(VersionedWriteResult.SUCCESS, repository.updateIfVersion(update, 1));
+        Assertions.assertEquals(VersionedWriteResult.VERSION_CONFLICT, repository.updateIfVersion(update, 1));
+        Assertions.assertEquals(VersionedWriteResult.NOT_FOUND, repository.deleteIfVersion(99, 1));
+        Assertions.assertTrue(repository.delete(3));
+
+        Map<Integer, Integer> deltas = new HashMap<>();
+        deltas.put(4, -3);
+        deltas.put(5, 2);
+        deltas.put(99, 1);
+        Assertions.assertEquals(Set.of(99), repository.adjustQuantities(deltas));
+        Assertions.assertEquals(7, repository.findById(4).orElseThrow().getQuantity());
+
+        // Six inserts, an update, a delete and two adjustments, in the order they were made
+        List<ProductChange> changes = repository.findChangesAfter(0, 100);
+        Assertions.assertEquals(10, changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            Assertions.assertEquals(i + 1, changes.get(i).getSequence());
+        }
+        Assertions.assertEquals(ChangeOperation.UPDATE, changes.get(6).getOperation());
+        Assertions.assertEquals("Renamed", changes.get(6).getProduct().getName());
+        Assertions.assertEquals(ChangeOperation.DELETE, changes.get(7).getOperation());
+        Assertions.assertNull(changes.get(7).getProduct());
+        Assertions.assertEquals(10, repository.findLatestChangeSequence());
+        Assertions.assertEquals(List.of(9L, 10L),
+                repository.findChangesAfter(8, 100).stream().map(ProductChange::getSequence).toList());
+
+        // Pruning keeps the latest changes on every shard
+        Assertions.assertEquals(7, repository.pruneChanges(3));
+        Assertions.assertEquals(List.of(8L, 9L, 10L),
+                repository.findChangesAfter(7, 100).stream().map(ProductChange::getSequence).toList());
+        Assertions.assertThrows(ChangeLogPrunedException.class, () -> repository.findChangesAfter(5, 100));
+    }
+
+    @Test
+    @DisplayName("A reservation across shards is all or nothing")
+    void testReserveAcrossShards() {
+        for (int i = 1; i <= 30; i++) {
+            repository.save(new Product(null, "Product " + i, 10, 1));
+        }
+        Map<Integer, Integer> quantities = new HashMap<>();
+        for (int id = 1; id <= 30; id++) {
+            quantities.put(id, 4);
+        }
+
+        StockReservation reservation = repository.reserve(quantities);
+        Assertions.assertTrue(reservation.isReserved());
+        Assertions.assertEquals(30, reservation.products().size());
+        Assertions.assertEquals(6, repository.findById(17).orElseThrow().getQuantity());
+
+        // Product 29 cannot cover a second reservation of 8, so the stock taken on every other shard is given back
+        quantities.put(29, 8);
+        reservation = repository.reserve(quantities);
+        Assertions.assertEquals(StockReservation.Status.INSUFFICIENT_QUANTITY, reservation.status());
+        Assertions.assertEquals(29, reservation.rejectedId());
+        for (Product product : repository.findAll()) {
+            Assertions.assertEquals(6, product.getQuantity(), "Product " + product.getId() + " should have 6");
+        }
+
+        Assertions.assertEquals(StockReservation.Status.NOT_FOUND, repository.reserve(Map.of(2, 1, 99, 1)).status());
+        Assertions.assertEquals(6, repository.findById(2).orElseThrow().getQuantity());
+    }
+
+    @Test
+    @DisplayName("A restarted repository carries on from the ids and changes on the shards")
+    void testRestart() {
+        repository.save(new Product(null, "Product 1", 1, 1));
+        repository.save(new Product(null, "Product 2", 2, 1));
+        repository.shutdown();
+
+        repository = createRepository();
+        Assertions.assertEquals(2, repository.findLatestChangeSequence());
+        Assertions.assertEquals(3, repository.save(new Product(null, "Product 3", 3, 1)).getId());
+        Assertions.assertEquals(3, repository.findAll().size());
+    }
+
+    @Test
+    @DisplayName("A shard may be added to an empty catalog but not to one whose products it would take over")
+    void testAddShard() {
+        repository.shutdown();
+        urls.add(urls.get(0).replace("-0;", "-3;"));
+        repository = createRepository();
+        repository.shutdown();
+        urls.remove(SHARD_COUNT);
+
+        repository = createRepository();
+        for (int i = 1; i <= 20; i++) {
+            repository.save(new Product(null, "Product " + i, i, 1));
+        }
+        repository.shutdown();
+
+        // The new shard would own some of the products, which stay on their old shards and could not be found
+        urls.add(urls.get(0).replace("-0;", "-4;"));
+        Assertions.assertThrows(IllegalStateException.class, this::createRepository);
+        urls.remove(SHARD_COUNT);
+        repository = createRepository();
+    }
+
+    private ShardedProductRepository createRepository() {
+        return new ShardedProductRepository(urls, "sa", "", 64, 2, 4, 500, 500, new ProductChangeNotifier());
+    }
+
+    private static int countProducts(String url) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(url, "sa", "");
+        Integer count = new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM products", Integer.class);
+        return count != null ? count : 0;
+    }
+}
@@ -0,0 +1,88 @@
+package com.globomantics.productservice.search;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Tests prefix and substring searches of the ProductNameIndex.
+ */
+class ProductNameIndexTest {
+
+    private ProductNameIndex index;
+
+    @BeforeEach
+    void setup() {
+        index = new ProductNameIndex(100);
+        index.put(1, "Red Widget");
+        index.put(2, "Widget");
+        index.put(3, "Blue widget, large");
+        index.put(4, "Widgetizer Pro");
+        index.put(5, "Gadget");
+    }
+
+    @Test
+    @DisplayName("Short queries match the start of any word")
+    void testWordPrefix() {
+        Assertions.assertEquals(List.of(2, 4, 1, 3), index.search("wi", 0, 10),
+                "Names that start with the query should rank before later words, shorter names first");
+        Assertions.assertEquals(List.of(3), index.search("l", 0, 10), "Only Blue widget, large has an l word");
+        Assertions.assertEquals(List.of(), index.search("dg", 0, 10), "Short queries should not match mid-word");
+    }
+
+    @Test
+    @DisplayName("Longer queries match anywhere in the name, ranked by how they match")
+    void testSubstring() {
+        Assertions.assertEquals(List.of(2, 5, 1, 4, 3), index.search("dget", 0, 10),
+                "Mid-word matches should rank by name length");
+        Assertions.assertEquals(List.of(2, 4, 1, 3), index.search("WIDGET", 0, 10),
+                "The exact name should rank first and case should not matter");
+        Assertions.assertEquals(List.of(3), index.search("widget large", 0, 10),
+                "Punctuation should be ignored across words");
+        Assertions.assertEquals(List.of(), index.search("widgets", 0, 10), "Nothing contains widgets");
+    }
+
+    @Test
+    @DisplayName("Results are paginated in rank order")
+    void testPagination() {
+        Assertions.assertEquals(List.of(2, 4), index.search("widget", 0, 2));
+        Assertions.assertEquals(List.of(1, 3), index.search("widget", 2, 2));
+        Assertions.assertEquals(List.of(), index.search("widget", 4, 2));
+    }
+
+    @Test
+    @DisplayName("Renamed and removed products are reindexed")
+    void testUpdates() {
+        index.put(5, "Widget Gadget");
+        index.remove(2);
+
+        Assertions.assertEquals(List.of(5), index.search("gad", 0, 10), "Product 5 should be found by its new name");
+        Assertions.assertEquals(List.of(5, 4, 1, 3), index.search("wi", 0, 10),
+                "Product 2 should no longer be found");
+        Assertions.assertEquals(4, index.size(), "Four products should remain");
+
+        index.remove(5);
+        Assertions.assertEquals(List.of(), index.search("ga", 0, 10), "The pruned word should not be found");
+    }
+
+    @Test
+    @DisplayName("At most maxCandidates matches are ranked")
+    void testMaxCandidates() {
+        ProductNameIndex small = new ProductNameIndex(2);
+        for (int id = 1; id <= 10; id++) {
+            small.put(id, "Product " + id);
+        }
+
+        Assertions.assertEquals(2, small.search("product", 0, 10).size(), "Only two candidates should be ranked");
+        Assertions.assertEquals(2, small.search("pr", 0, 10).size(), "Only two candidates should be ranked");
+    }
+
+    @Test
+    @DisplayName("Blank queries match nothing")
+    void testBlankQuery() {
+        Assertions.assertEquals(List.of(), index.search(" , ", 0, 10));
+    }
+}
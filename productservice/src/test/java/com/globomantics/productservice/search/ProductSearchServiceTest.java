@@ -0,0 +1,155 @@
+package com.globomantics.productservice.search;
+
+import com.globomantics.productservice.model.ChangeOperation;
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
+import com.globomantics.productservice.repository.ChangeLogPrunedException;
+import com.globomantics.productservice.repository.ProductChangeNotifier;
+import com.globomantics.productservice.repository.ProductRepository;
+import com.globomantics.productservice.repository.ProductRepositoryImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.jdbc.support.JdbcTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests that the ProductSearchService builds its index from a ProductRepository and follows its change log.
+ */
+class ProductSearchServiceTest {
+
+    private ProductSearchService searchService;
+
+    @AfterEach
+    void teardown() {
+        searchService.shutdown();
+    }
+
+    @Test
+    @DisplayName("Changes after the indexed sequence are applied to the index")
+    void testApplyChanges() {
+        // Setup a catalog of two products whose index is current up to change 7
+        ProductRepository repository = mock(ProductRepository.class);
+        doReturn(7L).when(repository).findLatestChangeSequence();
+        doAnswer(invocation -> {
+            Consumer<Product> consumer = invocation.getArgument(0);
+            consumer.accept(new Product(1, "Red Widget", 10, 1));
+            consumer.accept(new Product(2, "Blue Widget", 5, 1));
+            return null;
+        }).when(repository).streamAll(any());
+
+        // After change 7, product 3 is created, product 1 renamed and product 2 deleted
+        doReturn(List.of()).when(repository).findChangesAfter(anyLong(), anyInt());
+        doReturn(List.of(
+                new ProductChange(8, 3, ChangeOperation.INSERT, new Product(3, "Green Widget", 1, 1)),
+                new ProductChange(9, 1, ChangeOperation.UPDATE, new Product(1, "Red Gadget", 10, 2)),
+                new ProductChange(10, 2, ChangeOperation.DELETE, null)))
+                .when(repository).findChangesAfter(eq(7L), anyInt());
+
+        // The background thread may apply the changes first, which leaves nothing for applyChanges to do
+        searchService = new ProductSearchService(repository, new ProductChangeNotifier(), 100, Duration.ofHours(1));
+        searchService.applyChanges();
+
+        Assertions.assertEquals(List.of(3), searchService.search("widget", 0, 10));
+        Assertions.assertEquals(List.of(1), searchService.search("gadget", 0, 10));
+    }
+
+    @Test
+    @DisplayName("A change that commits late is not skipped by the index")
+    void testFollowsChangesInCommitOrder() throws Exception {
+        // A real store, so that the change log is numbered and committed by the database
+        DataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+        ProductRepositoryImpl repository = new ProductRepositoryImpl(new JdbcTemplate(dataSource), dataSource,
+                new ProductChangeNotifier());
+        repository.save(new Product(null, "Red Widget", 10, 1));
+        searchService = new ProductSearchService(repository, new ProductChangeNotifier(), 100, Duration.ofHours(1));
+
+        CountDownLatch renamed = new CountDownLatch(1);
+        CountDownLatch commitRename = new CountDownLatch(1);
+        TransactionTemplate transaction = new TransactionTemplate(new JdbcTransactionManager(dataSource));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // The rename records its change first but commits only after the insert has committed
+            Future<?> rename = executor.submit(() -> transaction.executeWithoutResult(status -> {
+                repository.update(new Product(1, "Red Gadget", 10, 2));
+                renamed.countDown();
+                try {
+                    commitRename.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            Assertions.assertTrue(renamed.await(10, TimeUnit.SECONDS), "The rename should have run");
+            repository.save(new Product(null, "Blue Widget", 5, 1));
+
+            // The index catches up while the rename is still uncommitted
+            searchService.applyChanges();
+
+            commitRename.countDown();
+            rename.get(10, TimeUnit.SECONDS);
+        } finally {
+            commitRename.countDown();
+            executor.shutdownNow();
+        }
+
+        searchService.applyChanges();
+        Assertions.assertEquals(List.of(1), searchService.search("gadget", 0, 10), "The rename should be indexed");
+        Assertions.assertEquals(List.of(2), searchService.search("blue", 0, 10), "The insert should be indexed");
+    }
+
+    @Test
+    @DisplayName("The index is rebuilt when the changes it needs have been pruned")
+    void testRebuildAfterPrunedChanges() {
+        // Setup a catalog that is current up to change 7 when it is first indexed, and up to 20 afterwards
+        ProductRepository repository = mock(ProductRepository.class);
+        doReturn(7L).doReturn(20L).when(repository).findLatestChangeSequence();
+        AtomicInteger reads = new AtomicInteger();
+        doAnswer(invocation -> {
+            Consumer<Product> consumer = invocation.getArgument(0);
+            consumer.accept(reads.getAndIncrement() == 0
+                    ? new Product(1, "Red Widget", 10, 1)
+                    : new Product(3, "Green Widget", 1, 1));
+            return null;
+        }).when(repository).streamAll(any());
+
+        // The changes after 7 are gone
+        doReturn(List.of()).when(repository).findChangesAfter(anyLong(), anyInt());
+        doThrow(new ChangeLogPrunedException(7)).when(repository).findChangesAfter(eq(7L), anyInt());
+
+        // The background thread may rebuild the index first, which leaves nothing for applyChanges to do
+        searchService = new ProductSearchService(repository, new ProductChangeNotifier(), 100, Duration.ofHours(1));
+        searchService.applyChanges();
+
+        Assertions.assertEquals(List.of(3), searchService.search("widget", 0, 10));
+        Assertions.assertEquals(List.of(), searchService.search("red", 0, 10));
+    }
+}
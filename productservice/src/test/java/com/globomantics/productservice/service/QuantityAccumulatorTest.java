@@ -0,0 +1,202 @@
+package com.globomantics.productservice.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.globomantics.productservice.repository.ProductRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the QuantityAccumulator against a mocked ProductRepository.
+ */
+class QuantityAccumulatorTest {
+
+    private QuantityAccumulator accumulator;
+
+    @AfterEach
+    void teardown() {
+        accumulator.shutdown();
+    }
+
+    @Test
+    @DisplayName("Group commit applies every delta exactly once in batched flushes")
+    void testGroupCommitConcurrentAdjustments() throws Exception {
+        // Record the net delta written for each product and the number of batches
+        ProductRepository repository = mock(ProductRepository.class);
+        Map<Integer, Integer> written = new ConcurrentHashMap<>();
+        AtomicInteger batches = new AtomicInteger();
+        doAnswer(invocation -> {
+            Map<Integer, Integer> deltas = invocation.getArgument(0);
+            deltas.forEach((id, delta) -> written.merge(id, delta, Integer::sum));
+            if (!deltas.isEmpty()) {
+                batches.incrementAndGet();
+            }
+            return Set.of();
+        }).when(repository).adjustQuantities(any());
+        accumulator = new QuantityAccumulator(repository, QuantityDurability.GROUP_COMMIT, Duration.ofMillis(5),
+                Duration.ofSeconds(5));
+
+        // Hammer a single hot product from many threads
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int delta = i % 2 == 0 ? 3 : -1;
+            results.add(executor.submit(() -> accumulator.adjust(1, delta).get()));
+        }
+        for (Future<Boolean> result : results) {
+            Assertions.assertTrue(result.get(), "Every adjustment should succeed");
+        }
+        executor.shutdown();
+
+        // Every acknowledged delta has been written, in far fewer batches than adjustments
+        Assertions.assertEquals(2000, written.get(1).intValue(), "The net delta should be 1000 * 3 - 1000 * 1");
+        Assertions.assertTrue(batches.get() < 2000, "Adjustments should have been batched");
+    }
+
+    @Test
+    @DisplayName("Group commit reports products that do not exist")
+    void testGroupCommitProductNotFound() throws Exception {
+        ProductRepository repository = mock(ProductRepository.class);
+        doAnswer(invocation -> Set.of(2)).when(repository).adjustQuantities(any());
+        accumulator = new QuantityAccumulator(repository, QuantityDurability.GROUP_COMMIT, Duration.ofMillis(5),
+                Duration.ofSeconds(5));
+
+        Assertions.assertFalse(accumulator.adjust(2, 5).get(5, TimeUnit.SECONDS), "Product 2 should not be found");
+    }
+
+    @Test
+    @DisplayName("Each delta is answered by the flush that wrote it")
+    void testGroupCommitAnswersFromOwnFlush() throws Exception {
+        ProductRepository repository = mock(ProductRepository.class);
+        doReturn(Set.of(2)).doReturn(Set.of()).when(repository).adjustQuantities(any());
+        accumulator = new QuantityAccumulator(repository, QuantityDurability.GROUP_COMMIT, Duration.ofHours(1),
+                Duration.ofSeconds(5));
+
+        // Product 2 is missing when the first flush runs and has been created by the second
+        CompletableFuture<Boolean> first = accumulator.adjust(2, 1);
+        accumulator.flush();
+        CompletableFuture<Boolean> second = accumulator.adjust(2, 1);
+        accumulator.flush();
+
+        Assertions.assertFalse(first.get(5, TimeUnit.SECONDS), "The first flush should not have found product 2");
+        Assertions.assertTrue(second.get(5, TimeUnit.SECONDS), "The second flush should have found product 2");
+    }
+
+    @Test
+    @DisplayName("A flush that fails fails its callers instead of leaving them waiting")
+    void testGroupCommitFailureFailsCallers() {
+        ProductRepository repository = mock(ProductRepository.class);
+        doThrow(new IllegalStateException("Database down")).when(repository).adjustQuantities(any());
+        accumulator = new QuantityAccumulator(repository, QuantityDurability.GROUP_COMMIT, Duration.ofHours(1),
+                Duration.ofSeconds(5));
+
+        CompletableFuture<Boolean> first = accumulator.adjust(1, 1);
+        CompletableFuture<Boolean> second = accumulator.adjust(2, 1);
+        Assertions.assertThrows(IllegalStateException.class, () -> accumulator.flush());
+
+        ExecutionException failure = Assertions.assertThrows(ExecutionException.class,
+                () -> first.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(IllegalStateException.class, failure.getCause());
+        Assertions.assertTrue(second.isCompletedExceptionally(), "Both callers should have failed");
+    }
+
+    @Test
+    @DisplayName("A delta that would overflow its product's net delta is refused without failing the batch")
+    void testGroupCommitOverflowRefusesOnlyOffendingDelta() throws Exception {
+        ProductRepository repository = mock(ProductRepository.class);
+        doReturn(Set.of()).when(repository).adjustQuantities(any());
+        accumulator = new QuantityAccumulator(repository, QuantityDurability.GROUP_COMMIT, Duration.ofHours(1),
+                Duration.ofSeconds(5));
+
+        CompletableFuture<Boolean> first = accumulator.adjust(1, Integer.MAX_VALUE);
+        CompletableFuture<Boolean> second = accumulator.adjust(1, Integer.MAX_VALUE);
+        CompletableFuture<Boolean> other = accumulator.adjust(2, 5);
+        ExecutionException failure = Assertions.assertThrows(ExecutionException.class,
+                () -> second.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(ArithmeticException.class, failure.getCause());
+
+        accumulator.flush();
+        Assertions.assertTrue(first.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(other.get(5, TimeUnit.SECONDS));
+        verify(repository).adjustQuantities(Map.of(1, Integer.MAX_VALUE, 2, 5));
+    }
+
+    @Test
+    @DisplayName("A timed-out delta is taken back before its flush, or reported as pending once it has begun")
+    void testGroupCommitTimeout() throws Exception {
+        // A slow flush, which records the net deltas that it writes
+        ProductRepository repository = mock(ProductRepository.class);
+        Map<Integer, Integer> written = new ConcurrentHashMap<>();
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            flushing.countDown();
+            release.await();
+            Map<Integer, Integer> deltas = invocation.getArgument(0);
+            deltas.forEach((id, delta) -> written.merge(id, delta, Integer::sum));
+            return Set.of();
+        }).when(repository).adjustQuantities(any());
+        accumulator = new QuantityAccumulator(repository, QuantityDurability.GROUP_COMMIT, Duration.ofHours(1),
+                Duration.ofMillis(100));
+
+        // The first delta's flush begins and hangs, the second waits in the next batch
+        CompletableFuture<Boolean> pending = accumulator.adjust(1, 3);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> flush = executor.submit(() -> accumulator.flush());
+            Assertions.assertTrue(flushing.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Boolean> dropped = accumulator.adjust(1, 5);
+
+            ExecutionException failure = Assertions.assertThrows(ExecutionException.class,
+                    () -> pending.get(5, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(QuantityAdjustmentPendingException.class, failure.getCause());
+            failure = Assertions.assertThrows(ExecutionException.class, () -> dropped.get(5, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(TimeoutException.class, failure.getCause());
+
+            release.countDown();
+            flush.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        accumulator.flush();
+
+        // The pending delta landed and the dropped one did not, so a retry of it applies it exactly once
+        Assertions.assertEquals(Map.of(1, 3), written);
+    }
+
+    @Test
+    @DisplayName("Sync mode writes each delta immediately")
+    void testSyncAdjustment() {
+        ProductRepository repository = mock(ProductRepository.class);
+        doAnswer(invocation -> Set.of()).when(repository).adjustQuantities(any());
+        accumulator = new QuantityAccumulator(repository, QuantityDurability.SYNC, Duration.ofMillis(5),
+                Duration.ofSeconds(5));
+
+        Assertions.assertTrue(accumulator.adjust(1, -4).getNow(false), "The adjustment should succeed");
+        verify(repository).adjustQuantities(Map.of(1, -4));
+    }
+}
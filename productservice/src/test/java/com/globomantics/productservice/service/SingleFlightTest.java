@@ -0,0 +1,87 @@
+package com.globomantics.productservice.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the SingleFlight request coalescing.
+ */
+class SingleFlightTest {
+
+    @Test
+    @DisplayName("Concurrent calls for the same key share one execution")
+    void testConcurrentCallsCollapse() throws Exception {
+        SingleFlight<Integer, String> singleFlight = new SingleFlight<>(value -> value + " (shared)");
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        // The first call blocks until every other caller has joined it
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> singleFlight.execute(1, () -> {
+                executions.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "Product 1";
+            })));
+        }
+        while (singleFlight.collapsedCount() < 7) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        int shared = 0;
+        for (Future<String> result : results) {
+            String value = result.get();
+            Assertions.assertTrue(value.startsWith("Product 1"), "Every caller should get the result");
+            if (value.endsWith("(shared)")) {
+                shared++;
+            }
+        }
+        executor.shutdown();
+
+        Assertions.assertEquals(1, executions.get(), "The call should only have run once");
+        Assertions.assertEquals(7, shared, "Every waiting caller should get the shared result");
+        Assertions.assertEquals(1, singleFlight.executedCount(), "One call should have been executed");
+        Assertions.assertEquals(7, singleFlight.collapsedCount(), "Seven calls should have been collapsed");
+    }
+
+    @Test
+    @DisplayName("Completed calls are not remembered")
+    void testSequentialCallsExecute() {
+        SingleFlight<Integer, String> singleFlight = new SingleFlight<>(value -> value);
+        AtomicInteger executions = new AtomicInteger();
+
+        singleFlight.execute(1, () -> "Product " + executions.incrementAndGet());
+        String second = singleFlight.execute(1, () -> "Product " + executions.incrementAndGet());
+
+        Assertions.assertEquals("Product 2", second, "The second call should run again");
+        Assertions.assertEquals(0, singleFlight.collapsedCount(), "No calls should have been collapsed");
+    }
+
+    @Test
+    @DisplayName("Failures are propagated and not remembered")
+    void testFailurePropagates() {
+        SingleFlight<Integer, String> singleFlight = new SingleFlight<>(value -> value);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> singleFlight.execute(1, () -> {
+            throw new IllegalStateException("Database unavailable");
+        }));
+        Assertions.assertEquals("Product 1", singleFlight.execute(1, () -> "Product 1"),
+                "A call after a failure should run again");
+    }
+}
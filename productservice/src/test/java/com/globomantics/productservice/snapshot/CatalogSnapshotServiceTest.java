@@ -0,0 +1,132 @@
+package com.globomantics.productservice.snapshot;
+
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.repository.ProductRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Tests a read-only node that serves products from a catalog snapshot written before it started.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+class CatalogSnapshotServiceTest {
+
+    @TempDir
+    static Path directory;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private CatalogSnapshotService catalogSnapshotService;
+
+    /**
+     * The database must not be read on a read-only node.
+     */
+    @MockBean
+    private ProductRepository repository;
+
+    private static final List<Product> PRODUCTS = List.of(
+            new Product(1, "Product 1", 10, 3),
+            new Product(2, "Product 2", 20, 1));
+
+    @BeforeAll
+    static void writeSnapshot() throws IOException {
+        CatalogSnapshot.write(directory.resolve("catalog.snapshot"), PRODUCTS::forEach);
+    }
+
+    @DynamicPropertySource
+    static void snapshotProperties(DynamicPropertyRegistry registry) {
+        registry.add("products.snapshot.path", () -> directory.resolve("catalog.snapshot").toString());
+        registry.add("products.snapshot.read-only", () -> "true");
+        registry.add("products.snapshot.reload-interval", () -> "0s");
+        // No background threads that would call the mocked repository while testWrite is stubbing it
+        registry.add("products.quantity.durability", () -> "sync");
+        registry.add("products.search.poll-interval", () -> "1h");
+    }
+
+    @Test
+    @DisplayName("GET /product/1 - Served from the snapshot")
+    void testGetProductFromSnapshot() throws Exception {
+        perform(get("/product/{id}", 1))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.name", is("Product 1")))
+                .andExpect(jsonPath("$.quantity", is(10)))
+                .andExpect(jsonPath("$.version", is(3)));
+
+        perform(get("/product/{id}", 3))
+                .andExpect(status().isNotFound());
+
+        verify(repository, never()).findById(any());
+        verify(repository, never()).findVersionById(any());
+    }
+
+    @Test
+    @DisplayName("GET /products - Served from the snapshot")
+    void testGetProductsFromSnapshot() throws Exception {
+        perform(get("/products"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[1].id", is(2)));
+
+        verify(repository, never()).findAll();
+    }
+
+    @Test
+    @DisplayName("Writing a snapshot reads the database and replaces the served snapshot")
+    void testWrite() {
+        // Setup the database to hold the same products as the original snapshot
+        doAnswer(invocation -> {
+            Consumer<Product> consumer = invocation.getArgument(0);
+            PRODUCTS.forEach(consumer);
+            return null;
+        }).when(repository).streamAll(any());
+
+        CatalogSnapshot snapshot = catalogSnapshotService.write();
+
+        Assertions.assertEquals(2, snapshot.getProductCount(), "The snapshot should contain 2 products");
+        Assertions.assertSame(snapshot, catalogSnapshotService.servingSnapshot(), "The new snapshot should be served");
+    }
+
+    /**
+     * Performs the request and dispatches the already completed async result.
+     */
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        return mockMvc.perform(asyncDispatch(mockMvc.perform(request).andReturn()));
+    }
+}
@@ -0,0 +1,90 @@
+package com.globomantics.productservice.snapshot;
+
+import com.globomantics.productservice.model.Product;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Tests writing and reading CatalogSnapshot files.
+ */
+class CatalogSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Products written to a snapshot can be read back by id")
+    void testFindById() throws IOException {
+        CatalogSnapshot snapshot = write(List.of(
+                new Product(200, "Product 2", 5, 2),
+                new Product(100, "Product 1", 10, 1)));
+
+        Assertions.assertEquals(2, snapshot.getProductCount(), "The snapshot should contain 2 products");
+
+        Optional<Product> product = snapshot.findById(200);
+        Assertions.assertTrue(product.isPresent(), "Product 200 should be found");
+        Assertions.assertEquals("Product 2", product.get().getName());
+        Assertions.assertEquals(5, product.get().getQuantity().intValue());
+        Assertions.assertEquals(2, product.get().getVersion().intValue());
+
+        Assertions.assertEquals(Optional.of(1), snapshot.findVersionById(100), "Product 100 should be at version 1");
+        Assertions.assertFalse(snapshot.findById(150).isPresent(), "Product 150 should not be found");
+        Assertions.assertFalse(snapshot.findVersionById(300).isPresent(), "Product 300 should not be found");
+    }
+
+    @Test
+    @DisplayName("Products are listed and paged in id order")
+    void testFindAllAndPage() throws IOException {
+        CatalogSnapshot snapshot = write(List.of(
+                new Product(3, "Product 3", 1, 1),
+                new Product(1, "Product 1", 1, 1),
+                new Product(2, "Produkt ü", 1, 1)));
+
+        Assertions.assertEquals(List.of(1, 2, 3), ids(snapshot.findAll()), "All products should be in id order");
+        Assertions.assertEquals("Produkt ü", snapshot.findById(2).orElseThrow().getName(),
+                "Names should round-trip as UTF-8");
+
+        Assertions.assertEquals(List.of(1, 2), ids(snapshot.findPage(null, 2)), "The first page should hold 1 and 2");
+        Assertions.assertEquals(List.of(3), ids(snapshot.findPage(2, 2)), "The second page should hold 3");
+        Assertions.assertTrue(snapshot.findPage(3, 2).isEmpty(), "There should be nothing after the last product");
+        Assertions.assertEquals(List.of(3, 1), ids(snapshot.findAllById(List.of(3, 4, 1))),
+                "Only the products that exist should be returned, in request order");
+    }
+
+    @Test
+    @DisplayName("An empty catalog produces an empty snapshot")
+    void testEmptySnapshot() throws IOException {
+        CatalogSnapshot snapshot = write(List.of());
+
+        Assertions.assertEquals(0, snapshot.getProductCount());
+        Assertions.assertFalse(snapshot.findById(1).isPresent());
+        Assertions.assertTrue(snapshot.findAll().isEmpty());
+    }
+
+    @Test
+    @DisplayName("A file that is not a snapshot is rejected")
+    void testRejectsOtherFiles() throws IOException {
+        Path file = Files.writeString(directory.resolve("not-a-snapshot"), "This is not a catalog snapshot");
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CatalogSnapshot.open(file));
+    }
+
+    private CatalogSnapshot write(List<Product> products) throws IOException {
+        Path file = directory.resolve("catalog.snapshot");
+        Assertions.assertEquals(products.size(), CatalogSnapshot.write(file, products::forEach));
+        return CatalogSnapshot.open(file);
+    }
+
+    private static List<Integer> ids(List<Product> products) {
+        return products.stream().map(Product::getId).collect(Collectors.toList());
+    }
+}
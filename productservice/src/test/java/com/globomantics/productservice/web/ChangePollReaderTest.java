@@ -0,0 +1,92 @@
+package com.globomantics.productservice.web;
+
+import com.globomantics.productservice.model.ChangeOperation;
+import com.globomantics.productservice.model.ProductChange;
+import com.globomantics.productservice.service.ProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests that the ChangePollReader queues and merges the reads of woken long polls.
+ */
+class ChangePollReaderTest {
+
+    // One read may run on the bulkhead and one may wait
+    private final DatabaseBulkhead bulkhead = new DatabaseBulkhead(1, 1,
+            new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+
+    @AfterEach
+    void teardown() {
+        bulkhead.shutdown();
+    }
+
+    @Test
+    @DisplayName("A burst of woken polls queues instead of overflowing the bulkhead, and identical reads are merged")
+    void testQueuesAndMergesReads() throws Exception {
+        ProductService productService = mock(ProductService.class);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        }).when(productService).findChangesAfter(1, 10);
+        List<ProductChange> changes = List.of(new ProductChange(8, 1, ChangeOperation.DELETE, null));
+        doReturn(changes).when(productService).findChangesAfter(7, 10);
+        ChangePollReader reader = new ChangePollReader(productService, bulkhead, 1);
+
+        // The first read holds the only slot, so the burst behind it has to wait
+        CompletableFuture<List<ProductChange>> first = reader.read(1, 10);
+        List<CompletableFuture<List<ProductChange>>> burst = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            burst.add(reader.read(7, 10));
+        }
+
+        release.countDown();
+        Assertions.assertEquals(List.of(), first.get(5, TimeUnit.SECONDS));
+        for (CompletableFuture<List<ProductChange>> read : burst) {
+            Assertions.assertEquals(changes, read.get(5, TimeUnit.SECONDS), "No woken poll should be rejected");
+        }
+        verify(productService, times(1)).findChangesAfter(7, 10);
+    }
+
+    @Test
+    @DisplayName("A read that has started is not shared with a poll that arrives later")
+    void testStartedReadIsNotShared() throws Exception {
+        ProductService productService = mock(ProductService.class);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        }).when(productService).findChangesAfter(7, 10);
+        ChangePollReader reader = new ChangePollReader(productService, bulkhead, 1);
+
+        CompletableFuture<List<ProductChange>> first = reader.read(7, 10);
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS), "The first read should have started");
+
+        // The later poll may have been woken by a commit that the running read does not see
+        CompletableFuture<List<ProductChange>> second = reader.read(7, 10);
+        Assertions.assertNotSame(first, second);
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        verify(productService, times(2)).findChangesAfter(7, 10);
+    }
+}
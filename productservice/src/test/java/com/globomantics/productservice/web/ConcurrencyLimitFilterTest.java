@@ -0,0 +1,105 @@
+package com.globomantics.productservice.web;
+
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.service.ProductService;
+import com.globomantics.servicesupport.web.ConcurrencyLimitFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Tests that requests beyond a route's concurrency limit are rejected right away.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = {
+        "products.concurrency.route.getProduct.initial-limit=1",
+        "products.concurrency.route.getProduct.min-limit=1",
+        "products.concurrency.route.getProduct.max-limit=1",
+        "products.concurrency.route.getProduct.reserved-for-writes=0",
+        "products.concurrency.route.getChanges.initial-limit=1",
+        "products.concurrency.route.getChanges.min-limit=1",
+        "products.concurrency.route.getChanges.max-limit=1"
+})
+@AutoConfigureMockMvc
+class ConcurrencyLimitFilterTest {
+
+    @MockBean
+    private ProductService service;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ConcurrencyLimitFilter concurrencyLimitFilter;
+
+    @Test
+    @DisplayName("GET /product/1 - Service Unavailable while the route is at its limit")
+    void testRejectsBeyondLimit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(new Product(1, "Product Name", 10, 1));
+        }).when(service).findById(1);
+        doReturn(List.of()).when(service).findAll();
+
+        // The first request holds the route's only permit until its async processing completes
+        MvcResult inflight = mockMvc.perform(get("/product/1")).andReturn();
+
+        mockMvc.perform(get("/product/1"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+
+        // Other routes have limits of their own
+        mockMvc.perform(asyncDispatch(mockMvc.perform(get("/products")).andReturn()))
+                .andExpect(status().isOk());
+
+        ConcurrencyLimitFilter.RouteStats stats = concurrencyLimitFilter.stats().get("getProduct");
+        Assertions.assertEquals(1, stats.inflight());
+        Assertions.assertEquals(1, stats.rejectedReads());
+
+        release.countDown();
+        mockMvc.perform(asyncDispatch(inflight)).andExpect(status().isOk());
+        Assertions.assertEquals(0, concurrencyLimitFilter.stats().get("getProduct").inflight());
+
+        mockMvc.perform(asyncDispatch(mockMvc.perform(get("/product/1")).andReturn()))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @DisplayName("GET /products/changes - Long polls are not limited")
+    void testLongPollsExcluded() throws Exception {
+        doReturn(new CompletableFuture<Void>()).when(service).nextChange();
+        doReturn(List.of()).when(service).findChangesAfter(0, 100);
+
+        // Both polls wait for a change that does not come, which would exceed the route's limit of one
+        MvcResult first = mockMvc.perform(get("/products/changes?since=0&limit=100&wait=1")).andReturn();
+        MvcResult second = mockMvc.perform(get("/products/changes?since=0&limit=100&wait=1")).andReturn();
+
+        Assertions.assertTrue(first.getRequest().isAsyncStarted());
+        Assertions.assertTrue(second.getRequest().isAsyncStarted());
+        Assertions.assertFalse(concurrencyLimitFilter.stats().containsKey("getChanges"));
+        mockMvc.perform(asyncDispatch(second)).andExpect(status().isOk());
+    }
+}
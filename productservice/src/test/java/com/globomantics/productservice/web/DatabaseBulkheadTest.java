@@ -0,0 +1,47 @@
+package com.globomantics.productservice.web;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the DatabaseBulkhead limits.
+ */
+class DatabaseBulkheadTest {
+
+    @Test
+    @DisplayName("Work beyond the concurrency limit and queue is rejected immediately")
+    void testRejectsWhenFull() throws Exception {
+        // One task may run and one may wait
+        DatabaseBulkhead bulkhead = new DatabaseBulkhead(1, 1,
+                new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> running = bulkhead.submit(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "running";
+        });
+        CompletableFuture<String> queued = bulkhead.submit(() -> "queued");
+
+        // The third task does not fit
+        Assertions.assertThrows(RejectedExecutionException.class, () -> bulkhead.submit(() -> "rejected"));
+
+        // Once the running task finishes, the queued task runs too
+        release.countDown();
+        Assertions.assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+
+        bulkhead.shutdown();
+    }
+}
@@ -0,0 +1,291 @@
+package com.globomantics.productservice.web;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.decoder.BrotliInputStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.service.ProductService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Tests GET /products served from prebuilt, compressed catalog bodies.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+class PrecompressedCatalogTest {
+
+    @TempDir
+    static Path directory;
+
+    @MockBean
+    private ProductService service;
+
+    @SpyBean
+    private PrecompressedCatalog precompressedCatalog;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private static final List<Product> PRODUCTS = List.of(
+            new Product(1, "Product 1", 10, 3),
+            new Product(2, "Product 2", 20, 1));
+
+    private static final String JSON = "[{\"id\":1,\"name\":\"Product 1\",\"quantity\":10,\"version\":3}," +
+            "{\"id\":2,\"name\":\"Product 2\",\"quantity\":20,\"version\":1}]";
+
+    @DynamicPropertySource
+    static void precompressedProperties(DynamicPropertyRegistry registry) {
+        registry.add("products.precompressed.enabled", () -> "true");
+        registry.add("products.precompressed.directory", () -> directory.toString());
+        registry.add("products.precompressed.max-staleness", () -> "0s");
+    }
+
+    @Test
+    @DisplayName("GET /products - Every encoding holds the same catalog, built once per version")
+    void testEncodings() throws Exception {
+        stubCatalog("7");
+
+        Assertions.assertEquals(JSON, new String(body(perform(get("/products")), null), StandardCharsets.UTF_8));
+        Assertions.assertEquals(JSON, new String(body(perform(get("/products")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate")), "gzip"), StandardCharsets.UTF_8));
+        Assertions.assertEquals(JSON, new String(body(perform(get("/products")
+                .header(HttpHeaders.ACCEPT_ENCODING, "deflate")), "deflate"), StandardCharsets.UTF_8));
+        if (Brotli4jLoader.isAvailable()) {
+            Assertions.assertEquals(JSON, new String(body(perform(get("/products")
+                    .header(HttpHeaders.ACCEPT_ENCODING, "gzip, br")), "br"), StandardCharsets.UTF_8));
+        }
+
+        // The catalog was read once and every request after the first was served from the files
+        verify(service, times(1)).streamAll(any());
+        verify(service, never()).findAll();
+    }
+
+    @Test
+    @DisplayName("GET /products - Rebuilt when the catalog changes, Not Modified when it has not")
+    void testCatalogChanges() throws Exception {
+        stubCatalog("8");
+        perform(get("/products")).andExpect(header().string(HttpHeaders.ETAG, "\"8\""));
+
+        perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, "W/\"8\""))
+                .andExpect(status().isNotModified());
+
+        stubCatalog("9");
+        perform(get("/products").header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"9\""));
+        verify(service, times(2)).streamAll(any());
+    }
+
+    @Test
+    @DisplayName("GET /products - Not Modified for a client that holds the stale body still being sent")
+    void testStaleBodyNotModified() throws Exception {
+        stubCatalog("11");
+        perform(get("/products")).andExpect(header().string(HttpHeaders.ETAG, "\"11\""));
+
+        // The catalog has changed, but the body of the previous version is not too stale to send yet
+        stubCatalog("12");
+        doAnswer(invocation -> precompressedCatalog.find("11", invocation.getArgument(1)))
+                .when(precompressedCatalog).find(eq("12"), any());
+        clearInvocations(precompressedCatalog);
+
+        perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, "\"11\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"11\""));
+
+        // The body was never sent, so its lease has to be released or its files could never be deleted
+        verify(precompressedCatalog).release(argThat(body -> body.version().equals("11")));
+    }
+
+    @Test
+    @DisplayName("GET /products - A client that prefers CBOR gets the serialized catalog")
+    void testBinaryEncodingNotPrecompressed() throws Exception {
+        stubCatalog("10");
+        doReturn(PRODUCTS).when(service).findAll();
+
+        perform(get("/products").accept(MediaType.APPLICATION_CBOR, MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_CBOR_VALUE));
+        verify(service, never()).streamAll(any());
+    }
+
+    @Test
+    @DisplayName("The files of a replaced body are only deleted once the requests sending it are done")
+    void testReplacedBodyKeptWhileLeased(@TempDir Path bodies) throws Exception {
+        ProductService productService = mock(ProductService.class);
+        PrecompressedCatalog catalog = new PrecompressedCatalog(productService, new ObjectMapper(), bodies,
+                Duration.ZERO, 6);
+        stubCatalog(productService, "1");
+        PrecompressedCatalog.Body leased = catalog.find("1", "gzip");
+
+        // Two builds replace the leased body, which a request has not started to send yet
+        stubCatalog(productService, "2");
+        catalog.release(catalog.find("2", "gzip"));
+        stubCatalog(productService, "3");
+        catalog.release(catalog.find("3", "gzip"));
+        Assertions.assertTrue(Files.exists(leased.path()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        catalog.transferTo(leased, out);
+        Assertions.assertEquals(leased.length(), out.size());
+        Assertions.assertFalse(Files.exists(leased.path()));
+        try (Stream<Path> files = Files.list(bodies)) {
+            Assertions.assertTrue(files.allMatch(path -> path.getFileName().toString().startsWith("catalog-3.")),
+                    "Only the current body should be left");
+        }
+    }
+
+    @Test
+    @DisplayName("A changed catalog is built again in the background while the old body is still sent")
+    void testRebuildsInBackground(@TempDir Path bodies) throws Exception {
+        ProductService productService = mock(ProductService.class);
+        PrecompressedCatalog catalog = new PrecompressedCatalog(productService, new ObjectMapper(), bodies,
+                Duration.ofMinutes(1), 6);
+        try {
+            stubCatalog(productService, "1");
+            catalog.release(catalog.find("1", null));
+
+            stubCatalog(productService, "2");
+            PrecompressedCatalog.Body stale = catalog.find("2", null);
+            catalog.release(stale);
+            Assertions.assertEquals("1", stale.version());
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            PrecompressedCatalog.Body body;
+            do {
+                Thread.sleep(10);
+                body = catalog.find("2", null);
+                catalog.release(body);
+            } while (!body.version().equals("2") && System.nanoTime() < deadline);
+            Assertions.assertEquals("2", body.version());
+            verify(productService, times(2)).streamAll(any());
+        } finally {
+            catalog.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("The encoding is chosen by quality, then by size")
+    void testChooseEncoding() {
+        Map<PrecompressedCatalog.ContentEncoding, PrecompressedCatalog.Body> all =
+                new EnumMap<>(PrecompressedCatalog.ContentEncoding.class);
+        for (PrecompressedCatalog.ContentEncoding encoding : PrecompressedCatalog.ContentEncoding.values()) {
+            all.put(encoding, null);
+        }
+        Map<PrecompressedCatalog.ContentEncoding, PrecompressedCatalog.Body> noBrotli = new EnumMap<>(all);
+        noBrotli.remove(PrecompressedCatalog.ContentEncoding.BROTLI);
+
+        Assertions.assertEquals(PrecompressedCatalog.ContentEncoding.IDENTITY, PrecompressedCatalog.choose(null, all));
+        Assertions.assertEquals(PrecompressedCatalog.ContentEncoding.GZIP,
+                PrecompressedCatalog.choose("gzip, deflate", all));
+        Assertions.assertEquals(PrecompressedCatalog.ContentEncoding.BROTLI,
+                PrecompressedCatalog.choose("gzip, deflate, br", all));
+        Assertions.assertEquals(PrecompressedCatalog.ContentEncoding.GZIP,
+                PrecompressedCatalog.choose("gzip, deflate, br", noBrotli));
+        Assertions.assertEquals(PrecompressedCatalog.ContentEncoding.DEFLATE,
+                PrecompressedCatalog.choose("br;q=0.2, deflate;q=0.8, gzip;q=0.5", all));
+        Assertions.assertEquals(PrecompressedCatalog.ContentEncoding.BROTLI, PrecompressedCatalog.choose("*", all));
+        Assertions.assertEquals(PrecompressedCatalog.ContentEncoding.IDENTITY,
+                PrecompressedCatalog.choose("gzip;q=0", all));
+    }
+
+    private void stubCatalog(String version) {
+        stubCatalog(service, version);
+    }
+
+    private static void stubCatalog(ProductService productService, String version) {
+        doReturn(version).when(productService).findCatalogVersion();
+        doAnswer(invocation -> {
+            Consumer<Product> consumer = invocation.getArgument(0);
+            PRODUCTS.forEach(consumer);
+            return null;
+        }).when(productService).streamAll(any());
+    }
+
+    /**
+     * Checks the encoding and length of the response and returns its decoded body.
+     */
+    private static byte[] body(ResultActions result, String contentEncoding) throws Exception {
+        MvcResult response = result
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andReturn();
+        Assertions.assertEquals(contentEncoding, response.getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+
+        byte[] content = response.getResponse().getContentAsByteArray();
+        Assertions.assertEquals(content.length, response.getResponse().getContentLength());
+        if (contentEncoding == null) {
+            return content;
+        }
+        try (InputStream in = decode(contentEncoding, new ByteArrayInputStream(content))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static InputStream decode(String contentEncoding, InputStream in) throws IOException {
+        return switch (contentEncoding) {
+            case "gzip" -> new GZIPInputStream(in);
+            case "deflate" -> new InflaterInputStream(in);
+            case "br" -> new BrotliInputStream(in);
+            default -> throw new IllegalArgumentException(contentEncoding);
+        };
+    }
+
+    /**
+     * Performs the request and dispatches the already completed async result.
+     */
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        return mockMvc.perform(asyncDispatch(mockMvc.perform(request).andReturn()));
+    }
+}
@@ -3,18 +3,37 @@ package com.globomantics.productservice.web;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.globomantics.productservice.model.ChangeOperation;
 import com.globomantics.productservice.model.Product;
+import com.globomantics.productservice.model.ProductChange;
+import com.globomantics.productservice.repository.ChangeLogPrunedException;
+import com.globomantics.productservice.repository.StockReservation;
+import com.globomantics.productservice.repository.VersionedWriteResult;
 import com.globomantics.productservice.service.ProductService;
+import com.globomantics.productservice.service.QuantityAdjustmentPendingException;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -22,19 +41,38 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.ResultHandler;
+import org.springframework.test.web.servlet.ResultMatcher;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 @ExtendWith(SpringExtension.class)
 @SpringBootTest
 @AutoConfigureMockMvc
 class ProductControllerTest {
+    private static final MediaType SMILE = new MediaType("application", "x-jackson-smile");
+
     @MockBean
     private ProductService service;
 
+    @SpyBean
+    private DatabaseBulkhead databaseBulkhead;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -46,7 +84,7 @@ class ProductControllerTest {
         doReturn(Optional.of(mockProduct)).when(service).findById(1);
 
         // Execute the GET request
-        mockMvc.perform(get("/product/{id}", 1))
+        perform(get("/product/{id}", 1))
 
                 // Validate the response code and content type
                 .andExpect(status().isOk())
@@ -63,6 +101,27 @@ class ProductControllerTest {
                 .andExpect(jsonPath("$.version", is(1)));
     }
 
+    @Test
+    @DisplayName("GET /product/1 - CBOR")
+    void testGetProductByIdCbor() throws Exception {
+        // Setup our mocked service
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 1))).when(service).findById(1);
+
+        // Execute the GET request, asking for CBOR instead of JSON
+        MvcResult result = perform(get("/product/{id}", 1).accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""))
+                .andReturn();
+
+        // Validate the decoded product
+        Product product = new CBORMapper().readValue(result.getResponse().getContentAsByteArray(), Product.class);
+        Assertions.assertEquals(1, product.getId());
+        Assertions.assertEquals("Product Name", product.getName());
+        Assertions.assertEquals(10, product.getQuantity());
+        Assertions.assertEquals(1, product.getVersion());
+    }
+
     @Test
     @DisplayName("GET /product/1 - Not Found")
     void testGetProductByIdNotFound() throws Exception {
@@ -70,12 +129,293 @@ class ProductControllerTest {
         doReturn(Optional.empty()).when(service).findById(1);
 
         // Execute the GET request
-        mockMvc.perform(get("/product/{id}", 1))
+        perform(get("/product/{id}", 1))
 
                 // Validate that we get a 404 Not Found response
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    @DisplayName("GET /product/1 - Bulkhead full")
+    void testGetProductBulkheadFull() throws Exception {
+        // Setup the bulkhead to reject new work
+        doThrow(new RejectedExecutionException("Bulkhead full")).when(databaseBulkhead).submit(any());
+
+        // Execute the GET request
+        perform(get("/product/{id}", 1))
+
+                // Validate that the request is rejected immediately
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    }
+
+    @Test
+    @DisplayName("GET /product/1 - Not Modified")
+    void testGetProductByIdNotModified() throws Exception {
+        // Setup our mocked service, only the version is looked up
+        doReturn(Optional.of(1)).when(service).findVersionById(1);
+
+        // Execute the GET request with the current eTag
+        perform(get("/product/{id}", 1).header(HttpHeaders.IF_NONE_MATCH, "\"1\""))
+
+                // Validate that we get a 304 Not Modified response without a body
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""))
+                .andExpect(content().string(""));
+
+        // The full product should never have been loaded
+        verify(service, never()).findById(1);
+    }
+
+    @Test
+    @DisplayName("GET /product/1 - Modified")
+    void testGetProductByIdModified() throws Exception {
+        // Setup our mocked service, the product has moved on to version 2
+        doReturn(Optional.of(2)).when(service).findVersionById(1);
+        doReturn(Optional.of(new Product(1, "Product Name", 10, 2))).when(service).findById(1);
+
+        // Execute the GET request with a stale eTag
+        perform(get("/product/{id}", 1).header(HttpHeaders.IF_NONE_MATCH, "\"1\""))
+
+                // Validate that the current product is returned
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2\""))
+                .andExpect(jsonPath("$.version", is(2)));
+    }
+
+    @Test
+    @DisplayName("GET /products?limit=2 - Full page")
+    void testGetProductsPage() throws Exception {
+        // Setup our mocked service
+        Product mockProduct1 = new Product(1, "Product Name", 10, 1);
+        Product mockProduct2 = new Product(2, "Product Name 2", 15, 3);
+        doReturn(Arrays.asList(mockProduct1, mockProduct2)).when(service).findPage(null, 2);
+
+        // Execute the GET request
+        perform(get("/products").param("limit", "2"))
+
+                // Validate the response code and the link to the next page
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.LINK, "</products?after=2&limit=2>; rel=\"next\""))
+
+                // Validate the returned products
+                .andExpect(jsonPath("$.length()", is(2)))
+                .andExpect(jsonPath("$[0].id", is(1)))
+                .andExpect(jsonPath("$[1].id", is(2)));
+    }
+
+    @Test
+    @DisplayName("GET /products/search?q=product name&limit=2 - Full page")
+    void testSearchProducts() throws Exception {
+        // Setup our mocked service
+        Product mockProduct1 = new Product(2, "Product Name", 10, 1);
+        Product mockProduct2 = new Product(1, "Other Product Name", 15, 3);
+        doReturn(Arrays.asList(mockProduct1, mockProduct2)).when(service).search("product name", 0, 2);
+
+        // Execute the GET request
+        perform(get("/products/search").param("q", "product name").param("limit", "2"))
+
+                // Validate the response code and the link to the next page
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.LINK,
+                        "</products/search?q=product%20name&offset=2&limit=2>; rel=\"next\""))
+
+                // Validate that the products are returned in rank order
+                .andExpect(jsonPath("$.length()", is(2)))
+                .andExpect(jsonPath("$[0].id", is(2)))
+                .andExpect(jsonPath("$[1].id", is(1)));
+    }
+
+    @Test
+    @DisplayName("GET /products/search?q= - Bad Request")
+    void testSearchProductsBlankQuery() throws Exception {
+        perform(get("/products/search").param("q", " "))
+                .andExpect(status().isBadRequest());
+
+        verify(service, never()).search(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    @DisplayName("GET /products?after=2&limit=5 - Last page")
+    void testGetProductsLastPage() throws Exception {
+        // Setup our mocked service
+        Product mockProduct = new Product(3, "Product Name 3", 15, 1);
+        doReturn(Arrays.asList(mockProduct)).when(service).findPage(2, 5);
+
+        // Execute the GET request
+        perform(get("/products").param("after", "2").param("limit", "5"))
+
+                // A partial page is the last page, so there is no link to a next page
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.LINK))
+                .andExpect(jsonPath("$.length()", is(1)));
+    }
+
+    @Test
+    @DisplayName("GET /products - Catalog eTag")
+    void testGetProductsETag() throws Exception {
+        // Setup our mocked service
+        doReturn("42").when(service).findCatalogVersion();
+        doReturn(Arrays.asList(new Product(1, "Product Name", 10, 1))).when(service).findAll();
+
+        // Execute the GET request
+        perform(get("/products"))
+
+                // Validate that the response is labelled with the catalog version
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"42\""))
+                .andExpect(jsonPath("$.length()", is(1)));
+    }
+
+    @Test
+    @DisplayName("GET /products?limit=2 - Not Modified")
+    void testGetProductsNotModified() throws Exception {
+        // Setup our mocked service
+        doReturn("42").when(service).findCatalogVersion();
+
+        // Execute the GET request with the eTag of the current catalog
+        perform(get("/products").param("limit", "2").header(HttpHeaders.IF_NONE_MATCH, "\"42\""))
+
+                // Validate the response code and that no products were read
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"42\""))
+                .andExpect(content().string(""));
+
+        verify(service, never()).findPage(any(), eq(2));
+    }
+
+    @Test
+    @DisplayName("GET /products?ids=3,1,2 - Multi-get")
+    void testGetProductsByIds() throws Exception {
+        // Setup our mocked service, returning products in a different order than requested
+        Product mockProduct1 = new Product(1, "Product Name", 10, 1);
+        Product mockProduct3 = new Product(3, "Product Name 3", 15, 1);
+        doReturn(Arrays.asList(mockProduct1, mockProduct3)).when(service).findAllById(any());
+
+        // Execute the GET request
+        perform(get("/products").param("ids", "3,1,2"))
+
+                // Validate that products are in request order and product 2 is reported missing
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.products.length()", is(2)))
+                .andExpect(jsonPath("$.products[0].id", is(3)))
+                .andExpect(jsonPath("$.products[1].id", is(1)))
+                .andExpect(jsonPath("$.missingIds.length()", is(1)))
+                .andExpect(jsonPath("$.missingIds[0]", is(2)));
+    }
+
+    @Test
+    @DisplayName("GET /products?limit=0 - Bad Request")
+    void testGetProductsInvalidLimit() throws Exception {
+        perform(get("/products").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("GET /products/changes?since=5 - Changes")
+    void testGetChanges() throws Exception {
+        // Setup our mocked service
+        doReturn(new CompletableFuture<Void>()).when(service).nextChange();
+        doReturn(Arrays.asList(
+                new ProductChange(6, 1, ChangeOperation.UPDATE, new Product(1, "Product Name", 10, 2)),
+                new ProductChange(7, 2, ChangeOperation.DELETE, null)))
+                .when(service).findChangesAfter(5, 1000);
+
+        // Execute the GET request
+        perform(get("/products/changes").param("since", "5"))
+
+                // Validate the changes and the sequence to continue from
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.lastSequence", is(7)))
+                .andExpect(jsonPath("$.changes.length()", is(2)))
+                .andExpect(jsonPath("$.changes[0].operation", is("UPDATE")))
+                .andExpect(jsonPath("$.changes[0].product.version", is(2)))
+                .andExpect(jsonPath("$.changes[1].operation", is("DELETE")))
+                .andExpect(jsonPath("$.changes[1].product").doesNotExist());
+    }
+
+    @Test
+    @DisplayName("GET /products/changes?since=7 - No changes")
+    void testGetChangesEmpty() throws Exception {
+        // Setup our mocked service
+        doReturn(new CompletableFuture<Void>()).when(service).nextChange();
+        doReturn(List.of()).when(service).findChangesAfter(7, 1000);
+
+        // Without wait the request returns right away, keeping the client's sequence
+        perform(get("/products/changes").param("since", "7"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.lastSequence", is(7)))
+                .andExpect(jsonPath("$.changes.length()", is(0)));
+    }
+
+    @Test
+    @DisplayName("GET /products/changes?since=7 - Pruned changes")
+    void testGetChangesPruned() throws Exception {
+        // Setup our mocked service
+        doReturn(new CompletableFuture<Void>()).when(service).nextChange();
+        doThrow(new ChangeLogPrunedException(7)).when(service).findChangesAfter(7, 1000);
+
+        // The client has missed changes and must reload the catalog
+        perform(get("/products/changes").param("since", "7"))
+                .andExpect(status().isGone());
+    }
+
+    @Test
+    @DisplayName("GET /products/changes?since=7&wait=10 - Long poll")
+    void testGetChangesLongPoll() throws Exception {
+        // Setup our mocked service: nothing has changed yet, then a change is committed
+        CompletableFuture<Void> nextChange = new CompletableFuture<>();
+        doReturn(nextChange).when(service).nextChange();
+        doReturn(List.of())
+                .doReturn(List.of(new ProductChange(8, 1, ChangeOperation.INSERT, new Product(1, "Product Name", 10, 1))))
+                .when(service).findChangesAfter(7, 1000);
+
+        // Execute the GET request, it waits for the next change
+        MvcResult result = mockMvc.perform(get("/products/changes").param("since", "7").param("wait", "10"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Commit a change, which wakes up the request
+        nextChange.complete(null);
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.lastSequence", is(8)))
+                .andExpect(jsonPath("$.changes[0].productId", is(1)));
+    }
+
+    @Test
+    @DisplayName("GET /products/changes?since=-1 - Bad Request")
+    void testGetChangesInvalidSince() throws Exception {
+        perform(get("/products/changes").param("since", "-1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("GET /products/stream - Success")
+    @SuppressWarnings("unchecked")
+    void testStreamProducts() throws Exception {
+        // Setup our mocked service to stream two products
+        doAnswer(invocation -> {
+            Consumer<Product> consumer = invocation.getArgument(0);
+            consumer.accept(new Product(1, "Product Name", 10, 1));
+            consumer.accept(new Product(2, "Product Name 2", 15, 3));
+            return null;
+        }).when(service).streamAll(any());
+
+        // Execute the GET request, the body is written asynchronously
+        MvcResult result = mockMvc.perform(get("/products/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(
+                        "{\"id\":1,\"name\":\"Product Name\",\"quantity\":10,\"version\":1}\n" +
+                        "{\"id\":2,\"name\":\"Product Name 2\",\"quantity\":15,\"version\":3}\n"));
+    }
+
     @Test
     @DisplayName("POST /product - Success")
     void testCreateProduct() throws Exception {
@@ -84,7 +424,7 @@ class ProductControllerTest {
         Product mockProduct = new Product(1, "Product Name", 10, 1);
         doReturn(mockProduct).when(service).save(any());
 
-        mockMvc.perform(post("/product")
+        perform(post("/product")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(asJsonString(postProduct)))
 
@@ -103,16 +443,118 @@ class ProductControllerTest {
                 .andExpect(jsonPath("$.version", is(1)));
     }
 
+    @Test
+    @DisplayName("POST /products/batch - Success")
+    void testCreateProducts() throws Exception {
+        // Setup mocked service
+        Product postProduct1 = new Product("Product Name", 10);
+        Product postProduct2 = new Product("Product Name 2", 15);
+        doReturn(Arrays.asList(new Product(1, "Product Name", 10, 1), new Product(2, "Product Name 2", 15, 1)))
+                .when(service).saveAll(any());
+
+        perform(post("/products/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(asJsonString(Arrays.asList(postProduct1, postProduct2))))
+
+                // Validate the response code and content type
+                .andExpect(status().isCreated())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+
+                // Validate the returned products and their generated ids
+                .andExpect(jsonPath("$.length()", is(2)))
+                .andExpect(jsonPath("$[0].id", is(1)))
+                .andExpect(jsonPath("$[0].name", is("Product Name")))
+                .andExpect(jsonPath("$[1].id", is(2)))
+                .andExpect(jsonPath("$[1].version", is(1)));
+    }
+
+    @Test
+    @DisplayName("POST /products/batch - Smile")
+    void testCreateProductsSmile() throws Exception {
+        // Setup mocked service
+        doAnswer(invocation -> {
+            List<Product> products = invocation.getArgument(0);
+            for (int i = 0; i < products.size(); i++) {
+                products.get(i).setId(i + 1);
+                products.get(i).setVersion(1);
+            }
+            return products;
+        }).when(service).saveAll(any());
+
+        // Send the products as Smile and ask for Smile back
+        SmileMapper smileMapper = new SmileMapper();
+        MvcResult result = perform(post("/products/batch")
+                        .contentType(SMILE)
+                        .accept(SMILE)
+                        .content(smileMapper.writeValueAsBytes(
+                                List.of(new Product("Product Name", 10), new Product("Product Name 2", 15)))))
+                .andExpect(status().isCreated())
+                .andExpect(content().contentType(SMILE))
+                .andReturn();
+
+        // Validate the decoded products and their generated ids
+        List<Product> products = smileMapper.readValue(result.getResponse().getContentAsByteArray(),
+                new TypeReference<List<Product>>() { });
+        Assertions.assertEquals(2, products.size());
+        Assertions.assertEquals(1, products.get(0).getId());
+        Assertions.assertEquals("Product Name 2", products.get(1).getName());
+        Assertions.assertEquals(15, products.get(1).getQuantity());
+    }
+
+    @Test
+    @DisplayName("POST /products/batch - Empty")
+    void testCreateProductsEmpty() throws Exception {
+        perform(post("/products/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("POST /products/import - CSV")
+    void testImportProducts() throws Exception {
+        // Setup mocked service
+        doAnswer(invocation -> invocation.getArgument(0)).when(service).saveAll(any());
+
+        perform(post("/products/import")
+                        .contentType("text/csv")
+                        .content("name,quantity\nProduct Name,10\n,5\nProduct Name 2,15\n"))
+
+                // Validate the response code and content type
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+
+                // Validate the report
+                .andExpect(jsonPath("$.status", is("COMPLETED")))
+                .andExpect(jsonPath("$.rowsImported", is(2)))
+                .andExpect(jsonPath("$.rowsRejected", is(1)))
+                .andExpect(jsonPath("$.rejections[0]", is("row 2: name is required")));
+    }
+
+    @Test
+    @DisplayName("POST /products/import - Unsupported Media Type")
+    void testImportProductsUnsupportedMediaType() throws Exception {
+        perform(post("/products/import")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isUnsupportedMediaType());
+
+        verify(service, never()).saveAll(any());
+    }
+
     @Test
     @DisplayName("PUT /product/1 - Success")
     void testProductPutSuccess() throws Exception {
         // Setup mocked service
         Product putProduct = new Product("Product Name", 10);
-        Product mockProduct = new Product(1, "Product Name", 10, 1);
-        doReturn(Optional.of(mockProduct)).when(service).findById(1);
-        doReturn(true).when(service).update(any());
-
-        mockMvc.perform(put("/product/{id}", 1)
+        doAnswer(invocation -> {
+            // The version is incremented as part of the conditional update
+            Product product = invocation.getArgument(0);
+            product.setVersion(2);
+            return VersionedWriteResult.SUCCESS;
+        }).when(service).updateIfVersion(any(), eq(1));
+
+        perform(put("/product/{id}", 1)
                         .contentType(MediaType.APPLICATION_JSON)
                         .header(HttpHeaders.IF_MATCH, 1)
                         .content(asJsonString(putProduct)))
@@ -137,11 +579,9 @@ class ProductControllerTest {
     void testProductPutVersionMismatch() throws Exception {
         // Setup mocked service
         Product putProduct = new Product("Product Name", 10);
-        Product mockProduct = new Product(1, "Product Name", 10, 2);
-        doReturn(Optional.of(mockProduct)).when(service).findById(1);
-        doReturn(true).when(service).update(any());
+        doReturn(VersionedWriteResult.VERSION_CONFLICT).when(service).updateIfVersion(any(), eq(1));
 
-        mockMvc.perform(put("/product/{id}", 1)
+        perform(put("/product/{id}", 1)
                         .contentType(MediaType.APPLICATION_JSON)
                         .header(HttpHeaders.IF_MATCH, 1)
                         .content(asJsonString(putProduct)))
@@ -155,9 +595,9 @@ class ProductControllerTest {
     void testProductPutNotFound() throws Exception {
         // Setup mocked service
         Product putProduct = new Product("Product Name", 10);
-        doReturn(Optional.empty()).when(service).findById(1);
+        doReturn(VersionedWriteResult.NOT_FOUND).when(service).updateIfVersion(any(), eq(1));
 
-        mockMvc.perform(put("/product/{id}", 1)
+        perform(put("/product/{id}", 1)
                         .contentType(MediaType.APPLICATION_JSON)
                         .header(HttpHeaders.IF_MATCH, 1)
                         .content(asJsonString(putProduct)))
@@ -166,45 +606,261 @@ class ProductControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    @DisplayName("PATCH /product/1/quantity - Success")
+    void testAdjustQuantity() throws Exception {
+        // Setup mocked service
+        doReturn(CompletableFuture.completedFuture(true)).when(service).adjustQuantity(1, -2);
+
+        perform(patch("/product/{id}/quantity", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"delta\": -2}"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    @DisplayName("PATCH /product/1/quantity - Not Found")
+    void testAdjustQuantityNotFound() throws Exception {
+        // Setup mocked service
+        doReturn(CompletableFuture.completedFuture(false)).when(service).adjustQuantity(1, 5);
+
+        perform(patch("/product/{id}/quantity", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"delta\": 5}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("PATCH /product/1/quantity - Flush timed out")
+    void testAdjustQuantityTimeout() throws Exception {
+        // Setup mocked service
+        doReturn(CompletableFuture.failedFuture(new TimeoutException())).when(service).adjustQuantity(1, 5);
+
+        perform(patch("/product/{id}/quantity", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"delta\": 5}"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    }
+
+    @Test
+    @DisplayName("PATCH /product/1/quantity - Flush still running at the timeout")
+    void testAdjustQuantityPending() throws Exception {
+        // Setup mocked service
+        doReturn(CompletableFuture.failedFuture(new QuantityAdjustmentPendingException(1)))
+                .when(service).adjustQuantity(1, 5);
+
+        // The delta will still land, so the client is not invited to retry it
+        perform(patch("/product/{id}/quantity", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"delta\": 5}"))
+                .andExpect(status().isGatewayTimeout())
+                .andExpect(header().doesNotExist(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    @DisplayName("PATCH /product/1/quantity - Delta overflows")
+    void testAdjustQuantityOverflow() throws Exception {
+        // Setup mocked service
+        doReturn(CompletableFuture.failedFuture(new ArithmeticException()))
+                .when(service).adjustQuantity(1, Integer.MAX_VALUE);
+
+        perform(patch("/product/{id}/quantity", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"delta\": " + Integer.MAX_VALUE + "}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("PATCH /product/1/quantity - Missing delta")
+    void testAdjustQuantityMissingDelta() throws Exception {
+        perform(patch("/product/{id}/quantity", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("POST /product/1/reserve - Success")
+    void testReserveProduct() throws Exception {
+        // Setup mocked service
+        doReturn(StockReservation.reserved(List.of(new Product(1, "Product Name", 7, 3))))
+                .when(service).reserve(Map.of(1, 3));
+
+        perform(post("/product/{id}/reserve", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"quantity\": 3}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
+                .andExpect(header().string(HttpHeaders.LOCATION, "/product/1"))
+                .andExpect(jsonPath("$.id", is(1)))
+                .andExpect(jsonPath("$.quantity", is(7)))
+                .andExpect(jsonPath("$.version", is(3)));
+    }
+
+    @Test
+    @DisplayName("POST /product/1/reserve - Insufficient quantity")
+    void testReserveProductInsufficientQuantity() throws Exception {
+        // Setup mocked service
+        doReturn(StockReservation.rejected(StockReservation.Status.INSUFFICIENT_QUANTITY, 1))
+                .when(service).reserve(Map.of(1, 30));
+
+        perform(post("/product/{id}/reserve", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"quantity\": 30}"))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    @DisplayName("POST /product/1/reserve - Not Found")
+    void testReserveProductNotFound() throws Exception {
+        // Setup mocked service
+        doReturn(StockReservation.rejected(StockReservation.Status.NOT_FOUND, 1))
+                .when(service).reserve(Map.of(1, 3));
+
+        perform(post("/product/{id}/reserve", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"quantity\": 3}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("POST /product/1/reserve - Quantity not positive")
+    void testReserveProductBadQuantity() throws Exception {
+        perform(post("/product/{id}/reserve", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"quantity\": 0}"))
+                .andExpect(status().isBadRequest());
+
+        verify(service, never()).reserve(any());
+    }
+
+    @Test
+    @DisplayName("POST /products/reserve - Success, in request order")
+    void testReserveProducts() throws Exception {
+        // Setup mocked service, which returns the products in no particular order
+        doReturn(StockReservation.reserved(
+                List.of(new Product(1, "Product 1", 8, 2), new Product(2, "Product 2", 0, 5))))
+                .when(service).reserve(Map.of(2, 4, 1, 2));
+
+        perform(post("/products/reserve")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"productId\": 2, \"quantity\": 4}, {\"productId\": 1, \"quantity\": 2}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id", is(2)))
+                .andExpect(jsonPath("$[0].quantity", is(0)))
+                .andExpect(jsonPath("$[1].id", is(1)))
+                .andExpect(jsonPath("$[1].quantity", is(8)));
+    }
+
+    @Test
+    @DisplayName("POST /products/reserve - Insufficient quantity")
+    void testReserveProductsInsufficientQuantity() throws Exception {
+        // Setup mocked service
+        doReturn(StockReservation.rejected(StockReservation.Status.INSUFFICIENT_QUANTITY, 2))
+                .when(service).reserve(Map.of(1, 2, 2, 40));
+
+        perform(post("/products/reserve")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"productId\": 1, \"quantity\": 2}, {\"productId\": 2, \"quantity\": 40}]"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.productId", is(2)))
+                .andExpect(jsonPath("$.quantity", is(40)));
+    }
+
+    @Test
+    @DisplayName("POST /products/reserve - Duplicate product")
+    void testReserveProductsDuplicate() throws Exception {
+        perform(post("/products/reserve")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"productId\": 1, \"quantity\": 2}, {\"productId\": 1, \"quantity\": 1}]"))
+                .andExpect(status().isBadRequest());
+
+        verify(service, never()).reserve(any());
+    }
+
     @Test
     @DisplayName("DELETE /product/1 - Success")
     void testProductDeleteSuccess() throws Exception {
-        // Setup mocked product
-        Product mockProduct = new Product(1, "Product Name", 10, 1);
-
         // Setup the mocked service
-        doReturn(Optional.of(mockProduct)).when(service).findById(1);
         doReturn(true).when(service).delete(1);
 
         // Execute our DELETE request
-        mockMvc.perform(delete("/product/{id}", 1))
+        perform(delete("/product/{id}", 1))
                 .andExpect(status().isOk());
     }
 
     @Test
     @DisplayName("DELETE /product/1 - Not Found")
     void testProductDeleteNotFound() throws Exception {
-        // Setup the mocked service
-        doReturn(Optional.empty()).when(service).findById(1);
+        // Setup the mocked service, no row was deleted
+        doReturn(false).when(service).delete(1);
 
         // Execute our DELETE request
-        mockMvc.perform(delete("/product/{id}", 1))
+        perform(delete("/product/{id}", 1))
                 .andExpect(status().isNotFound());
     }
 
     @Test
-    @DisplayName("DELETE /product/1 - Failure")
-    void testProductDeleteFailure() throws Exception {
-        // Setup mocked product
-        Product mockProduct = new Product(1, "Product Name", 10, 1);
+    @DisplayName("DELETE /product/1 with If-Match - Success")
+    void testProductDeleteIfMatchSuccess() throws Exception {
+        // Setup the mocked service
+        doReturn(VersionedWriteResult.SUCCESS).when(service).deleteIfVersion(1, 1);
+
+        // Execute our DELETE request
+        perform(delete("/product/{id}", 1).header(HttpHeaders.IF_MATCH, 1))
+                .andExpect(status().isOk());
+    }
 
+    @Test
+    @DisplayName("DELETE /product/1 with If-Match - Version Mismatch")
+    void testProductDeleteVersionMismatch() throws Exception {
         // Setup the mocked service
-        doReturn(Optional.of(mockProduct)).when(service).findById(1);
-        doReturn(false).when(service).delete(1);
+        doReturn(VersionedWriteResult.VERSION_CONFLICT).when(service).deleteIfVersion(1, 1);
+
+        // Execute our DELETE request
+        perform(delete("/product/{id}", 1).header(HttpHeaders.IF_MATCH, 1))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    @DisplayName("DELETE /product/1 with If-Match - Not Found")
+    void testProductDeleteIfMatchNotFound() throws Exception {
+        // Setup the mocked service
+        doReturn(VersionedWriteResult.NOT_FOUND).when(service).deleteIfVersion(1, 1);
 
         // Execute our DELETE request
-        mockMvc.perform(delete("/product/{id}", 1))
-                .andExpect(status().isInternalServerError());
+        perform(delete("/product/{id}", 1).header(HttpHeaders.IF_MATCH, 1))
+                .andExpect(status().isNotFound());
+    }
+
+    /**
+     * Performs the request and, when the handler completed asynchronously, dispatches its result so that the
+     * final response can be validated.
+     */
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            return mockMvc.perform(asyncDispatch(result));
+        }
+        return new ResultActions() {
+            @Override
+            public ResultActions andExpect(ResultMatcher matcher) throws Exception {
+                matcher.match(result);
+                return this;
+            }
+
+            @Override
+            public ResultActions andDo(ResultHandler handler) throws Exception {
+                handler.handle(result);
+                return this;
+            }
+
+            @Override
+            public MvcResult andReturn() {
+                return result;
+            }
+        };
     }
 
     static String asJsonString(final Object obj) {
@@ -9,4 +9,6 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 public interface ReviewRepository extends MongoRepository<Review, String> {
 
     Optional<Review> findByProductId(Integer productId);
+
+    Optional<ReviewVersion> findVersionById(String id);
 }
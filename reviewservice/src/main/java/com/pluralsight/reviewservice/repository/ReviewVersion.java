@@ -0,0 +1,8 @@
+package com.pluralsight.reviewservice.repository;
+
+/**
+ * A projection of a Review that only reads its version, so that conditional requests do not load the entries.
+ */
+public interface ReviewVersion {
+    Integer getVersion();
+}
@@ -13,6 +13,13 @@ public interface ReviewService {
      */
     Optional<Review> findById(String id);
 
+    /**
+     * Returns only the version of the review with the specified ID.
+     * @param id        The ID of the review whose version to return.
+     * @return          The version of the review with the specified ID.
+     */
+    Optional<Integer> findVersionById(String id);
+
     /**
      * Returns the review with the specified product ID.
      * @param productId The product ID for which to return the review.
@@ -5,6 +5,7 @@ import java.util.Optional;
 
 import com.pluralsight.reviewservice.model.Review;
 import com.pluralsight.reviewservice.repository.ReviewRepository;
+import com.pluralsight.reviewservice.repository.ReviewVersion;
 
 import org.springframework.stereotype.Service;
 
@@ -22,6 +23,11 @@ public class ReviewServiceImpl implements ReviewService {
         return repository.findById(id);
     }
 
+    @Override
+    public Optional<Integer> findVersionById(String id) {
+        return repository.findVersionById(id).map(ReviewVersion::getVersion);
+    }
+
     @Override
     public Optional<Review> findByProductId(Integer productId) {
         return repository.findByProductId(productId);
@@ -13,6 +13,8 @@ import com.pluralsight.reviewservice.service.ReviewService;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -22,6 +24,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 /**
  * A RestController that manages product reviews.
@@ -38,12 +41,25 @@ public class ReviewController {
     }
 
     /**
-     * Returns the review with the specified ID.
-     * @param id    The ID of the review to return.
-     * @return      The review with the specified ID, or 404 Not Found.
+     * Returns the review with the specified ID. When the request carries an If-None-Match header that matches the
+     * review's current version, only the version is read and 304 Not Modified is returned without a body.
+     * @param id        The ID of the review to return.
+     * @param request   The current request, used to evaluate If-None-Match.
+     * @return          The review with the specified ID, 304 Not Modified, or 404 Not Found.
      */
     @GetMapping("/review/{id}")
-    public ResponseEntity<?> getReview(@PathVariable String id) {
+    public ResponseEntity<?> getReview(@PathVariable String id, WebRequest request) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            Optional<Integer> version = service.findVersionById(id);
+            if (version.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            if (request.checkNotModified(Integer.toString(version.get()))) {
+                // The 304 status and ETag header have already been set on the response
+                return null;
+            }
+        }
+
         return service.findById(id)
                 .map(review -> {
                     try {
@@ -81,14 +97,22 @@ public class ReviewController {
      */
     @PostMapping("/review")
     public ResponseEntity<Review> createReview(@RequestBody Review review) {
-        logger.info("Creating new review for product id: {}, {}", review.getProductId(), review);
+        // A review prints all of its entries, so it is only formatted when DEBUG is enabled
+        logger.info("Creating new review for product id: {} with {} entries",
+                review.getProductId(), Unbox.box(review.getEntries().size()));
+        if (logger.isDebugEnabled()) {
+            logger.debug("New review: {}", review);
+        }
 
         // Set the date for any entries in the review to now since we're creating the review now
         review.getEntries().forEach(entry -> entry.setDate(new Date()));
 
         // Save the review to the database
         Review newReview = service.save(review);
-        logger.info("Saved review: {}", newReview);
+        logger.info("Saved review with ID: {}", newReview.getId());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Saved review: {}", newReview);
+        }
 
         try {
             // Build a created response
@@ -109,7 +133,10 @@ public class ReviewController {
      */
     @PostMapping("/review/{productId}/entry")
     public ResponseEntity<Review> addEntryToReview(@PathVariable Integer productId, @RequestBody ReviewEntry entry) {
-        logger.info("Add review entry for product id: {}, {}", productId, entry);
+        logger.info("Add review entry for product id: {}", productId);
+        if (logger.isDebugEnabled()) {
+            logger.debug("New review entry: {}", entry);
+        }
 
         // Retrieve the review for the specified productId; if there is no review, create a new one
         Review review = service.findByProductId(productId).orElseGet(() -> new Review(productId));
@@ -120,7 +147,10 @@ public class ReviewController {
 
         // Save the review
         Review updatedReview = service.save(review);
-        logger.info("Updated review: {}", updatedReview);
+        logger.info("Updated review with ID: {} to version {}", updatedReview.getId(), updatedReview.getVersion());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Updated review: {}", updatedReview);
+        }
 
         try {
             // Build a created response
@@ -3,6 +3,8 @@ package com.pluralsight.reviewservice.web;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
@@ -98,6 +100,24 @@ class ReviewControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    @DisplayName("GET /review/reviewId - Not Modified")
+    void testGetReviewByIdNotModified() throws Exception {
+        // Setup our mocked service, only the version is looked up
+        doReturn(Optional.of(1)).when(service).findVersionById("reviewId");
+
+        // Execute the GET request with the current eTag
+        mockMvc.perform(get("/review/{id}", "reviewId").header(HttpHeaders.IF_NONE_MATCH, "\"1\""))
+
+                // Validate that we get a 304 Not Modified response without a body
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""))
+                .andExpect(content().string(""));
+
+        // The full review should never have been loaded
+        verify(service, never()).findById("reviewId");
+    }
+
     @Test
     @DisplayName("POST /review - Success")
     void testCreateReview() throws Exception {
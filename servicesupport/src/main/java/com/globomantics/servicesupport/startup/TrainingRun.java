@@ -0,0 +1,64 @@
+package com.globomantics.servicesupport.startup;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Makes a run of the application a training run for its class data sharing archive: once the application is
+ * ready it sends itself its training requests, so that the classes of the request path are loaded too, and exits.
+ * The fast-start build profile runs the application this way with -XX:ArchiveClassesAtExit, and the JVM writes
+ * every class loaded until then to the archive, which later starts map instead of loading and verifying the
+ * classes again. Each service registers it when its {service}.startup.training-run property is true.
+ */
+public class TrainingRun implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Logger logger = LogManager.getLogger(TrainingRun.class);
+
+    private final List<String> trainingRequests;
+
+    /**
+     * @param trainingRequests  The paths that the application sends a GET request to once it is ready.
+     */
+    public TrainingRun(List<String> trainingRequests) {
+        this.trainingRequests = trainingRequests;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        ConfigurableApplicationContext context = event.getApplicationContext();
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+
+        HttpClient client = HttpClient.newHttpClient();
+        for (String path : trainingRequests) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                    .timeout(Duration.ofSeconds(30))
+                    .build();
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                logger.info("Training request GET {} returned {}", path, Unbox.box(response.statusCode()));
+            } catch (IOException e) {
+                logger.warn("Training request GET {} failed", path, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        logger.info("Training run complete, exiting");
+        System.exit(SpringApplication.exit(context));
+    }
+}
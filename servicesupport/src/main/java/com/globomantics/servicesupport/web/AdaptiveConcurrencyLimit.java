@@ -0,0 +1,142 @@
+package com.globomantics.servicesupport.web;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrency limit that adapts to the latency of the requests it admits, after the gradient algorithm of
+ * Netflix's concurrency-limits. It keeps a short-term and a long-term average of the round trip time: while the
+ * short-term average stays near the long-term one the limit grows by about its square root, the queue that the
+ * service can absorb, and when requests start to queue up somewhere downstream the short-term average rises and
+ * the limit shrinks by their ratio, down to half per sample. The long-term average drifts towards the current
+ * latency, so a lasting change in the service's latency is eventually accepted as the new normal.
+ *
+ * <p>Writes may use the whole limit, while reads are only admitted up to the share that is not reserved for writes,
+ * so under read overload the writes still get through.
+ */
+class AdaptiveConcurrencyLimit {
+
+    // The number of samples that the short-term and long-term averages of the round trip time cover
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 600;
+
+    // How much of a new limit is blended into the current one at each sample
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final double readShare;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicLong rejectedReads = new AtomicLong();
+    private final AtomicLong rejectedWrites = new AtomicLong();
+
+    // Updated under the lock of this object, read without it
+    private volatile int limit;
+    private double estimatedLimit;
+    private double shortRttNanos;
+    private double longRttNanos;
+
+    /**
+     * @param initialLimit      The limit to start from.
+     * @param minLimit          The smallest the limit may shrink to.
+     * @param maxLimit          The largest the limit may grow to.
+     * @param rttTolerance      How many times the long-term latency the short-term latency may reach before the
+     *                          limit shrinks; at least 1.
+     * @param reservedForWrites The share of the limit that reads may not use, from 0 to 1.
+     */
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double rttTolerance,
+                             double reservedForWrites) {
+        if (minLimit < 1 || maxLimit < minLimit || rttTolerance < 1
+                || reservedForWrites < 0 || reservedForWrites >= 1) {
+            throw new IllegalArgumentException("Invalid concurrency limit settings");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.rttTolerance = rttTolerance;
+        this.readShare = 1 - reservedForWrites;
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Admits a request if the number of requests in flight is below the limit for its priority.
+     *
+     * @param write True for a write, which may use the whole limit, false for a read.
+     * @return      True if the request was admitted and must be released with {@link #release(long)}.
+     */
+    boolean tryAcquire(boolean write) {
+        int currentLimit = write ? limit : Math.max(1, (int) (limit * readShare));
+        while (true) {
+            int current = inflight.get();
+            if (current >= currentLimit) {
+                (write ? rejectedWrites : rejectedReads).incrementAndGet();
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request and adapts the limit to its round trip time.
+     *
+     * @param rttNanos  The time from admitting the request to its completion.
+     */
+    void release(long rttNanos) {
+        sample(Math.max(1, rttNanos), inflight.get());
+        inflight.decrementAndGet();
+    }
+
+    private synchronized void sample(long rttNanos, int inflightAtCompletion) {
+        if (longRttNanos == 0) {
+            shortRttNanos = rttNanos;
+            longRttNanos = rttNanos;
+            return;
+        }
+        shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+        longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+
+        // After a burst of slow requests has passed, let the long-term average recover faster than it rose
+        if (longRttNanos > 2 * shortRttNanos) {
+            longRttNanos *= 0.95;
+        }
+
+        // A service that is not using half its limit gives no evidence that the limit could be higher
+        if (inflightAtCompletion < estimatedLimit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttNanos / shortRttNanos));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        estimatedLimit = Math.max(minLimit,
+                Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+        limit = (int) estimatedLimit;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    int inflight() {
+        return inflight.get();
+    }
+
+    long rejectedReads() {
+        return rejectedReads.get();
+    }
+
+    long rejectedWrites() {
+        return rejectedWrites.get();
+    }
+
+    synchronized double shortRttMillis() {
+        return shortRttNanos / 1e6;
+    }
+
+    synchronized double longRttMillis() {
+        return longRttNanos / 1e6;
+    }
+}
@@ -0,0 +1,25 @@
+package com.globomantics.servicesupport.web;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.Map;
+
+/**
+ * Exposes the concurrency limit, requests in flight and rejections of every route of a ConcurrencyLimitFilter at
+ * {@code /actuator/concurrency}.
+ */
+@Endpoint(id = "concurrency")
+public class ConcurrencyEndpoint {
+
+    private final ConcurrencyLimitFilter concurrencyLimitFilter;
+
+    public ConcurrencyEndpoint(ConcurrencyLimitFilter concurrencyLimitFilter) {
+        this.concurrencyLimitFilter = concurrencyLimitFilter;
+    }
+
+    @ReadOperation
+    public Map<String, ConcurrencyLimitFilter.RouteStats> concurrency() {
+        return concurrencyLimitFilter.stats();
+    }
+}
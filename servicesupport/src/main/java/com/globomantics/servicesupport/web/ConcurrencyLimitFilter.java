@@ -0,0 +1,272 @@
+package com.globomantics.servicesupport.web;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.util.ServletRequestPathUtils;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of requests in flight on each route, the handler method of a controller, with an
+ * AdaptiveConcurrencyLimit, and rejects the requests beyond it right away instead of letting them queue up in
+ * Tomcat. GET and HEAD requests are reads and the rest are writes, which have a share of every limit to themselves.
+ * A rejected request gets {prefix}.rejection-status, 503 Service Unavailable by default, with a Retry-After header.
+ *
+ * <p>The settings are read from the properties under the prefix that the service gives the filter, such as
+ * products.concurrency. Every route starts with the limits in {prefix}.*, which can be overridden per route with
+ * {prefix}.route.{route}.*, where the route is the name of the handler method, such as getProduct. A request stays
+ * in flight until its asynchronous processing, if any, has completed. The limit, the requests in flight and the
+ * rejections of each route are published as metrics and, with a ConcurrencyEndpoint, at
+ * {@code /actuator/concurrency}.
+ *
+ * <p>The routes that the service excludes are not limited at all. These are the routes whose requests are meant to
+ * stay in flight for a long time, such as long polls. Their round trip time says nothing about overload, and
+ * counting them in flight would crowd out the requests that the limit is for.
+ */
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LogManager.getLogger(ConcurrencyLimitFilter.class);
+
+    private static final String PERMIT = ConcurrencyLimitFilter.class.getName() + ".PERMIT";
+
+    private final String prefix;
+    private final Set<String> excludedRoutes;
+    private final ObjectProvider<RequestMappingHandlerMapping> handlerMapping;
+    private final Environment environment;
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final int rejectionStatus;
+    private final Map<String, AdaptiveConcurrencyLimit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * @param prefix            The prefix of the filter's properties, such as products.concurrency.
+     * @param excludedRoutes    The routes that are not limited, by the name of their handler method.
+     * @param handlerMapping    The handler mapping of the service's controllers.
+     * @param environment       The environment to read the properties from.
+     * @param meterRegistry     The registry to publish the metrics of each route to, if there is one.
+     */
+    public ConcurrencyLimitFilter(String prefix,
+                                  Collection<String> excludedRoutes,
+                                  ObjectProvider<RequestMappingHandlerMapping> handlerMapping,
+                                  Environment environment,
+                                  ObjectProvider<MeterRegistry> meterRegistry) {
+        this.prefix = prefix.endsWith(".") ? prefix : prefix + ".";
+        this.excludedRoutes = Set.copyOf(excludedRoutes);
+        this.handlerMapping = handlerMapping;
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+        this.rejectionStatus = environment.getProperty(this.prefix + "rejection-status", Integer.class, 503);
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        // The dispatch that ends asynchronous processing is where a request leaves flight in a mock container
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Permit permit = (Permit) request.getAttribute(PERMIT);
+        if (permit == null) {
+            String route = routeOf(request);
+            if (route == null || excludedRoutes.contains(route)) {
+                // Not handled by a controller, such as the actuator endpoints, or excluded from the limit
+                chain.doFilter(request, response);
+                return;
+            }
+
+            AdaptiveConcurrencyLimit limit = limits.computeIfAbsent(route, this::createLimit);
+            boolean write = !request.getMethod().equals("GET") && !request.getMethod().equals("HEAD");
+            if (!limit.tryAcquire(write)) {
+                logger.debug("Rejecting {} request to {}, {} requests in flight",
+                        request.getMethod(), route, limit.inflight());
+                response.setStatus(rejectionStatus);
+                response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                return;
+            }
+            permit = new Permit(limit, System.nanoTime());
+            request.setAttribute(PERMIT, permit);
+        }
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(permit);
+            } else {
+                permit.release();
+            }
+        }
+    }
+
+    /**
+     * @return  The limit, requests in flight and rejections of every route that has had a request, by route.
+     */
+    public Map<String, RouteStats> stats() {
+        Map<String, RouteStats> stats = new TreeMap<>();
+        limits.forEach((route, limit) -> stats.put(route, new RouteStats(limit.limit(), limit.inflight(),
+                limit.rejectedReads(), limit.rejectedWrites(), limit.shortRttMillis(), limit.longRttMillis())));
+        return stats;
+    }
+
+    /**
+     * Returns the name of the controller method that will handle the request, or null if there is none.
+     */
+    private String routeOf(HttpServletRequest request) {
+        RequestMappingHandlerMapping mapping = handlerMapping.getIfAvailable();
+        if (mapping == null) {
+            return null;
+        }
+        try {
+            HandlerExecutionChain handler = mapping.getHandler(new ProbeRequest(request));
+            return handler != null && handler.getHandler() instanceof HandlerMethod method
+                    ? method.getMethod().getName()
+                    : null;
+        } catch (Exception e) {
+            // The request matches no mapping, Spring MVC will reject it without doing any work
+            return null;
+        }
+    }
+
+    private AdaptiveConcurrencyLimit createLimit(String route) {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(
+                setting(route, "initial-limit", Integer.class, 20),
+                setting(route, "min-limit", Integer.class, 4),
+                setting(route, "max-limit", Integer.class, 200),
+                setting(route, "rtt-tolerance", Double.class, 1.5),
+                setting(route, "reserved-for-writes", Double.class, 0.2));
+
+        meterRegistry.ifAvailable(registry -> {
+            Gauge.builder("http.concurrency.limit", limit, AdaptiveConcurrencyLimit::limit)
+                    .description("The adaptive concurrency limit of a route")
+                    .tag("route", route)
+                    .register(registry);
+            Gauge.builder("http.concurrency.inflight", limit, AdaptiveConcurrencyLimit::inflight)
+                    .description("The requests in flight on a route")
+                    .tag("route", route)
+                    .register(registry);
+            FunctionCounter.builder("http.concurrency.rejected", limit, AdaptiveConcurrencyLimit::rejectedReads)
+                    .description("Requests rejected because their route was at its concurrency limit")
+                    .tags("route", route, "priority", "read")
+                    .register(registry);
+            FunctionCounter.builder("http.concurrency.rejected", limit, AdaptiveConcurrencyLimit::rejectedWrites)
+                    .description("Requests rejected because their route was at its concurrency limit")
+                    .tags("route", route, "priority", "write")
+                    .register(registry);
+        });
+        return limit;
+    }
+
+    private <T> T setting(String route, String name, Class<T> type, T defaultValue) {
+        return environment.getProperty(prefix + "route." + route + "." + name, type,
+                environment.getProperty(prefix + name, type, defaultValue));
+    }
+
+    /**
+     * The limit and load of a route.
+     *
+     * @param limit             The current concurrency limit.
+     * @param inflight          The requests in flight.
+     * @param rejectedReads     The reads rejected since startup.
+     * @param rejectedWrites    The writes rejected since startup.
+     * @param shortRttMillis    The short-term average round trip time.
+     * @param longRttMillis     The long-term average round trip time.
+     */
+    public record RouteStats(int limit, int inflight, long rejectedReads, long rejectedWrites,
+                             double shortRttMillis, double longRttMillis) {
+    }
+
+    /**
+     * Lets the handler mapping look up a request before the DispatcherServlet does, without leaving the request
+     * attributes of the lookup behind on the real request.
+     */
+    private static final class ProbeRequest extends HttpServletRequestWrapper {
+
+        private final Map<String, Object> attributes = new HashMap<>();
+
+        ProbeRequest(HttpServletRequest request) {
+            super(request);
+            ServletRequestPathUtils.parseAndCache(this);
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.containsKey(name) ? attributes.get(name) : super.getAttribute(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            attributes.put(name, null);
+        }
+    }
+
+    /**
+     * An admitted request, released once when the request completes, however its asynchronous processing ends.
+     */
+    private static final class Permit implements AsyncListener {
+
+        private final AdaptiveConcurrencyLimit limit;
+        private final long admittedAt;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(AdaptiveConcurrencyLimit limit, long admittedAt) {
+            this.limit = limit;
+            this.admittedAt = admittedAt;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                limit.release(System.nanoTime() - admittedAt);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // A new round of asynchronous processing registers this listener again when its dispatch ends
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.globomantics.servicesupport.web;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests how the AdaptiveConcurrencyLimit admits requests and adapts to their latency.
+ */
+class AdaptiveConcurrencyLimitTest {
+
+    @Test
+    @DisplayName("Reads are rejected beyond their share of the limit, writes beyond the whole limit")
+    void testWritesHaveReservedShare() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 10, 10, 1.5, 0.2);
+
+        for (int i = 0; i < 8; i++) {
+            Assertions.assertTrue(limit.tryAcquire(false));
+        }
+        Assertions.assertFalse(limit.tryAcquire(false));
+        Assertions.assertTrue(limit.tryAcquire(true));
+        Assertions.assertTrue(limit.tryAcquire(true));
+        Assertions.assertFalse(limit.tryAcquire(true));
+
+        Assertions.assertEquals(10, limit.inflight());
+        Assertions.assertEquals(1, limit.rejectedReads());
+        Assertions.assertEquals(1, limit.rejectedWrites());
+
+        limit.release(TimeUnit.MILLISECONDS.toNanos(1));
+        Assertions.assertEquals(9, limit.inflight());
+        Assertions.assertTrue(limit.tryAcquire(true));
+    }
+
+    @Test
+    @DisplayName("The limit grows while latency holds steady and shrinks when it rises")
+    void testAdaptsToLatency() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 4, 200, 1.5, 0);
+
+        // A busy service with steady latency
+        for (int i = 0; i < 200; i++) {
+            fill(limit);
+            limit.release(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        int grown = limit.limit();
+        Assertions.assertTrue(grown > 20, "The limit grew to " + grown);
+
+        // Requests start to queue up downstream
+        for (int i = 0; i < 50; i++) {
+            fill(limit);
+            limit.release(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        Assertions.assertTrue(limit.limit() < grown / 2, "The limit shrank to " + limit.limit());
+        Assertions.assertTrue(limit.limit() >= 4);
+    }
+
+    @Test
+    @DisplayName("An idle service does not grow its limit")
+    void testIdleDoesNotGrow() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 4, 200, 1.5, 0);
+
+        for (int i = 0; i < 200; i++) {
+            Assertions.assertTrue(limit.tryAcquire(false));
+            limit.release(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        Assertions.assertEquals(20, limit.limit());
+    }
+
+    /**
+     * Admits requests until the limit is reached.
+     */
+    private static void fill(AdaptiveConcurrencyLimit limit) {
+        while (limit.tryAcquire(true)) {
+            // Keep admitting
+        }
+    }
+}